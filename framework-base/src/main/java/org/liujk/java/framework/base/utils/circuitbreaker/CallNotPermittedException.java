@@ -0,0 +1,25 @@
+package org.liujk.java.framework.base.utils.circuitbreaker;
+
+import org.liujk.java.framework.base.api.CommonResultCode;
+import org.liujk.java.framework.base.exceptions.RunException;
+
+/**
+ * 说明：
+ * <p>
+ * 熔断器打开时拒绝调用抛出的异常。快速失败是熔断的目的，异常不收集堆栈，创建开销很小。
+ */
+public class CallNotPermittedException extends RunException {
+
+    private final String circuitBreakerName;
+
+    public CallNotPermittedException (CircuitBreaker circuitBreaker) {
+        super (CommonResultCode.CANNOT_FOUND_SERVICE,
+               "熔断器[" + circuitBreaker.getName () + "]处于" + circuitBreaker.getState () + "状态,拒绝调用",
+               null, false, false);
+        this.circuitBreakerName = circuitBreaker.getName ();
+    }
+
+    public String getCircuitBreakerName () {
+        return circuitBreakerName;
+    }
+}
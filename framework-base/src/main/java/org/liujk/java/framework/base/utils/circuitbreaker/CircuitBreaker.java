@@ -0,0 +1,544 @@
+package org.liujk.java.framework.base.utils.circuitbreaker;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 说明：
+ * <p>
+ * 熔断器：Redis、数据库等依赖的失败率或慢调用率超过阈值时打开，之后的调用直接抛出{@link CallNotPermittedException}，
+ * 不再占用线程等待一个已经出问题的依赖；等待一段时间后进入半开状态放行少量探测调用，按探测结果关闭或重新打开。
+ * <p>
+ * 1、统计数据是按秒划分的环形数组，每个元素记录一秒内的调用数、失败数、慢调用数，只用原子操作更新，没有锁。
+ * 进入新的一秒时用CAS替换对应位置的元素，旧元素上并发的少量计数会丢失，对比例没有影响。
+ * 只有失败或慢调用才重新计算比例，成功的调用只增加计数。
+ * <p>
+ * 2、关闭状态的检查{@link #tryAcquirePermission()}只读取一个volatile字段，方法很小，可以被JIT内联；
+ * 打开、半开状态的处理放在单独的方法中。
+ * <p>
+ * 3、状态和代次打包在同一个volatile字段中，每次状态变化代次加1。许可就是获取时的状态和代次，
+ * 调用结果只计入同一代次，打开、半开之前开始的调用在之后才结束时，结果被忽略。
+ * <p>
+ * 4、半开状态超过maxWaitDurationInHalfOpenMillis探测调用还没有全部完成(例如调用方没有报告结果)时，
+ * 重新打开，等待后以新的代次重新发放探测许可，不会一直停留在半开状态。
+ * <p>
+ * 5、状态变化和拒绝调用通知{@link CircuitBreakerListener}，状态变化同时输出日志。
+ * <p>
+ * 6、监控指标(通过{@link MetricsHolder}注册)：circuitBreaker.state.[name]：状态(0关闭、1打开、2半开)，
+ * circuitBreaker.failureRate.[name]、circuitBreaker.slowCallRate.[name]：统计窗口内的失败率、慢调用率(百分比)，
+ * circuitBreaker.calls.[name]：统计窗口内的调用数，circuitBreaker.notPermitted.[name]：被拒绝的调用数。{@link #close()}时注销。
+ * <p>
+ * 使用方式：
+ * <pre>
+ * CircuitBreaker circuitBreaker = new CircuitBreaker ("redis", new CircuitBreakerConfig ());
+ * String value = circuitBreaker.get (() -> redisTemplate.opsForValue ().get (key));
+ * </pre>
+ *
+ * @see CircuitBreakerConfig
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger (CircuitBreaker.class);
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * {@link #tryAcquirePermission()}不允许调用时的返回值
+     */
+    public static final long NOT_PERMITTED = -1L;
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+    private static final State[] STATES = State.values ();
+
+    /**
+     * status的低2位是状态，其余是代次
+     */
+    private static final int STATE_BITS = 2;
+    private static final long STATE_MASK = (1L << STATE_BITS) - 1;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos (1);
+
+    private final String name;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final long slowCallDurationNanos;
+    private final int minimumNumberOfCalls;
+    private final long waitDurationInOpenNanos;
+    private final int permittedCallsInHalfOpen;
+    private final long maxWaitInHalfOpenNanos;
+    private final Predicate<Throwable> recordFailurePredicate;
+    private final LongSupplier clock;
+    private final long startNanos;
+
+    private final AtomicReferenceArray<Bucket> ring;
+    private volatile HalfOpenRound halfOpenRound = new HalfOpenRound (NOT_PERMITTED, 0, 0L);
+    private volatile long openUntilNanos;
+    /**
+     * 代次 << 2 | 状态
+     */
+    volatile long status = CLOSED;
+
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<> ();
+    private final Counter notPermitted = new Counter ();
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Metric> metricMap = new LinkedHashMap<> ();
+
+    /**
+     * @param name   名称，用作监控名称
+     * @param config 配置
+     */
+    public CircuitBreaker (String name, CircuitBreakerConfig config) {
+        this (name, config, System::nanoTime);
+    }
+
+    CircuitBreaker (String name, CircuitBreakerConfig config, LongSupplier clock) {
+        config.validate ();
+        this.name = Objects.requireNonNull (name);
+        this.failureRateThreshold = config.getFailureRateThreshold ();
+        this.slowCallRateThreshold = config.getSlowCallRateThreshold ();
+        this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos (config.getSlowCallDurationMillis ());
+        this.minimumNumberOfCalls = config.getMinimumNumberOfCalls ();
+        this.waitDurationInOpenNanos = TimeUnit.MILLISECONDS.toNanos (config.getWaitDurationInOpenMillis ());
+        this.permittedCallsInHalfOpen = config.getPermittedCallsInHalfOpen ();
+        this.maxWaitInHalfOpenNanos = TimeUnit.MILLISECONDS.toNanos (config.getMaxWaitDurationInHalfOpenMillis ());
+        this.recordFailurePredicate = config.getRecordFailurePredicate ();
+        this.clock = clock;
+        this.startNanos = clock.getAsLong ();
+        this.ring = new AtomicReferenceArray<> (config.getWindowSeconds ());
+        resetRing ();
+        registerMetrics ();
+    }
+
+    /**
+     * 执行调用，熔断器打开时抛出{@link CallNotPermittedException}
+     *
+     * @throws Exception callable抛出的异常
+     */
+    public <T> T call (Callable<T> callable) throws Exception {
+        long permit = tryAcquirePermission ();
+        if (permit == NOT_PERMITTED) {
+            throw new CallNotPermittedException (this);
+        }
+        long start = clock.getAsLong ();
+        T result;
+        try {
+            result = callable.call ();
+        } catch (Throwable t) {
+            onError (permit, clock.getAsLong () - start, t);
+            throw t;
+        }
+        onSuccess (permit, clock.getAsLong () - start);
+        return result;
+    }
+
+    /**
+     * 执行调用，熔断器打开时抛出{@link CallNotPermittedException}
+     */
+    public <T> T get (Supplier<T> supplier) {
+        long permit = tryAcquirePermission ();
+        if (permit == NOT_PERMITTED) {
+            throw new CallNotPermittedException (this);
+        }
+        long start = clock.getAsLong ();
+        T result;
+        try {
+            result = supplier.get ();
+        } catch (Throwable t) {
+            onError (permit, clock.getAsLong () - start, t);
+            throw t;
+        }
+        onSuccess (permit, clock.getAsLong () - start);
+        return result;
+    }
+
+    public <T> Callable<T> decorateCallable (Callable<T> callable) {
+        Objects.requireNonNull (callable);
+        return () -> call (callable);
+    }
+
+    public <T> Supplier<T> decorateSupplier (Supplier<T> supplier) {
+        Objects.requireNonNull (supplier);
+        return () -> get (supplier);
+    }
+
+    /**
+     * 获取调用许可，用于异步调用，允许时调用结束后必须用返回的许可调用{@link #onSuccess(long, long)}
+     * 或{@link #onError(long, long, Throwable)}
+     *
+     * @return 许可，不允许调用时返回{@link #NOT_PERMITTED}
+     */
+    public long tryAcquirePermission () {
+        long current = status;
+        if ((current & STATE_MASK) == CLOSED) {
+            return current;
+        }
+        return tryAcquirePermissionSlow (current);
+    }
+
+    private long tryAcquirePermissionSlow (long current) {
+        if (stateOf (current) == OPEN) {
+            if (clock.getAsLong () - openUntilNanos < 0) {
+                onNotPermitted ();
+                return NOT_PERMITTED;
+            }
+            if (transition (current, HALF_OPEN)) {
+                // 发布前其他线程看到的是上一轮，代次不同，不会发放许可
+                halfOpenRound = new HalfOpenRound (nextStatus (current, HALF_OPEN), permittedCallsInHalfOpen,
+                                                   clock.getAsLong () + maxWaitInHalfOpenNanos);
+            }
+            current = status;
+        }
+        if (stateOf (current) == HALF_OPEN) {
+            HalfOpenRound round = halfOpenRound;
+            if (round.status == current) {
+                if (round.tryAcquire ()) {
+                    return current;
+                }
+                if (clock.getAsLong () - round.deadlineNanos >= 0) {
+                    // 探测调用迟迟没有全部完成，重新打开，等待后以新的代次重新探测
+                    open (current);
+                }
+            }
+            onNotPermitted ();
+            return NOT_PERMITTED;
+        }
+        return stateOf (current) == CLOSED ? current : tryAcquirePermission ();
+    }
+
+    private void onNotPermitted () {
+        notPermitted.inc ();
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onCallNotPermitted (this);
+            } catch (RuntimeException e) {
+                logger.error ("熔断器[{}]的监听执行失败", name, e);
+            }
+        }
+    }
+
+    /**
+     * 记录一次成功的调用
+     *
+     * @param permit        {@link #tryAcquirePermission()}返回的许可
+     * @param durationNanos 调用耗时
+     */
+    public void onSuccess (long permit, long durationNanos) {
+        record (permit, durationNanos, false);
+    }
+
+    /**
+     * 记录一次失败的调用，不符合recordFailurePredicate的异常按成功记录
+     *
+     * @param permit        {@link #tryAcquirePermission()}返回的许可
+     * @param durationNanos 调用耗时
+     * @param t             异常
+     */
+    public void onError (long permit, long durationNanos, Throwable t) {
+        record (permit, durationNanos, recordFailurePredicate.test (t));
+    }
+
+    private void record (long permit, long durationNanos, boolean failure) {
+        long current = status;
+        if (permit != current) {
+            // 许可来自之前的代次，调用开始后状态已经变化，不再统计
+            return;
+        }
+        boolean slow = durationNanos >= slowCallDurationNanos;
+        int state = stateOf (current);
+        if (state == CLOSED) {
+            long second = currentSecond ();
+            currentBucket (second).record (failure, slow);
+            if (failure || slow) {
+                checkClosed (current, second);
+            }
+        } else if (state == HALF_OPEN) {
+            HalfOpenRound round = halfOpenRound;
+            if (round.status == current && round.bucket.record (failure, slow) == permittedCallsInHalfOpen) {
+                checkHalfOpen (round);
+            }
+        }
+    }
+
+    private void checkClosed (long current, long second) {
+        long calls = 0;
+        long failures = 0;
+        long slowCalls = 0;
+        long oldest = second - ring.length ();
+        for (int i = 0; i < ring.length (); i++) {
+            Bucket bucket = ring.get (i);
+            if (bucket.second > oldest) {
+                calls += bucket.calls;
+                failures += bucket.failures;
+                slowCalls += bucket.slowCalls;
+            }
+        }
+        if (calls >= minimumNumberOfCalls && exceedsThreshold (calls, failures, slowCalls)) {
+            open (current);
+        }
+    }
+
+    private void checkHalfOpen (HalfOpenRound round) {
+        Bucket bucket = round.bucket;
+        if (exceedsThreshold (bucket.calls, bucket.failures, bucket.slowCalls)) {
+            open (round.status);
+        } else if (transition (round.status, CLOSED)) {
+            resetRing ();
+        }
+    }
+
+    private boolean exceedsThreshold (long calls, long failures, long slowCalls) {
+        return failures * 100f / calls >= failureRateThreshold || slowCalls * 100f / calls >= slowCallRateThreshold;
+    }
+
+    private void open (long expected) {
+        // 先写打开时间，其他线程看到打开状态时打开时间已经有效
+        openUntilNanos = clock.getAsLong () + waitDurationInOpenNanos;
+        transition (expected, OPEN);
+    }
+
+    /**
+     * 状态仍为expected(包括代次)时切换到to，代次加1
+     */
+    private boolean transition (long expected, int to) {
+        if (!STATUS.compareAndSet (this, expected, nextStatus (expected, to))) {
+            return false;
+        }
+        State from = STATES[stateOf (expected)];
+        logger.warn ("熔断器[{}]状态变化:{}->{}", name, from, STATES[to]);
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateTransition (this, from, STATES[to]);
+            } catch (RuntimeException e) {
+                logger.error ("熔断器[{}]的监听执行失败", name, e);
+            }
+        }
+        return true;
+    }
+
+    private static int stateOf (long status) {
+        return (int) (status & STATE_MASK);
+    }
+
+    private static long nextStatus (long status, int to) {
+        return (((status >>> STATE_BITS) + 1) << STATE_BITS) | to;
+    }
+
+    private long currentSecond () {
+        return (clock.getAsLong () - startNanos) / NANOS_PER_SECOND;
+    }
+
+    private Bucket currentBucket (long second) {
+        int index = (int) (second % ring.length ());
+        for (; ; ) {
+            Bucket bucket = ring.get (index);
+            if (bucket.second >= second) {
+                return bucket;
+            }
+            Bucket next = new Bucket (second);
+            if (ring.compareAndSet (index, bucket, next)) {
+                return next;
+            }
+        }
+    }
+
+    private void resetRing () {
+        for (int i = 0; i < ring.length (); i++) {
+            ring.set (i, new Bucket (Long.MIN_VALUE));
+        }
+    }
+
+    /**
+     * 强制关闭熔断器并清空统计数据
+     */
+    public void reset () {
+        long current = status;
+        if (stateOf (current) != CLOSED && transition (current, CLOSED)) {
+            resetRing ();
+        }
+    }
+
+    /**
+     * 添加事件监听
+     */
+    public void addListener (CircuitBreakerListener listener) {
+        listeners.add (Objects.requireNonNull (listener));
+    }
+
+    public void removeListener (CircuitBreakerListener listener) {
+        listeners.remove (listener);
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public State getState () {
+        return STATES[stateOf (status)];
+    }
+
+    /**
+     * 统计窗口内的调用数
+     */
+    public long getNumberOfCalls () {
+        return snapshot ()[0];
+    }
+
+    /**
+     * 统计窗口内的失败率(百分比)，没有调用时返回0
+     */
+    public float getFailureRate () {
+        long[] snapshot = snapshot ();
+        return snapshot[0] == 0 ? 0f : snapshot[1] * 100f / snapshot[0];
+    }
+
+    /**
+     * 统计窗口内的慢调用率(百分比)，没有调用时返回0
+     */
+    public float getSlowCallRate () {
+        long[] snapshot = snapshot ();
+        return snapshot[0] == 0 ? 0f : snapshot[2] * 100f / snapshot[0];
+    }
+
+    /**
+     * 被拒绝的调用数
+     */
+    public long getNotPermittedCount () {
+        return notPermitted.getCount ();
+    }
+
+    private long[] snapshot () {
+        long oldest = currentSecond () - ring.length ();
+        long[] snapshot = new long[3];
+        for (int i = 0; i < ring.length (); i++) {
+            Bucket bucket = ring.get (i);
+            if (bucket.second > oldest) {
+                snapshot[0] += bucket.calls;
+                snapshot[1] += bucket.failures;
+                snapshot[2] += bucket.slowCalls;
+            }
+        }
+        return snapshot;
+    }
+
+    private void registerMetrics () {
+        metricMap.put (MetricRegistry.name ("circuitBreaker", "state", name), (Gauge<Integer>) () -> stateOf (status));
+        metricMap.put (MetricRegistry.name ("circuitBreaker", "failureRate", name),
+                       (Gauge<Float>) this::getFailureRate);
+        metricMap.put (MetricRegistry.name ("circuitBreaker", "slowCallRate", name),
+                       (Gauge<Float>) this::getSlowCallRate);
+        metricMap.put (MetricRegistry.name ("circuitBreaker", "calls", name), (Gauge<Long>) this::getNumberOfCalls);
+        metricMap.put (MetricRegistry.name ("circuitBreaker", "notPermitted", name), notPermitted);
+        for (Map.Entry<String, Metric> entry : metricMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * 注销监控指标
+     */
+    public void close () {
+        for (String metricName : metricMap.keySet ()) {
+            metricRegistry.remove (metricName);
+        }
+    }
+
+    @Override
+    public String toString () {
+        return "CircuitBreaker[" + name + ", state = " + getState () + "]";
+    }
+
+    /**
+     * 一轮半开探测：本轮的状态和代次、剩余的探测许可、探测结果和最长等待时间
+     */
+    private static final class HalfOpenRound {
+        private final long status;
+        private final AtomicInteger permits;
+        private final Bucket bucket = new Bucket (0);
+        private final long deadlineNanos;
+
+        HalfOpenRound (long status, int permits, long deadlineNanos) {
+            this.status = status;
+            this.permits = new AtomicInteger (permits);
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        boolean tryAcquire () {
+            for (; ; ) {
+                int current = permits.get ();
+                if (current <= 0) {
+                    return false;
+                }
+                if (permits.compareAndSet (current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一秒内的统计数据
+     */
+    private static final class Bucket {
+        private final long second;
+        volatile long calls;
+        volatile long failures;
+        volatile long slowCalls;
+
+        Bucket (long second) {
+            this.second = second;
+        }
+
+        /**
+         * @return 记录后的调用数
+         */
+        long record (boolean failure, boolean slow) {
+            // 先记录失败和慢调用，读到调用数时对应的失败数已经可见
+            if (failure) {
+                FAILURES.incrementAndGet (this);
+            }
+            if (slow) {
+                SLOW_CALLS.incrementAndGet (this);
+            }
+            return CALLS.incrementAndGet (this);
+        }
+    }
+
+    private static final AtomicLongFieldUpdater<CircuitBreaker> STATUS =
+            AtomicLongFieldUpdater.newUpdater (CircuitBreaker.class, "status");
+    private static final AtomicLongFieldUpdater<Bucket> CALLS =
+            AtomicLongFieldUpdater.newUpdater (Bucket.class, "calls");
+    private static final AtomicLongFieldUpdater<Bucket> FAILURES =
+            AtomicLongFieldUpdater.newUpdater (Bucket.class, "failures");
+    private static final AtomicLongFieldUpdater<Bucket> SLOW_CALLS =
+            AtomicLongFieldUpdater.newUpdater (Bucket.class, "slowCalls");
+}
@@ -0,0 +1,149 @@
+package org.liujk.java.framework.base.utils.circuitbreaker;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 说明：
+ * <p>
+ * 熔断器配置，创建{@link CircuitBreaker}时复制，之后修改不影响已创建的熔断器。
+ * <p>
+ * 1、failureRateThreshold：失败率阈值(百分比)，统计窗口内的失败率大于等于该值时打开，默认50。
+ * <p>
+ * 2、slowCallRateThreshold、slowCallDurationMillis：慢调用率阈值(百分比)和慢调用耗时，
+ * 耗时大于等于slowCallDurationMillis的调用为慢调用，慢调用率大于等于阈值时打开，默认100和1000毫秒。
+ * <p>
+ * 3、windowSeconds、minimumNumberOfCalls：统计窗口的秒数和计算比例需要的最少调用数，默认10秒、20次。
+ * <p>
+ * 4、waitDurationInOpenMillis、permittedCallsInHalfOpen：打开后多长时间进入半开状态，半开状态放行的探测调用数，
+ * 默认10秒、5次。探测调用全部完成后按相同的阈值决定关闭还是重新打开。
+ * maxWaitDurationInHalfOpenMillis：半开状态等待探测调用全部完成的最长时间，超过后重新打开，默认60秒。
+ * <p>
+ * 5、recordFailurePredicate：哪些异常记为失败，默认所有异常，不记为失败的异常按成功统计。
+ */
+public class CircuitBreakerConfig {
+
+    private float failureRateThreshold = 50;
+    private float slowCallRateThreshold = 100;
+    private long slowCallDurationMillis = 1000;
+    private int windowSeconds = 10;
+    private int minimumNumberOfCalls = 20;
+    private long waitDurationInOpenMillis = 10000;
+    private int permittedCallsInHalfOpen = 5;
+    private long maxWaitDurationInHalfOpenMillis = 60000;
+    private Predicate<Throwable> recordFailurePredicate = t -> true;
+
+    void validate () {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+            throw new IllegalArgumentException ("failureRateThreshold必须在(0,100]之间:" + failureRateThreshold);
+        }
+        if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 100) {
+            throw new IllegalArgumentException ("slowCallRateThreshold必须在(0,100]之间:" + slowCallRateThreshold);
+        }
+        if (slowCallDurationMillis <= 0) {
+            throw new IllegalArgumentException ("slowCallDurationMillis必须大于0:" + slowCallDurationMillis);
+        }
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException ("windowSeconds必须大于0:" + windowSeconds);
+        }
+        if (minimumNumberOfCalls <= 0) {
+            throw new IllegalArgumentException ("minimumNumberOfCalls必须大于0:" + minimumNumberOfCalls);
+        }
+        if (waitDurationInOpenMillis <= 0) {
+            throw new IllegalArgumentException ("waitDurationInOpenMillis必须大于0:" + waitDurationInOpenMillis);
+        }
+        if (permittedCallsInHalfOpen <= 0) {
+            throw new IllegalArgumentException ("permittedCallsInHalfOpen必须大于0:" + permittedCallsInHalfOpen);
+        }
+        if (maxWaitDurationInHalfOpenMillis <= 0) {
+            throw new IllegalArgumentException (
+                    "maxWaitDurationInHalfOpenMillis必须大于0:" + maxWaitDurationInHalfOpenMillis);
+        }
+        Objects.requireNonNull (recordFailurePredicate);
+    }
+
+    public float getFailureRateThreshold () {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold (float failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public float getSlowCallRateThreshold () {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold (float slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getSlowCallDurationMillis () {
+        return slowCallDurationMillis;
+    }
+
+    public void setSlowCallDurationMillis (long slowCallDurationMillis) {
+        this.slowCallDurationMillis = slowCallDurationMillis;
+    }
+
+    public void setSlowCallDuration (long duration, TimeUnit unit) {
+        this.slowCallDurationMillis = unit.toMillis (duration);
+    }
+
+    public int getWindowSeconds () {
+        return windowSeconds;
+    }
+
+    public void setWindowSeconds (int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public int getMinimumNumberOfCalls () {
+        return minimumNumberOfCalls;
+    }
+
+    public void setMinimumNumberOfCalls (int minimumNumberOfCalls) {
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    public long getWaitDurationInOpenMillis () {
+        return waitDurationInOpenMillis;
+    }
+
+    public void setWaitDurationInOpenMillis (long waitDurationInOpenMillis) {
+        this.waitDurationInOpenMillis = waitDurationInOpenMillis;
+    }
+
+    public void setWaitDurationInOpen (long duration, TimeUnit unit) {
+        this.waitDurationInOpenMillis = unit.toMillis (duration);
+    }
+
+    public int getPermittedCallsInHalfOpen () {
+        return permittedCallsInHalfOpen;
+    }
+
+    public void setPermittedCallsInHalfOpen (int permittedCallsInHalfOpen) {
+        this.permittedCallsInHalfOpen = permittedCallsInHalfOpen;
+    }
+
+    public long getMaxWaitDurationInHalfOpenMillis () {
+        return maxWaitDurationInHalfOpenMillis;
+    }
+
+    public void setMaxWaitDurationInHalfOpenMillis (long maxWaitDurationInHalfOpenMillis) {
+        this.maxWaitDurationInHalfOpenMillis = maxWaitDurationInHalfOpenMillis;
+    }
+
+    public void setMaxWaitDurationInHalfOpen (long duration, TimeUnit unit) {
+        this.maxWaitDurationInHalfOpenMillis = unit.toMillis (duration);
+    }
+
+    public Predicate<Throwable> getRecordFailurePredicate () {
+        return recordFailurePredicate;
+    }
+
+    public void setRecordFailurePredicate (Predicate<Throwable> recordFailurePredicate) {
+        this.recordFailurePredicate = recordFailurePredicate;
+    }
+}
@@ -0,0 +1,26 @@
+package org.liujk.java.framework.base.utils.circuitbreaker;
+
+/**
+ * 说明：
+ * <p>
+ * 熔断器事件监听，在触发事件的调用线程中同步执行，不要在监听中做耗时操作；监听抛出的异常只记录日志。
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * 状态变化
+     *
+     * @param circuitBreaker 熔断器
+     * @param from           原状态
+     * @param to             新状态
+     */
+    void onStateTransition (CircuitBreaker circuitBreaker, CircuitBreaker.State from, CircuitBreaker.State to);
+
+    /**
+     * 调用被拒绝，熔断器打开时每次调用都会触发
+     *
+     * @param circuitBreaker 熔断器
+     */
+    default void onCallNotPermitted (CircuitBreaker circuitBreaker) {
+    }
+}
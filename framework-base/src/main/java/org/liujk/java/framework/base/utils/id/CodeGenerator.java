@@ -6,18 +6,13 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.liujk.java.framework.base.env.Env;
-import org.liujk.java.framework.base.exceptions.AppException;
 import org.liujk.java.framework.base.utils.lang.IPUtils;
 import org.liujk.java.framework.base.utils.lang.RandomStringUtils;
 import org.liujk.java.framework.base.utils.lang.StringUtils;
-import org.liujk.java.framework.base.utils.security.MD5Utils;
 import org.liujk.java.framework.base.utils.thread.ShutdownHooks;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class CodeGenerator {
@@ -50,16 +45,12 @@ public class CodeGenerator {
     public static final char PADDING_CHAR = '0';
     private static final Logger logger = LoggerFactory
             .getLogger (CodeGenerator.class);
-    /**
-     * 默认物理地址，如果获取mac失败，用此物理地址
-     */
-    private static final String DEFAULT_MAC = "00:00:00:00:00:00";
     private final static char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6',
                                           '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l',
                                           'm', 'n',
                                           'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',};
 
-    private static final char[] INDEX_CHARS = new char[]{'0', '1', '2', '3', '4',
+    static final char[] INDEX_CHARS = new char[]{'0', '1', '2', '3', '4',
                                                          '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f', 'g',
                                                          'h', 'i', 'j', 'k', 'l',
                                                          'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x',
@@ -74,10 +65,6 @@ public class CodeGenerator {
      * 每秒内生成id最大数
      */
     private static final int COUNT_IN_SECOND = 10000000;
-    /**
-     * 从配置中心服务器注册服务时的安全码
-     */
-    private static final String SECURITY_KEY = "pmo-sid-apollo";
     /**
      * 时间缓存
      */
@@ -91,9 +78,7 @@ public class CodeGenerator {
             .forPattern (TIME_FORMAT);
     private static String ccUrl;
     private static String configCenterRegisterUrl = getApolloRegisterUrl ();
-    private static String systemCode;
-    private static String nodeCode;
-    private static Random rand = new Random ();
+    private static volatile boolean registryCreated;
 
     static {
         ShutdownHooks.addShutdownHook (new Runnable () {
@@ -106,6 +91,8 @@ public class CodeGenerator {
 
     public static void setConfigCenterRegisterUrl (String registerUrl) {
         configCenterRegisterUrl = registerUrl;
+        RegistryHolder.REGISTRY.setRegisterUrl (registerUrl);
+        RegistryHolder.REGISTRY.start ();
     }
 
     /**
@@ -158,30 +145,35 @@ public class CodeGenerator {
         return seqNoCode;
     }
 
+    /**
+     * 系统编码，不会等待配置中心注册完成，见{@link NodeCodeRegistry}
+     */
     public static String genSystemCode () {
-        if (systemCode != null) {
-            return systemCode;
-        } else {
-            synchronized (CodeGenerator.class) {
-                if (systemCode == null) {
-                    systemCode = getSystemCodeFormConfigCenter ();
-                }
-            }
-        }
-        return systemCode;
+        return RegistryHolder.REGISTRY.getSystemCode ();
     }
 
+    /**
+     * 节点编码，不会等待配置中心注册完成，见{@link NodeCodeRegistry}
+     */
     public static String genNodeCode () {
-        if (nodeCode != null) {
-            return nodeCode;
-        } else {
-            synchronized (CodeGenerator.class) {
-                if (nodeCode == null) {
-                    nodeCode = getNodeCodeFormConfigCenter ();
-                }
-            }
+        return RegistryHolder.REGISTRY.getNodeCode ();
+    }
+
+    /**
+     * 同一次注册得到的系统编码和节点编码，同时需要两者时使用，避免注册更新时取到不匹配的两个编码
+     */
+    public static NodeCodeRegistry.NodeCodes genNodeCodes () {
+        return RegistryHolder.REGISTRY.getCodes ();
+    }
+
+    public static NodeCodeRegistry getNodeCodeRegistry () {
+        return RegistryHolder.REGISTRY;
+    }
+
+    public static void unregisterNode () {
+        if (registryCreated) {
+            RegistryHolder.REGISTRY.stop ();
         }
-        return nodeCode;
     }
 
     public static DateTime parseTime (String timeStamp) {
@@ -199,146 +191,6 @@ public class CodeGenerator {
         return RandomStringUtils.random (len, INDEX_CHARS);
     }
 
-    private static String getSystemCodeFormConfigCenter () {
-        Map<String, Object> dataMap = new HashMap<> ();
-        String result =  "0000";
-        try {
-            String ip = IPUtils.getFirstNoLoopbackIPV4Address ();
-            ip = ip.substring (ip.lastIndexOf ('.')+1);
-            result =StringUtils.right (result+ip,4);
-        } catch (Exception e) {
-        }
-
-        //TODO 配置中心还未完成
-        //        try {
-        //            result = getDataFromConfigCenter("project/getSystemCode.json", dataMap);
-        //            if (result == null || result.length() != SYSTEM_CODE_LEN) {
-        //                throw Exceptions.newRuntimeException(
-        //                        "从配置中心读取SystemCode长度不对,请联系配置中心开发者,systemCode=" + result);
-        //            }
-        //            logger.info("请求配置中心成功, 获取到system code:{}", result);
-        //        } catch (RuntimeException e) {
-        //            if (isTestEnv()) {
-        //                result = "0000";
-        //                logger.info("测试环境获取系统码失败,使用默认系统码:{}", result);
-        //            } else if ("false".equalsIgnoreCase(System.getProperty("pmo.apollo.enable"))) {
-        //                // 未启用配置中心
-        //                String appName = padding(System.getProperty("pmo.appName"), 4, PADDING_CHAR);
-        //                result = StringUtils.right(appName, 4).toLowerCase();
-        //                logger.info("未启用配置中心,使用默认系统码:{}", result);
-        //
-        //            } else {
-        //                logger.error("获取系统码失败,系统关闭", e);
-        //                System.exit(0);
-        //            }
-        //        }
-        return result;
-    }
-
-    private static String getNodeCodeFormConfigCenter () {
-        Map<String, Object> dataMap = new HashMap<> ();
-        String ip = IPUtils.getFirstNoLoopbackIPV4Address ();
-        String port = Env.getPort ();
-        String ipAndPort = ip + ":" + port;
-        dataMap.put ("ipAndPort", ipAndPort);
-        String result = null;
-
-        //TODO 配置中心还未完成
-        result = getRandomStr (NODE_CODE_LEN);
-
-        //        try {
-        //            result = getDataFromConfigCenter("project/getNodeCode.json", dataMap);
-        //            if (result == null || result.length() != NODE_CODE_LEN) {
-        //                throw Exceptions
-        //                        .newRuntimeException("从Apollo读取NodeCode长度不对,请联系配置中心开发者,NodeCode=" + result);
-        //            }
-        //            logger.info("请求Apollo成功, 获取到node code:{}", result);
-        //        } catch (RuntimeException e) {
-        //            if (isTestEnv()) {
-        //                result = getRandomStr(NODE_CODE_LEN);
-        //                logger.info("测试环境获取节点码失败,使用随机节点码:{}", result);
-        //            } else if ("false".equalsIgnoreCase(System.getProperty("pmo.apollo.enable"))) {
-        //                // 未启用配置中心
-        //                if (StringUtils.isBlank(ip)) {
-        //                    result = getServerID(NODE_CODE_LEN);
-        //                } else {
-        //                    result = padding(ip.substring(ip.lastIndexOf('.') + 1), NODE_CODE_LEN,
-        //                            PADDING_CHAR);
-        //                }
-        //                logger.info("未启用Apollo,使用默认系统码:{}", result);
-        //            } else {
-        //                logger.error("获取节点码失败,系统关闭", e);
-        ////                System.exit(0);
-        //            }
-        //        }
-        return result;
-    }
-
-    public static void unregisterNode () {
-        Map<String, Object> dataMap = new HashMap<> ();
-        String ip = IPUtils.getFirstNoLoopbackIPV4Address ();
-        String port = Env.getPort ();
-        String ipAndPort = ip + ":" + port;
-        dataMap.put ("ipAndPort", ipAndPort);
-
-        //TODO 配置中心还未完成
-
-        //        try {
-        //            String result = getDataFromConfigCenter("project/delNodeCode.json", dataMap);
-        //            logger.info("ID服务取消注册返回结果:{}", result);
-        //        } catch (Exception e) {
-        //            logger.warn("ID服务取消注册失败");
-        //        }
-    }
-
-    private static String getDataFromConfigCenter (String uri, Map<String, Object> dataMap) {
-        // String projectCode = System.getProperty ("pmo.appName");
-        // if (StringUtils.isEmpty (projectCode)) {
-        // projectCode = System.getProperty ("sys.name");
-        // }
-        // if (StringUtils.isEmpty (projectCode)) {
-        // throw Exceptions.newRuntimeException ("系统变量中没有发现配置系统名:pmo.appName或sys.name");
-        // }
-        // int retry = REGISTER_TRY_TIME;
-        // if (isTestEnv ()) {
-        // retry = 1;
-        // }
-        // for (int i = 0; i < retry; i++) {
-        // try {
-        // dataMap.put ("projectCode", projectCode);
-        // dataMap
-        // .put (DigestUtil.SIGN_KEY,
-        // DigestUtil.digest (dataMap, SECURITY_KEY, DigestUtil.DigestALGEnum.MD5));
-        // String url = configCenterRegisterUrl + uri;
-        // logger.info ("注册配置中心，请求数据,url={}", url);
-        // int timeout = 5000;
-        // if (isTestEnv ()) {
-        // timeout = 2000;
-        // }
-        // String data = HttpRequest.post (url, dataMap, false).readTimeout (timeout).connectTimeout
-        // (timeout)
-        // .body ();
-        // logger.info ("注册配置中心,返回数据:{}", data);
-        // JSONObject resultObject = JSON.parseObject (data);
-        // if (resultObject.getString ("success").equals ("true")) {
-        // String result = resultObject.getString ("singleResult");
-        // logger.info ("请求配置中心成功, 获取到数据:{}", result);
-        // return result;
-        // } else {
-        // throw new AppException ("配置中心注册服务返回失败:" + resultObject.getString ("message"));
-        // }
-        // } catch (Exception e) {
-        // logger.error ("请求配置中心注册失败:{}, 将进行第{}次重试", e.getMessage (), i);
-        // }
-        // try {
-        // Thread.sleep (500);
-        // } catch (InterruptedException e) {
-        // logger.warn (e.getMessage ());
-        // }
-        // }
-        throw new AppException ("从配置中心获取返回失败");
-    }
-
     /**
      * 填充字符串
      *
@@ -398,29 +250,19 @@ public class CodeGenerator {
         return url;
     }
 
-    private static boolean isTestEnv () {
-        return !Env.isOnline () && !Env.isPre ();
-    }
-
-    private static String getServerID (int len) {
-        // 随机生成长度为5的serverId
-        return StringUtils.right (MD5Utils.encode (getMAC () + rand.nextInt (100000) + getIp ())
-                                          .substring (5, 12).toUpperCase (), len);
-    }
-
-    private static String getMAC () {
-        String mac;
-        try {
-            mac = IPUtils.getMACAddress ();
-            mac = mac.replace ("-", ":");
-        } catch (Exception e) {
-            mac = DEFAULT_MAC;
-            // logger.info("获取mac失败，使用默认物理地址:{}", mac);
+    /**
+     * 第一次使用编码时才创建注册器，创建过程不访问网络
+     */
+    private static final class RegistryHolder {
+        private static final NodeCodeRegistry REGISTRY = createRegistry ();
+
+        private static NodeCodeRegistry createRegistry () {
+            String ipAndPort = IPUtils.getFirstNoLoopbackIPV4Address () + ":" + Env.getPort ();
+            NodeCodeRegistry registry = new NodeCodeRegistry (ipAndPort, NodeCodeRegistry.defaultLeaseFile (ipAndPort),
+                                                              configCenterRegisterUrl);
+            registry.start ();
+            registryCreated = true;
+            return registry;
         }
-        return mac;
-    }
-
-    private static String getIp () {
-        return IPUtils.getFirstNoLoopbackIPV4Address ();
     }
 }
@@ -5,8 +5,8 @@ package org.liujk.java.framework.base.utils.id;
 import org.liujk.java.framework.base.utils.lang.DateUtils;
 import org.liujk.java.framework.base.utils.lang.StringUtils;
 
-import java.util.Date;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 说明：
@@ -19,18 +19,9 @@ public class GID {
     private static final String DEFAULT_RESERVED = "0000";
     /* 3位32进制 */
     private static final long MAX_INDEX = 32767;
-    private static Random rand = new Random ();
-    private static String $NODE_CODE;
-    private static long index = 1;
-    private static String systemCode;
+    private static final AtomicLong INDEX = new AtomicLong (1);
     private static String $RESERVED_CODE = DEFAULT_RESERVED;
 
-    static {
-        systemCode = CodeGenerator.genSystemCode ();
-        $NODE_CODE = CodeGenerator.padding (CodeGenerator.genNodeCode (), 3,
-                                            CodeGenerator.PADDING_CHAR);
-    }
-
     /**
      * 生成全局唯一ID
      *
@@ -41,28 +32,43 @@ public class GID {
     }
 
     public static String newGid (boolean sign) {
-        Date now = DateUtils.now ();
-        String index = systemCode + DateUtils.formatDate (now, DATE_FORMAT_STRING) + $NODE_CODE + $RESERVED_CODE
-                + getIndex () + CodeGenerator.getRandomStr (sign ? 3 : 4);
-        return sign ? sign (index) : index;
+        NodeCodeRegistry.NodeCodes codes = CodeGenerator.genNodeCodes ();
+        return GidEncoder.current ().encode (DateUtils.currentTimeMillis (), codes.getSystemCode (),
+                                             codes.getNodeCode (), $RESERVED_CODE, getIndex (), sign);
     }
 
-    private static boolean checkSign (String index) {
-        String sign = Integer.toString (index.substring (0, 34).hashCode (), 32);
-        return StringUtils.right (index, 1).toUpperCase ()
-                .equalsIgnoreCase (StringUtils.right (sign, 1));
+    /**
+     * 生成16字节的二进制GID，格式见{@link GidCodec}
+     *
+     * @return 二进制GID
+     */
+    public static byte[] newBinaryGid () {
+        byte[] gid = new byte[GidCodec.BINARY_LEN];
+        newBinaryGid (gid, 0);
+        return gid;
+    }
+
+    public static void newBinaryGid (byte[] dst, int offset) {
+        NodeCodeRegistry.NodeCodes codes = CodeGenerator.genNodeCodes ();
+        GidCodec.encode (DateUtils.currentTimeMillis (), codes.getSystemCode (), codes.getNodeCode (),
+                         $RESERVED_CODE, getIndex (), dst, offset);
     }
 
     /**
-     * 增加校验位
-     *
-     * @param index
+     * 生成二进制GID并写入dst，写入后dst的position前进16个字节
      *
-     * @return
+     * @param dst 目标缓冲区
      */
-    private static String sign (String index) {
-        String sign = Integer.toString (index.hashCode (), 32);
-        return index + StringUtils.right (sign, 1).toUpperCase ();
+    public static void newBinaryGid (ByteBuffer dst) {
+        NodeCodeRegistry.NodeCodes codes = CodeGenerator.genNodeCodes ();
+        GidCodec.encode (DateUtils.currentTimeMillis (), codes.getSystemCode (), codes.getNodeCode (),
+                         $RESERVED_CODE, getIndex (), dst);
+    }
+
+    private static boolean checkSign (String index) {
+        String sign = Integer.toString (index.substring (0, 34).hashCode (), 32);
+        return StringUtils.right (index, 1).toUpperCase ()
+                .equalsIgnoreCase (StringUtils.right (sign, 1));
     }
 
     public static void setReservedCode (String reservedCode) {
@@ -71,24 +77,11 @@ public class GID {
     }
 
     /**
-     * 序号
+     * 序号，在0~MAX_INDEX-1之间循环
      *
      * @return
      */
-    private static String getIndex () {
-        String idx;
-        synchronized ($NODE_CODE) {
-            if (index >= MAX_INDEX) {
-                index = 0;
-            }
-            idx = Long.toString (index++, 32);
-        }
-        if (idx.length () == 1) {
-            return "00" + idx.toLowerCase ();
-        } else if (idx.length () == 2) {
-            return "0" + idx.toLowerCase ();
-        } else {
-            return idx.toLowerCase ();
-        }
+    private static int getIndex () {
+        return (int) (INDEX.getAndIncrement () % MAX_INDEX);
     }
 }
@@ -0,0 +1,426 @@
+package org.liujk.java.framework.base.utils.id;
+
+import org.liujk.java.framework.base.utils.lang.DateUtils;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+
+/**
+ * 说明：
+ * <p>
+ * GID的16字节二进制格式。
+ * <p>
+ * 字符串格式的GID为：系统编码(4) + 时间(yyyyMMddHHmmssSSS) + 节点编码(3) + 保留域(0~6) + 序号(3) + 随机串(4)，
+ * 二进制格式只保存其中能标识一个ID的部分，按大端序排列成128位：
+ * <pre>
+ * | 时间戳毫秒 44位 | 系统编码 21位 | 节点编码 16位 | 序号 15位 | 保留域 32位 |
+ * </pre>
+ * 系统编码、节点编码和保留域按36进制(0~9a~z)转换为整数，不同长度的保留域映射到不重叠的区间。
+ * 随机串和校验位不保存，二进制格式转换回字符串时得到的是原GID去掉随机串后的前缀。
+ * <p>
+ * 时间戳在最高位，所以按无符号字节逐个比较二进制GID就是按时间排序，可以直接作为索引或者Redis的key做范围扫描。
+ * 所有编解码方法直接读写调用方提供的byte[]或{@link ByteBuffer}，不创建中间对象。
+ */
+public final class GidCodec {
+
+    /**
+     * 二进制GID的长度
+     */
+    public static final int BINARY_LEN = 16;
+
+    /**
+     * 按时间排序的二进制GID比较器
+     */
+    public static final Comparator<byte[]> BINARY_TIME_ORDER = new Comparator<byte[]> () {
+        @Override
+        public int compare (byte[] o1, byte[] o2) {
+            return GidCodec.compare (o1, 0, o2, 0);
+        }
+    };
+
+    /**
+     * 按时间排序的字符串GID比较器，时间相同时按原字符串排序
+     */
+    public static final Comparator<String> STRING_TIME_ORDER = new Comparator<String> () {
+        @Override
+        public int compare (String o1, String o2) {
+            for (int i = TIME_OFFSET; i < NODE_OFFSET; i++) {
+                int c = o1.charAt (i) - o2.charAt (i);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return o1.compareTo (o2);
+        }
+    };
+
+    private static final char[] DIGITS = CodeGenerator.INDEX_CHARS;
+
+    /**
+     * 字符串GID中的时间按{@link DateUtils#DEFAULT_TIME_ZONE}格式化
+     */
+    private static final ZoneId ZONE = DateUtils.DEFAULT_TIME_ZONE.toZoneId ();
+
+    private static final int CODE_RADIX = 36;
+
+    private static final int INDEX_RADIX = 32;
+
+    private static final int SYSTEM_LEN = CodeGenerator.SYSTEM_CODE_LEN;
+    private static final int NODE_LEN = CodeGenerator.NODE_CODE_LEN;
+    private static final int INDEX_LEN = 3;
+    private static final int RANDOM_LEN = 4;
+    private static final int MAX_RESERVED_LEN = 6;
+
+    private static final int TIME_OFFSET = SYSTEM_LEN;
+    private static final int NODE_OFFSET = TIME_OFFSET + GID.DATE_FORMAT_STRING.length ();
+    private static final int RESERVED_OFFSET = NODE_OFFSET + NODE_LEN;
+
+    /**
+     * 不含保留域的字符串GID长度
+     */
+    private static final int FIXED_LEN = RESERVED_OFFSET + INDEX_LEN + RANDOM_LEN;
+
+    private static final int TIMESTAMP_BITS = 44;
+    private static final int SYSTEM_BITS = 21;
+    private static final int NODE_BITS = 16;
+    private static final int INDEX_BITS = 15;
+    private static final int RESERVED_BITS = 32;
+
+    private static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+
+    /**
+     * 长度为i的保留域在32位中的起始值，长度为6的保留域从0开始，其他长度依次排在后面
+     */
+    private static final long[] RESERVED_BASE = new long[MAX_RESERVED_LEN + 1];
+
+    static {
+        long base = pow (MAX_RESERVED_LEN);
+        for (int len = 0; len < MAX_RESERVED_LEN; len++) {
+            RESERVED_BASE[len] = base;
+            base += pow (len);
+        }
+        if (base > (1L << RESERVED_BITS)) {
+            throw new IllegalStateException ("保留域超出32位");
+        }
+    }
+
+    private GidCodec () {
+    }
+
+    /**
+     * 编码二进制GID
+     *
+     * @param millis       时间戳
+     * @param systemCode   系统编码
+     * @param nodeCode     节点编码
+     * @param reservedCode 保留域
+     * @param index        序号
+     * @param dst          目标数组
+     * @param offset       写入位置
+     */
+    public static void encode (long millis, String systemCode, String nodeCode, String reservedCode, int index,
+                               byte[] dst, int offset) {
+        long hi = high (millis, parseCode (systemCode, 0, SYSTEM_LEN));
+        long lo = low (systemCode, nodeCode, reservedCode, index);
+        putLong (hi, dst, offset);
+        putLong (lo, dst, offset + 8);
+    }
+
+    /**
+     * 编码二进制GID，写入后dst的position前进16个字节
+     */
+    public static void encode (long millis, String systemCode, String nodeCode, String reservedCode, int index,
+                               ByteBuffer dst) {
+        long hi = high (millis, parseCode (systemCode, 0, SYSTEM_LEN));
+        long lo = low (systemCode, nodeCode, reservedCode, index);
+        putLong (hi, dst);
+        putLong (lo, dst);
+    }
+
+    /**
+     * 字符串GID转换为二进制GID
+     *
+     * @param gid 字符串GID
+     *
+     * @return 16字节的二进制GID
+     */
+    public static byte[] fromString (String gid) {
+        byte[] dst = new byte[BINARY_LEN];
+        fromString (gid, dst, 0);
+        return dst;
+    }
+
+    public static void fromString (String gid, byte[] dst, int offset) {
+        int reservedLen = reservedLength (gid);
+        putLong (high (gid), dst, offset);
+        putLong (low (gid, reservedLen), dst, offset + 8);
+    }
+
+    /**
+     * 字符串GID转换为二进制GID，写入后dst的position前进16个字节
+     */
+    public static void fromString (String gid, ByteBuffer dst) {
+        int reservedLen = reservedLength (gid);
+        putLong (high (gid), dst);
+        putLong (low (gid, reservedLen), dst);
+    }
+
+    /**
+     * 二进制GID转换为字符串，结果是原GID去掉随机串后的部分
+     *
+     * @param src    二进制GID
+     * @param offset 读取位置
+     *
+     * @return 字符串
+     */
+    public static String toString (byte[] src, int offset) {
+        return toString (getLong (src, offset), getLong (src, offset + 8));
+    }
+
+    /**
+     * 二进制GID转换为字符串，读取后src的position前进16个字节
+     */
+    public static String toString (ByteBuffer src) {
+        long hi = getLong (src);
+        long lo = getLong (src);
+        return toString (hi, lo);
+    }
+
+    /**
+     * 从字符串GID中读取时间戳，只解析时间部分
+     */
+    public static long timestamp (String gid) {
+        checkLength (gid);
+        int p = TIME_OFFSET;
+        int year = digits (gid, p, 4);
+        int month = digits (gid, p + 4, 2);
+        int day = digits (gid, p + 6, 2);
+        int hour = digits (gid, p + 8, 2);
+        int minute = digits (gid, p + 10, 2);
+        int second = digits (gid, p + 12, 2);
+        int millis = digits (gid, p + 14, 3);
+        return LocalDateTime.of (year, month, day, hour, minute, second, millis * 1000000)
+                .atZone (ZONE).toInstant ().toEpochMilli ();
+    }
+
+    /**
+     * 从二进制GID中读取时间戳
+     */
+    public static long timestamp (byte[] src, int offset) {
+        return getLong (src, offset) >>> (64 - TIMESTAMP_BITS);
+    }
+
+    /**
+     * 从二进制GID中读取时间戳，不改变src的position
+     */
+    public static long timestamp (ByteBuffer src, int index) {
+        return getLong (src, index) >>> (64 - TIMESTAMP_BITS);
+    }
+
+    /**
+     * 从字符串GID中读取节点编码
+     */
+    public static String nodeCode (String gid) {
+        checkLength (gid);
+        return gid.substring (NODE_OFFSET, RESERVED_OFFSET);
+    }
+
+    /**
+     * 从二进制GID中读取节点编码
+     */
+    public static String nodeCode (byte[] src, int offset) {
+        return new String (codeChars (node (getLong (src, offset + 8)), NODE_LEN));
+    }
+
+    /**
+     * 从二进制GID中读取节点编码，不改变src的position
+     */
+    public static String nodeCode (ByteBuffer src, int index) {
+        return new String (codeChars (node (getLong (src, index + 8)), NODE_LEN));
+    }
+
+    /**
+     * 按无符号字节比较两个二进制GID，即按时间排序
+     */
+    public static int compare (byte[] a, int aOffset, byte[] b, int bOffset) {
+        int c = Long.compareUnsigned (getLong (a, aOffset), getLong (b, bOffset));
+        return c != 0 ? c : Long.compareUnsigned (getLong (a, aOffset + 8), getLong (b, bOffset + 8));
+    }
+
+    private static long high (String gid) {
+        return high (timestamp (gid), parseCode (gid, 0, SYSTEM_LEN));
+    }
+
+    private static long high (long millis, long system) {
+        if (millis < 0 || millis > MAX_TIMESTAMP) {
+            throw new FormatRuntimeException ("时间戳超出范围:" + millis);
+        }
+        return millis << (64 - TIMESTAMP_BITS) | system >>> 1;
+    }
+
+    private static long low (String systemCode, String nodeCode, String reservedCode, int index) {
+        return low (parseCode (systemCode, 0, SYSTEM_LEN), parseCode (nodeCode, 0, NODE_LEN),
+                    index, reserved (reservedCode, 0, reservedCode.length ()));
+    }
+
+    private static long low (String gid, int reservedLen) {
+        int indexOffset = RESERVED_OFFSET + reservedLen;
+        int index = 0;
+        for (int i = 0; i < INDEX_LEN; i++) {
+            index = index * INDEX_RADIX + digit (gid, indexOffset + i, INDEX_RADIX);
+        }
+        return low (parseCode (gid, 0, SYSTEM_LEN), parseCode (gid, NODE_OFFSET, NODE_LEN), index,
+                    reserved (gid, RESERVED_OFFSET, reservedLen));
+    }
+
+    private static long low (long system, long node, int index, long reserved) {
+        if (index < 0 || index >= (1 << INDEX_BITS)) {
+            throw new FormatRuntimeException ("序号超出范围:" + index);
+        }
+        return (system & 1L) << 63 | node << (INDEX_BITS + RESERVED_BITS)
+                | (long) index << RESERVED_BITS | reserved;
+    }
+
+    private static String toString (long hi, long lo) {
+        long system = (hi & ((1L << (SYSTEM_BITS - 1)) - 1)) << 1 | lo >>> 63;
+        long reserved = lo & 0xFFFFFFFFL;
+        int reservedLen = 0;
+        while (reserved < RESERVED_BASE[reservedLen] || reserved >= nextBase (reservedLen)) {
+            if (++reservedLen > MAX_RESERVED_LEN) {
+                throw new FormatRuntimeException ("保留域不合法:" + reserved);
+            }
+        }
+        int index = (int) (lo >>> RESERVED_BITS) & ((1 << INDEX_BITS) - 1);
+
+        char[] buf = new char[FIXED_LEN - RANDOM_LEN + reservedLen];
+        writeCode (system, buf, 0, SYSTEM_LEN);
+        GidEncoder.current ().appendTime (hi >>> (64 - TIMESTAMP_BITS), buf, TIME_OFFSET);
+        writeCode (node (lo), buf, NODE_OFFSET, NODE_LEN);
+        writeCode (reserved - RESERVED_BASE[reservedLen], buf, RESERVED_OFFSET, reservedLen);
+        int p = RESERVED_OFFSET + reservedLen;
+        for (int i = INDEX_LEN - 1; i >= 0; i--) {
+            buf[p + i] = DIGITS[index % INDEX_RADIX];
+            index /= INDEX_RADIX;
+        }
+        return new String (buf);
+    }
+
+    private static long nextBase (int reservedLen) {
+        return reservedLen == MAX_RESERVED_LEN ? pow (MAX_RESERVED_LEN) : RESERVED_BASE[reservedLen] + pow (reservedLen);
+    }
+
+    private static long node (long lo) {
+        return (lo >>> (INDEX_BITS + RESERVED_BITS)) & ((1L << NODE_BITS) - 1);
+    }
+
+    private static long reserved (String value, int offset, int len) {
+        if (len > MAX_RESERVED_LEN) {
+            throw new FormatRuntimeException ("保留域长度不能超过" + MAX_RESERVED_LEN + ":" + value);
+        }
+        return RESERVED_BASE[len] + parseCode (value, offset, len);
+    }
+
+    private static int reservedLength (String gid) {
+        int len = gid.length () - FIXED_LEN;
+        if (len < 0 || len > MAX_RESERVED_LEN) {
+            throw new FormatRuntimeException ("GID格式不正确:" + gid);
+        }
+        return len;
+    }
+
+    private static void checkLength (String gid) {
+        if (gid == null || gid.length () < FIXED_LEN) {
+            throw new FormatRuntimeException ("GID格式不正确:" + gid);
+        }
+    }
+
+    private static long parseCode (String value, int offset, int len) {
+        if (value.length () < offset + len) {
+            throw new FormatRuntimeException ("编码长度不正确:" + value);
+        }
+        long code = 0;
+        for (int i = 0; i < len; i++) {
+            code = code * CODE_RADIX + digit (value, offset + i, CODE_RADIX);
+        }
+        return code;
+    }
+
+    private static int digit (String value, int pos, int radix) {
+        int d = Character.digit (value.charAt (pos), radix);
+        if (d < 0) {
+            throw new FormatRuntimeException ("编码包含非法字符:" + value);
+        }
+        return d;
+    }
+
+    private static int digits (String value, int offset, int len) {
+        int result = 0;
+        for (int i = 0; i < len; i++) {
+            result = result * 10 + digit (value, offset + i, 10);
+        }
+        return result;
+    }
+
+    private static char[] codeChars (long code, int len) {
+        char[] buf = new char[len];
+        writeCode (code, buf, 0, len);
+        return buf;
+    }
+
+    private static void writeCode (long code, char[] buf, int offset, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            buf[offset + i] = DIGITS[(int) (code % CODE_RADIX)];
+            code /= CODE_RADIX;
+        }
+    }
+
+    private static long pow (int n) {
+        long result = 1;
+        for (int i = 0; i < n; i++) {
+            result *= CODE_RADIX;
+        }
+        return result;
+    }
+
+    private static void putLong (long value, byte[] dst, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * 固定按大端序写入，与dst的ByteOrder无关
+     */
+    private static void putLong (long value, ByteBuffer dst) {
+        for (int i = 56; i >= 0; i -= 8) {
+            dst.put ((byte) (value >>> i));
+        }
+    }
+
+    private static long getLong (byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (src[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long getLong (ByteBuffer src) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (src.get () & 0xFF);
+        }
+        return value;
+    }
+
+    private static long getLong (ByteBuffer src, int index) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (src.get (index + i) & 0xFF);
+        }
+        return value;
+    }
+}
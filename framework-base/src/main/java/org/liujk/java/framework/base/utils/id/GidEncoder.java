@@ -0,0 +1,128 @@
+package org.liujk.java.framework.base.utils.id;
+
+import org.liujk.java.framework.base.utils.lang.DateUtils;
+
+import java.util.Calendar;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 说明：
+ * <p>
+ * GID编码器，每个线程持有一个实例，把GID的各个部分直接写入复用的char[]，最终只创建结果字符串。
+ * <p>
+ * 格式化后的时间精确到秒的部分(yyyyMMddHHmmss)会被缓存，只有进入下一秒时才重新计算，毫秒部分每次直接写入。
+ * 生成结果与{@link GID#DATE_FORMAT_STRING}格式化时间后拼接字符串的方式完全一致。
+ */
+final class GidEncoder {
+
+    private static final char[] DIGITS = CodeGenerator.INDEX_CHARS;
+
+    /**
+     * 序号的位数
+     */
+    private static final int INDEX_LEN = 3;
+
+    /**
+     * 序号的进制
+     */
+    private static final int INDEX_RADIX = 32;
+
+    private static final ThreadLocal<GidEncoder> ENCODERS = new ThreadLocal<GidEncoder> () {
+        @Override
+        protected GidEncoder initialValue () {
+            return new GidEncoder ();
+        }
+    };
+
+    private final Calendar calendar = Calendar.getInstance (DateUtils.DEFAULT_TIME_ZONE);
+
+    /**
+     * yyyyMMddHHmmss
+     */
+    private final char[] secondPrefix = new char[14];
+
+    private long cachedSecond = Long.MIN_VALUE;
+
+    private char[] buffer = new char[64];
+
+    private GidEncoder () {
+    }
+
+    static GidEncoder current () {
+        return ENCODERS.get ();
+    }
+
+    /**
+     * 编码GID
+     *
+     * @param millis       当前时间
+     * @param systemCode   系统编码
+     * @param nodeCode     节点编码
+     * @param reservedCode 保留域
+     * @param index        序号，不超过3位32进制
+     * @param sign         是否增加校验位
+     *
+     * @return GID
+     */
+    String encode (long millis, String systemCode, String nodeCode, String reservedCode, int index,
+                   boolean sign) {
+        int length = systemCode.length () + GID.DATE_FORMAT_STRING.length () + nodeCode.length ()
+                + reservedCode.length () + INDEX_LEN + 4;
+        if (buffer.length < length) {
+            buffer = new char[length];
+        }
+        char[] buf = buffer;
+        int pos = append (systemCode, buf, 0);
+        pos = appendTime (millis, buf, pos);
+        pos = append (nodeCode, buf, pos);
+        pos = append (reservedCode, buf, pos);
+        for (int i = INDEX_LEN - 1; i >= 0; i--) {
+            buf[pos + i] = DIGITS[index % INDEX_RADIX];
+            index /= INDEX_RADIX;
+        }
+        pos += INDEX_LEN;
+        ThreadLocalRandom random = ThreadLocalRandom.current ();
+        for (int i = sign ? 3 : 4; i > 0; i--) {
+            buf[pos++] = DIGITS[random.nextInt (DIGITS.length)];
+        }
+        if (sign) {
+            // 与 Integer.toString(String.hashCode(), 32) 的最后一位相同
+            int hash = 0;
+            for (int i = 0; i < pos; i++) {
+                hash = 31 * hash + buf[i];
+            }
+            buf[pos++] = Character.toUpperCase (DIGITS[Math.abs (hash % INDEX_RADIX)]);
+        }
+        return new String (buf, 0, pos);
+    }
+
+    int appendTime (long millis, char[] buf, int pos) {
+        long second = Math.floorDiv (millis, 1000L);
+        if (second != cachedSecond) {
+            calendar.setTimeInMillis (second * 1000L);
+            int p = 0;
+            p = appendDigits (calendar.get (Calendar.YEAR), 4, secondPrefix, p);
+            p = appendDigits (calendar.get (Calendar.MONTH) + 1, 2, secondPrefix, p);
+            p = appendDigits (calendar.get (Calendar.DAY_OF_MONTH), 2, secondPrefix, p);
+            p = appendDigits (calendar.get (Calendar.HOUR_OF_DAY), 2, secondPrefix, p);
+            p = appendDigits (calendar.get (Calendar.MINUTE), 2, secondPrefix, p);
+            appendDigits (calendar.get (Calendar.SECOND), 2, secondPrefix, p);
+            cachedSecond = second;
+        }
+        System.arraycopy (secondPrefix, 0, buf, pos, secondPrefix.length);
+        return appendDigits ((int) Math.floorMod (millis, 1000L), 3, buf, pos + secondPrefix.length);
+    }
+
+    private static int appendDigits (int value, int width, char[] buf, int pos) {
+        for (int i = width - 1; i >= 0; i--) {
+            buf[pos + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + width;
+    }
+
+    private static int append (String value, char[] buf, int pos) {
+        value.getChars (0, value.length (), buf, pos);
+        return pos + value.length ();
+    }
+}
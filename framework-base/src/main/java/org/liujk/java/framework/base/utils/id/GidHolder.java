@@ -21,6 +21,13 @@ public class GidHolder {
         gidThreadLocal.set (gid);
     }
 
+    /**
+     * 清除当前线程的GID
+     */
+    public static void removeGid () {
+        gidThreadLocal.remove ();
+    }
+
     /**
      * 如果当前线程未使用gid，那么创建gid，如果存在就使用存在的
      *
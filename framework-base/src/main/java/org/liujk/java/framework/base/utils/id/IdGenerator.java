@@ -2,7 +2,13 @@ package org.liujk.java.framework.base.utils.id;
 
 import org.apache.commons.lang3.RandomUtils;
 
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 /**
  * <p>
@@ -127,6 +133,33 @@ public class IdGenerator {
         isOr = or;
     }
 
+    /**
+     * 工作机器ID(0~31)
+     *
+     * @return 工作机器ID
+     */
+    public long getWorkerId () {
+        return workerId;
+    }
+
+    /**
+     * 数据中心ID(0~31)
+     *
+     * @return 数据中心ID
+     */
+    public long getDatacenterId () {
+        return datacenterId;
+    }
+
+    /**
+     * 开始时间截
+     *
+     * @return 开始时间截(毫秒)
+     */
+    protected long getTwepoch () {
+        return twepoch;
+    }
+
     /**
      * 获得下一个ID (该方法是线程安全的)
      *
@@ -187,6 +220,95 @@ public class IdGenerator {
         return Long.parseLong (strId1 + strId2);
     }
 
+    /**
+     * 批量获得ID
+     *
+     * @param n ID个数
+     *
+     * @return 按生成顺序排列的n个ID
+     */
+    public long[] nextIds (int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException ("ID个数不能小于0:" + n);
+        }
+        long[] ids = new long[n];
+        fill (ids, 0, n);
+        return ids;
+    }
+
+    /**
+     * 用ID填满数组
+     *
+     * @param dst 目标数组
+     */
+    public void fill (long[] dst) {
+        fill (dst, 0, dst.length);
+    }
+
+    /**
+     * 用ID填充数组的指定区间，整个区间只获取一次锁
+     *
+     * @param dst    目标数组
+     * @param offset 起始下标
+     * @param length 填充个数
+     */
+    public void fill (long[] dst, int offset, int length) {
+        checkRange (dst, offset, length);
+        synchronized (this) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                dst[i] = nextId (this.workerId);
+            }
+        }
+    }
+
+    /**
+     * 无限的ID流，内部按块批量获取ID
+     *
+     * @param batchSize 每次批量获取的ID个数
+     *
+     * @return ID流
+     */
+    public LongStream stream (final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException ("批量获取的ID个数必须大于0:" + batchSize);
+        }
+        PrimitiveIterator.OfLong iterator = new PrimitiveIterator.OfLong () {
+            private final long[] buffer = new long[batchSize];
+            private int position = batchSize;
+
+            @Override
+            public boolean hasNext () {
+                return true;
+            }
+
+            @Override
+            public long nextLong () {
+                if (position == buffer.length) {
+                    fill (buffer, 0, buffer.length);
+                    position = 0;
+                }
+                return buffer[position++];
+            }
+
+            @Override
+            public Long next () {
+                if (!hasNext ()) {
+                    throw new NoSuchElementException ();
+                }
+                return nextLong ();
+            }
+        };
+        return StreamSupport.longStream (Spliterators.spliteratorUnknownSize (
+                iterator, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    protected static void checkRange (long[] dst, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dst.length - length) {
+            throw new IndexOutOfBoundsException (String.format (
+                    "offset=%d, length=%d, array length=%d", offset, length, dst.length));
+        }
+    }
+
     /**
      * 阻塞到下一个毫秒，直到获得新的时间戳
      *
@@ -0,0 +1,464 @@
+package org.liujk.java.framework.base.utils.id;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.enums.CodeMessageable;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 说明：
+ * <p>
+ * 无锁的雪花算法ID生成器，生成的ID与{@link IdGenerator}的位布局(包括{@link #isOr()}的截断方式)完全一致。
+ * <p>
+ * 与{@link IdGenerator}不同，上次生成ID的时间截和毫秒内序列按实例保存，并打包在同一个{@link AtomicLong}中通过CAS更新：<br>
+ * state = (时间截 - 开始时间截) << 12 | 毫秒内序列<br>
+ * 不同数据中心ID/机器ID的实例互不干扰，生成ID的过程不加锁，也不创建任何对象。
+ * <p>
+ * 单个实例每毫秒最多生成4096个ID，序列用尽后自旋到下一毫秒，所以吞吐上限由时钟决定，而不是由锁决定。
+ * <p>
+ * 时钟回拨时的处理方式由{@link ClockBackwardsPolicy}决定，默认与{@link IdGenerator}一样直接抛出异常。
+ * 各策略的处理次数以idgen.*.{metricName}的Counter注册到{@link MetricsHolder}，其中clockBackwards按时钟每回拨一次计数，
+ * borrowed按每借用一个未来的毫秒计数(包括BORROW策略下毫秒内序列溢出时的借用)。
+ */
+public class LockFreeIdGenerator extends IdGenerator {
+
+    /**
+     * 机器id所占的位数
+     */
+    private static final long WORKER_ID_BITS = 5L;
+
+    /**
+     * 数据标识id所占的位数
+     */
+    private static final long DATACENTER_ID_BITS = 5L;
+
+    /**
+     * 序列在id中占的位数
+     */
+    private static final long SEQUENCE_BITS = 12L;
+
+    private static final long MAX_WORKER_ID = -1L ^ (-1L << WORKER_ID_BITS);
+
+    private static final long WORKER_ID_SHIFT = SEQUENCE_BITS;
+
+    private static final long DATACENTER_ID_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS;
+
+    private static final long TIMESTAMP_LEFT_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS + DATACENTER_ID_BITS;
+
+    private static final long SEQUENCE_MASK = -1L ^ (-1L << SEQUENCE_BITS);
+
+    /**
+     * 状态中的回拨标识位，{@link ClockBackwardsPolicy#ROLLBACK_BIT}策略下映射为机器ID的最高位
+     */
+    private static final long ROLLBACK_FLAG = 1L << 62;
+
+    /**
+     * {@link ClockBackwardsPolicy#ROLLBACK_BIT}策略下机器ID可用的掩码，结果是15
+     */
+    private static final long ROLLBACK_WORKER_MASK = MAX_WORKER_ID >>> 1;
+
+    /**
+     * {@link #clockMovedBackwards}返回此值表示需要重新读取状态和时钟
+     */
+    private static final long RETRY = -1L;
+
+    /**
+     * {@link #rollbackTimestamp}为此值表示有线程正在切换回拨标识
+     */
+    private static final long FLIPPING = Long.MIN_VALUE;
+
+    /**
+     * 借满后等待时钟追上时每次park的时间
+     */
+    private static final long BORROW_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos (100L);
+
+    /**
+     * 10的幂，用于不经过字符串完成截断
+     */
+    private static final long[] POW10 = new long[19];
+
+    static {
+        POW10[0] = 1L;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10L;
+        }
+    }
+
+    /**
+     * 上次生成ID的相对时间截与毫秒内序列
+     */
+    private final AtomicLong state = new AtomicLong (0L);
+
+    /**
+     * 读取到的最大相对时钟，借用未来时间截时状态中的时间截会超过它
+     */
+    private final AtomicLong clockHigh = new AtomicLong (0L);
+
+    /**
+     * 已经计入回拨次数的{@link #clockHigh}，同一次回拨只计数一次
+     */
+    private final AtomicLong countedHigh = new AtomicLong (-1L);
+
+    /**
+     * 另一个回拨标识下最后使用的时间截，切换回该标识前时钟必须越过它；
+     * 切换标识前先通过CAS设置为{@link #FLIPPING}，切换后再更新为离开的时间线的时间截，同一时间只有一个线程能切换
+     */
+    private final AtomicLong rollbackTimestamp = new AtomicLong (-1L);
+
+    private volatile ClockBackwardsPolicy clockBackwardsPolicy = ClockBackwardsPolicy.FAIL;
+
+    /**
+     * 可容忍的时钟回拨毫秒数，WAIT和BORROW策略有效
+     */
+    private volatile long maxBackwardsMillis = 10L;
+
+    private String metricName = "LockFreeIdGenerator";
+    private Counter clockBackwardsCounter;
+    private Counter waitedCounter;
+    private Counter borrowedCounter;
+    private Counter rollbackCounter;
+    private Counter rejectedCounter;
+
+    public LockFreeIdGenerator () {
+        super ();
+        initializeMetrics ();
+    }
+
+    public LockFreeIdGenerator (long datacenterId) {
+        super (datacenterId);
+        initializeMetrics ();
+    }
+
+    /**
+     * @param datacenterId 数据中心ID (0~31)
+     * @param workerId     工作ID (0~31)
+     */
+    public LockFreeIdGenerator (long datacenterId, long workerId) {
+        super (datacenterId, workerId);
+        initializeMetrics ();
+    }
+
+    public ClockBackwardsPolicy getClockBackwardsPolicy () {
+        return clockBackwardsPolicy;
+    }
+
+    /**
+     * 设置时钟回拨策略，使用{@link ClockBackwardsPolicy#ROLLBACK_BIT}时机器ID只能为0~15
+     *
+     * @param clockBackwardsPolicy 时钟回拨策略
+     */
+    public void setClockBackwardsPolicy (ClockBackwardsPolicy clockBackwardsPolicy) {
+        if (clockBackwardsPolicy == null) {
+            throw new IllegalArgumentException ("必须指定时钟回拨策略");
+        }
+        this.clockBackwardsPolicy = clockBackwardsPolicy;
+    }
+
+    public long getMaxBackwardsMillis () {
+        return maxBackwardsMillis;
+    }
+
+    public void setMaxBackwardsMillis (long maxBackwardsMillis) {
+        if (maxBackwardsMillis < 0) {
+            throw new IllegalArgumentException ("可容忍的时钟回拨毫秒数不能小于0:" + maxBackwardsMillis);
+        }
+        this.maxBackwardsMillis = maxBackwardsMillis;
+    }
+
+    public String getMetricName () {
+        return metricName;
+    }
+
+    public void setMetricName (String metricName) {
+        this.metricName = metricName;
+        initializeMetrics ();
+    }
+
+    private void initializeMetrics () {
+        MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+        clockBackwardsCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "clockBackwards", metricName));
+        waitedCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "waited", metricName));
+        borrowedCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "borrowed", metricName));
+        rollbackCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "rollback", metricName));
+        rejectedCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "rejected", metricName));
+    }
+
+    /**
+     * 获得下一个ID (该方法是线程安全的，且不加锁)
+     *
+     * @param workerId 工作ID (0~31)
+     *
+     * @return SnowflakeId
+     */
+    @Override
+    public long nextId (long workerId) {
+        return compose (nextState (), workerId & MAX_WORKER_ID);
+    }
+
+    /**
+     * 批量填充ID，每次CAS预留当前毫秒内一段连续的序列，序列用尽后滚动到下一毫秒
+     *
+     * @param dst    目标数组
+     * @param offset 起始下标
+     * @param length 填充个数
+     */
+    @Override
+    public void fill (long[] dst, int offset, int length) {
+        checkRange (dst, offset, length);
+        long workerId = getWorkerId ();
+        int position = offset;
+        int end = offset + length;
+        while (position < end) {
+            long first = reserve (end - position);
+            long last = first + granted (first, end - position) - 1;
+            for (long next = first; next <= last; next++) {
+                dst[position++] = compose (next, workerId);
+            }
+        }
+    }
+
+    /**
+     * 通过CAS推进时间截与毫秒内序列
+     *
+     * @return 推进后的状态
+     */
+    protected long nextState () {
+        return reserve (1);
+    }
+
+    /**
+     * 通过一次CAS在当前毫秒内预留一段连续的序列，预留个数为{@link #granted(long, int)}
+     *
+     * @param count 期望预留的个数
+     *
+     * @return 预留的第一个序列对应的状态
+     */
+    protected long reserve (int count) {
+        for (; ; ) {
+            // 必须先读取状态再读取时钟，保证状态中的时间截不会晚于本次读取的时钟
+            long current = state.get ();
+            long flag = current & ROLLBACK_FLAG;
+            long lastTimestamp = (current ^ flag) >>> SEQUENCE_BITS;
+            long timestamp = timeGen () - getTwepoch ();
+            long high;
+            while (timestamp > (high = clockHigh.get ()) && !clockHigh.compareAndSet (high, timestamp)) {
+                // 其他线程更新了最大时钟，重新比较
+            }
+            long first;
+            if (timestamp > lastTimestamp) {
+                // 时间戳改变，毫秒内序列重置
+                first = flag | (timestamp << SEQUENCE_BITS);
+            } else if (timestamp == lastTimestamp) {
+                if ((current & SEQUENCE_MASK) != SEQUENCE_MASK) {
+                    first = current + 1;
+                } else if (clockBackwardsPolicy == ClockBackwardsPolicy.BORROW && maxBackwardsMillis > 0) {
+                    // 毫秒内序列溢出，借用下一毫秒
+                    first = flag | ((lastTimestamp + 1) << SEQUENCE_BITS);
+                } else {
+                    // 毫秒内序列溢出，让出CPU等待下一个毫秒
+                    Thread.yield ();
+                    continue;
+                }
+            } else {
+                first = clockMovedBackwards (current, lastTimestamp, timestamp);
+                if (first == RETRY) {
+                    continue;
+                }
+            }
+            boolean flipped = ((first ^ current) & ROLLBACK_FLAG) != 0;
+            long rollback = FLIPPING;
+            if (flipped) {
+                // 切换期间其他线程不能按旧的rollbackTimestamp切换回去
+                rollback = rollbackTimestamp.get ();
+                if (rollback == FLIPPING || timestamp <= rollback
+                        || !rollbackTimestamp.compareAndSet (rollback, FLIPPING)) {
+                    continue;
+                }
+            }
+            if (state.compareAndSet (current, first + granted (first, count) - 1)) {
+                if (flipped) {
+                    rollbackTimestamp.set (lastTimestamp);
+                    rollbackCounter.inc ();
+                }
+                long firstTimestamp = (first & ~ROLLBACK_FLAG) >>> SEQUENCE_BITS;
+                if (firstTimestamp > timestamp && firstTimestamp != lastTimestamp) {
+                    borrowedCounter.inc ();
+                }
+                return first;
+            }
+            if (flipped) {
+                // 没有切换，恢复为原来的时间截
+                rollbackTimestamp.set (rollback);
+            }
+        }
+    }
+
+    /**
+     * 时钟回拨时按{@link #clockBackwardsPolicy}计算下一个状态
+     *
+     * @param current       当前状态
+     * @param lastTimestamp 上次生成ID的相对时间截
+     * @param timestamp     当前相对时间截
+     *
+     * @return 下一个状态，或者{@link #RETRY}
+     */
+    private long clockMovedBackwards (long current, long lastTimestamp, long timestamp) {
+        long backwards = lastTimestamp - timestamp;
+        if (isNewBackwardsStep (timestamp)) {
+            clockBackwardsCounter.inc ();
+        }
+        switch (clockBackwardsPolicy) {
+            case WAIT:
+                if (backwards <= maxBackwardsMillis) {
+                    waitedCounter.inc ();
+                    LockSupport.parkNanos (TimeUnit.MILLISECONDS.toNanos (backwards));
+                    return RETRY;
+                }
+                break;
+            case BORROW:
+                if (backwards <= maxBackwardsMillis) {
+                    if ((current & SEQUENCE_MASK) != SEQUENCE_MASK) {
+                        return current + 1;
+                    }
+                    if (backwards < maxBackwardsMillis) {
+                        return (current & ROLLBACK_FLAG) | ((lastTimestamp + 1) << SEQUENCE_BITS);
+                    }
+                    // 已借满，等待时钟追上
+                    LockSupport.parkNanos (BORROW_BACKOFF_NANOS);
+                    return RETRY;
+                }
+                break;
+            case ROLLBACK_BIT:
+                long rollback = rollbackTimestamp.get ();
+                if (rollback == FLIPPING) {
+                    // 其他线程正在切换标识，重新读取状态
+                    Thread.yield ();
+                    return RETRY;
+                }
+                // 另一个标识下的时间线必须已经被越过，否则切换过去会产生重复ID
+                if (timestamp > rollback) {
+                    return ((current & ROLLBACK_FLAG) ^ ROLLBACK_FLAG) | (timestamp << SEQUENCE_BITS);
+                }
+                if (state.get () != current) {
+                    // 其他线程已经切换了标识，按新的状态重新判断
+                    return RETRY;
+                }
+                break;
+            default:
+                break;
+        }
+        rejectedCounter.inc ();
+        throw new FormatRuntimeException (String.format (
+                "Clock moved backwards.  Refusing to generate id for %d milliseconds", backwards));
+    }
+
+    /**
+     * 时钟低于读取到的最大时钟即为回拨，状态中的时间截因借用领先时钟不算回拨；
+     * 同一次回拨期间会多次进入{@link #clockMovedBackwards}，只有第一次返回true
+     *
+     * @param timestamp 当前相对时间截
+     *
+     * @return 是否是新的一次回拨
+     */
+    private boolean isNewBackwardsStep (long timestamp) {
+        long high = clockHigh.get ();
+        if (timestamp >= high) {
+            return false;
+        }
+        long counted = countedHigh.get ();
+        return counted != high && countedHigh.compareAndSet (counted, high);
+    }
+
+    /**
+     * 从first开始实际可预留的个数，不超过当前毫秒剩余的序列
+     */
+    private static int granted (long first, int count) {
+        return (int) Math.min (count, SEQUENCE_MASK + 1 - (first & SEQUENCE_MASK));
+    }
+
+    /**
+     * 移位并通过或运算拼到一起组成64位的ID，并按{@link #isOr()}截断
+     *
+     * @param state    时间截与毫秒内序列
+     * @param workerId 工作ID (0~31)
+     *
+     * @return ID
+     */
+    protected long compose (long state, long workerId) {
+        long flag = state & ROLLBACK_FLAG;
+        if (clockBackwardsPolicy == ClockBackwardsPolicy.ROLLBACK_BIT) {
+            workerId = (workerId & ROLLBACK_WORKER_MASK) | (flag == 0 ? 0 : ROLLBACK_WORKER_MASK + 1);
+        }
+        long id = (((state ^ flag) >>> SEQUENCE_BITS) << TIMESTAMP_LEFT_SHIFT)
+                | (getDatacenterId () << DATACENTER_ID_SHIFT)
+                | (workerId << WORKER_ID_SHIFT)
+                | (state & SEQUENCE_MASK);
+        return isOr () ? id : truncate (id);
+    }
+
+    /**
+     * 与{@link IdGenerator}中"保留第1位，去掉第2~4位十进制数字"的字符串处理等价的算术实现
+     *
+     * @param id 原始ID
+     *
+     * @return 截断后的ID
+     */
+    static long truncate (long id) {
+        int digits = 1;
+        while (digits < POW10.length && id >= POW10[digits]) {
+            digits++;
+        }
+        if (digits <= 4) {
+            return id / POW10[digits - 1];
+        }
+        long tail = POW10[digits - 4];
+        return (id / POW10[digits - 1]) * tail + id % tail;
+    }
+
+    /**
+     * 时钟回拨策略
+     */
+    public static enum ClockBackwardsPolicy implements CodeMessageable {
+        /**
+         * 直接抛出异常
+         */
+        FAIL ("Fail", "时钟回拨时拒绝生成ID"),
+
+        /**
+         * 回拨不超过maxBackwardsMillis时，park等待时钟追上
+         */
+        WAIT ("Wait", "等待时钟追上后继续生成ID"),
+
+        /**
+         * 回拨不超过maxBackwardsMillis时，继续使用上次的时间截和剩余序列，用完后借用下一毫秒
+         */
+        BORROW ("Borrow", "借用未来的时间截继续生成ID"),
+
+        /**
+         * 把机器ID的最高位作为回拨标识，回拨时翻转标识并按当前时钟继续生成ID
+         */
+        ROLLBACK_BIT ("RollbackBit", "翻转机器ID中的回拨位继续生成ID");
+
+        private final String code;
+        private final String message;
+
+        ClockBackwardsPolicy (String code, String message) {
+            this.code = code;
+            this.message = message;
+        }
+
+        @Override
+        public String getCode () {
+            return code;
+        }
+
+        @Override
+        public String getMessage () {
+            return message;
+        }
+    }
+}
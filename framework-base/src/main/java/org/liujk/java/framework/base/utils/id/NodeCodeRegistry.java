@@ -0,0 +1,405 @@
+package org.liujk.java.framework.base.utils.id;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.liujk.java.framework.base.exceptions.AppException;
+import org.liujk.java.framework.base.utils.lang.IPUtils;
+import org.liujk.java.framework.base.utils.lang.StringUtils;
+import org.liujk.java.framework.base.utils.thread.MonitoredExecutors;
+import org.liujk.java.framework.base.utils.thread.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 系统编码和节点编码的注册器。
+ * <p>
+ * 启动时不访问网络：优先使用本地租约文件中上一次注册得到的编码，没有租约文件时使用IP和MAC地址计算出的编码。
+ * 配置了配置中心地址时，在后台线程中向配置中心注册并定期续约，注册成功后更新当前编码并写回租约文件，
+ * 所以配置中心缓慢或不可用时只影响续约，不会阻塞服务启动和第一次生成GID。
+ * <p>
+ * 系统编码和节点编码保存在同一个不可变的{@link NodeCodes}中整体替换，通过{@link #getCodes()}读取时两者总是来自同一次注册。
+ * <p>
+ * 租约文件默认为{@code ${user.home}/.gid/<ip>_<port>.lease}，可以通过系统参数{@value #LEASE_FILE_KEY}指定。
+ */
+public class NodeCodeRegistry {
+
+    /**
+     * 租约文件路径的系统参数
+     */
+    public static final String LEASE_FILE_KEY = "pmo.gid.leaseFile";
+
+    /**
+     * 默认续约间隔
+     */
+    public static final long DEFAULT_RENEW_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis (5);
+
+    private static final Logger logger = LoggerFactory.getLogger (NodeCodeRegistry.class);
+
+    private static final String DEFAULT_MAC = "00:00:00:00:00:00";
+
+    private static final char[] DIGITS = CodeGenerator.INDEX_CHARS;
+
+    private static final String SYSTEM_CODE_KEY = "systemCode";
+    private static final String NODE_CODE_KEY = "nodeCode";
+    private static final String IP_AND_PORT_KEY = "ipAndPort";
+    private static final String LEASE_TIME_KEY = "leaseTime";
+
+    private final String ipAndPort;
+    private final File leaseFile;
+    private volatile String registerUrl;
+    private volatile int timeoutMillis = 2000;
+    private volatile long renewIntervalMillis = DEFAULT_RENEW_INTERVAL_MILLIS;
+
+    private volatile NodeCodes codes;
+    private volatile boolean registered;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param ipAndPort   当前节点的标识
+     * @param leaseFile   租约文件
+     * @param registerUrl 配置中心地址，为空时只使用本地编码
+     */
+    public NodeCodeRegistry (String ipAndPort, File leaseFile, String registerUrl) {
+        this.ipAndPort = ipAndPort;
+        this.leaseFile = leaseFile;
+        this.registerUrl = registerUrl;
+        if (!loadLease ()) {
+            this.codes = new NodeCodes (fallbackSystemCode (), fallbackNodeCode (ipAndPort));
+            logger.info ("未找到可用的GID租约,使用本机编码,{}", codes);
+        }
+    }
+
+    /**
+     * 默认的租约文件
+     *
+     * @param ipAndPort 当前节点的标识
+     *
+     * @return 租约文件
+     */
+    public static File defaultLeaseFile (String ipAndPort) {
+        String path = System.getProperty (LEASE_FILE_KEY);
+        if (StringUtils.isNotBlank (path)) {
+            return new File (path);
+        }
+        String name = ipAndPort.replaceAll ("[^A-Za-z0-9.\\-]", "_") + ".lease";
+        return new File (new File (System.getProperty ("user.home"), ".gid"), name);
+    }
+
+    /**
+     * 开始后台注册和续约，没有配置配置中心地址时什么也不做
+     */
+    public synchronized void start () {
+        if (scheduler != null || StringUtils.isBlank (registerUrl)) {
+            return;
+        }
+        scheduler = MonitoredExecutors.newSingleThreadScheduledExecutor (
+                new NamedThreadFactory ("GidNodeCodeRegistry", true));
+        scheduler.scheduleWithFixedDelay (new Runnable () {
+            @Override
+            public void run () {
+                renew ();
+            }
+        }, 0, renewIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止续约，并向配置中心取消注册
+     */
+    public synchronized void stop () {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow ();
+        scheduler = null;
+        if (registered) {
+            try {
+                String result = request ("project/delNodeCode.json");
+                logger.info ("GID节点取消注册返回结果:{}", result);
+            } catch (Exception e) {
+                logger.warn ("GID节点取消注册失败:{}", e.getMessage ());
+            }
+            registered = false;
+        }
+    }
+
+    /**
+     * 向配置中心注册一次，成功后更新编码并写入租约文件
+     *
+     * @return 是否成功
+     */
+    public boolean renew () {
+        String url = registerUrl;
+        if (StringUtils.isBlank (url)) {
+            return false;
+        }
+        try {
+            String newSystemCode = request ("project/getSystemCode.json");
+            String newNodeCode = request ("project/getNodeCode.json");
+            checkCode (newSystemCode, CodeGenerator.SYSTEM_CODE_LEN, SYSTEM_CODE_KEY);
+            checkCode (newNodeCode, CodeGenerator.NODE_CODE_LEN, NODE_CODE_KEY);
+            NodeCodes current = codes;
+            NodeCodes renewed = new NodeCodes (newSystemCode, newNodeCode);
+            if (!renewed.equals (current)) {
+                logger.info ("GID编码变更,{}->{}", current, renewed);
+            }
+            codes = renewed;
+            registered = true;
+            storeLease (renewed);
+            return true;
+        } catch (Exception e) {
+            logger.warn ("GID节点注册失败,继续使用当前编码,{},原因:{}", codes, e.getMessage ());
+            return false;
+        }
+    }
+
+    /**
+     * 当前的系统编码和节点编码，需要同时使用两者时应当只调用一次此方法
+     */
+    public NodeCodes getCodes () {
+        return codes;
+    }
+
+    public String getSystemCode () {
+        return codes.getSystemCode ();
+    }
+
+    public String getNodeCode () {
+        return codes.getNodeCode ();
+    }
+
+    public boolean isRegistered () {
+        return registered;
+    }
+
+    public File getLeaseFile () {
+        return leaseFile;
+    }
+
+    public void setRegisterUrl (String registerUrl) {
+        this.registerUrl = registerUrl;
+    }
+
+    public void setTimeoutMillis (int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void setRenewIntervalMillis (long renewIntervalMillis) {
+        this.renewIntervalMillis = renewIntervalMillis;
+    }
+
+    /**
+     * 读取租约文件，租约文件不属于当前节点或者内容不合法时不使用
+     */
+    private boolean loadLease () {
+        if (leaseFile == null || !leaseFile.isFile ()) {
+            return false;
+        }
+        Properties properties = new Properties ();
+        try (Reader reader = Files.newBufferedReader (leaseFile.toPath (), StandardCharsets.UTF_8)) {
+            properties.load (reader);
+            if (!ipAndPort.equals (properties.getProperty (IP_AND_PORT_KEY))) {
+                logger.info ("GID租约文件不属于当前节点,忽略:{}", leaseFile);
+                return false;
+            }
+            String leaseSystemCode = properties.getProperty (SYSTEM_CODE_KEY);
+            String leaseNodeCode = properties.getProperty (NODE_CODE_KEY);
+            checkCode (leaseSystemCode, CodeGenerator.SYSTEM_CODE_LEN, SYSTEM_CODE_KEY);
+            checkCode (leaseNodeCode, CodeGenerator.NODE_CODE_LEN, NODE_CODE_KEY);
+            this.codes = new NodeCodes (leaseSystemCode, leaseNodeCode);
+            logger.info ("使用GID租约文件{},{},租约时间:{}", leaseFile, codes, properties.getProperty (LEASE_TIME_KEY));
+            return true;
+        } catch (Exception e) {
+            logger.warn ("读取GID租约文件{}失败:{}", leaseFile, e.getMessage ());
+            return false;
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免进程退出时留下不完整的租约文件
+     */
+    private void storeLease (NodeCodes codes) {
+        if (leaseFile == null) {
+            return;
+        }
+        Properties properties = new Properties ();
+        properties.setProperty (IP_AND_PORT_KEY, ipAndPort);
+        properties.setProperty (SYSTEM_CODE_KEY, codes.getSystemCode ());
+        properties.setProperty (NODE_CODE_KEY, codes.getNodeCode ());
+        properties.setProperty (LEASE_TIME_KEY, String.valueOf (System.currentTimeMillis ()));
+        try {
+            File dir = leaseFile.getAbsoluteFile ().getParentFile ();
+            Files.createDirectories (dir.toPath ());
+            File tmp = File.createTempFile (leaseFile.getName (), ".tmp", dir);
+            try (Writer writer = Files.newBufferedWriter (tmp.toPath (), StandardCharsets.UTF_8)) {
+                properties.store (writer, "GID node lease");
+            }
+            Files.move (tmp.toPath (), leaseFile.toPath (), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn ("写入GID租约文件{}失败:{}", leaseFile, e.getMessage ());
+        }
+    }
+
+    private String request (String uri) throws IOException {
+        Map<String, String> dataMap = new LinkedHashMap<> ();
+        dataMap.put (IP_AND_PORT_KEY, ipAndPort);
+        String projectCode = System.getProperty ("pmo.appName", System.getProperty ("sys.name"));
+        if (projectCode != null) {
+            dataMap.put ("projectCode", projectCode);
+        }
+        StringBuilder body = new StringBuilder ();
+        for (Map.Entry<String, String> entry : dataMap.entrySet ()) {
+            if (body.length () > 0) {
+                body.append ('&');
+            }
+            body.append (entry.getKey ()).append ('=')
+                    .append (URLEncoder.encode (entry.getValue (), StandardCharsets.UTF_8.name ()));
+        }
+
+        String base = registerUrl;
+        HttpURLConnection connection = (HttpURLConnection) new URL (base.endsWith ("/") ? base + uri
+                                                                            : base + "/" + uri).openConnection ();
+        try {
+            connection.setConnectTimeout (timeoutMillis);
+            connection.setReadTimeout (timeoutMillis);
+            connection.setRequestMethod ("POST");
+            connection.setDoOutput (true);
+            connection.setRequestProperty ("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
+            try (OutputStream out = connection.getOutputStream ()) {
+                out.write (body.toString ().getBytes (StandardCharsets.UTF_8));
+            }
+            if (connection.getResponseCode () != HttpURLConnection.HTTP_OK) {
+                throw new IOException ("配置中心返回状态码:" + connection.getResponseCode ());
+            }
+            String data;
+            try (InputStream in = connection.getInputStream ()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+                byte[] buffer = new byte[256];
+                int n;
+                while ((n = in.read (buffer)) != -1) {
+                    bytes.write (buffer, 0, n);
+                }
+                data = new String (bytes.toByteArray (), StandardCharsets.UTF_8);
+            }
+            JSONObject resultObject = JSON.parseObject (data);
+            if (!"true".equals (resultObject.getString ("success"))) {
+                throw new AppException ("配置中心注册服务返回失败:" + resultObject.getString ("message"));
+            }
+            return resultObject.getString ("singleResult");
+        } finally {
+            connection.disconnect ();
+        }
+    }
+
+    private static void checkCode (String code, int len, String name) {
+        if (code == null || code.length () != len) {
+            throw new AppException (name + "长度不正确:" + code);
+        }
+        for (int i = 0; i < len; i++) {
+            if (Character.digit (code.charAt (i), DIGITS.length) < 0) {
+                throw new AppException (name + "包含非法字符:" + code);
+            }
+        }
+    }
+
+    /**
+     * 使用IP的最后一段作为系统编码
+     */
+    static String fallbackSystemCode () {
+        String result = "0000";
+        try {
+            String ip = IPUtils.getFirstNoLoopbackIPV4Address ();
+            ip = ip.substring (ip.lastIndexOf ('.') + 1);
+            result = StringUtils.right (result + ip, CodeGenerator.SYSTEM_CODE_LEN);
+        } catch (Exception e) {
+            logger.debug ("获取IP失败,使用默认系统编码:{}", result);
+        }
+        return result;
+    }
+
+    /**
+     * 使用MAC地址和节点标识计算节点编码，同一台机器上不同端口的节点编码不同，重启后编码不变
+     */
+    static String fallbackNodeCode (String ipAndPort) {
+        String mac;
+        try {
+            mac = IPUtils.getMACAddress ();
+        } catch (Exception e) {
+            mac = DEFAULT_MAC;
+        }
+        int radix = DIGITS.length;
+        int bound = radix * radix * radix;
+        int hash = Math.floorMod ((mac + "/" + ipAndPort).hashCode (), bound);
+        char[] code = new char[CodeGenerator.NODE_CODE_LEN];
+        for (int i = code.length - 1; i >= 0; i--) {
+            code[i] = DIGITS[hash % radix];
+            hash /= radix;
+        }
+        return new String (code);
+    }
+
+    /**
+     * 同一次注册得到的系统编码和节点编码
+     */
+    public static final class NodeCodes {
+        private final String systemCode;
+        private final String nodeCode;
+
+        NodeCodes (String systemCode, String nodeCode) {
+            this.systemCode = systemCode;
+            this.nodeCode = nodeCode;
+        }
+
+        public String getSystemCode () {
+            return systemCode;
+        }
+
+        public String getNodeCode () {
+            return nodeCode;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof NodeCodes)) {
+                return false;
+            }
+            NodeCodes that = (NodeCodes) o;
+            return systemCode.equals (that.systemCode) && nodeCode.equals (that.nodeCode);
+        }
+
+        @Override
+        public int hashCode () {
+            return 31 * systemCode.hashCode () + nodeCode.hashCode ();
+        }
+
+        @Override
+        public String toString () {
+            return "systemCode=" + systemCode + ",nodeCode=" + nodeCode;
+        }
+    }
+}
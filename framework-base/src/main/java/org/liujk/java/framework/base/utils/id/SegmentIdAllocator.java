@@ -0,0 +1,385 @@
+package org.liujk.java.framework.base.utils.id;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.exceptions.AppException;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.MonitoredThreadPoolExecutor;
+import org.liujk.java.framework.base.utils.thread.NamedThreadFactory;
+import org.liujk.java.framework.base.utils.thread.ReporttingRejectedExecutionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 说明：
+ * <p>
+ * 号段模式的ID分配器，从数据库表中按业务标识租用一段连续的ID，在本地内存中分配。
+ * <p>
+ * 每个业务标识持有当前号段和预取号段两个缓冲：当前号段消耗超过{@link #setPrefetchRatio(double)}时，
+ * 在后台线程异步租用下一个号段，当前号段用完后直接切换。所以正常情况下分配ID只有一次CAS，没有数据库访问，
+ * 数据库短暂不可用时，只要预取的号段还没有用完，调用方不会被阻塞。
+ * <p>
+ * 租用失败后在{@link #setRetryIntervalMillis(long)}内不再租用，连续失败时间隔加倍，最长{@link #MAX_RETRY_INTERVAL_MILLIS}，
+ * 期间号段用完的调用方直接失败，避免每次分配都访问已经不可用的数据库。
+ * <p>
+ * 号段表结构(表名可配置，默认id_segment)：
+ * <pre>
+ * CREATE TABLE id_segment (
+ *     biz_tag     VARCHAR(128) NOT NULL PRIMARY KEY,
+ *     max_id      BIGINT       NOT NULL,
+ *     step        INT          NOT NULL,
+ *     update_time TIMESTAMP    NULL
+ * );
+ * </pre>
+ * 每次租用把max_id增加step，租到的号段为[max_id - step, max_id)，所以max_id的初始值就是第一个ID。
+ */
+public class SegmentIdAllocator {
+
+    public static final String DEFAULT_TABLE_NAME = "id_segment";
+
+    /**
+     * 连续租用失败时的最长重试间隔
+     */
+    public static final long MAX_RETRY_INTERVAL_MILLIS = 60000L;
+
+    private static final Logger logger = LoggerFactory.getLogger (SegmentIdAllocator.class);
+
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile ("[A-Za-z0-9_.]+");
+
+    private final DataSource dataSource;
+    private final String updateSql;
+    private final String selectSql;
+    private final ConcurrentMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<> ();
+    private final ExecutorService executor;
+
+    /**
+     * 当前号段消耗到此比例时预取下一个号段
+     */
+    private volatile double prefetchRatio = 0.1D;
+
+    /**
+     * 号段用完且预取号段未就绪时，调用方最长等待时间
+     */
+    private volatile long maxWaitMillis = 3000L;
+
+    /**
+     * 租用失败后的重试间隔
+     */
+    private volatile long retryIntervalMillis = 1000L;
+
+    private final Counter leaseCounter;
+    private final Counter waitCounter;
+
+    public SegmentIdAllocator (DataSource dataSource) {
+        this (dataSource, DEFAULT_TABLE_NAME);
+    }
+
+    /**
+     * @param dataSource 数据源
+     * @param tableName  号段表名
+     */
+    public SegmentIdAllocator (DataSource dataSource, String tableName) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException ("必须指定数据源");
+        }
+        if (tableName == null || !TABLE_NAME_PATTERN.matcher (tableName).matches ()) {
+            throw new IllegalArgumentException ("号段表名不合法:" + tableName);
+        }
+        this.dataSource = dataSource;
+        this.updateSql = "UPDATE " + tableName + " SET max_id = max_id + step, update_time = ? WHERE biz_tag = ?";
+        this.selectSql = "SELECT max_id, step FROM " + tableName + " WHERE biz_tag = ?";
+        this.executor = newLeaseExecutor ("SegmentIdAllocator-" + tableName);
+        MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+        this.leaseCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "segmentLease", tableName));
+        this.waitCounter = metricRegistry.counter (MetricRegistry.name ("idgen", "segmentWait", tableName));
+    }
+
+    /**
+     * 获得业务标识下的下一个ID
+     *
+     * @param bizTag 业务标识
+     *
+     * @return ID
+     */
+    public long nextId (String bizTag) {
+        SegmentBuffer buffer = buffers.get (bizTag);
+        if (buffer == null) {
+            SegmentBuffer created = new SegmentBuffer (bizTag);
+            buffer = buffers.putIfAbsent (bizTag, created);
+            if (buffer == null) {
+                buffer = created;
+            }
+        }
+        return buffer.nextId ();
+    }
+
+    public double getPrefetchRatio () {
+        return prefetchRatio;
+    }
+
+    public void setPrefetchRatio (double prefetchRatio) {
+        if (prefetchRatio < 0 || prefetchRatio > 1) {
+            throw new IllegalArgumentException ("预取比例必须在0~1之间:" + prefetchRatio);
+        }
+        this.prefetchRatio = prefetchRatio;
+    }
+
+    public long getMaxWaitMillis () {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis (long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getRetryIntervalMillis () {
+        return retryIntervalMillis;
+    }
+
+    public void setRetryIntervalMillis (long retryIntervalMillis) {
+        if (retryIntervalMillis < 0) {
+            throw new IllegalArgumentException ("重试间隔不能小于0:" + retryIntervalMillis);
+        }
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    private static ExecutorService newLeaseExecutor (String name) {
+        // 关闭后拒绝并抛出异常，而不是静默丢弃，否则租用一直处于进行中，调用方只能等到超时
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (
+                1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable> (),
+                new NamedThreadFactory (name, true),
+                new ReporttingRejectedExecutionHandler (name, ReporttingRejectedExecutionHandler.Policy.abortPolicy));
+        executor.setMetrics (name);
+        executor.initialize ();
+        return executor;
+    }
+
+    /**
+     * 关闭预取线程，之后需要租用号段时直接失败
+     */
+    public void close () {
+        executor.shutdown ();
+    }
+
+    /**
+     * 在一个事务中把max_id增加step，并读取新的号段
+     *
+     * @param bizTag 业务标识
+     *
+     * @return 号段
+     * @throws SQLException 数据库异常
+     */
+    protected Segment lease (String bizTag) throws SQLException {
+        try (Connection connection = dataSource.getConnection ()) {
+            boolean autoCommit = connection.getAutoCommit ();
+            connection.setAutoCommit (false);
+            try {
+                int updated;
+                try (PreparedStatement update = connection.prepareStatement (updateSql)) {
+                    update.setTimestamp (1, new Timestamp (System.currentTimeMillis ()));
+                    update.setString (2, bizTag);
+                    updated = update.executeUpdate ();
+                }
+                if (updated != 1) {
+                    throw new SQLException ("号段表中没有配置业务标识:" + bizTag);
+                }
+                Segment segment;
+                try (PreparedStatement select = connection.prepareStatement (selectSql)) {
+                    select.setString (1, bizTag);
+                    try (ResultSet resultSet = select.executeQuery ()) {
+                        if (!resultSet.next ()) {
+                            throw new SQLException ("号段表中没有配置业务标识:" + bizTag);
+                        }
+                        long maxId = resultSet.getLong (1);
+                        int step = resultSet.getInt (2);
+                        segment = new Segment (maxId - step, maxId, prefetchRatio);
+                    }
+                }
+                connection.commit ();
+                leaseCounter.inc ();
+                return segment;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback ();
+                throw e;
+            } finally {
+                connection.setAutoCommit (autoCommit);
+            }
+        }
+    }
+
+    /**
+     * 第failures+1次连续失败后的重试间隔，每次失败加倍
+     */
+    private long retryDelayMillis (int failures) {
+        long delay = Math.min (retryIntervalMillis, MAX_RETRY_INTERVAL_MILLIS);
+        for (int i = 0; i < failures && delay < MAX_RETRY_INTERVAL_MILLIS; i++) {
+            delay <<= 1;
+        }
+        return Math.min (delay, MAX_RETRY_INTERVAL_MILLIS);
+    }
+
+    /**
+     * 已租用的号段，value为下一个待分配的ID
+     */
+    protected static final class Segment {
+        private final AtomicLong value;
+        private final long max;
+        private final long threshold;
+
+        Segment (long start, long max, double prefetchRatio) {
+            this.value = new AtomicLong (start);
+            this.max = max;
+            this.threshold = start + (long) ((max - start) * prefetchRatio);
+        }
+    }
+
+    /**
+     * 一个业务标识的双缓冲
+     */
+    private final class SegmentBuffer {
+        private final String bizTag;
+        private final AtomicBoolean loading = new AtomicBoolean (false);
+        private volatile Segment current;
+        private volatile Segment next;
+        /**
+         * 最近一次租用失败的异常，租用成功后清空
+         */
+        private volatile Exception failure;
+        /**
+         * 租用失败后，此时间之前不再租用，{@link #failure}不为空时有效
+         */
+        private volatile long retryAfterNanos;
+        /**
+         * 连续租用失败的次数，在SegmentBuffer的锁内更新
+         */
+        private int failures;
+
+        SegmentBuffer (String bizTag) {
+            this.bizTag = bizTag;
+            // 空号段，第一次分配时触发租用
+            this.current = new Segment (0L, 0L, 0D);
+        }
+
+        long nextId () {
+            for (; ; ) {
+                Segment segment = current;
+                long id = segment.value.getAndIncrement ();
+                if (id < segment.max) {
+                    if (id >= segment.threshold && next == null) {
+                        prefetch ();
+                    }
+                    return id;
+                }
+                switchSegment (segment);
+            }
+        }
+
+        /**
+         * 上次租用失败，还没有到重试时间
+         */
+        private boolean inBackoff () {
+            return failure != null && System.nanoTime () - retryAfterNanos < 0;
+        }
+
+        private void prefetch () {
+            if (inBackoff () || !loading.compareAndSet (false, true)) {
+                return;
+            }
+            try {
+                executor.execute (new Runnable () {
+                    @Override
+                    public void run () {
+                        Segment segment = null;
+                        Exception error = null;
+                        try {
+                            segment = lease (bizTag);
+                        } catch (Exception e) {
+                            error = e;
+                        } finally {
+                            leased (segment, error);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // 线程池已关闭，按租用失败处理，否则loading一直为true
+                leased (null, e);
+            }
+        }
+
+        /**
+         * 租用结束，保存号段或者失败原因，唤醒等待的线程
+         */
+        private synchronized void leased (Segment segment, Exception error) {
+            if (segment != null) {
+                if (next == null) {
+                    next = segment;
+                } else {
+                    // 不覆盖还没使用的号段，否则其中的ID会丢失
+                    logger.warn ("已有预取号段，丢弃新租用的号段,bizTag={}", bizTag);
+                }
+                failures = 0;
+            } else {
+                long delay = retryDelayMillis (failures++);
+                retryAfterNanos = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (delay);
+                logger.error ("租用号段失败,bizTag={},连续失败{}次,{}ms内不再重试", bizTag, failures, delay, error);
+            }
+            failure = error;
+            loading.set (false);
+            notifyAll ();
+        }
+
+        /**
+         * 当前号段用完，切换到预取号段，预取号段未就绪时等待，由本线程发起的租用失败或者还在失败重试间隔内时直接失败
+         */
+        private synchronized void switchSegment (Segment exhausted) {
+            boolean waited = false;
+            boolean attempted = false;
+            long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (maxWaitMillis);
+            while (current == exhausted) {
+                if (next != null) {
+                    current = next;
+                    next = null;
+                    return;
+                }
+                if (!loading.get ()) {
+                    if (failure != null && (attempted || inBackoff ())) {
+                        throw new AppException ("租用号段失败,bizTag=" + bizTag, failure);
+                    }
+                    prefetch ();
+                    attempted = true;
+                    // 线程池关闭时租用同步失败，不会再被唤醒，重新检查
+                    continue;
+                }
+                if (!waited) {
+                    waited = true;
+                    waitCounter.inc ();
+                }
+                long remaining = deadline - System.nanoTime ();
+                if (remaining <= 0) {
+                    throw new AppException ("等待号段超时,bizTag=" + bizTag);
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait (this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                    throw new AppException ("等待号段被中断,bizTag=" + bizTag, e);
+                }
+            }
+        }
+    }
+}
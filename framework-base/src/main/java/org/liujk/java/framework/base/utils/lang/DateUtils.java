@@ -7,6 +7,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.ServiceConfigurationError;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -65,14 +66,20 @@ public class DateUtils {
         try {
             Service<NowProvider> service = serviceLoader.load(NowProvider.class);
             nowProvider = service.get();
-        } catch (Exception e) {
+        } catch (Exception | ServiceConfigurationError e) {
+            // 没有配置NowProvider时使用系统时间
             nowProvider = new DefaultTimePovider();
         }
         NOW_PROVIDER = nowProvider;
     }
 
+    /**
+     * 默认时区，加载DateUtils时会设置为JVM的默认时区
+     */
+    public static final TimeZone DEFAULT_TIME_ZONE = TimeZone.getTimeZone("GMT+8");
+
     static {
-        TimeZone.setDefault(TimeZone.getTimeZone("GMT+8"));
+        TimeZone.setDefault(DEFAULT_TIME_ZONE);
     }
 
     /**
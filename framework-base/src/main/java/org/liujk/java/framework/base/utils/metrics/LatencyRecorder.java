@@ -0,0 +1,209 @@
+package org.liujk.java.framework.base.utils.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 说明：
+ * <p>
+ * 固定内存、写入无锁的耗时记录器，可以作为Codahale {@link com.codahale.metrics.Histogram}的{@link Reservoir}。
+ * <p>
+ * 采用与HdrHistogram相同的对数-线性分桶：小于64的值每个值一个桶，之后每个2的幂区间再等分为64个桶，
+ * 相对误差不超过1/64，最大记录{@link #MAX_VALUE}纳秒(约36分钟)，超过的值记为最大值。
+ * <p>
+ * 写入只有一次桶计数的原子自增，加上进入、退出两次阶段计数；读取时交换当前桶数组和备用桶数组，
+ * 等待仍在写入旧数组的线程退出后把旧数组累加到总计数中并清空。
+ * {@link #getSnapshot()}得到的是两次读取之间的区间数据，同一个记录器只应该由一个报告器按区间读取；
+ * 其他读取方使用{@link #cumulativeSnapshot()}，自行与上一次的累计快照相减得到区间数据，互不影响。
+ */
+public class LatencyRecorder implements Reservoir {
+
+    /**
+     * 每个2的幂区间的桶数 = 2^SUB_BUCKET_BITS
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * 可记录的最大值，单位纳秒
+     */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    static final int BUCKET_COUNT = bucketIndex (MAX_VALUE) + 1;
+
+    /**
+     * 写入阶段计数，最高位表示当前阶段，写入时先自增再读取当前桶数组
+     */
+    private final AtomicLong startEpoch = new AtomicLong (0);
+    private final AtomicLong evenEndEpoch = new AtomicLong (0);
+    private final AtomicLong oddEndEpoch = new AtomicLong (Long.MIN_VALUE);
+
+    private volatile AtomicLongArray active = new AtomicLongArray (BUCKET_COUNT);
+    private AtomicLongArray inactive = new AtomicLongArray (BUCKET_COUNT);
+
+    /**
+     * 已读出的累计计数和上一次区间快照时的累计计数，读取时加锁访问
+     */
+    private final long[] cumulative = new long[BUCKET_COUNT];
+    private final long[] intervalBase = new long[BUCKET_COUNT];
+
+    private volatile LatencySnapshot lastSnapshot = LatencySnapshot.EMPTY;
+
+    /**
+     * 记录一个耗时
+     *
+     * @param nanos 耗时，单位纳秒，负数忽略
+     */
+    public void record (long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long epoch = startEpoch.getAndIncrement ();
+        try {
+            active.getAndIncrement (bucketIndex (nanos));
+        } finally {
+            if (epoch < 0) {
+                oddEndEpoch.getAndIncrement ();
+            } else {
+                evenEndEpoch.getAndIncrement ();
+            }
+        }
+    }
+
+    public void record (long duration, TimeUnit unit) {
+        record (unit.toNanos (duration));
+    }
+
+    @Override
+    public void update (long value) {
+        record (value);
+    }
+
+    /**
+     * 最近一次快照的记录数
+     */
+    @Override
+    public int size () {
+        long count = lastSnapshot.getCount ();
+        return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count;
+    }
+
+    @Override
+    public Snapshot getSnapshot () {
+        return intervalSnapshot ();
+    }
+
+    /**
+     * 取出上次快照之后记录的数据
+     *
+     * @return 区间快照
+     */
+    public synchronized LatencySnapshot intervalSnapshot () {
+        drain ();
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = cumulative[i] - intervalBase[i];
+        }
+        System.arraycopy (cumulative, 0, intervalBase, 0, BUCKET_COUNT);
+        LatencySnapshot snapshot = new LatencySnapshot (counts);
+        lastSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * 创建以来记录的全部数据，不影响{@link #intervalSnapshot()}的区间
+     *
+     * @return 累计快照
+     */
+    public synchronized LatencySnapshot cumulativeSnapshot () {
+        drain ();
+        return new LatencySnapshot (cumulative.clone ());
+    }
+
+    /**
+     * 交换桶数组，把旧数组累加到总计数中
+     */
+    private void drain () {
+        AtomicLongArray drained = active;
+        active = inactive;
+        flipPhase ();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = drained.get (i);
+            if (count != 0) {
+                cumulative[i] += count;
+                drained.set (i, 0L);
+            }
+        }
+        inactive = drained;
+    }
+
+    /**
+     * 最近一次{@link #intervalSnapshot()}的结果
+     */
+    public LatencySnapshot getLastSnapshot () {
+        return lastSnapshot;
+    }
+
+    /**
+     * 切换阶段，并等待上一阶段进入的写入全部退出，之后不会再有线程写入旧的桶数组
+     */
+    private void flipPhase () {
+        boolean nextPhaseIsEven = startEpoch.get () < 0;
+        long initialStartValue = nextPhaseIsEven ? 0L : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).lazySet (initialStartValue);
+        long startValueAtFlip = startEpoch.getAndSet (initialStartValue);
+        AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        int spins = 0;
+        while (previousEndEpoch.get () != startValueAtFlip) {
+            if (++spins < 100) {
+                Thread.yield ();
+            } else {
+                LockSupport.parkNanos (10000L);
+            }
+        }
+    }
+
+    static int bucketIndex (long value) {
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros (value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶中的最小值
+     */
+    static long lowestEquivalentValue (int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+    }
+
+    /**
+     * 桶中的最大值
+     */
+    static long highestEquivalentValue (int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        return lowestEquivalentValue (index) + (1L << shift) - 1;
+    }
+}
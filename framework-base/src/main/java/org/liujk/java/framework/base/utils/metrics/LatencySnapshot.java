@@ -0,0 +1,161 @@
+package org.liujk.java.framework.base.utils.metrics;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 说明：
+ * <p>
+ * {@link LatencyRecorder}的区间快照，保存各个桶的计数，分位值按桶中的最大值计算。
+ */
+public class LatencySnapshot extends Snapshot {
+
+    static final LatencySnapshot EMPTY = new LatencySnapshot (new long[LatencyRecorder.BUCKET_COUNT]);
+
+    private final long[] counts;
+    private final long count;
+    private final int lowestIndex;
+    private final int highestIndex;
+
+    LatencySnapshot (long[] counts) {
+        this.counts = counts;
+        long total = 0;
+        int lowest = -1;
+        int highest = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                total += counts[i];
+                if (lowest < 0) {
+                    lowest = i;
+                }
+                highest = i;
+            }
+        }
+        this.count = total;
+        this.lowestIndex = lowest;
+        this.highestIndex = highest;
+    }
+
+    /**
+     * 两个累计快照的差，即earlier之后记录的数据
+     *
+     * @param earlier 较早的累计快照
+     *
+     * @return 区间快照
+     */
+    public LatencySnapshot minus (LatencySnapshot earlier) {
+        long[] delta = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            delta[i] = counts[i] - earlier.counts[i];
+        }
+        return new LatencySnapshot (delta);
+    }
+
+    /**
+     * 记录数
+     */
+    public long getCount () {
+        return count;
+    }
+
+    @Override
+    public double getValue (double quantile) {
+        if (quantile < 0.0 || quantile > 1.0 || Double.isNaN (quantile)) {
+            throw new IllegalArgumentException (quantile + " is not in [0..1]");
+        }
+        if (count == 0) {
+            return 0.0;
+        }
+        long rank = Math.max (1L, (long) Math.ceil (quantile * count));
+        long seen = 0;
+        for (int i = lowestIndex; i <= highestIndex; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return LatencyRecorder.highestEquivalentValue (i);
+            }
+        }
+        return LatencyRecorder.highestEquivalentValue (highestIndex);
+    }
+
+    /**
+     * 每个桶只返回一个代表值，用于兼容{@link Snapshot#getValues()}，数据量大时不要调用
+     */
+    @Override
+    public long[] getValues () {
+        int total = (int) Math.min (count, Integer.MAX_VALUE);
+        long[] values = new long[total];
+        int p = 0;
+        for (int i = lowestIndex; i <= highestIndex && p < total; i++) {
+            long value = LatencyRecorder.highestEquivalentValue (i);
+            for (long c = counts[i]; c > 0 && p < total; c--) {
+                values[p++] = value;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int size () {
+        return (int) Math.min (count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax () {
+        return count == 0 ? 0L : LatencyRecorder.highestEquivalentValue (highestIndex);
+    }
+
+    @Override
+    public long getMin () {
+        return count == 0 ? 0L : LatencyRecorder.lowestEquivalentValue (lowestIndex);
+    }
+
+    @Override
+    public double getMean () {
+        if (count == 0) {
+            return 0.0;
+        }
+        double sum = 0;
+        for (int i = lowestIndex; i <= highestIndex; i++) {
+            if (counts[i] != 0) {
+                sum += median (i) * counts[i];
+            }
+        }
+        return sum / count;
+    }
+
+    @Override
+    public double getStdDev () {
+        if (count <= 1) {
+            return 0.0;
+        }
+        double mean = getMean ();
+        double sum = 0;
+        for (int i = lowestIndex; i <= highestIndex; i++) {
+            if (counts[i] != 0) {
+                double diff = median (i) - mean;
+                sum += diff * diff * counts[i];
+            }
+        }
+        return Math.sqrt (sum / (count - 1));
+    }
+
+    @Override
+    public void dump (OutputStream output) {
+        try (PrintWriter out = new PrintWriter (new OutputStreamWriter (output, StandardCharsets.UTF_8))) {
+            for (int i = lowestIndex; i >= 0 && i <= highestIndex; i++) {
+                if (counts[i] != 0) {
+                    out.printf ("%d\t%d%n", LatencyRecorder.highestEquivalentValue (i), counts[i]);
+                }
+            }
+        }
+    }
+
+    private static double median (int index) {
+        return (LatencyRecorder.lowestEquivalentValue (index) + LatencyRecorder.highestEquivalentValue (index))
+                / 2.0;
+    }
+}
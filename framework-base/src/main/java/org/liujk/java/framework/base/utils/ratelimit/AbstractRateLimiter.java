@@ -0,0 +1,142 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 说明：
+ * <p>
+ * 限流器的公共部分：参数校验、监控计数以及阻塞获取时的park重试，子类只实现一次无锁的获取尝试。
+ */
+abstract class AbstractRateLimiter implements RateLimiter {
+
+    private final RateLimiterMetrics metrics;
+    /**
+     * 是否由当前限流器注册和注销指标
+     */
+    private final boolean ownMetrics;
+
+    AbstractRateLimiter (String name) {
+        this.metrics = new RateLimiterMetrics (Objects.requireNonNull (name));
+        this.ownMetrics = true;
+        metrics.register ();
+    }
+
+    /**
+     * 与其他限流器共用指标，用于{@link KeyedRateLimiter}
+     */
+    AbstractRateLimiter (RateLimiterMetrics metrics) {
+        this.metrics = Objects.requireNonNull (metrics);
+        this.ownMetrics = false;
+    }
+
+    /**
+     * 尝试获取许可，只做一次CAS，CAS失败时重新计算
+     *
+     * @param permits  许可数
+     * @param nowNanos 当前时间，System.nanoTime()
+     *
+     * @return 获取成功返回0，否则返回预计还需要等待的纳秒数，大于0
+     */
+    abstract long tryAcquireOrWait (int permits, long nowNanos);
+
+    /**
+     * 一次最多可以获取的许可数
+     */
+    abstract int getMaxPermits ();
+
+    /**
+     * 限流器是否处于初始状态，处于初始状态的限流器可以丢弃后重新创建
+     */
+    abstract boolean isIdle (long nowNanos);
+
+    @Override
+    public boolean tryAcquire () {
+        return tryAcquire (1);
+    }
+
+    @Override
+    public boolean tryAcquire (int permits) {
+        checkPermits (permits);
+        if (tryAcquireOrWait (permits, System.nanoTime ()) == 0) {
+            metrics.permitted ();
+            return true;
+        }
+        metrics.rejected ();
+        return false;
+    }
+
+    @Override
+    public boolean tryAcquire (int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        checkPermits (permits);
+        long deadline = System.nanoTime () + unit.toNanos (Math.max (0L, timeout));
+        for (; ; ) {
+            long now = System.nanoTime ();
+            long waitNanos = tryAcquireOrWait (permits, now);
+            if (waitNanos == 0) {
+                metrics.permitted ();
+                return true;
+            }
+            if (waitNanos > deadline - now) {
+                metrics.rejected ();
+                return false;
+            }
+            park (waitNanos);
+        }
+    }
+
+    @Override
+    public void acquire () throws InterruptedException {
+        acquire (1);
+    }
+
+    @Override
+    public void acquire (int permits) throws InterruptedException {
+        checkPermits (permits);
+        long waitNanos;
+        while ((waitNanos = tryAcquireOrWait (permits, System.nanoTime ())) != 0) {
+            park (waitNanos);
+        }
+        metrics.permitted ();
+    }
+
+    private void park (long waitNanos) throws InterruptedException {
+        LockSupport.parkNanos (this, waitNanos);
+        if (Thread.interrupted ()) {
+            throw new InterruptedException ();
+        }
+    }
+
+    private void checkPermits (int permits) {
+        if (permits <= 0 || permits > getMaxPermits ()) {
+            throw new IllegalArgumentException ("permits必须在1~" + getMaxPermits () + "之间:" + permits);
+        }
+    }
+
+    @Override
+    public String getName () {
+        return metrics.getName ();
+    }
+
+    /**
+     * 获取到许可的次数
+     */
+    public long getPermittedCount () {
+        return metrics.getPermittedCount ();
+    }
+
+    /**
+     * 许可不足被拒绝的次数
+     */
+    public long getRejectedCount () {
+        return metrics.getRejectedCount ();
+    }
+
+    @Override
+    public void close () {
+        if (ownMetrics) {
+            metrics.unregister ();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 说明：
+ * <p>
+ * 按key限流，例如按客户端IP、用户、接口，每个key一个独立的限流器。
+ * <p>
+ * 1、key按hash分到多个分段，每个分段一个{@link ConcurrentHashMap}；每个分段每{@link #PURGE_INTERVAL}次调用清理一次
+ * 处于初始状态(令牌桶已满、滑动窗口已清空)的限流器，丢弃后重新创建的效果相同。
+ * 每次清理只扫描一个分段，key很多时清理的开销分摊到各个分段。
+ * <p>
+ * 2、所有key共用一组监控指标：rateLimit.permitted.[name]、rateLimit.rejected.[name]，
+ * 以及rateLimit.keys.[name]：当前跟踪的key数，{@link #close()}时注销。
+ *
+ * @param <K> key类型
+ */
+public class KeyedRateLimiter<K> {
+
+    /**
+     * 每个分段清理空闲限流器的调用次数间隔
+     */
+    public static final int PURGE_INTERVAL = 1024;
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final RateLimiterMetrics metrics;
+    private final Factory factory;
+    private final Stripe<K>[] stripes;
+
+    @SuppressWarnings ("unchecked")
+    private KeyedRateLimiter (String name, int stripes, Factory factory) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException ("stripes必须大于0:" + stripes);
+        }
+        this.metrics = new RateLimiterMetrics (Objects.requireNonNull (name));
+        this.factory = factory;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe<> ();
+        }
+        // 校验参数
+        factory.create (metrics, System.nanoTime ());
+        metrics.add (MetricRegistry.name ("rateLimit", "keys", name), (Gauge<Integer>) this::getKeyCount);
+        metrics.register ();
+    }
+
+    /**
+     * 每个key一个令牌桶
+     *
+     * @see TokenBucketRateLimiter
+     */
+    public static <K> KeyedRateLimiter<K> tokenBucket (String name, double permitsPerSecond, int capacity) {
+        return new KeyedRateLimiter<> (name, DEFAULT_STRIPES, (metrics, now) -> new TokenBucketRateLimiter (
+                metrics, permitsPerSecond, capacity, now));
+    }
+
+    /**
+     * 每个key一个滑动窗口
+     *
+     * @see SlidingWindowRateLimiter
+     */
+    public static <K> KeyedRateLimiter<K> slidingWindow (String name, int limit, long window, TimeUnit unit) {
+        return new KeyedRateLimiter<> (name, DEFAULT_STRIPES, (metrics, now) -> new SlidingWindowRateLimiter (
+                metrics, limit, window, unit, now));
+    }
+
+    /**
+     * @see RateLimiter#tryAcquire()
+     */
+    public boolean tryAcquire (K key) {
+        return limiterFor (key).tryAcquire ();
+    }
+
+    /**
+     * @see RateLimiter#tryAcquire(int)
+     */
+    public boolean tryAcquire (K key, int permits) {
+        return limiterFor (key).tryAcquire (permits);
+    }
+
+    /**
+     * @see RateLimiter#tryAcquire(int, long, TimeUnit)
+     */
+    public boolean tryAcquire (K key, int permits, long timeout, TimeUnit unit) throws InterruptedException {
+        return limiterFor (key).tryAcquire (permits, timeout, unit);
+    }
+
+    /**
+     * 返回key对应的限流器，空闲的限流器可能被清理，不要长期持有
+     */
+    public RateLimiter limiterFor (K key) {
+        Objects.requireNonNull (key);
+        int h = key.hashCode ();
+        h ^= (h >>> 16);
+        Stripe<K> stripe = stripes[Math.floorMod (h, stripes.length)];
+        long now = System.nanoTime ();
+        if (stripe.calls.incrementAndGet () % PURGE_INTERVAL == 0) {
+            stripe.purge (now);
+        }
+        AbstractRateLimiter limiter = stripe.limiters.get (key);
+        if (limiter == null) {
+            limiter = stripe.limiters.computeIfAbsent (key, k -> factory.create (metrics, now));
+        }
+        return limiter;
+    }
+
+    /**
+     * 当前跟踪的key数
+     */
+    public int getKeyCount () {
+        int count = 0;
+        for (Stripe<K> stripe : stripes) {
+            count += stripe.limiters.size ();
+        }
+        return count;
+    }
+
+    public String getName () {
+        return metrics.getName ();
+    }
+
+    public long getPermittedCount () {
+        return metrics.getPermittedCount ();
+    }
+
+    public long getRejectedCount () {
+        return metrics.getRejectedCount ();
+    }
+
+    /**
+     * 注销监控指标
+     */
+    public void close () {
+        metrics.unregister ();
+    }
+
+    private interface Factory {
+        AbstractRateLimiter create (RateLimiterMetrics metrics, long nowNanos);
+    }
+
+    private static final class Stripe<K> {
+        private final ConcurrentHashMap<K, AbstractRateLimiter> limiters = new ConcurrentHashMap<> ();
+        private final AtomicInteger calls = new AtomicInteger ();
+
+        void purge (long nowNanos) {
+            limiters.values ().removeIf (limiter -> limiter.isIdle (nowNanos));
+        }
+    }
+}
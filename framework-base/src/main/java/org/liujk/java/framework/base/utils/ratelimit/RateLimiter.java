@@ -0,0 +1,73 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 单实例的限流器，限制本进程内的调用速率，不同实例之间不共享配额。
+ * <p>
+ * 1、tryAcquire立即返回，获取许可的快速路径只有一次CAS，没有锁。
+ * <p>
+ * 2、带超时的tryAcquire和acquire在许可不足时按预计的等待时间park后重试，等待不会超过超时时间。
+ *
+ * @see TokenBucketRateLimiter
+ * @see SlidingWindowRateLimiter
+ * @see KeyedRateLimiter
+ */
+public interface RateLimiter {
+
+    /**
+     * 获取一个许可
+     *
+     * @return 许可不足时返回false
+     */
+    boolean tryAcquire ();
+
+    /**
+     * 获取指定数量的许可
+     *
+     * @param permits 许可数
+     *
+     * @return 许可不足时返回false
+     */
+    boolean tryAcquire (int permits);
+
+    /**
+     * 获取指定数量的许可，许可不足时最多等待timeout
+     *
+     * @param permits 许可数
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     *
+     * @return 超时时返回false，预计等待时间超过timeout时立即返回false
+     * @throws InterruptedException 等待时被中断
+     */
+    boolean tryAcquire (int permits, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 获取一个许可，许可不足时一直等待
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    void acquire () throws InterruptedException;
+
+    /**
+     * 获取指定数量的许可，许可不足时一直等待
+     *
+     * @param permits 许可数
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    void acquire (int permits) throws InterruptedException;
+
+    /**
+     * 限流器名称，用作监控名称
+     */
+    String getName ();
+
+    /**
+     * 注销监控指标
+     */
+    void close ();
+}
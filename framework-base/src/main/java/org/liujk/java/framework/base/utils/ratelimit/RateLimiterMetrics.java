@@ -0,0 +1,77 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 说明：
+ * <p>
+ * 限流器的监控指标，通过{@link MetricsHolder}注册：
+ * <p>
+ * rateLimit.permitted.[name]：获取到许可的次数
+ * rateLimit.rejected.[name]：许可不足被拒绝的次数
+ * <p>
+ * {@link KeyedRateLimiter}的所有key共用一组指标，避免key过多时指标数量膨胀。
+ */
+final class RateLimiterMetrics {
+
+    private final String name;
+    private final Counter permitted = new Counter ();
+    private final Counter rejected = new Counter ();
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Metric> metricMap = new LinkedHashMap<> ();
+
+    RateLimiterMetrics (String name) {
+        this.name = name;
+        metricMap.put (MetricRegistry.name ("rateLimit", "permitted", name), permitted);
+        metricMap.put (MetricRegistry.name ("rateLimit", "rejected", name), rejected);
+    }
+
+    String getName () {
+        return name;
+    }
+
+    void permitted () {
+        permitted.inc ();
+    }
+
+    void rejected () {
+        rejected.inc ();
+    }
+
+    long getPermittedCount () {
+        return permitted.getCount ();
+    }
+
+    long getRejectedCount () {
+        return rejected.getCount ();
+    }
+
+    /**
+     * 添加额外的指标，在register之前调用
+     */
+    void add (String metricName, Metric metric) {
+        metricMap.put (metricName, metric);
+    }
+
+    void register () {
+        for (Map.Entry<String, Metric> entry : metricMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    void unregister () {
+        for (String metricName : metricMap.keySet ()) {
+            metricRegistry.remove (metricName);
+        }
+    }
+}
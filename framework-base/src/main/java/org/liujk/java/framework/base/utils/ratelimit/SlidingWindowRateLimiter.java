@@ -0,0 +1,175 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 说明：
+ * <p>
+ * 滑动窗口计数限流器：任意一个window长度的时间段内最多limit个许可。
+ * <p>
+ * 1、按滑动窗口计数法近似：记录当前固定窗口和上一个固定窗口的计数，
+ * 估算值 = 上一个窗口计数 * 上一个窗口还在滑动窗口内的比例 + 当前窗口计数。
+ * 比固定窗口平滑，不会在窗口交界处放过两倍的请求，内存只有一个long。
+ * <p>
+ * 2、窗口序号(低24位)、上一个窗口计数(20位)、当前窗口计数(20位)拼在一个long里，获取许可是一次CAS。
+ * 因此limit最大为{@link #MAX_LIMIT}。
+ * <p>
+ * 3、并发时，先读取时钟的线程可能晚于已经进入下一个窗口的线程执行CAS，此时按state中较新的窗口和计数判断，
+ * 窗口序号不会倒退。窗口序号按2^24取模比较，前后相差不到2^23个窗口时可以区分先后；
+ * 空闲更久时由{@link #lastWindowIndex}判断state中的计数已经过期。
+ */
+public class SlidingWindowRateLimiter extends AbstractRateLimiter {
+
+    private static final int COUNT_BITS = 20;
+    private static final int INDEX_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    /**
+     * 取模后的窗口序号相差小于此值时可以区分先后
+     */
+    private static final long HALF_INDEX_RANGE = 1L << (INDEX_BITS - 1);
+
+    /**
+     * 每个窗口最多的许可数
+     */
+    public static final int MAX_LIMIT = (int) COUNT_MASK;
+
+    private final int limit;
+    private final long windowNanos;
+    private final long startNanos;
+    /**
+     * 窗口序号 | 上一个窗口计数 | 当前窗口计数
+     */
+    volatile long state;
+    /**
+     * 已经进入过的最大窗口序号(不取模)，在修改state之前更新，并发时可能略微落后，只用于判断长时间空闲
+     */
+    volatile long lastWindowIndex;
+
+    /**
+     * @param name   名称，用作监控名称
+     * @param limit  每个窗口的许可数
+     * @param window 窗口长度
+     * @param unit   时间单位
+     */
+    public SlidingWindowRateLimiter (String name, int limit, long window, TimeUnit unit) {
+        super (name);
+        checkArguments (limit, window);
+        this.limit = limit;
+        this.windowNanos = unit.toNanos (window);
+        this.startNanos = System.nanoTime ();
+    }
+
+    SlidingWindowRateLimiter (RateLimiterMetrics metrics, int limit, long window, TimeUnit unit, long nowNanos) {
+        super (metrics);
+        checkArguments (limit, window);
+        this.limit = limit;
+        this.windowNanos = unit.toNanos (window);
+        this.startNanos = nowNanos;
+    }
+
+    private static void checkArguments (int limit, long window) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException ("limit必须在1~" + MAX_LIMIT + "之间:" + limit);
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException ("window必须大于0:" + window);
+        }
+    }
+
+    @Override
+    long tryAcquireOrWait (int permits, long nowNanos) {
+        long elapsed = Math.max (0L, nowNanos - startNanos);
+        long windowIndex = elapsed / windowNanos;
+        long offset = elapsed - windowIndex * windowNanos;
+        long index = windowIndex & INDEX_MASK;
+        for (; ; ) {
+            // 先读state再读lastWindowIndex，看到新窗口的state时一定能看到对应的lastWindowIndex
+            long current = state;
+            long stateIndex = current >>> (2 * COUNT_BITS);
+            long diff = (index - stateIndex) & INDEX_MASK;
+            long nextIndex = index;
+            long windowOffset = offset;
+            long previousCount;
+            long currentCount;
+            if (windowIndex - lastWindowIndex >= HALF_INDEX_RANGE || (diff > 1 && diff < HALF_INDEX_RANGE)) {
+                previousCount = 0;
+                currentCount = 0;
+            } else if (diff == 0) {
+                previousCount = (current >>> COUNT_BITS) & COUNT_MASK;
+                currentCount = current & COUNT_MASK;
+            } else if (diff == 1) {
+                previousCount = current & COUNT_MASK;
+                currentCount = 0;
+            } else {
+                // 其他线程已经进入了之后的窗口，按该窗口开始时的计数判断，不能把窗口序号改回去
+                previousCount = (current >>> COUNT_BITS) & COUNT_MASK;
+                currentCount = current & COUNT_MASK;
+                nextIndex = stateIndex;
+                windowOffset = 0;
+            }
+            double weight = 1 - (double) windowOffset / windowNanos;
+            if (previousCount * weight + currentCount + permits > limit) {
+                return waitNanos (permits, previousCount, currentCount, windowOffset);
+            }
+            if (windowIndex > lastWindowIndex) {
+                lastWindowIndex = windowIndex;
+            }
+            long next = (nextIndex << (2 * COUNT_BITS)) | (previousCount << COUNT_BITS) | (currentCount + permits);
+            if (STATE.compareAndSet (this, current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 估算上一个窗口的计数滑出多少后可以获取到许可，当前窗口已满时等到下一个窗口
+     */
+    private long waitNanos (int permits, long previousCount, long currentCount, long offset) {
+        long free = limit - currentCount - permits;
+        if (free < 0 || previousCount == 0) {
+            return Math.max (1L, windowNanos - offset);
+        }
+        // previousCount * (1 - x) <= free
+        double ratio = 1 - (double) free / previousCount;
+        return Math.max (1L, (long) Math.ceil (ratio * windowNanos) - offset);
+    }
+
+    @Override
+    int getMaxPermits () {
+        return limit;
+    }
+
+    @Override
+    boolean isIdle (long nowNanos) {
+        long windowIndex = Math.max (0L, nowNanos - startNanos) / windowNanos;
+        long current = state;
+        if (windowIndex - lastWindowIndex >= HALF_INDEX_RANGE) {
+            return true;
+        }
+        long diff = ((windowIndex & INDEX_MASK) - (current >>> (2 * COUNT_BITS))) & INDEX_MASK;
+        if (diff >= HALF_INDEX_RANGE) {
+            // state已经在之后的窗口
+            return false;
+        }
+        return diff > 1 || (diff == 1 && (current & COUNT_MASK) == 0)
+                || (diff == 0 && (current & ((COUNT_MASK << COUNT_BITS) | COUNT_MASK)) == 0);
+    }
+
+    public int getLimit () {
+        return limit;
+    }
+
+    public long getWindow (TimeUnit unit) {
+        return unit.convert (windowNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString () {
+        return "SlidingWindowRateLimiter[" + getName () + ", limit = " + limit + ", window = " + windowNanos + "ns]";
+    }
+
+    private static final AtomicLongFieldUpdater<SlidingWindowRateLimiter> STATE =
+            AtomicLongFieldUpdater.newUpdater (SlidingWindowRateLimiter.class, "state");
+}
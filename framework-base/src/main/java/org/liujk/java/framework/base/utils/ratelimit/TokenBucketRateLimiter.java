@@ -0,0 +1,132 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 说明：
+ * <p>
+ * 令牌桶限流器：令牌按permitsPerSecond的速率补充，桶中最多capacity个令牌，允许capacity以内的突发。
+ * <p>
+ * 1、按GCRA(通用信元速率算法)实现，与令牌桶等价：不记录令牌数和补充时间两个值，只记录一个"理论到达时间"tat，
+ * 每获取n个许可tat向后推进n个发放间隔，tat超过当前时间capacity个间隔时说明令牌不足。
+ * 状态只有一个long，获取许可是一次CAS，不需要把两个值拼在一个long里。
+ * <p>
+ * 2、创建时桶是满的；长时间没有调用后桶重新变满，不会积累超过capacity的令牌。
+ */
+public class TokenBucketRateLimiter extends AbstractRateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos (1);
+
+    private final double permitsPerSecond;
+    private final int capacity;
+    /**
+     * 每个令牌的发放间隔
+     */
+    private final double intervalNanos;
+    /**
+     * 允许tat超前当前时间的最大值，即capacity个令牌
+     */
+    private final long toleranceNanos;
+    /**
+     * 理论到达时间，小于等于当前时间时桶是满的
+     */
+    volatile long tat;
+
+    /**
+     * 桶容量为一秒的许可数
+     *
+     * @param name             名称，用作监控名称
+     * @param permitsPerSecond 每秒许可数
+     */
+    public TokenBucketRateLimiter (String name, double permitsPerSecond) {
+        this (name, permitsPerSecond, (int) Math.max (1, Math.min (Integer.MAX_VALUE, permitsPerSecond)));
+    }
+
+    /**
+     * @param name             名称，用作监控名称
+     * @param permitsPerSecond 每秒许可数
+     * @param capacity         桶容量，即允许的突发许可数
+     */
+    public TokenBucketRateLimiter (String name, double permitsPerSecond, int capacity) {
+        super (name);
+        checkArguments (permitsPerSecond, capacity);
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.intervalNanos = NANOS_PER_SECOND / permitsPerSecond;
+        this.toleranceNanos = (long) (intervalNanos * capacity);
+        this.tat = System.nanoTime ();
+    }
+
+    TokenBucketRateLimiter (RateLimiterMetrics metrics, double permitsPerSecond, int capacity, long nowNanos) {
+        super (metrics);
+        checkArguments (permitsPerSecond, capacity);
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.intervalNanos = NANOS_PER_SECOND / permitsPerSecond;
+        this.toleranceNanos = (long) (intervalNanos * capacity);
+        this.tat = nowNanos;
+    }
+
+    private static void checkArguments (double permitsPerSecond, int capacity) {
+        if (!(permitsPerSecond > 0) || permitsPerSecond > NANOS_PER_SECOND) {
+            throw new IllegalArgumentException ("permitsPerSecond必须在(0,1e9]之间:" + permitsPerSecond);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException ("capacity必须大于0:" + capacity);
+        }
+    }
+
+    @Override
+    long tryAcquireOrWait (int permits, long nowNanos) {
+        long cost = (long) (intervalNanos * permits);
+        for (; ; ) {
+            long current = tat;
+            long base = current - nowNanos > 0 ? current : nowNanos;
+            long next = base + cost;
+            long waitNanos = next - nowNanos - toleranceNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (TAT.compareAndSet (this, current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    int getMaxPermits () {
+        return capacity;
+    }
+
+    @Override
+    boolean isIdle (long nowNanos) {
+        return tat - nowNanos <= 0;
+    }
+
+    /**
+     * 当前可以立即获取的许可数
+     */
+    public int getAvailablePermits () {
+        long now = System.nanoTime ();
+        long ahead = Math.max (0L, tat - now);
+        return (int) Math.min (capacity, Math.max (0L, (long) ((toleranceNanos - ahead) / intervalNanos)));
+    }
+
+    public double getPermitsPerSecond () {
+        return permitsPerSecond;
+    }
+
+    public int getCapacity () {
+        return capacity;
+    }
+
+    @Override
+    public String toString () {
+        return "TokenBucketRateLimiter[" + getName () + ", permitsPerSecond = " + permitsPerSecond + ", capacity = "
+                + capacity + "]";
+    }
+
+    private static final AtomicLongFieldUpdater<TokenBucketRateLimiter> TAT =
+            AtomicLongFieldUpdater.newUpdater (TokenBucketRateLimiter.class, "tat");
+}
@@ -0,0 +1,278 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 说明：
+ * <p>
+ * 自适应并发限制器，按每次调用的耗时(RTT)用Vegas算法调整允许同时执行的调用数，
+ * 下游变慢时限制随之下降，超过限制的调用立即被拒绝，而不是在线程池、连接池中排队。
+ * <p>
+ * 1、记录一段时间内的最小RTT作为无负载RTT，按 limit * (1 - 无负载RTT / RTT) 估算排队的调用数：
+ * 排队数很小时增加限制，超过6*log10(limit)时减少限制，调用失败(超时、连接池耗尽等)时限制乘以0.9。
+ * 每隔约30*limit次调用重新测量无负载RTT，适应下游的变化。
+ * <p>
+ * 2、获取和释放许可只使用CAS，不加锁；并发数不到限制的一半时不增加限制，避免空闲时限制无限增长。
+ * <p>
+ * 3、监控指标(通过{@link MetricsHolder}注册)：tp.concurrencyLimit：当前限制，tp.inFlight：正在执行的调用数，
+ * tp.limitRejected：被拒绝的调用数。{@link #close()}时注销。
+ * <p>
+ * 使用方式：
+ * <pre>
+ * AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire ();
+ * if (permit == null) {
+ *     // 快速失败
+ * }
+ * try {
+ *     call ();
+ *     permit.onSuccess ();
+ * } catch (TimeoutException e) {
+ *     permit.onDropped ();
+ * }
+ * </pre>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger (AdaptiveConcurrencyLimiter.class);
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+
+    private static final int PROBE_MULTIPLIER = 30;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger (0);
+    /**
+     * 无负载RTT，0表示还没有测量
+     */
+    private final AtomicLong rttNoLoad = new AtomicLong (0);
+    private final AtomicLong sampleCount = new AtomicLong (0);
+    private volatile long nextProbe;
+    private final Counter rejected = new Counter ();
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Metric> metricMap = new LinkedHashMap<> ();
+
+    public AdaptiveConcurrencyLimiter (String name) {
+        this (name, DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param name         名称，用作监控名称
+     * @param initialLimit 初始限制
+     * @param minLimit     最小限制
+     * @param maxLimit     最大限制
+     */
+    public AdaptiveConcurrencyLimiter (String name, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException ("限制范围错误:[" + minLimit + "," + maxLimit + "]");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException ("initialLimit必须在[" + minLimit + "," + maxLimit + "]之间:"
+                                                        + initialLimit);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = new AtomicInteger (initialLimit);
+        this.nextProbe = probeInterval (initialLimit);
+        registerMetrics ();
+    }
+
+    /**
+     * 获取许可
+     *
+     * @return 超过限制时返回null
+     */
+    public Permit tryAcquire () {
+        for (; ; ) {
+            int current = inFlight.get ();
+            if (current >= limit.get ()) {
+                rejected.inc ();
+                return null;
+            }
+            if (inFlight.compareAndSet (current, current + 1)) {
+                return new Permit (System.nanoTime (), current + 1);
+            }
+        }
+    }
+
+    private void release (Permit permit, boolean dropped, boolean sample) {
+        inFlight.decrementAndGet ();
+        if (sample) {
+            onSample (System.nanoTime () - permit.startNanos, permit.inFlight, dropped);
+        }
+    }
+
+    private void onSample (long rtt, int inFlightAtStart, boolean dropped) {
+        if (rtt <= 0) {
+            rtt = 1;
+        }
+        long count = sampleCount.incrementAndGet ();
+        if (count >= nextProbe) {
+            // 重新测量无负载RTT
+            nextProbe = count + probeInterval (limit.get ());
+            rttNoLoad.set (rtt);
+            return;
+        }
+        long noLoad;
+        while ((noLoad = rttNoLoad.get ()) == 0 || rtt < noLoad) {
+            if (rttNoLoad.compareAndSet (noLoad, rtt)) {
+                noLoad = rtt;
+                break;
+            }
+        }
+
+        int current = limit.get ();
+        int step = Math.max (1, (int) Math.log10 (current));
+        int next;
+        if (dropped) {
+            next = Math.min (current - step, (int) (current * BACKOFF_RATIO));
+        } else if (inFlightAtStart * 2 < current) {
+            return;
+        } else {
+            int queueSize = (int) Math.ceil (current * (1 - (double) noLoad / rtt));
+            if (queueSize <= step) {
+                next = current + 6 * step;
+            } else if (queueSize < 3 * step) {
+                next = current + step;
+            } else if (queueSize > 6 * step) {
+                next = current - step;
+            } else {
+                return;
+            }
+        }
+        next = Math.max (minLimit, Math.min (maxLimit, next));
+        // 并发更新时放弃本次调整，以其他线程的结果为准
+        if (next != current && limit.compareAndSet (current, next) && logger.isDebugEnabled ()) {
+            logger.debug ("并发限制[{}]调整:{}->{},rtt={}ns,rttNoLoad={}ns", name, current, next, rtt, noLoad);
+        }
+    }
+
+    private static long probeInterval (int limit) {
+        return PROBE_MULTIPLIER * (long) limit + ThreadLocalRandom.current ().nextInt (limit + 1);
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * 当前允许同时执行的调用数
+     */
+    public int getLimit () {
+        return limit.get ();
+    }
+
+    /**
+     * 正在执行的调用数
+     */
+    public int getInFlight () {
+        return inFlight.get ();
+    }
+
+    /**
+     * 被拒绝的调用数
+     */
+    public long getRejectedCount () {
+        return rejected.getCount ();
+    }
+
+    /**
+     * 无负载RTT，还没有测量时返回0
+     */
+    public long getRttNoLoad (TimeUnit unit) {
+        return unit.convert (rttNoLoad.get (), TimeUnit.NANOSECONDS);
+    }
+
+    private void registerMetrics () {
+        metricMap.put (MetricRegistry.name ("tp", "concurrencyLimit", name), (Gauge<Integer>) this::getLimit);
+        metricMap.put (MetricRegistry.name ("tp", "inFlight", name), (Gauge<Integer>) this::getInFlight);
+        metricMap.put (MetricRegistry.name ("tp", "limitRejected", name), rejected);
+        for (Map.Entry<String, Metric> entry : metricMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * 注销监控指标
+     */
+    public void close () {
+        for (String metricName : metricMap.keySet ()) {
+            metricRegistry.remove (metricName);
+        }
+    }
+
+    @Override
+    public String toString () {
+        return "AdaptiveConcurrencyLimiter[" + name + ", limit = " + limit.get () + ", in flight = "
+                + inFlight.get () + "]";
+    }
+
+    /**
+     * 一次调用的许可，必须且只需调用一次onSuccess、onDropped、onIgnore之一，重复调用被忽略
+     */
+    public final class Permit {
+        private final long startNanos;
+        private final int inFlight;
+        volatile int released;
+
+        Permit (long startNanos, int inFlight) {
+            this.startNanos = startNanos;
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * 调用成功，按耗时调整限制
+         */
+        public void onSuccess () {
+            if (RELEASED.compareAndSet (this, 0, 1)) {
+                release (this, false, true);
+            }
+        }
+
+        /**
+         * 调用因超时、资源耗尽等过载原因失败，减少限制
+         */
+        public void onDropped () {
+            if (RELEASED.compareAndSet (this, 0, 1)) {
+                release (this, true, true);
+            }
+        }
+
+        /**
+         * 调用没有执行或耗时没有参考价值，只释放许可
+         */
+        public void onIgnore () {
+            if (RELEASED.compareAndSet (this, 0, 1)) {
+                release (this, false, false);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Permit> RELEASED =
+            AtomicIntegerFieldUpdater.newUpdater (Permit.class, "released");
+}
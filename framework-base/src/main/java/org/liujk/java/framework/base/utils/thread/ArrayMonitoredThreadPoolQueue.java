@@ -0,0 +1,369 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 说明：
+ * <p>
+ * 基于环形数组的低竞争有界任务队列，入队、出队语义与{@link MonitoredThreadPoolQueue}相同：线程数未达到最大线程数且没有空闲线程时
+ * 先创建线程，否则放入队列；队列满时由{@link ReporttingRejectedExecutionHandler}调用{@link #force(Runnable)}。
+ * <p>
+ * 与基于LinkedBlockingQueue的实现相比：
+ * <p>
+ * 1、入队、出队各自只CAS一个计数器，两个计数器做了缓存行填充，生产者之间、生产者和消费者之间不争用同一把锁，入队不分配节点；
+ * <p>
+ * 2、判断是否创建线程时读取{@link MonitoredThreadPoolExecutor#getPoolSizeSnapshot()}和最大线程数，
+ * 不会像{@link java.util.concurrent.ThreadPoolExecutor#getPoolSize()}一样获取线程池的全局锁；
+ * <p>
+ * 3、只有消费者没有取到任务需要阻塞等待时才使用锁，生产者在没有等待的消费者时不加锁。
+ * <p>
+ * 容量向上取整为2的幂。{@link #remove(Object)}只把对应位置标记为已删除，位置在消费者取到时才释放，
+ * 因此删除的任务在被跳过之前仍然计入{@link #size()}。
+ */
+public class ArrayMonitoredThreadPoolQueue extends AbstractQueue<Runnable> implements MonitoredTaskQueue {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * put()队列满时每次等待的时间
+     */
+    private static final long PUT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos (100);
+
+    /**
+     * 已删除的任务占位
+     */
+    private static final Runnable REMOVED = new Runnable () {
+        @Override
+        public void run () {
+        }
+    };
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Runnable> slots;
+    /**
+     * 每个位置的序号：等于pos表示可写入第pos个元素，等于pos + 1表示第pos个元素可读取
+     */
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong enqueuePosition = new PaddedAtomicLong ();
+    private final PaddedAtomicLong dequeuePosition = new PaddedAtomicLong ();
+
+    private final ReentrantLock takeLock = new ReentrantLock ();
+    private final Condition notEmpty = takeLock.newCondition ();
+    private final AtomicInteger waitingConsumers = new AtomicInteger (0);
+
+    private volatile MonitoredThreadPoolExecutor parent = null;
+
+    public ArrayMonitoredThreadPoolQueue (int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException ("capacity必须在[1, " + MAX_CAPACITY + "]之间:" + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit (capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<> (this.capacity);
+        this.sequences = new AtomicLongArray (this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set (i, i);
+        }
+    }
+
+    @Override
+    public void setParent (MonitoredThreadPoolExecutor tp) {
+        parent = tp;
+    }
+
+    /**
+     * 实际容量
+     */
+    public int getCapacity () {
+        return capacity;
+    }
+
+    @Override
+    public boolean offer (Runnable o) {
+        MonitoredThreadPoolExecutor tp = parent;
+        if (tp == null) {
+            return enqueue (o);
+        }
+        int poolSize = tp.getPoolSizeSnapshot ();
+        int maximumPoolSize = tp.getMaximumPoolSize ();
+        // 当线程池到达最大后，把任务放入queue
+        if (poolSize >= maximumPoolSize) {
+            return enqueue (o);
+        }
+        // 如果有空闲线程，把任务放入队列
+        if (tp.getSubmittedCount () < poolSize) {
+            return enqueue (o);
+        }
+        // 线程没有达到最大线程，创建新线程
+        return false;
+    }
+
+    @Override
+    public boolean force (Runnable o) {
+        if (parent == null || parent.isShutdown ()) {
+            throw new RejectedExecutionException ("线程池已关闭，提交任务失败");
+        }
+        return enqueue (o);
+    }
+
+    @Override
+    public void put (Runnable o) throws InterruptedException {
+        while (!enqueue (o)) {
+            if (Thread.interrupted ()) {
+                throw new InterruptedException ();
+            }
+            LockSupport.parkNanos (this, PUT_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer (Runnable o, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime () + unit.toNanos (timeout);
+        while (!enqueue (o)) {
+            if (Thread.interrupted ()) {
+                throw new InterruptedException ();
+            }
+            long remaining = deadline - System.nanoTime ();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos (this, Math.min (remaining, PUT_PARK_NANOS));
+        }
+        return true;
+    }
+
+    @Override
+    public Runnable poll () {
+        while (true) {
+            long pos = dequeuePosition.get ();
+            int index = (int) pos & mask;
+            long diff = sequences.get (index) - (pos + 1);
+            if (diff == 0) {
+                if (dequeuePosition.compareAndSet (pos, pos + 1)) {
+                    Runnable task = slots.getAndSet (index, null);
+                    sequences.lazySet (index, pos + capacity);
+                    if (task != REMOVED) {
+                        return task;
+                    }
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Runnable take () throws InterruptedException {
+        Runnable task = poll ();
+        if (task != null) {
+            return task;
+        }
+        takeLock.lockInterruptibly ();
+        waitingConsumers.incrementAndGet ();
+        try {
+            while ((task = poll ()) == null) {
+                notEmpty.await ();
+            }
+            return task;
+        } finally {
+            waitingConsumers.decrementAndGet ();
+            takeLock.unlock ();
+        }
+    }
+
+    @Override
+    public Runnable poll (long timeout, TimeUnit unit) throws InterruptedException {
+        Runnable task = poll ();
+        if (task != null) {
+            return task;
+        }
+        long nanos = unit.toNanos (timeout);
+        takeLock.lockInterruptibly ();
+        waitingConsumers.incrementAndGet ();
+        try {
+            while ((task = poll ()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos (nanos);
+            }
+            return task;
+        } finally {
+            waitingConsumers.decrementAndGet ();
+            takeLock.unlock ();
+        }
+    }
+
+    @Override
+    public Runnable peek () {
+        long tail = enqueuePosition.get ();
+        for (long pos = dequeuePosition.get (); pos < tail; pos++) {
+            Runnable task = slots.get ((int) pos & mask);
+            if (task != null && task != REMOVED) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把队列中的任务标记为已删除，线程池取消任务、purge时使用
+     */
+    @Override
+    public boolean remove (Object o) {
+        if (o == null) {
+            return false;
+        }
+        long tail = enqueuePosition.get ();
+        for (long pos = dequeuePosition.get (); pos < tail; pos++) {
+            int index = (int) pos & mask;
+            Runnable task = slots.get (index);
+            if (task != REMOVED && o.equals (task) && slots.compareAndSet (index, task, REMOVED)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size () {
+        while (true) {
+            long head = dequeuePosition.get ();
+            long tail = enqueuePosition.get ();
+            if (head == dequeuePosition.get ()) {
+                long size = tail - head;
+                return size <= 0 ? 0 : (int) Math.min (size, capacity);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty () {
+        return size () == 0;
+    }
+
+    @Override
+    public int remainingCapacity () {
+        return capacity - size ();
+    }
+
+    @Override
+    public int drainTo (Collection<? super Runnable> c) {
+        return drainTo (c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo (Collection<? super Runnable> c, int maxElements) {
+        Objects.requireNonNull (c);
+        if (c == this) {
+            throw new IllegalArgumentException ();
+        }
+        int n = 0;
+        Runnable task;
+        while (n < maxElements && (task = poll ()) != null) {
+            c.add (task);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 返回当前任务的快照，迭代器的remove调用{@link #remove(Object)}
+     */
+    @Override
+    public Iterator<Runnable> iterator () {
+        List<Runnable> snapshot = new ArrayList<> ();
+        long tail = enqueuePosition.get ();
+        for (long pos = dequeuePosition.get (); pos < tail; pos++) {
+            Runnable task = slots.get ((int) pos & mask);
+            if (task != null && task != REMOVED) {
+                snapshot.add (task);
+            }
+        }
+        final Iterator<Runnable> it = snapshot.iterator ();
+        return new Iterator<Runnable> () {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext () {
+                return it.hasNext ();
+            }
+
+            @Override
+            public Runnable next () {
+                last = it.next ();
+                return last;
+            }
+
+            @Override
+            public void remove () {
+                if (last == null) {
+                    throw new IllegalStateException ();
+                }
+                ArrayMonitoredThreadPoolQueue.this.remove (last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * 不考虑线程池状态放入队列
+     *
+     * @return 队列已满时返回false
+     */
+    private boolean enqueue (Runnable task) {
+        Objects.requireNonNull (task);
+        while (true) {
+            long pos = enqueuePosition.get ();
+            int index = (int) pos & mask;
+            long diff = sequences.get (index) - pos;
+            if (diff == 0) {
+                if (enqueuePosition.compareAndSet (pos, pos + 1)) {
+                    slots.lazySet (index, task);
+                    // 必须是volatile写，保证之后读取waitingConsumers时不会漏掉正在进入等待的消费者
+                    sequences.set (index, pos + 1);
+                    signalNotEmpty ();
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    private void signalNotEmpty () {
+        if (waitingConsumers.get () > 0) {
+            takeLock.lock ();
+            try {
+                notEmpty.signal ();
+            } finally {
+                takeLock.unlock ();
+            }
+        }
+    }
+
+    /**
+     * 后面填充56字节，避免入队、出队计数器与其他频繁修改的字段位于同一缓存行
+     */
+    @SuppressWarnings ("unused")
+    static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
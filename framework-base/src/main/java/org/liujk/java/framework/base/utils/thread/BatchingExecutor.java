@@ -0,0 +1,354 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.LatencyRecorder;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 说明：
+ * <p>
+ * 微批执行器：把逐个提交的数据合并成批，一次调用批处理方法，减少Redis、数据库等的往返次数。
+ * <p>
+ * 1、提交的数据进入无锁队列，批次在以下任一条件满足时发出：凑满maxBatchSize条，或者最早的一条已等待linger时间。
+ * 单独的flush线程只负责切分批次，批处理方法在工作线程池中执行，不阻塞flush线程。
+ * <p>
+ * 2、批处理方法返回与输入顺序、数量一致的结果，每条数据的CompletableFuture以自己的结果完成；
+ * 批处理方法抛出异常、返回数量不一致或工作线程池拒绝时，该批所有数据的Future以异常完成。
+ * <p>
+ * 3、监控指标(通过{@link MetricsHolder}注册)：tp.batchSize.[name]：批次大小分布，
+ * tp.batchLinger.[name]：批次中最早一条数据等待发出的时间分布(纳秒)，tp.taskInQueue.[name]：还没有发出的数据数。
+ * {@link #shutdown()}时注销。
+ * <p>
+ * 4、一个批次包含不同线程提交的数据，批处理方法中不传递提交线程的GID等线程上下文。
+ *
+ * @param <T> 数据类型
+ * @param <R> 每条数据的结果类型
+ */
+public class BatchingExecutor<T, R> {
+
+    private static final Logger logger = LoggerFactory.getLogger (BatchingExecutor.class);
+
+    private final String name;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BatchHandler<T, R> handler;
+    private final ExecutorService workerExecutor;
+    private final boolean ownWorkerExecutor;
+    private final Queue<Item<T, R>> items = new ConcurrentLinkedQueue<> ();
+    private final AtomicInteger pending = new AtomicInteger (0);
+    private final Thread flushThread;
+    private volatile boolean shutdown = false;
+
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Metric> metricMap = new LinkedHashMap<> ();
+    private final Histogram batchSizeHistogram = new Histogram (new LatencyRecorder ());
+    private final Histogram lingerHistogram = new Histogram (new LatencyRecorder ());
+
+    /**
+     * 使用单独的工作线程池，shutdown时一起关闭
+     *
+     * @param name          名称，用作监控名称和线程名前缀
+     * @param maxBatchSize  批次的最大数据条数
+     * @param linger        数据最多等待多长时间发出
+     * @param unit          时间单位
+     * @param workerThreads 执行批处理方法的线程数
+     * @param handler       批处理方法
+     */
+    public BatchingExecutor (String name, int maxBatchSize, long linger, TimeUnit unit, int workerThreads,
+                             BatchHandler<T, R> handler) {
+        this (name, maxBatchSize, linger, unit, newWorkerExecutor (name, workerThreads), true, handler);
+    }
+
+    /**
+     * @param name           名称，用作监控名称和线程名前缀
+     * @param maxBatchSize   批次的最大数据条数
+     * @param linger         数据最多等待多长时间发出
+     * @param unit           时间单位
+     * @param workerExecutor 执行批处理方法的线程池，shutdown时不关闭
+     * @param handler        批处理方法
+     */
+    public BatchingExecutor (String name, int maxBatchSize, long linger, TimeUnit unit,
+                             ExecutorService workerExecutor, BatchHandler<T, R> handler) {
+        this (name, maxBatchSize, linger, unit, workerExecutor, false, handler);
+    }
+
+    private BatchingExecutor (String name, int maxBatchSize, long linger, TimeUnit unit,
+                              ExecutorService workerExecutor, boolean ownWorkerExecutor,
+                              BatchHandler<T, R> handler) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException ("maxBatchSize必须大于0:" + maxBatchSize);
+        }
+        if (linger < 0) {
+            throw new IllegalArgumentException ("linger不能小于0:" + linger);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = unit.toNanos (linger);
+        this.handler = Objects.requireNonNull (handler);
+        this.workerExecutor = Objects.requireNonNull (workerExecutor);
+        this.ownWorkerExecutor = ownWorkerExecutor;
+        initializeMetricMap ();
+        registerMetrics ();
+        this.flushThread = new Thread (new Flusher (), name + "-flush");
+        flushThread.setDaemon (true);
+        flushThread.start ();
+    }
+
+    private static ExecutorService newWorkerExecutor (String name, int workerThreads) {
+        ArrayMonitoredThreadPoolQueue queue = new ArrayMonitoredThreadPoolQueue (1024);
+        // 不能在flush线程中执行批处理方法，队列满时拒绝
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (
+                workerThreads, workerThreads, 60, TimeUnit.SECONDS, queue, new NamedThreadFactory (name + "-worker"),
+                new ReporttingRejectedExecutionHandler (name, ReporttingRejectedExecutionHandler.Policy.abortPolicy));
+        queue.setParent (executor);
+        executor.setMetrics (name + "-worker");
+        executor.initialize ();
+        return executor;
+    }
+
+    /**
+     * 提交一条数据
+     *
+     * @param item 数据
+     *
+     * @return 该条数据的结果
+     * @throws RejectedExecutionException 执行器已关闭
+     */
+    public CompletableFuture<R> submit (T item) {
+        if (shutdown) {
+            throw new RejectedExecutionException ("BatchingExecutor[" + name + "]已关闭");
+        }
+        Item<T, R> entry = new Item<> (item, System.nanoTime ());
+        items.add (entry);
+        int count = pending.incrementAndGet ();
+        // 与shutdown并发时，flush线程可能已经退出
+        if (shutdown && items.remove (entry)) {
+            pending.decrementAndGet ();
+            throw new RejectedExecutionException ("BatchingExecutor[" + name + "]已关闭");
+        }
+        // 队列由空变为非空时flush线程开始计时，凑满一批时立即发出
+        if (count == 1 || count % maxBatchSize == 0) {
+            LockSupport.unpark (flushThread);
+        }
+        return entry.future;
+    }
+
+    /**
+     * 关闭执行器，不再接受新数据，已提交的数据立即发出；自己创建的工作线程池执行完后关闭
+     */
+    public void shutdown () {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+        }
+        LockSupport.unpark (flushThread);
+        boolean interrupted = false;
+        while (flushThread.isAlive ()) {
+            try {
+                flushThread.join (100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread ().interrupt ();
+        }
+        if (ownWorkerExecutor) {
+            workerExecutor.shutdown ();
+        }
+        unregisterMetrics ();
+    }
+
+    /**
+     * 等待自己创建的工作线程池执行完所有批次
+     */
+    public boolean awaitTermination (long timeout, TimeUnit unit) throws InterruptedException {
+        return workerExecutor.awaitTermination (timeout, unit);
+    }
+
+    public boolean isShutdown () {
+        return shutdown;
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public int getMaxBatchSize () {
+        return maxBatchSize;
+    }
+
+    public long getLinger (TimeUnit unit) {
+        return unit.convert (lingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 还没有发出的数据数
+     */
+    public int getPendingCount () {
+        return pending.get ();
+    }
+
+    Histogram getBatchSizeHistogram () {
+        return batchSizeHistogram;
+    }
+
+    private void dispatch (List<Item<T, R>> batch) {
+        long now = System.nanoTime ();
+        batchSizeHistogram.update (batch.size ());
+        lingerHistogram.update (Math.max (0L, now - batch.get (0).enqueueNanos));
+        try {
+            workerExecutor.execute (() -> handle (batch));
+        } catch (RejectedExecutionException e) {
+            logger.error ("BatchingExecutor[{}]的工作线程池拒绝执行批次,大小:{}", name, batch.size (), e);
+            completeExceptionally (batch, e);
+        }
+    }
+
+    private void handle (List<Item<T, R>> batch) {
+        List<T> input = new ArrayList<> (batch.size ());
+        for (Item<T, R> item : batch) {
+            input.add (item.value);
+        }
+        List<R> results;
+        try {
+            results = handler.handle (input);
+        } catch (Throwable t) {
+            logger.warn ("BatchingExecutor[{}]的批处理方法执行失败,大小:{}", name, batch.size (), t);
+            completeExceptionally (batch, t);
+            return;
+        }
+        if (results == null || results.size () != batch.size ()) {
+            completeExceptionally (batch, new IllegalStateException (
+                    "批处理方法返回的结果数量与输入不一致:" + batch.size () + "!=" + (results == null ? null : results.size ())));
+            return;
+        }
+        for (int i = 0; i < batch.size (); i++) {
+            batch.get (i).future.complete (results.get (i));
+        }
+    }
+
+    private static <T, R> void completeExceptionally (List<Item<T, R>> batch, Throwable t) {
+        for (Item<T, R> item : batch) {
+            item.future.completeExceptionally (t);
+        }
+    }
+
+    private void initializeMetricMap () {
+        metricMap.put (MetricRegistry.name ("tp", "batchSize", name), batchSizeHistogram);
+        metricMap.put (MetricRegistry.name ("tp", "batchLinger", name), lingerHistogram);
+        metricMap.put (MetricRegistry.name ("tp", "taskInQueue", name), (Gauge<Integer>) this::getPendingCount);
+    }
+
+    private void registerMetrics () {
+        for (Map.Entry<String, Metric> entry : metricMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    private void unregisterMetrics () {
+        for (String metricName : metricMap.keySet ()) {
+            metricRegistry.remove (metricName);
+        }
+    }
+
+    @Override
+    public String toString () {
+        return "BatchingExecutor[" + name + ", max batch size = " + maxBatchSize + ", linger = " + lingerNanos
+                + "ns, pending = " + pending.get () + "]";
+    }
+
+    /**
+     * 批处理方法
+     *
+     * @param <T> 数据类型
+     * @param <R> 每条数据的结果类型
+     */
+    @FunctionalInterface
+    public interface BatchHandler<T, R> {
+
+        /**
+         * @param items 一个批次的数据，按提交顺序排列
+         *
+         * @return 与items顺序、数量一致的结果
+         */
+        List<R> handle (List<T> items) throws Exception;
+    }
+
+    private static final class Item<T, R> {
+        private final T value;
+        private final long enqueueNanos;
+        private final CompletableFuture<R> future = new CompletableFuture<> ();
+
+        Item (T value, long enqueueNanos) {
+            this.value = value;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+
+    /**
+     * flush线程，只有它从队列中取数据
+     */
+    private final class Flusher implements Runnable {
+
+        @Override
+        public void run () {
+            for (; ; ) {
+                boolean stopping = shutdown;
+                Item<T, R> head = items.peek ();
+                if (head == null) {
+                    if (stopping) {
+                        return;
+                    }
+                    LockSupport.park (this);
+                    continue;
+                }
+                long waitNanos = head.enqueueNanos + lingerNanos - System.nanoTime ();
+                if (!stopping && waitNanos > 0 && pending.get () < maxBatchSize) {
+                    LockSupport.parkNanos (this, waitNanos);
+                    continue;
+                }
+                try {
+                    dispatch (drain ());
+                } catch (RuntimeException e) {
+                    logger.error ("BatchingExecutor[{}]发出批次失败", name, e);
+                }
+            }
+        }
+
+        private List<Item<T, R>> drain () {
+            List<Item<T, R>> batch = new ArrayList<> (Math.min (maxBatchSize, Math.max (pending.get (), 1)));
+            Item<T, R> item;
+            while (batch.size () < maxBatchSize && (item = items.poll ()) != null) {
+                batch.add (item);
+            }
+            pending.addAndGet (-batch.size ());
+            return batch;
+        }
+    }
+}
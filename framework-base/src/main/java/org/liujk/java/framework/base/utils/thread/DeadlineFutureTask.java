@@ -0,0 +1,59 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.liujk.java.framework.base.utils.thread.priority.Priorityable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 说明：
+ * <p>
+ * 有截止时间的FutureTask，过期没有执行时以异常结束，get抛出{@link java.util.concurrent.ExecutionException}，
+ * cause为{@link TimeoutException}，与get(timeout, unit)等待超时时直接抛出的TimeoutException区分。
+ * 调用get的线程不会一直等待一个不会执行的任务。保留原任务的优先级。
+ */
+class DeadlineFutureTask<V> extends FutureTask<V> implements DeadlineTask, Priorityable {
+
+    private final Object source;
+    private final long deadlineNanos;
+
+    DeadlineFutureTask (Callable<V> callable, Object source, long deadlineNanos) {
+        super (callable);
+        this.source = source;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    DeadlineFutureTask (Runnable runnable, V result, Object source, long deadlineNanos) {
+        super (runnable, result);
+        this.source = source;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public long getDeadlineNanos () {
+        return deadlineNanos;
+    }
+
+    @Override
+    public void onExpired () {
+        try {
+            if (source instanceof DeadlineTask) {
+                ((DeadlineTask) source).onExpired ();
+            }
+        } finally {
+            setException (new TimeoutException ("任务在队列中等待超过截止时间，没有执行"));
+        }
+    }
+
+    @Override
+    public Priority getPriority () {
+        return source instanceof Priorityable ? ((Priorityable) source).getPriority () : Priority.NORMAL;
+    }
+
+    @Override
+    public int getPriorityLevel () {
+        return source instanceof Priorityable ? ((Priorityable) source).getPriorityLevel ()
+                : Priority.NORMAL.ordinal ();
+    }
+}
@@ -0,0 +1,55 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.liujk.java.framework.base.utils.thread.priority.Priorityable;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 给普通任务加上截止时间，截止时间从创建时开始计算，保留原任务的优先级。
+ */
+public class DeadlineRunnable implements Runnable, DeadlineTask, Priorityable {
+
+    private final Runnable task;
+    private final long deadlineNanos;
+
+    /**
+     * @param task    任务
+     * @param timeout 从现在开始最多等待的时间，超过后任务不再执行
+     * @param unit    时间单位
+     */
+    public DeadlineRunnable (Runnable task, long timeout, TimeUnit unit) {
+        this.task = Objects.requireNonNull (task);
+        this.deadlineNanos = System.nanoTime () + unit.toNanos (timeout);
+    }
+
+    @Override
+    public long getDeadlineNanos () {
+        return deadlineNanos;
+    }
+
+    @Override
+    public void onExpired () {
+        if (task instanceof DeadlineTask) {
+            ((DeadlineTask) task).onExpired ();
+        }
+    }
+
+    @Override
+    public Priority getPriority () {
+        return task instanceof Priorityable ? ((Priorityable) task).getPriority () : Priority.NORMAL;
+    }
+
+    @Override
+    public int getPriorityLevel () {
+        return task instanceof Priorityable ? ((Priorityable) task).getPriorityLevel ()
+                : Priority.NORMAL.ordinal ();
+    }
+
+    @Override
+    public void run () {
+        task.run ();
+    }
+}
@@ -0,0 +1,36 @@
+package org.liujk.java.framework.base.utils.thread;
+
+/**
+ * 说明：
+ * <p>
+ * 有截止时间的任务。{@link MonitoredThreadPoolExecutor}的工作线程从队列中取出任务后先检查截止时间，
+ * 已过期的任务不再执行，而是调用{@link #onExpired()}并计入tp.expired指标。
+ * <p>
+ * 过载时任务在队列中等待的时间可能超过调用方的超时时间，这时执行任务已经没有意义，
+ * 丢弃过期任务可以让线程尽快处理还有人等待结果的任务。
+ * <p>
+ * 可以让任务直接实现该接口，也可以使用{@link DeadlineRunnable}
+ * 或{@link MonitoredThreadPoolExecutor#submit(java.util.concurrent.Callable, long, java.util.concurrent.TimeUnit)}。
+ */
+public interface DeadlineTask {
+
+    /**
+     * 截止时间，与{@link System#nanoTime()}比较
+     */
+    long getDeadlineNanos ();
+
+    /**
+     * 任务过期没有执行时在工作线程中调用，默认什么都不做
+     */
+    default void onExpired () {
+    }
+
+    /**
+     * @param nowNanos {@link System#nanoTime()}
+     *
+     * @return 是否已经过期
+     */
+    default boolean isExpired (long nowNanos) {
+        return nowNanos - getDeadlineNanos () >= 0;
+    }
+}
@@ -0,0 +1,354 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 说明：
+ * <p>
+ * 按key保序的执行器：同一个key的任务按提交顺序串行执行，不同key的任务并行执行，
+ * 适合需要按账户、订单等实体保序的消息处理。
+ * <p>
+ * 1、key按hash分配到固定数量的通道(lane)，每个通道是一个无锁队列，有任务时把通道自己提交到工作线程池，
+ * 同一时刻一个通道最多在一个线程中执行，工作线程池中排队的最多是通道数个任务。
+ * 通道不绑定线程，空闲线程可以执行任意有任务的通道。
+ * <p>
+ * 2、热点通道的均衡：一个通道连续执行maxBatch个任务后如果还有任务，把自己重新提交到工作线程池队尾让出线程，
+ * 避免热点key长期占用线程使其他通道饥饿。同一个key的任务不会被迁移到其他通道，迁移会破坏顺序。
+ * <p>
+ * 3、监控指标(通过{@link MetricsHolder}注册)：tp.laneDepth.[name].[i]：每个通道排队的任务数，
+ * tp.taskInQueue.[name]：所有通道排队的任务数，tp.maxLaneDepth.[name]：最长的通道排队数，用于发现热点。
+ * {@link #shutdown()}时注销。
+ * <p>
+ * 4、提交任务时按{@link ThreadContextPropagators}传递GID等线程上下文；任务抛出的异常记录日志，不影响通道中后续的任务。
+ *
+ * @see MonitoredExecutors#newKeyedExecutor(String, int, int)
+ */
+public class KeyedExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger (KeyedExecutor.class);
+
+    /**
+     * 通道每次最多连续执行的任务数
+     */
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private final String name;
+    private final Lane[] lanes;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    private volatile int maxBatch = DEFAULT_MAX_BATCH;
+    private volatile boolean shutdown = false;
+
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Gauge<?>> gaugeMap = new LinkedHashMap<> ();
+
+    /**
+     * 使用单独的工作线程池，shutdown时一起关闭
+     *
+     * @param name    名称，用作监控名称和线程名前缀
+     * @param lanes   通道数，一般为线程数的若干倍，减少不同key落到同一通道
+     * @param threads 工作线程数
+     */
+    public KeyedExecutor (String name, int lanes, int threads) {
+        this (name, lanes, newWorkerExecutor (name, lanes, threads), true);
+    }
+
+    /**
+     * @param name     名称，用作监控名称
+     * @param lanes    通道数
+     * @param executor 执行通道的线程池，shutdown时不关闭
+     */
+    public KeyedExecutor (String name, int lanes, Executor executor) {
+        this (name, lanes, executor, false);
+    }
+
+    private KeyedExecutor (String name, int lanes, Executor executor, boolean ownExecutor) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException ("lanes必须大于0:" + lanes);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.executor = Objects.requireNonNull (executor);
+        this.ownExecutor = ownExecutor;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane (i);
+        }
+        initializeGaugeMap ();
+        registerGauges ();
+    }
+
+    private static ExecutorService newWorkerExecutor (String name, int lanes, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException ("threads必须大于0:" + threads);
+        }
+        // 每个通道最多在队列中出现一次，队列容量为通道数时不会拒绝
+        ArrayMonitoredThreadPoolQueue queue = new ArrayMonitoredThreadPoolQueue (Math.max (lanes, 1));
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (
+                threads, threads, 60, TimeUnit.SECONDS, queue, new NamedThreadFactory (name + "-worker"),
+                new ReporttingRejectedExecutionHandler (name, ReporttingRejectedExecutionHandler.Policy.abortPolicy));
+        queue.setParent (executor);
+        executor.setMetrics (name + "-worker");
+        executor.initialize ();
+        return executor;
+    }
+
+    /**
+     * 执行任务，同一个key的任务按提交顺序串行执行
+     *
+     * @param key  保序的key，不能为null
+     * @param task 任务
+     *
+     * @throws RejectedExecutionException 执行器已关闭或工作线程池拒绝
+     */
+    public void execute (Object key, Runnable task) {
+        Objects.requireNonNull (key);
+        Objects.requireNonNull (task);
+        if (shutdown) {
+            throw new RejectedExecutionException ("KeyedExecutor[" + name + "]已关闭");
+        }
+        laneOf (key).add (ThreadContextPropagators.wrap (task));
+    }
+
+    /**
+     * 提交任务，同一个key的任务按提交顺序串行执行
+     *
+     * @see #execute(Object, Runnable)
+     */
+    public <T> Future<T> submit (Object key, Callable<T> task) {
+        Objects.requireNonNull (task);
+        FutureTask<T> future = new FutureTask<> (task);
+        execute (key, future);
+        return future;
+    }
+
+    /**
+     * 返回按指定key保序执行的Executor，可用于CompletableFuture等只接受Executor的场景
+     */
+    public Executor executorFor (Object key) {
+        Objects.requireNonNull (key);
+        return task -> execute (key, task);
+    }
+
+    private Lane laneOf (Object key) {
+        int h = key.hashCode ();
+        // 与HashMap相同，把高位混入低位
+        h ^= (h >>> 16);
+        return lanes[Math.floorMod (h, lanes.length)];
+    }
+
+    /**
+     * 关闭执行器，不再接受新任务，已提交的任务继续执行；自己创建的工作线程池在任务执行完后关闭
+     */
+    public void shutdown () {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+        }
+        if (ownExecutor) {
+            ((ExecutorService) executor).shutdown ();
+        }
+        unregisterGauges ();
+    }
+
+    /**
+     * 等待自己创建的工作线程池结束，使用外部线程池时等待所有通道为空
+     */
+    public boolean awaitTermination (long timeout, TimeUnit unit) throws InterruptedException {
+        if (ownExecutor) {
+            return ((ExecutorService) executor).awaitTermination (timeout, unit);
+        }
+        long deadline = System.nanoTime () + unit.toNanos (timeout);
+        while (!isIdle ()) {
+            if (deadline - System.nanoTime () <= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep (10);
+        }
+        return true;
+    }
+
+    private boolean isIdle () {
+        for (Lane lane : lanes) {
+            if (lane.scheduled != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isShutdown () {
+        return shutdown;
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public int getLaneCount () {
+        return lanes.length;
+    }
+
+    /**
+     * 指定key所在通道排队的任务数
+     */
+    public int getLaneDepth (Object key) {
+        return laneOf (Objects.requireNonNull (key)).depth.get ();
+    }
+
+    /**
+     * 所有通道排队的任务数
+     */
+    public long getTaskInQueue () {
+        long total = 0;
+        for (Lane lane : lanes) {
+            total += lane.depth.get ();
+        }
+        return total;
+    }
+
+    /**
+     * 最长的通道排队数
+     */
+    public int getMaxLaneDepth () {
+        int max = 0;
+        for (Lane lane : lanes) {
+            max = Math.max (max, lane.depth.get ());
+        }
+        return max;
+    }
+
+    public int getMaxBatch () {
+        return maxBatch;
+    }
+
+    /**
+     * 通道每次最多连续执行的任务数，超过后让出线程，0表示执行到通道为空
+     */
+    public void setMaxBatch (int maxBatch) {
+        if (maxBatch < 0) {
+            throw new IllegalArgumentException ("maxBatch不能小于0:" + maxBatch);
+        }
+        this.maxBatch = maxBatch;
+    }
+
+    private void initializeGaugeMap () {
+        for (Lane lane : lanes) {
+            gaugeMap.put (MetricRegistry.name ("tp", "laneDepth", name, String.valueOf (lane.index)),
+                          (Gauge<Integer>) lane.depth::get);
+        }
+        gaugeMap.put (MetricRegistry.name ("tp", "taskInQueue", name), (Gauge<Long>) this::getTaskInQueue);
+        gaugeMap.put (MetricRegistry.name ("tp", "maxLaneDepth", name), (Gauge<Integer>) this::getMaxLaneDepth);
+    }
+
+    private void registerGauges () {
+        for (Map.Entry<String, Gauge<?>> gaugeEntry : gaugeMap.entrySet ()) {
+            try {
+                metricRegistry.register (gaugeEntry.getKey (), gaugeEntry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    private void unregisterGauges () {
+        for (String gaugeName : gaugeMap.keySet ()) {
+            metricRegistry.remove (gaugeName);
+        }
+    }
+
+    @Override
+    public String toString () {
+        return "KeyedExecutor[" + name + ", lanes = " + lanes.length + ", task in queue = " + getTaskInQueue ()
+                + ", max lane depth = " + getMaxLaneDepth () + "]";
+    }
+
+    /**
+     * 串行执行的通道，scheduled为1时表示已经提交到工作线程池或正在执行
+     */
+    private final class Lane implements Runnable {
+        private final int index;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<> ();
+        private final AtomicInteger depth = new AtomicInteger (0);
+        volatile int scheduled;
+
+        Lane (int index) {
+            this.index = index;
+        }
+
+        void add (Runnable task) {
+            tasks.add (task);
+            depth.incrementAndGet ();
+            if (scheduled == 0 && SCHEDULED.compareAndSet (this, 0, 1)) {
+                try {
+                    executor.execute (this);
+                } catch (RejectedExecutionException e) {
+                    SCHEDULED.set (this, 0);
+                    // 只撤回本次提交的任务，之前排队的任务在下次提交时执行
+                    if (tasks.remove (task)) {
+                        depth.decrementAndGet ();
+                        throw e;
+                    }
+                    // 任务已经被并发提交的线程取走执行
+                }
+            }
+        }
+
+        @Override
+        public void run () {
+            int executed = 0;
+            for (; ; ) {
+                Runnable task = tasks.poll ();
+                if (task == null) {
+                    SCHEDULED.set (this, 0);
+                    // 与add并发时，add可能看到scheduled为1而没有提交通道
+                    if (tasks.isEmpty () || !SCHEDULED.compareAndSet (this, 0, 1)) {
+                        return;
+                    }
+                    continue;
+                }
+                depth.decrementAndGet ();
+                try {
+                    task.run ();
+                } catch (Throwable t) {
+                    logger.error ("KeyedExecutor[{}]通道[{}]的任务执行失败", name, index, t);
+                }
+                int batch = maxBatch;
+                if (batch > 0 && ++executed >= batch && !tasks.isEmpty ()) {
+                    try {
+                        // 让出线程，排到工作线程池队尾
+                        executor.execute (this);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // 工作线程池关闭或队列满时在当前线程继续执行
+                        executed = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Lane> SCHEDULED =
+            AtomicIntegerFieldUpdater.newUpdater (Lane.class, "scheduled");
+}
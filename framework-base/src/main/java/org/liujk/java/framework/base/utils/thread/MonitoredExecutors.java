@@ -16,6 +16,10 @@ import java.util.concurrent.*;
  */
 public class MonitoredExecutors {
 
+    /**
+     * 使用虚拟线程时默认最大同时执行的任务数
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 10000;
 
     /**
      * Cannot instantiate.
@@ -287,6 +291,153 @@ public class MonitoredExecutors {
         return monitoredThreadPoolExecutor;
     }
 
+    /**
+     * Creates a work-stealing thread pool using the number of
+     * {@linkplain Runtime#availableProcessors available processors}
+     * as its target parallelism level.
+     *
+     * @return the newly created thread pool
+     * @see #newWorkStealingPool(String, int, int, ReporttingRejectedExecutionHandler.Policy)
+     */
+    public static ForkJoinPool newWorkStealingPool () {
+        return newWorkStealingPool (Runtime.getRuntime ().availableProcessors ());
+    }
+
+    /**
+     * Creates a thread pool that maintains enough threads to support
+     * the given parallelism level, and may use multiple queues to
+     * reduce contention.
+     *
+     * @param parallelism the targeted parallelism level
+     *
+     * @return the newly created thread pool
+     * @throws IllegalArgumentException if {@code parallelism <= 0}
+     */
+    public static ForkJoinPool newWorkStealingPool (int parallelism) {
+        return newWorkStealingPool ("MonitoredForkJoinPool", parallelism, Integer.MAX_VALUE,
+                                    ReporttingRejectedExecutionHandler.Policy.abortPolicy);
+    }
+
+    /**
+     * 创建受监控的work-stealing线程池，见{@link MonitoredForkJoinPool}
+     *
+     * @param name                 线程池名称，用作监控名称和线程名前缀
+     * @param parallelism          并行度
+     * @param maxQueuedSubmissions 外部提交还未执行的最大任务数，Integer.MAX_VALUE表示不限制
+     * @param policy               超过maxQueuedSubmissions时的拒绝策略
+     *
+     * @return 线程池
+     */
+    public static ForkJoinPool newWorkStealingPool (String name, int parallelism, int maxQueuedSubmissions,
+                                                    ReporttingRejectedExecutionHandler.Policy policy) {
+        return new MonitoredForkJoinPool (name, parallelism, maxQueuedSubmissions, policy);
+    }
+
+    /**
+     * 创建执行阻塞IO任务的线程池，同时执行的任务数不超过{@link #DEFAULT_MAX_CONCURRENCY}
+     *
+     * @param name 线程池名称，用作监控名称和线程名前缀
+     *
+     * @return 线程池
+     * @see #newVirtualThreadExecutor(String, int)
+     */
+    public static ThreadPoolExecutor newVirtualThreadExecutor (String name) {
+        return newVirtualThreadExecutor (name, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * 创建执行阻塞IO任务的线程池。
+     * <p>
+     * 运行在JDK 21及以上时返回{@link VirtualThreadPoolExecutor}，每个任务使用一个新的虚拟线程，
+     * 同时执行的任务数超过maxConcurrency时任务的虚拟线程等待，提交任务的线程不阻塞；
+     * 更早的JDK返回与{@link MonitoredThreadPool}默认配置相同的平台线程池(16~100个线程，队列5000)。
+     * 两种线程池的监控指标和MDC中GID的传递相同。
+     *
+     * @param name           线程池名称，用作监控名称和线程名前缀
+     * @param maxConcurrency 使用虚拟线程时最大同时执行的任务数
+     *
+     * @return 线程池
+     */
+    public static ThreadPoolExecutor newVirtualThreadExecutor (String name, int maxConcurrency) {
+        MonitoredThreadPoolExecutor executor;
+        ThreadFactory virtualThreadFactory = VirtualThreadPoolExecutor.newVirtualThreadFactory (name);
+        if (virtualThreadFactory != null) {
+            executor = new VirtualThreadPoolExecutor (name, maxConcurrency, virtualThreadFactory);
+        } else {
+            MonitoredThreadPoolQueue queue = new MonitoredThreadPoolQueue (5000);
+            executor = new MonitoredThreadPoolExecutor (16, 100, 240, TimeUnit.SECONDS, queue,
+                                                        new NamedThreadFactory (name),
+                                                        new ReporttingRejectedExecutionHandler (name,
+                                                                                                ReporttingRejectedExecutionHandler.Policy.callerRun));
+            queue.setParent (executor);
+        }
+        executor.setMetrics (name);
+        executor.initialize ();
+        return executor;
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported () {
+        return VirtualThreadPoolExecutor.newVirtualThreadFactory ("probe") != null;
+    }
+
+    /**
+     * 创建时间轮定时器，精度10毫秒，512个格子，工作线程数为CPU核数
+     *
+     * @param name 名称，用作监控名称和线程名前缀
+     *
+     * @return 定时器
+     * @see #newTimer(String, long, TimeUnit, int, int)
+     */
+    public static MonitoredHashedWheelTimer newTimer (String name) {
+        return newTimer (name, 10, TimeUnit.MILLISECONDS, 512, Runtime.getRuntime ().availableProcessors ());
+    }
+
+    /**
+     * 创建时间轮定时器，见{@link MonitoredHashedWheelTimer}。
+     * 适合大量经常被取消的延迟任务，例如外部调用的超时检查，schedule和cancel都是O(1)的。
+     *
+     * @param name          名称，用作监控名称和线程名前缀
+     * @param tickDuration  定时精度
+     * @param unit          时间单位
+     * @param ticksPerWheel 格子数
+     * @param workerThreads 执行到期任务的线程数
+     *
+     * @return 定时器
+     */
+    public static MonitoredHashedWheelTimer newTimer (String name, long tickDuration, TimeUnit unit,
+                                                      int ticksPerWheel, int workerThreads) {
+        return new MonitoredHashedWheelTimer (name, tickDuration, unit, ticksPerWheel, workerThreads);
+    }
+
+    /**
+     * 创建按key保序的执行器，见{@link KeyedExecutor}。
+     * 同一个key的任务串行执行，不同key的任务并行执行，通道数为线程数的4倍。
+     *
+     * @param name    名称，用作监控名称和线程名前缀
+     * @param threads 工作线程数
+     *
+     * @return 执行器
+     */
+    public static KeyedExecutor newKeyedExecutor (String name, int threads) {
+        return newKeyedExecutor (name, threads * 4, threads);
+    }
+
+    /**
+     * 创建按key保序的执行器，见{@link KeyedExecutor}
+     *
+     * @param name    名称，用作监控名称和线程名前缀
+     * @param lanes   通道数
+     * @param threads 工作线程数
+     *
+     * @return 执行器
+     */
+    public static KeyedExecutor newKeyedExecutor (String name, int lanes, int threads) {
+        return new KeyedExecutor (name, lanes, threads);
+    }
+
     /**
      * A wrapper class that exposes only the ExecutorService methods
      * of an ExecutorService implementation.
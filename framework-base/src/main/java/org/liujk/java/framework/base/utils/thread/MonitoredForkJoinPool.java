@@ -0,0 +1,266 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 说明：
+ * <p>
+ * 受监控的work-stealing线程池，适合CPU密集、可以拆分的任务。每个工作线程有自己的双端队列，
+ * 空闲线程从其他线程的队列尾部窃取任务，不像ThreadPoolExecutor一样所有线程争用同一个队列。
+ * <p>
+ * 1、监控指标(通过{@link MetricsHolder}注册)：tp.stealCount：窃取的任务数，tp.queuedSubmissions：外部提交还未执行的任务数，
+ * tp.queuedTasks：工作线程队列中的任务数，tp.runningThreads：没有阻塞等待的工作线程数，tp.activeThreads：执行任务的工作线程数，
+ * tp.parallelism：并行度。shutdown时注销。
+ * <p>
+ * 2、提交Runnable、Callable时(包括invokeAll)按{@link ThreadContextPropagators}传递GID等线程上下文；
+ * 直接提交的ForkJoinTask(包括invoke)不包装。
+ * <p>
+ * 3、execute、submit、invoke、invokeAll提交的任务数超过maxQueuedSubmissions时按拒绝策略处理，并按{@link RejectionReporter}汇总输出日志和THREADPOOL_LOG；
+ * 工作线程内部fork的子任务不受限制。
+ */
+public class MonitoredForkJoinPool extends ForkJoinPool {
+
+    private final String name;
+    private final int maxQueuedSubmissions;
+    private final ReporttingRejectedExecutionHandler.Policy policy;
+    private final RejectionReporter reporter;
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Gauge<?>> gaugeMap = new LinkedHashMap<> ();
+
+    /**
+     * @param name                 线程池名称，用作监控名称和线程名前缀
+     * @param parallelism          并行度
+     * @param maxQueuedSubmissions 外部提交还未执行的最大任务数
+     * @param policy               超过maxQueuedSubmissions时的拒绝策略
+     */
+    public MonitoredForkJoinPool (String name, int parallelism, int maxQueuedSubmissions,
+                                  ReporttingRejectedExecutionHandler.Policy policy) {
+        super (parallelism, new NamedWorkerThreadFactory (name), null, false);
+        if (maxQueuedSubmissions <= 0) {
+            throw new IllegalArgumentException ("maxQueuedSubmissions必须大于0:" + maxQueuedSubmissions);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.maxQueuedSubmissions = maxQueuedSubmissions;
+        this.policy = Objects.requireNonNull (policy);
+        this.reporter = RejectionReporter.of (name, policy);
+        initializeGaugeMap ();
+        registerGauges ();
+    }
+
+    @Override
+    public void execute (Runnable task) {
+        if (admit (task)) {
+            super.execute (ThreadContextPropagators.wrap (task));
+        }
+    }
+
+    @Override
+    public void execute (ForkJoinTask<?> task) {
+        if (admit (task)) {
+            super.execute (task);
+        }
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit (ForkJoinTask<T> task) {
+        if (admit (task)) {
+            return super.submit (task);
+        }
+        return task;
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit (Callable<T> task) {
+        ForkJoinTask<T> job = ForkJoinTask.adapt (ThreadContextPropagators.wrap (task));
+        if (admit (job)) {
+            super.execute (job);
+        }
+        return job;
+    }
+
+    @Override
+    public <T> ForkJoinTask<T> submit (Runnable task, T result) {
+        ForkJoinTask<T> job = ForkJoinTask.adapt (ThreadContextPropagators.wrap (task), result);
+        if (admit (job)) {
+            super.execute (job);
+        }
+        return job;
+    }
+
+    @Override
+    public ForkJoinTask<?> submit (Runnable task) {
+        ForkJoinTask<?> job = ForkJoinTask.adapt (ThreadContextPropagators.wrap (task));
+        if (admit (job)) {
+            super.execute (job);
+        }
+        return job;
+    }
+
+    @Override
+    public <T> T invoke (ForkJoinTask<T> task) {
+        if (admit (task)) {
+            super.execute (task);
+        }
+        return task.join ();
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll (Collection<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<> (tasks.size ());
+        boolean done = false;
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add (submit (task));
+            }
+            for (Future<T> future : futures) {
+                ((ForkJoinTask<T>) future).quietlyJoin ();
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                // 提交被拒绝时取消已经提交的任务，与ForkJoinPool一致
+                for (Future<T> future : futures) {
+                    future.cancel (false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 判断是否可以提交，不能提交时按拒绝策略处理
+     *
+     * @return 是否需要提交到线程池
+     */
+    private boolean admit (Object task) {
+        Objects.requireNonNull (task);
+        if (isShutdown ()) {
+            throw new RejectedExecutionException ("线程池已关闭，提交任务失败");
+        }
+        // 从工作线程提交的任务进入该线程自己的队列，不计入外部提交
+        if (ForkJoinTask.inForkJoinPool () && ForkJoinTask.getPool () == this) {
+            return true;
+        }
+        if (maxQueuedSubmissions == Integer.MAX_VALUE || getQueuedSubmissionCount () < maxQueuedSubmissions) {
+            return true;
+        }
+        report ();
+        switch (policy) {
+            case callerRun:
+                runInCaller (task);
+                return false;
+            case discard:
+                if (task instanceof ForkJoinTask) {
+                    // 让等待结果的调用方得到CancellationException，而不是一直阻塞
+                    ((ForkJoinTask<?>) task).cancel (false);
+                }
+                return false;
+            case discardOldest:
+                ForkJoinTask<?> oldest = pollSubmission ();
+                if (oldest != null) {
+                    oldest.cancel (false);
+                }
+                return true;
+            default:
+                throw new RejectedExecutionException ("线程池[" + name + "]满了,提交任务失败");
+        }
+    }
+
+    private static void runInCaller (Object task) {
+        if (task instanceof ForkJoinTask) {
+            ((ForkJoinTask<?>) task).invoke ();
+        } else {
+            ((Runnable) task).run ();
+        }
+    }
+
+    private void report () {
+        reporter.record (threadInfo -> {
+            threadInfo.addContent ("queuedSubmissions", getQueuedSubmissionCount ());
+            threadInfo.addContent ("parallelism", getParallelism ());
+        });
+    }
+
+    private void initializeGaugeMap () {
+        gaugeMap.put (MetricRegistry.name ("tp", "stealCount", name), (Gauge<Long>) this::getStealCount);
+        gaugeMap.put (MetricRegistry.name ("tp", "queuedSubmissions", name),
+                      (Gauge<Integer>) this::getQueuedSubmissionCount);
+        gaugeMap.put (MetricRegistry.name ("tp", "queuedTasks", name), (Gauge<Long>) this::getQueuedTaskCount);
+        gaugeMap.put (MetricRegistry.name ("tp", "runningThreads", name), (Gauge<Integer>) this::getRunningThreadCount);
+        gaugeMap.put (MetricRegistry.name ("tp", "activeThreads", name), (Gauge<Integer>) this::getActiveThreadCount);
+        gaugeMap.put (MetricRegistry.name ("tp", "parallelism", name), (Gauge<Integer>) this::getParallelism);
+    }
+
+    private void registerGauges () {
+        for (Map.Entry<String, Gauge<?>> gaugeEntry : gaugeMap.entrySet ()) {
+            try {
+                metricRegistry.register (gaugeEntry.getKey (), gaugeEntry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    private void unregisterGauges () {
+        for (String gaugeName : gaugeMap.keySet ()) {
+            metricRegistry.remove (gaugeName);
+        }
+    }
+
+    @Override
+    public void shutdown () {
+        super.shutdown ();
+        unregisterGauges ();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow () {
+        List<Runnable> tasks = super.shutdownNow ();
+        unregisterGauges ();
+        return tasks;
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public int getMaxQueuedSubmissions () {
+        return maxQueuedSubmissions;
+    }
+
+    /**
+     * 工作线程名为[name]-worker-N
+     */
+    private static class NamedWorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+        private final String prefix;
+        private final AtomicInteger threadNum = new AtomicInteger (1);
+
+        NamedWorkerThreadFactory (String name) {
+            this.prefix = name + "-worker-";
+        }
+
+        @Override
+        public ForkJoinWorkerThread newThread (ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = defaultForkJoinWorkerThreadFactory.newThread (pool);
+            thread.setName (prefix + threadNum.getAndIncrement ());
+            return thread;
+        }
+    }
+}
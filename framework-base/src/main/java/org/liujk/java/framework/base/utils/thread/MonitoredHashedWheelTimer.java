@@ -0,0 +1,526 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 说明：
+ * <p>
+ * 受监控的时间轮定时器，适合大量、精度要求不高、经常被取消的延迟任务，例如每次外部调用注册的超时检查。
+ * <p>
+ * 1、{@link java.util.concurrent.ScheduledThreadPoolExecutor}的延迟队列是一个堆，插入和取消都是O(log n)并且共用一把锁，
+ * 取消的任务默认留在堆中直到到期。时间轮把任务按到期时间放入tickDuration宽的格子，
+ * schedule和cancel只是放入无锁队列，都是O(1)；取消的任务在下一个tick从格子中移除。
+ * <p>
+ * 2、单独的tick线程每个tick处理新增和取消的任务，把当前格子中到期的任务一次性交给工作线程池执行，
+ * tick线程本身不执行任务。任务最多晚一个tickDuration执行。
+ * <p>
+ * 3、监控指标与{@link MonitoredScheduledThreadPoolExecutor}相同(通过{@link MetricsHolder}注册)：
+ * tp.taskInQueue：还没有到期的任务数，tp.submittedCount：没有执行完的任务数，
+ * 以及{@link TaskLatencyMetrics}的延迟(晚于计划执行时间的部分)、执行耗时分布。{@link #stop()}时注销。
+ * <p>
+ * 4、提交任务时按{@link ThreadContextPropagators}传递GID等线程上下文。
+ *
+ * @see MonitoredExecutors#newTimer(String)
+ */
+public class MonitoredHashedWheelTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger (MonitoredHashedWheelTimer.class);
+
+    /**
+     * 每个tick最多从新增队列转移的任务数，避免大量提交时tick线程一直不处理到期任务
+     */
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_IN_BUCKET = 1;
+    private static final int STATE_REMOVED = 2;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final ExecutorService workerExecutor;
+    private final boolean ownWorkerExecutor;
+    private final Queue<WheelTimeout<?>> pendingTimeouts = new ConcurrentLinkedQueue<> ();
+    private final Queue<WheelTimeout<?>> cancelledTimeouts = new ConcurrentLinkedQueue<> ();
+    private final AtomicLong pendingCount = new AtomicLong (0);
+    private final AtomicInteger runningCount = new AtomicInteger (0);
+    private final Thread tickThread;
+    private final long startNanos;
+    private final List<WheelTimeout<?>> unprocessed = new ArrayList<> ();
+    private volatile boolean stopped = false;
+
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Gauge<?>> gaugeMap = new LinkedHashMap<> ();
+    private final TaskLatencyMetrics latencyMetrics;
+
+    /**
+     * 使用单独的工作线程池，stop时一起关闭
+     *
+     * @param name          名称，用作监控名称和线程名前缀
+     * @param tickDuration  每个格子的时间宽度，即定时精度
+     * @param unit          时间单位
+     * @param ticksPerWheel 格子数，向上取整为2的幂
+     * @param workerThreads 执行到期任务的线程数
+     */
+    public MonitoredHashedWheelTimer (String name, long tickDuration, TimeUnit unit, int ticksPerWheel,
+                                      int workerThreads) {
+        this (name, tickDuration, unit, ticksPerWheel, newWorkerExecutor (name, workerThreads), true);
+    }
+
+    /**
+     * @param name           名称，用作监控名称和线程名前缀
+     * @param tickDuration   每个格子的时间宽度，即定时精度
+     * @param unit           时间单位
+     * @param ticksPerWheel  格子数，向上取整为2的幂
+     * @param workerExecutor 执行到期任务的线程池，stop时不关闭
+     */
+    public MonitoredHashedWheelTimer (String name, long tickDuration, TimeUnit unit, int ticksPerWheel,
+                                      ExecutorService workerExecutor) {
+        this (name, tickDuration, unit, ticksPerWheel, workerExecutor, false);
+    }
+
+    private MonitoredHashedWheelTimer (String name, long tickDuration, TimeUnit unit, int ticksPerWheel,
+                                       ExecutorService workerExecutor, boolean ownWorkerExecutor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException ("tickDuration必须大于0:" + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException ("ticksPerWheel必须在1~2^30之间:" + ticksPerWheel);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.tickNanos = Math.max (unit.toNanos (tickDuration), TimeUnit.MILLISECONDS.toNanos (1));
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket ();
+        }
+        this.mask = size - 1;
+        this.workerExecutor = Objects.requireNonNull (workerExecutor);
+        this.ownWorkerExecutor = ownWorkerExecutor;
+        this.latencyMetrics = new TaskLatencyMetrics (name);
+        initializeGaugeMap ();
+        registerMetrics ();
+        this.startNanos = System.nanoTime ();
+        this.tickThread = new Thread (new Ticker (), name + "-tick");
+        tickThread.setDaemon (true);
+        tickThread.start ();
+    }
+
+    private static ExecutorService newWorkerExecutor (String name, int workerThreads) {
+        ArrayMonitoredThreadPoolQueue queue = new ArrayMonitoredThreadPoolQueue (65536);
+        // 不能在tick线程中执行任务，队列满时拒绝
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (
+                workerThreads, workerThreads, 60, TimeUnit.SECONDS, queue, new NamedThreadFactory (name + "-worker"),
+                new ReporttingRejectedExecutionHandler (name, ReporttingRejectedExecutionHandler.Policy.abortPolicy));
+        queue.setParent (executor);
+        executor.setMetrics (name + "-worker");
+        // 任务的延迟和执行耗时由定时器记录
+        executor.setEnableLatencyMetric (false);
+        executor.initialize ();
+        return executor;
+    }
+
+    /**
+     * 延迟执行任务
+     *
+     * @param command 任务
+     * @param delay   延迟时间
+     * @param unit    时间单位
+     *
+     * @return 可以取消的结果，取消是O(1)的
+     * @throws RejectedExecutionException 定时器已停止
+     */
+    public ScheduledFuture<?> schedule (Runnable command, long delay, TimeUnit unit) {
+        Objects.requireNonNull (command);
+        return enqueue (new WheelTimeout<Void> (ThreadContextPropagators.wrap (command), null,
+                                                deadlineOf (delay, unit)));
+    }
+
+    /**
+     * 延迟执行任务
+     *
+     * @see #schedule(Runnable, long, TimeUnit)
+     */
+    public <V> ScheduledFuture<V> schedule (Callable<V> callable, long delay, TimeUnit unit) {
+        Objects.requireNonNull (callable);
+        return enqueue (new WheelTimeout<> (ThreadContextPropagators.wrap (callable), deadlineOf (delay, unit)));
+    }
+
+    private long deadlineOf (long delay, TimeUnit unit) {
+        long delayNanos = unit.toNanos (Math.max (0L, delay));
+        long deadline = System.nanoTime () - startNanos + delayNanos;
+        // 溢出时视为永不过期
+        return deadline < 0 && delayNanos > 0 ? Long.MAX_VALUE : deadline;
+    }
+
+    private <V> WheelTimeout<V> enqueue (WheelTimeout<V> timeout) {
+        if (stopped) {
+            throw new RejectedExecutionException ("定时器[" + name + "]已停止");
+        }
+        pendingCount.incrementAndGet ();
+        pendingTimeouts.add (timeout);
+        // 与stop并发时，tick线程可能已经退出
+        if (stopped && pendingTimeouts.remove (timeout)) {
+            pendingCount.decrementAndGet ();
+            throw new RejectedExecutionException ("定时器[" + name + "]已停止");
+        }
+        return timeout;
+    }
+
+    /**
+     * 停止定时器，没有到期的任务被取消，自己创建的工作线程池执行完已到期的任务后关闭
+     *
+     * @return 没有执行的任务
+     */
+    public List<Runnable> stop () {
+        if (Thread.currentThread () == tickThread) {
+            throw new IllegalStateException ("不能在定时器线程中调用stop");
+        }
+        synchronized (this) {
+            if (stopped) {
+                return Collections.emptyList ();
+            }
+            stopped = true;
+        }
+        tickThread.interrupt ();
+        boolean interrupted = false;
+        while (tickThread.isAlive ()) {
+            try {
+                tickThread.join (100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread ().interrupt ();
+        }
+        List<Runnable> tasks = new ArrayList<> ();
+        for (WheelTimeout<?> timeout : unprocessed) {
+            if (timeout.cancel (false)) {
+                tasks.add (timeout);
+            }
+        }
+        WheelTimeout<?> timeout;
+        while ((timeout = pendingTimeouts.poll ()) != null) {
+            if (timeout.cancel (false)) {
+                tasks.add (timeout);
+            }
+        }
+        pendingCount.set (0);
+        if (ownWorkerExecutor) {
+            workerExecutor.shutdown ();
+        }
+        unregisterMetrics ();
+        return tasks;
+    }
+
+    public boolean isStopped () {
+        return stopped;
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * 还没有到期的任务数，包括已取消但还没有从时间轮中移除的任务
+     */
+    public long getPendingTimeouts () {
+        return pendingCount.get ();
+    }
+
+    /**
+     * 没有执行完的任务数
+     */
+    public long getSubmittedCount () {
+        return pendingCount.get () + runningCount.get ();
+    }
+
+    TaskLatencyMetrics getLatencyMetrics () {
+        return latencyMetrics;
+    }
+
+    private void initializeGaugeMap () {
+        gaugeMap.put (MetricRegistry.name ("tp", "taskInQueue", name), (Gauge<Long>) this::getPendingTimeouts);
+        gaugeMap.put (MetricRegistry.name ("tp", "submittedCount", name), (Gauge<Long>) this::getSubmittedCount);
+    }
+
+    private void registerMetrics () {
+        for (Map.Entry<String, Gauge<?>> gaugeEntry : gaugeMap.entrySet ()) {
+            try {
+                metricRegistry.register (gaugeEntry.getKey (), gaugeEntry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+        latencyMetrics.register (metricRegistry);
+    }
+
+    private void unregisterMetrics () {
+        for (String gaugeName : gaugeMap.keySet ()) {
+            metricRegistry.remove (gaugeName);
+        }
+        latencyMetrics.unregister (metricRegistry);
+    }
+
+    @Override
+    public String toString () {
+        return "MonitoredHashedWheelTimer[" + name + ", tick = " + tickNanos + "ns, wheel = " + wheel.length
+                + ", pending timeouts = " + pendingCount.get () + ", running = " + runningCount.get () + "]";
+    }
+
+    /**
+     * tick线程，只有它访问时间轮的格子
+     */
+    private final class Ticker implements Runnable {
+        private long tick;
+
+        @Override
+        public void run () {
+            while (!stopped) {
+                if (!waitForNextTick ()) {
+                    break;
+                }
+                processCancelled ();
+                transferPending ();
+                try {
+                    expire (wheel[(int) (tick & mask)]);
+                } catch (RuntimeException e) {
+                    logger.error ("定时器[{}]处理到期任务失败", name, e);
+                }
+                tick++;
+            }
+            for (Bucket bucket : wheel) {
+                bucket.drainTo (unprocessed);
+            }
+            processCancelled ();
+        }
+
+        /**
+         * 等待到当前tick结束
+         *
+         * @return 定时器停止时返回false
+         */
+        private boolean waitForNextTick () {
+            long deadline = tickNanos * (tick + 1);
+            for (; ; ) {
+                long sleepNanos = deadline - (System.nanoTime () - startNanos);
+                if (sleepNanos <= 0) {
+                    return true;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep (sleepNanos);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void transferPending () {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+                WheelTimeout<?> timeout = pendingTimeouts.poll ();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.isCancelled ()) {
+                    timeout.removed ();
+                    continue;
+                }
+                long calculated = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // 已经过期的任务放入当前格子，在本次tick执行
+                long ticks = Math.max (calculated, tick);
+                timeout.state = STATE_IN_BUCKET;
+                wheel[(int) (ticks & mask)].add (timeout);
+            }
+        }
+
+        private void processCancelled () {
+            WheelTimeout<?> timeout;
+            while ((timeout = cancelledTimeouts.poll ()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove (timeout);
+                    timeout.removed ();
+                }
+            }
+        }
+
+        /**
+         * 放入格子时按到期时间计算了轮数，轮数为0的任务在本次tick到期
+         */
+        private void expire (Bucket bucket) {
+            WheelTimeout<?> timeout = bucket.head;
+            while (timeout != null) {
+                WheelTimeout<?> next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    bucket.remove (timeout);
+                    timeout.removed ();
+                    if (!timeout.isCancelled ()) {
+                        dispatch (timeout);
+                    }
+                } else if (timeout.isCancelled ()) {
+                    bucket.remove (timeout);
+                    timeout.removed ();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void dispatch (WheelTimeout<?> timeout) {
+            try {
+                workerExecutor.execute (timeout);
+            } catch (RejectedExecutionException e) {
+                logger.error ("定时器[{}]的工作线程池拒绝执行到期任务", name, e);
+                timeout.cancel (false);
+            }
+        }
+    }
+
+    /**
+     * 格子中的双向链表，只在tick线程中访问
+     */
+    private static final class Bucket {
+        private WheelTimeout<?> head;
+        private WheelTimeout<?> tail;
+
+        void add (WheelTimeout<?> timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove (WheelTimeout<?> timeout) {
+            WheelTimeout<?> next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void drainTo (List<WheelTimeout<?>> list) {
+            WheelTimeout<?> timeout;
+            while ((timeout = head) != null) {
+                remove (timeout);
+                list.add (timeout);
+            }
+        }
+    }
+
+    private final class WheelTimeout<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        /**
+         * 到期时间，相对startNanos
+         */
+        private final long deadline;
+        /**
+         * 以下字段只在tick线程中访问
+         */
+        private long remainingRounds;
+        private int state = STATE_PENDING;
+        private WheelTimeout<?> next;
+        private WheelTimeout<?> prev;
+        private Bucket bucket;
+
+        WheelTimeout (Runnable runnable, V result, long deadline) {
+            super (runnable, result);
+            this.deadline = deadline;
+        }
+
+        WheelTimeout (Callable<V> callable, long deadline) {
+            super (callable);
+            this.deadline = deadline;
+        }
+
+        /**
+         * 离开时间轮，只调用一次
+         */
+        void removed () {
+            if (state != STATE_REMOVED) {
+                state = STATE_REMOVED;
+                pendingCount.decrementAndGet ();
+            }
+        }
+
+        @Override
+        public boolean cancel (boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel (mayInterruptIfRunning);
+            if (cancelled && !stopped) {
+                // 由tick线程从格子中移除
+                cancelledTimeouts.add (this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public void run () {
+            long startTime = System.nanoTime ();
+            runningCount.incrementAndGet ();
+            try {
+                super.run ();
+            } finally {
+                runningCount.decrementAndGet ();
+                long now = System.nanoTime ();
+                latencyMetrics.record (Math.max (0L, startTime - startNanos - deadline), now - startTime);
+            }
+        }
+
+        @Override
+        public long getDelay (TimeUnit unit) {
+            return unit.convert (deadline - (System.nanoTime () - startNanos), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo (Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            return Long.compare (getDelay (TimeUnit.NANOSECONDS), other.getDelay (TimeUnit.NANOSECONDS));
+        }
+    }
+}
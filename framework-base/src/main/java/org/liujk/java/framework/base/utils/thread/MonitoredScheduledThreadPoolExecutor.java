@@ -7,9 +7,9 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
 import org.liujk.java.framework.base.utils.lang.CollectionUtils;
 import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagators;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
 import java.util.HashMap;
 import java.util.List;
@@ -18,8 +18,6 @@ import java.util.Objects;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
-
 /**
  * 说明：
  * <p>
@@ -39,6 +37,17 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
     private Map<String, Timer> timerMap;
     private volatile boolean enableTimerMetric = false;
     private volatile boolean enableGaugeMetric = true;
+    private volatile boolean enableLatencyMetric = true;
+    private volatile TaskLatencyMetrics latencyMetrics;
+    /**
+     * 工作线程上正在执行的任务的开始时间和队列等待耗时
+     */
+    private final ThreadLocal<long[]> executing = new ThreadLocal<long[]> () {
+        @Override
+        protected long[] initialValue () {
+            return new long[2];
+        }
+    };
     private volatile boolean initialized = false;
 
     public MonitoredScheduledThreadPoolExecutor (int corePoolSize) {
@@ -56,7 +65,7 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
     public MonitoredScheduledThreadPoolExecutor (int corePoolSize, ThreadFactory threadFactory,
                                                  RejectedExecutionHandler handler) {
         super (corePoolSize, threadFactory, handler);
-        if (this.getQueue () instanceof MonitoredThreadPoolQueue
+        if (this.getQueue () instanceof MonitoredTaskQueue
                 && (!(handler instanceof ReporttingRejectedExecutionHandler))) {
             throw new IllegalArgumentException (
                     "当使用MonitoredThreadPoolQueue时必须为ReporttingRejectedExecutionHandler");
@@ -99,7 +108,7 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
         submittedCount.incrementAndGet ();
         Preconditions.checkState (initialized);
         try {
-            return super.schedule (newTimerCallable (callable), delay, unit);
+            return super.schedule (wrapAllCallable (callable), delay, unit);
         } catch (RejectedExecutionException e) {
             submittedCount.decrementAndGet ();
             throw e;
@@ -138,7 +147,7 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
 
 
     private Runnable wrapAll (Runnable command) {
-        command = mdcGidWrap (command);
+        command = ThreadContextPropagators.wrap (command);
         if (enableTimerMetric) {
             command = newTimerRunnable (command);
         }
@@ -146,39 +155,35 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
     }
 
     private <T> Callable<T> wrapAllCallable (Callable<T> task) {
-        task = mdcGidWrapCallable (task);
+        task = ThreadContextPropagators.wrap (task);
         if (enableTimerMetric) {
             task = newTimerCallable (task);
         }
         return task;
     }
 
-    private Runnable mdcGidWrap (Runnable command) {
-        String gid = MDC.get (SID_KEY);
-        if (gid != null) {
-            return new MDCGidRunnable (command, gid);
-        } else {
-            return command;
-        }
-    }
-
-    private <T> Callable<T> mdcGidWrapCallable (Callable<T> task) {
-        String gid = MDC.get (SID_KEY);
-        if (gid != null) {
-            return new MDCGidCallable (task, gid);
-        } else {
-            return task;
-        }
-    }
-
     @Override
     protected void beforeExecute (Thread t, Runnable r) {
         super.beforeExecute (t, r);
+        if (enableLatencyMetric && r instanceof Delayed) {
+            // 开始执行时任务的剩余延迟为负数，即晚于计划执行时间的部分
+            long[] state = executing.get ();
+            state[1] = Math.max (0L, -((Delayed) r).getDelay (TimeUnit.NANOSECONDS));
+            state[0] = System.nanoTime ();
+        }
     }
 
     @Override
     protected void afterExecute (Runnable r, Throwable t) {
         submittedCount.decrementAndGet ();
+        TaskLatencyMetrics metrics = latencyMetrics;
+        if (metrics != null && enableLatencyMetric && r instanceof Delayed) {
+            long[] state = executing.get ();
+            if (state[0] != 0L) {
+                metrics.record (state[1], System.nanoTime () - state[0]);
+                state[0] = 0L;
+            }
+        }
         super.afterExecute (r, t);
     }
 
@@ -236,6 +241,29 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
         }
     }
 
+    public boolean isEnableLatencyMetric () {
+        return enableLatencyMetric;
+    }
+
+    /**
+     * 是否记录任务的延迟、执行和总耗时分布，见{@link TaskLatencyMetrics}
+     */
+    public synchronized void setEnableLatencyMetric (boolean enableLatencyMetric) {
+        logger.info ("set enableLatencyMetric to {}", enableLatencyMetric);
+        this.enableLatencyMetric = enableLatencyMetric;
+        if (latencyMetrics != null) {
+            if (enableLatencyMetric) {
+                latencyMetrics.register (metricRegistry);
+            } else {
+                latencyMetrics.unregister (metricRegistry);
+            }
+        }
+    }
+
+    TaskLatencyMetrics getLatencyMetrics () {
+        return latencyMetrics;
+    }
+
     private void initializeGaugeMap () {
         if (CollectionUtils.isEmpty (gaugeMap)) {
             String taskGaugeName = MetricRegistry.name ("tp", "taskInQueue", metricName);
@@ -339,6 +367,10 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
                 if (enableTimerMetric) {
                     registerTimers ();
                 }
+                latencyMetrics = new TaskLatencyMetrics (metricName);
+                if (enableLatencyMetric) {
+                    latencyMetrics.register (metricRegistry);
+                }
                 // jmxReporter =
                 // JmxReporter.forRegistry(metricRegistry).convertRatesTo(this.rateUnit)
                 // .convertDurationsTo(this.durationUnit).build();
@@ -355,6 +387,7 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
             if (initialized) {
                 unregisterGauges ();
                 unregisterTimers ();
+                unregisterLatency ();
             }
         }
     }
@@ -372,10 +405,17 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
         synchronized (this) {
             unregisterGauges ();
             unregisterTimers ();
+            unregisterLatency ();
         }
         return runnables;
     }
 
+    private void unregisterLatency () {
+        if (latencyMetrics != null) {
+            latencyMetrics.unregister (metricRegistry);
+        }
+    }
+
     private TimerRunnable newTimerRunnable (Runnable task) {
         return new TimerRunnable (task, this.enqTimer.time (), this.responseTimer.time ());
     }
@@ -401,46 +441,6 @@ public class MonitoredScheduledThreadPoolExecutor extends ScheduledThreadPoolExe
                 ", completed tasks = " + getCompletedTaskCount () +
                 "]";
     }
-    private static class MDCGidRunnable implements Runnable {
-        private final Runnable task;
-        private final String gid;
-
-        public MDCGidRunnable (Runnable task, String gid) {
-            this.task = task;
-            this.gid = gid;
-        }
-
-        @Override
-        public void run () {
-            try {
-                MDC.put (SID_KEY, gid);
-                task.run ();
-            } finally {
-                MDC.remove (SID_KEY);
-            }
-        }
-    }
-
-    private static class MDCGidCallable<T> implements Callable<T> {
-        private final Callable<T> task;
-        private final String gid;
-
-        public MDCGidCallable (Callable<T> task, String gid) {
-            this.task = task;
-            this.gid = gid;
-        }
-
-        @Override
-        public T call () throws Exception {
-            try {
-                MDC.put (SID_KEY, gid);
-                return task.call ();
-            } finally {
-                MDC.remove (SID_KEY);
-            }
-        }
-    }
-
     private class TimerRunnable implements Runnable {
         private Runnable task;
         private Timer.Context enqContext;
@@ -0,0 +1,29 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 说明：
+ * <p>
+ * MonitoredThreadPoolExecutor使用的任务队列：线程数未达到最大线程数且没有空闲线程时offer返回false，让线程池先创建线程，
+ * 线程池拒绝任务时由{@link ReporttingRejectedExecutionHandler}调用{@link #force(Runnable)}把任务放入队列。
+ */
+public interface MonitoredTaskQueue extends BlockingQueue<Runnable> {
+
+    /**
+     * 设置所属的线程池
+     *
+     * @param tp 线程池
+     */
+    void setParent (MonitoredThreadPoolExecutor tp);
+
+    /**
+     * 不考虑线程池状态，直接放入队列
+     *
+     * @param o 任务
+     *
+     * @return 队列已满时返回false
+     * @throws java.util.concurrent.RejectedExecutionException 线程池已关闭
+     */
+    boolean force (Runnable o);
+}
@@ -28,6 +28,18 @@ import java.util.concurrent.*;
  * enableGaugeMetric：是否开启线程池相关参数监控，默认开启 rateUnit：频率显示单位，默认使用task/sec durationUnit：耗时显示单位，默认使用毫秒。
  * <p>
  * enableTimerMetric 和 enableGaugeMetric 这两个参数支持运行时动态调整。
+ * <p>
+ * 3、耗时分布 enableLatencyMetric：默认开启，使用无锁的LatencyRecorder记录队列等待(tp.queueWait)、执行(tp.execution)和
+ * 总耗时(tp.endToEnd)的分布，开销很小，可以在生产环境常开，同样支持运行时动态调整。
+ * <p>
+ * 4、自动调优 autoTuneEnable：默认关闭，开启后由{@link ThreadPoolAutoTuner}根据负载和队列等待耗时定期调整核心线程数和最大线程数，
+ * 核心线程数在[autoTuneMinPoolSize, maxPoolSize]之间。初始化之后getCorePoolSize和getMaxPoolSize返回线程池当前的值，
+ * 自动调优的上限仍然是setMaxPoolSize设置的值。
+ * <p>
+ * 5、任务队列 arrayQueueEnable：默认关闭，开启后使用基于环形数组的{@link ArrayMonitoredThreadPoolQueue}，
+ * 多个线程同时提交任务时竞争更小，队列容量向上取整为2的幂。
+ * <p>
+ * 6、卡死任务检测 stuckTaskThresholdMillis：默认0不检测，大于0时由{@link StuckTaskWatchdog}报告执行超过该时间的任务和线程堆栈。
  *
  */
 public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
@@ -39,6 +51,11 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
 
     private volatile boolean enableTimerMetric = false;
     private volatile boolean enableGaugeMetric = true;
+    private volatile boolean enableLatencyMetric = true;
+    private volatile boolean autoTuneEnable = false;
+    private volatile int autoTuneMinPoolSize = 1;
+    private volatile boolean arrayQueueEnable = false;
+    private volatile long stuckTaskThresholdMillis = 0;
 
     private volatile int queueCapacity = 5000;
     private volatile int corePoolSize = 16;
@@ -47,6 +64,7 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
     private volatile boolean allowCoreThreadTimeOut = false;
 
     private volatile MonitoredThreadPoolExecutor threadPoolExecutor;
+    private volatile ThreadPoolAutoTuner autoTuner;
 
     /**
      * 添加默认配置
@@ -81,9 +99,13 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
         }
     }
 
+    /**
+     * 初始化之后返回线程池当前的核心线程数，自动调优会改变这个值
+     */
     @Override
     public int getCorePoolSize () {
-        return this.corePoolSize;
+        MonitoredThreadPoolExecutor executor = threadPoolExecutor;
+        return null == executor ? this.corePoolSize : executor.getCorePoolSize ();
     }
 
     @Override
@@ -94,9 +116,13 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
         }
     }
 
+    /**
+     * 初始化之后返回线程池当前的最大线程数，自动调优会改变这个值
+     */
     @Override
     public int getMaxPoolSize () {
-        return this.maxPoolSize;
+        MonitoredThreadPoolExecutor executor = threadPoolExecutor;
+        return null == executor ? this.maxPoolSize : executor.getMaximumPoolSize ();
     }
 
     @Override
@@ -143,6 +169,36 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
             throw new IllegalArgumentException (
                     rejectedExecutionHandler + "必须为ReporttingRejectedExecutionHandler");
         }
+        MonitoredThreadPoolExecutor executor = createThreadPoolExecutor (queueCapacity, threadFactory,
+                                                                         rejectedExecutionHandler);
+        if (allowCoreThreadTimeOut) {
+            executor.allowCoreThreadTimeOut (true);
+        }
+        executor.setMetrics (metricName, enableTimerMetric, enableGaugeMetric, rateUnit,
+                             durationUnit);
+        executor.setEnableLatencyMetric (enableLatencyMetric);
+        executor.initialize ();
+        if (stuckTaskThresholdMillis > 0) {
+            executor.enableStuckTaskWatchdog (stuckTaskThresholdMillis, TimeUnit.MILLISECONDS);
+        }
+        this.threadPoolExecutor = executor;
+        if (autoTuneEnable) {
+            startAutoTuner ();
+        }
+        return executor;
+    }
+
+    /**
+     * 创建线程池，子类可以覆盖以使用不同的任务队列
+     *
+     * @param queueCapacity            队列容量，0表示不排队
+     * @param threadFactory            线程工厂
+     * @param rejectedExecutionHandler 拒绝策略
+     *
+     * @return 线程池
+     */
+    protected MonitoredThreadPoolExecutor createThreadPoolExecutor (int queueCapacity, ThreadFactory threadFactory,
+                                                                    RejectedExecutionHandler rejectedExecutionHandler) {
         MonitoredThreadPoolExecutor executor;
         if (queueCapacity == 0) {
             executor = new MonitoredThreadPoolExecutor (getCorePoolSize (), getMaxPoolSize (),
@@ -150,22 +206,98 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
                                                         new SynchronousQueue<Runnable> (),
                                                         threadFactory, rejectedExecutionHandler);
         } else {
-            MonitoredThreadPoolQueue queue = new MonitoredThreadPoolQueue (queueCapacity);
+            MonitoredTaskQueue queue = arrayQueueEnable ? new ArrayMonitoredThreadPoolQueue (queueCapacity)
+                    : new MonitoredThreadPoolQueue (queueCapacity);
             executor = new MonitoredThreadPoolExecutor (getCorePoolSize (), getMaxPoolSize (),
                                                         getKeepAliveSeconds (), TimeUnit.SECONDS, queue, threadFactory,
                                                         rejectedExecutionHandler);
             queue.setParent (executor);
         }
-        if (allowCoreThreadTimeOut) {
-            executor.allowCoreThreadTimeOut (true);
-        }
-        executor.setMetrics (metricName, enableTimerMetric, enableGaugeMetric, rateUnit,
-                             durationUnit);
-        executor.initialize ();
-        this.threadPoolExecutor = executor;
         return executor;
     }
 
+    public boolean isAutoTuneEnable () {
+        return autoTuneEnable;
+    }
+
+    /**
+     * 开启自动调优，核心线程数在[autoTuneMinPoolSize, maxPoolSize]之间调整，见{@link ThreadPoolAutoTuner}
+     */
+    public synchronized void setAutoTuneEnable (boolean autoTuneEnable) {
+        this.autoTuneEnable = autoTuneEnable;
+        if (null != threadPoolExecutor) {
+            if (autoTuneEnable) {
+                startAutoTuner ();
+            } else {
+                stopAutoTuner ();
+            }
+        }
+    }
+
+    public int getAutoTuneMinPoolSize () {
+        return autoTuneMinPoolSize;
+    }
+
+    public void setAutoTuneMinPoolSize (int autoTuneMinPoolSize) {
+        this.autoTuneMinPoolSize = autoTuneMinPoolSize;
+    }
+
+    public boolean isArrayQueueEnable () {
+        return arrayQueueEnable;
+    }
+
+    /**
+     * 是否使用{@link ArrayMonitoredThreadPoolQueue}，需要在初始化之前设置
+     */
+    public void setArrayQueueEnable (boolean arrayQueueEnable) {
+        this.arrayQueueEnable = arrayQueueEnable;
+    }
+
+    public long getStuckTaskThresholdMillis () {
+        return stuckTaskThresholdMillis;
+    }
+
+    /**
+     * 任务执行超过该时间时报告，0表示不检测，支持运行时调整
+     */
+    public synchronized void setStuckTaskThresholdMillis (long stuckTaskThresholdMillis) {
+        this.stuckTaskThresholdMillis = stuckTaskThresholdMillis;
+        if (null != threadPoolExecutor) {
+            if (stuckTaskThresholdMillis > 0) {
+                threadPoolExecutor.enableStuckTaskWatchdog (stuckTaskThresholdMillis, TimeUnit.MILLISECONDS);
+            } else {
+                threadPoolExecutor.disableStuckTaskWatchdog ();
+            }
+        }
+    }
+
+    /**
+     * 自动调优器，未开启时为null，可用于调整目标利用率、SLO等参数
+     */
+    public ThreadPoolAutoTuner getAutoTuner () {
+        return autoTuner;
+    }
+
+    private synchronized void startAutoTuner () {
+        if (autoTuner == null) {
+            autoTuner = new ThreadPoolAutoTuner (metricName, threadPoolExecutor,
+                                                 Math.min (autoTuneMinPoolSize, maxPoolSize), maxPoolSize);
+        }
+        autoTuner.start ();
+    }
+
+    private synchronized void stopAutoTuner () {
+        if (autoTuner != null) {
+            autoTuner.stop ();
+        }
+    }
+
+    @Override
+    public void shutdown () {
+        stopAutoTuner ();
+        super.shutdown ();
+    }
+
     public void setMetrics (String name) {
         setMetrics (name, false, true);
     }
@@ -216,6 +348,17 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
         }
     }
 
+    public boolean isEnableLatencyMetric () {
+        return this.enableLatencyMetric;
+    }
+
+    public synchronized void setEnableLatencyMetric (boolean enableLatencyMetric) {
+        this.enableLatencyMetric = enableLatencyMetric;
+        if (null != threadPoolExecutor) {
+            threadPoolExecutor.setEnableLatencyMetric (enableLatencyMetric);
+        }
+    }
+
     /**
      * Returns a string identifying this pool, as well as its state,
      * including indications of run state and estimated worker and
@@ -228,6 +371,8 @@ public class MonitoredThreadPool extends ThreadPoolTaskExecutor {
                 "[" +
                 "ThreadName prefix = " + getPoolSize () +
                 ", pool size = " + getPoolSize () +
+                ", core pool size = " + getCorePoolSize () +
+                ", max pool size = " + getMaxPoolSize () +
                 ", active threads = " + getActiveCount () +
                 ", queue capacity = " + getQueueCapacity ()+
                 "]";
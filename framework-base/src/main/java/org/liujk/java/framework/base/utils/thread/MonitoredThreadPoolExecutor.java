@@ -2,16 +2,20 @@
 package org.liujk.java.framework.base.utils.thread;
 
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
 import org.liujk.java.framework.base.utils.lang.CollectionUtils;
 import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagators;
+import org.liujk.java.framework.base.utils.thread.priority.PriorityRunnableWrapper;
+import org.liujk.java.framework.base.utils.thread.priority.Priorityable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
+import java.net.SocketTimeoutException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,8 +23,6 @@ import java.util.Objects;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
-
 /**
  * 说明：
  * <p>
@@ -28,6 +30,10 @@ import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
  */
 public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
     private final AtomicInteger submittedCount = new AtomicInteger (0);
+    /**
+     * 正在运行的工作线程数，由线程工厂包装的线程维护，读取时不需要获取线程池的mainLock
+     */
+    private final AtomicInteger liveWorkerCount;
     private Logger logger = LoggerFactory.getLogger (getClass ());
     private String metricName = "MonitoredThreadPoolExecutor";
     private MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
@@ -38,8 +44,16 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
     private Timer enqTimer;
     private Timer responseTimer;
     private Map<String, Timer> timerMap;
+    /**
+     * 过期没有执行的{@link DeadlineTask}数
+     */
+    private final Counter expiredCounter = new Counter ();
     private volatile boolean enableTimerMetric = false;
     private volatile boolean enableGaugeMetric = true;
+    private volatile boolean enableLatencyMetric = true;
+    private volatile TaskLatencyMetrics latencyMetrics;
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private volatile StuckTaskWatchdog stuckTaskWatchdog;
     private volatile boolean initialized = false;
 
     public MonitoredThreadPoolExecutor () {
@@ -68,9 +82,10 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
     public MonitoredThreadPoolExecutor (int corePoolSize, int maximumPoolSize, long keepAliveTime,
                                         TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
                                         RejectedExecutionHandler handler) {
-        super (corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory,
-               handler);
-        if (this.getQueue () instanceof MonitoredThreadPoolQueue
+        super (corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+               new WorkerCountingThreadFactory (threadFactory, new AtomicInteger (0)), handler);
+        this.liveWorkerCount = ((WorkerCountingThreadFactory) super.getThreadFactory ()).liveWorkerCount;
+        if (this.getQueue () instanceof MonitoredTaskQueue
                 && (!(handler instanceof ReporttingRejectedExecutionHandler))) {
             throw new IllegalArgumentException (
                     "当使用MonitoredThreadPoolQueue时必须为ReporttingRejectedExecutionHandler");
@@ -83,61 +98,202 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
             initialize ();
         }
 
+        AdaptiveConcurrencyLimiter.Permit permit = null;
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter != null) {
+            Objects.requireNonNull (command);
+            permit = limiter.tryAcquire ();
+            if (permit == null) {
+                throw new RejectedExecutionException ("线程池[" + metricName + "]超过并发限制:" + limiter.getLimit ());
+            }
+        }
+
         submittedCount.incrementAndGet ();
         Preconditions.checkState (initialized);
         try {
-            super.execute (wrapAll (command));
+            super.execute (wrapAll (command, permit));
         } catch (RejectedExecutionException e) {
             submittedCount.decrementAndGet ();
+            if (permit != null) {
+                // 队列满被拒绝是过载，线程池关闭不是
+                if (isShutdown ()) {
+                    permit.onIgnore ();
+                } else {
+                    permit.onDropped ();
+                }
+            }
             throw e;
+        } catch (RuntimeException | Error e) {
+            submittedCount.decrementAndGet ();
+            if (permit != null) {
+                permit.onIgnore ();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 设置自适应并发限制器，提交的任务从提交到执行完成占用一个许可，超过限制时立即抛出RejectedExecutionException，
+     * 不再进入队列或按拒绝策略处理。任务在队列中等待越久，限制降得越低。
+     *
+     * @param concurrencyLimiter 为null时不限制
+     */
+    public void setConcurrencyLimiter (AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter () {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * 任务被拒绝策略丢弃或shutdownNow时没有执行，释放任务占用的并发许可
+     *
+     * @param r 线程池中的任务
+     */
+    void onDiscarded (Runnable r) {
+        if (r instanceof LimitedRunnable) {
+            ((LimitedRunnable) r).permit.onIgnore ();
+        }
+    }
+
+    /**
+     * 提交有截止时间的任务，任务在队列中等待超过timeout后不再执行
+     *
+     * @param command 任务
+     * @param timeout 从现在开始最多等待的时间
+     * @param unit    时间单位
+     */
+    public void execute (Runnable command, long timeout, TimeUnit unit) {
+        execute (new DeadlineRunnable (command, timeout, unit));
+    }
+
+    /**
+     * 提交有截止时间的任务，任务在队列中等待超过timeout后不再执行，返回的Future以异常结束，
+     * get抛出{@link ExecutionException}，cause为{@link TimeoutException}
+     *
+     * @param task    任务
+     * @param timeout 从现在开始最多等待的时间
+     * @param unit    时间单位
+     */
+    public <T> Future<T> submit (Callable<T> task, long timeout, TimeUnit unit) {
+        Objects.requireNonNull (task);
+        RunnableFuture<T> future = new DeadlineFutureTask<> (task, task, System.nanoTime () + unit.toNanos (timeout));
+        execute (future);
+        return future;
+    }
+
+    /**
+     * 提交有截止时间的任务，见{@link #submit(Callable, long, TimeUnit)}
+     */
+    public Future<?> submit (Runnable task, long timeout, TimeUnit unit) {
+        Objects.requireNonNull (task);
+        RunnableFuture<Void> future = new DeadlineFutureTask<> (task, null, task,
+                                                                System.nanoTime () + unit.toNanos (timeout));
+        execute (future);
+        return future;
+    }
+
+    /**
+     * 实现了{@link DeadlineTask}的任务submit后仍然检查截止时间
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor (Runnable runnable, T value) {
+        if (runnable instanceof DeadlineTask) {
+            return new DeadlineFutureTask<> (runnable, value, runnable, ((DeadlineTask) runnable).getDeadlineNanos ());
         }
+        return super.newTaskFor (runnable, value);
     }
 
-    private Runnable wrapAll (Runnable command) {
-        command = mdcGidWrap (command);
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor (Callable<T> callable) {
+        if (callable instanceof DeadlineTask) {
+            return new DeadlineFutureTask<> (callable, callable, ((DeadlineTask) callable).getDeadlineNanos ());
+        }
+        return super.newTaskFor (callable);
+    }
+
+    private Runnable wrapAll (Runnable command, AdaptiveConcurrencyLimiter.Permit permit) {
+        Runnable original = command;
+        DeadlineCheckRunnable deadlineCheck = null;
+        if (original instanceof DeadlineTask) {
+            // 放在上下文包装之内，onExpired可以使用任务的GID
+            deadlineCheck = new DeadlineCheckRunnable (command, (DeadlineTask) original);
+            command = deadlineCheck;
+        }
+        command = ThreadContextPropagators.wrap (command);
         if (enableTimerMetric) {
             command = newTimerRunnable (command);
         }
+        if (enableLatencyMetric) {
+            command = new LatencyRunnable (command, original, System.nanoTime ());
+        } else if (command != original && original instanceof Priorityable) {
+            // 包装后保留原任务的优先级，供优先级队列使用
+            command = new PriorityRunnableWrapper ((Priorityable) original, command);
+        }
+        if (permit != null) {
+            // 放在最外层，拒绝策略丢弃任务时可以释放许可
+            command = new LimitedRunnable (command, original, deadlineCheck, permit);
+        }
         return command;
     }
 
     private <T> Callable<T> wrapAllCallable (Callable<T> task) {
-        task = mdcGidWrapCallable (task);
+        task = ThreadContextPropagators.wrap (task);
         if (enableTimerMetric) {
             task = newTimerCallable (task);
         }
         return task;
     }
 
-    private Runnable mdcGidWrap (Runnable command) {
-        String gid = MDC.get (SID_KEY);
-        if (gid != null) {
-            return new MDCGidRunnable (command, gid);
-        } else {
-            return command;
-        }
-    }
-
-    private <T> Callable<T> mdcGidWrapCallable (Callable<T> task) {
-        String gid = MDC.get (SID_KEY);
-        if (gid != null) {
-            return new MDCGidCallable (task, gid);
-        } else {
-            return task;
-        }
-    }
-
     @Override
     protected void beforeExecute (Thread t, Runnable r) {
         super.beforeExecute (t, r);
+        StuckTaskWatchdog watchdog = stuckTaskWatchdog;
+        if (watchdog != null) {
+            watchdog.taskStarted (r);
+        }
     }
 
     @Override
     protected void afterExecute (Runnable r, Throwable t) {
+        StuckTaskWatchdog watchdog = stuckTaskWatchdog;
+        if (watchdog != null) {
+            watchdog.taskFinished ();
+        }
         submittedCount.decrementAndGet ();
         super.afterExecute (r, t);
     }
 
+    /**
+     * 开启卡死任务检测，任务执行超过threshold时采样执行线程的堆栈并输出到日志，见{@link StuckTaskWatchdog}。
+     * 槽位数为当前的最大线程数，之后调大的线程不检测。
+     *
+     * @param threshold 任务执行时间阈值
+     * @param unit      时间单位
+     */
+    public synchronized void enableStuckTaskWatchdog (long threshold, TimeUnit unit) {
+        disableStuckTaskWatchdog ();
+        int slotCount = getMaximumPoolSize () == Integer.MAX_VALUE ? Math.max (getCorePoolSize (), 256)
+                : getMaximumPoolSize ();
+        this.stuckTaskWatchdog = new StuckTaskWatchdog (metricName, slotCount, threshold, unit);
+    }
+
+    /**
+     * 关闭卡死任务检测
+     */
+    public synchronized void disableStuckTaskWatchdog () {
+        StuckTaskWatchdog watchdog = stuckTaskWatchdog;
+        if (watchdog != null) {
+            stuckTaskWatchdog = null;
+            watchdog.stop ();
+        }
+    }
+
+    public StuckTaskWatchdog getStuckTaskWatchdog () {
+        return stuckTaskWatchdog;
+    }
+
     public void setMetrics (String name) {
         setMetrics (name, false, true);
     }
@@ -192,6 +348,36 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
         }
     }
 
+    public boolean isEnableLatencyMetric () {
+        return enableLatencyMetric;
+    }
+
+    /**
+     * 是否记录任务的队列等待、执行和总耗时分布，见{@link TaskLatencyMetrics}
+     */
+    public synchronized void setEnableLatencyMetric (boolean enableLatencyMetric) {
+        logger.info ("set enableLatencyMetric to {}", enableLatencyMetric);
+        this.enableLatencyMetric = enableLatencyMetric;
+        if (latencyMetrics != null) {
+            if (enableLatencyMetric) {
+                latencyMetrics.register (metricRegistry);
+            } else {
+                latencyMetrics.unregister (metricRegistry);
+            }
+        }
+    }
+
+    /**
+     * 过期没有执行的{@link DeadlineTask}数
+     */
+    public long getExpiredCount () {
+        return expiredCounter.getCount ();
+    }
+
+    TaskLatencyMetrics getLatencyMetrics () {
+        return latencyMetrics;
+    }
+
     private void initializeGaugeMap () {
         if (CollectionUtils.isEmpty (gaugeMap)) {
             String taskGaugeName = MetricRegistry.name ("tp", "taskInQueue", metricName);
@@ -295,6 +481,15 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
                 if (enableTimerMetric) {
                     registerTimers ();
                 }
+                latencyMetrics = new TaskLatencyMetrics (metricName);
+                if (enableLatencyMetric) {
+                    latencyMetrics.register (metricRegistry);
+                }
+                try {
+                    metricRegistry.register (expiredCounterName (), expiredCounter);
+                } catch (IllegalArgumentException e) {
+                    // do nothing
+                }
                 // jmxReporter =
                 // JmxReporter.forRegistry(metricRegistry).convertRatesTo(this.rateUnit)
                 // .convertDurationsTo(this.durationUnit).build();
@@ -308,9 +503,11 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
     public void shutdown () {
         super.shutdown ();
         synchronized (this) {
+            disableStuckTaskWatchdog ();
             if (initialized) {
                 unregisterGauges ();
                 unregisterTimers ();
+                unregisterLatency ();
             }
         }
     }
@@ -322,16 +519,47 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
         return submittedCount.get ();
     }
 
+    /**
+     * 获取正在运行的工作线程数。
+     * <p>
+     * 与{@link #getPoolSize()}不同，不需要获取线程池的全局锁，适合在提交任务的路径上频繁调用；
+     * 线程创建后到开始运行之前不计入，因此可能略小于{@link #getPoolSize()}。
+     */
+    public int getPoolSizeSnapshot () {
+        return liveWorkerCount.get ();
+    }
+
+    @Override
+    public void setThreadFactory (ThreadFactory threadFactory) {
+        super.setThreadFactory (new WorkerCountingThreadFactory (threadFactory, liveWorkerCount));
+    }
+
     @Override
     public List<Runnable> shutdownNow () {
         final List<Runnable> runnables = super.shutdownNow ();
+        for (Runnable runnable : runnables) {
+            onDiscarded (runnable);
+        }
         synchronized (this) {
+            disableStuckTaskWatchdog ();
             unregisterGauges ();
             unregisterTimers ();
+            unregisterLatency ();
         }
         return runnables;
     }
 
+    private void unregisterLatency () {
+        if (latencyMetrics != null) {
+            latencyMetrics.unregister (metricRegistry);
+        }
+        metricRegistry.remove (expiredCounterName ());
+    }
+
+    private String expiredCounterName () {
+        return MetricRegistry.name ("tp", "expired", metricName);
+    }
+
     private TimerRunnable newTimerRunnable (Runnable task) {
         return new TimerRunnable (task, this.enqTimer.time (), this.responseTimer.time ());
     }
@@ -358,43 +586,201 @@ public class MonitoredThreadPoolExecutor extends ThreadPoolExecutor {
                 "]";
     }
 
-    private static class MDCGidRunnable implements Runnable {
+    /**
+     * 统计正在运行的工作线程数，ThreadPoolExecutor创建工作线程时通过getThreadFactory()获取，所以不能对外隐藏
+     */
+    private static class WorkerCountingThreadFactory implements ThreadFactory {
+        private final ThreadFactory delegate;
+        private final AtomicInteger liveWorkerCount;
+
+        WorkerCountingThreadFactory (ThreadFactory delegate, AtomicInteger liveWorkerCount) {
+            Objects.requireNonNull (delegate);
+            // setThreadFactory(getThreadFactory())时不重复计数
+            this.delegate = delegate instanceof WorkerCountingThreadFactory
+                    ? ((WorkerCountingThreadFactory) delegate).delegate : delegate;
+            this.liveWorkerCount = liveWorkerCount;
+        }
+
+        @Override
+        public Thread newThread (final Runnable worker) {
+            return delegate.newThread (new Runnable () {
+                @Override
+                public void run () {
+                    liveWorkerCount.incrementAndGet ();
+                    try {
+                        worker.run ();
+                    } finally {
+                        liveWorkerCount.decrementAndGet ();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 记录队列等待和执行耗时，保留原任务的优先级
+     */
+    private class LatencyRunnable implements Runnable, Priorityable {
         private final Runnable task;
-        private final String gid;
+        private final Priority priority;
+        private final int priorityLevel;
+        private final long submitNanos;
 
-        public MDCGidRunnable (Runnable task, String gid) {
+        public LatencyRunnable (Runnable task, Runnable original, long submitNanos) {
             this.task = task;
-            this.gid = gid;
+            if (original instanceof Priorityable) {
+                this.priority = ((Priorityable) original).getPriority ();
+                this.priorityLevel = ((Priorityable) original).getPriorityLevel ();
+            } else {
+                this.priority = Priority.NORMAL;
+                this.priorityLevel = Priority.NORMAL.ordinal ();
+            }
+            this.submitNanos = submitNanos;
+        }
+
+        @Override
+        public Priority getPriority () {
+            return priority;
+        }
+
+        @Override
+        public int getPriorityLevel () {
+            return priorityLevel;
         }
 
         @Override
         public void run () {
+            long startNanos = System.nanoTime ();
             try {
-                MDC.put (SID_KEY, gid);
                 task.run ();
             } finally {
-                MDC.remove (SID_KEY);
+                TaskLatencyMetrics metrics = latencyMetrics;
+                if (metrics != null && enableLatencyMetric) {
+                    metrics.record (startNanos - submitNanos, System.nanoTime () - startNanos);
+                }
             }
         }
     }
 
-    private static class MDCGidCallable<T> implements Callable<T> {
-        private final Callable<T> task;
-        private final String gid;
+    /**
+     * 执行完成后释放并发许可，保留原任务的优先级
+     * <p>
+     * 任务过期不执行、或者因超时、被拒绝等过载原因失败时按丢弃释放许可，减少并发限制；
+     * 其他业务异常说明依赖已经正常响应，与正常完成一样按耗时释放；任务被取消没有执行时忽略本次调用.
+     */
+    private static class LimitedRunnable implements Runnable, Priorityable {
+        private final Runnable task;
+        private final Runnable original;
+        private final DeadlineCheckRunnable deadlineCheck;
+        private final AdaptiveConcurrencyLimiter.Permit permit;
 
-        public MDCGidCallable (Callable<T> task, String gid) {
+        LimitedRunnable (Runnable task, Runnable original, DeadlineCheckRunnable deadlineCheck,
+                         AdaptiveConcurrencyLimiter.Permit permit) {
             this.task = task;
-            this.gid = gid;
+            this.original = original;
+            this.deadlineCheck = deadlineCheck;
+            this.permit = permit;
         }
 
         @Override
-        public T call () throws Exception {
+        public Priority getPriority () {
+            return original instanceof Priorityable ? ((Priorityable) original).getPriority () : Priority.NORMAL;
+        }
+
+        @Override
+        public int getPriorityLevel () {
+            return original instanceof Priorityable ? ((Priorityable) original).getPriorityLevel ()
+                    : Priority.NORMAL.ordinal ();
+        }
+
+        @Override
+        public void run () {
             try {
-                MDC.put (SID_KEY, gid);
-                return task.call ();
-            } finally {
-                MDC.remove (SID_KEY);
+                task.run ();
+            } catch (RuntimeException | Error e) {
+                onFailure (e);
+                throw e;
+            }
+            if (deadlineCheck != null && deadlineCheck.expired) {
+                permit.onDropped ();
+            } else if (!(original instanceof Future)) {
+                permit.onSuccess ();
+            } else {
+                onFutureDone ((Future<?>) original);
+            }
+        }
+
+        /**
+         * submit提交的任务，异常被FutureTask捕获，需要从结果中判断
+         */
+        private void onFutureDone (Future<?> future) {
+            if (future.isCancelled ()) {
+                permit.onIgnore ();
+                return;
+            }
+            try {
+                future.get (0, TimeUnit.NANOSECONDS);
+                permit.onSuccess ();
+            } catch (ExecutionException e) {
+                onFailure (e.getCause ());
+            } catch (InterruptedException e) {
+                Thread.currentThread ().interrupt ();
+                permit.onSuccess ();
+            } catch (TimeoutException | CancellationException e) {
+                permit.onIgnore ();
+            }
+        }
+
+        private void onFailure (Throwable t) {
+            if (isOverload (t)) {
+                permit.onDropped ();
+            } else {
+                permit.onSuccess ();
+            }
+        }
+
+        /**
+         * 异常或其原因是超时、被拒绝时认为是过载
+         */
+        private static boolean isOverload (Throwable t) {
+            for (int depth = 0; t != null && depth < 8; depth++, t = t.getCause ()) {
+                if (t instanceof TimeoutException || t instanceof RejectedExecutionException
+                        || t instanceof SocketTimeoutException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 工作线程取出任务后检查截止时间，过期的任务不执行
+     */
+    private class DeadlineCheckRunnable implements Runnable {
+        private final Runnable task;
+        private final DeadlineTask deadlineTask;
+        /**
+         * 同一个工作线程中读写
+         */
+        private boolean expired;
+
+        DeadlineCheckRunnable (Runnable task, DeadlineTask deadlineTask) {
+            this.task = task;
+            this.deadlineTask = deadlineTask;
+        }
+
+        @Override
+        public void run () {
+            if (!deadlineTask.isExpired (System.nanoTime ())) {
+                task.run ();
+                return;
+            }
+            expired = true;
+            expiredCounter.inc ();
+            if (logger.isDebugEnabled ()) {
+                logger.debug ("线程池[{}]的任务已过期，不再执行:{}", metricName, task);
             }
+            deadlineTask.onExpired ();
         }
     }
 
@@ -12,13 +12,14 @@ import java.util.concurrent.RejectedExecutionException;
  * 尽量缩短任务等待时间，当parent.getPoolSize() < parent.getMaximumPoolSize()时，创建新线程执行任务，当线程有空闲时，不创建新线程
  *
  */
-public class MonitoredThreadPoolQueue extends LinkedBlockingQueue<Runnable> {
+public class MonitoredThreadPoolQueue extends LinkedBlockingQueue<Runnable> implements MonitoredTaskQueue {
     private volatile MonitoredThreadPoolExecutor parent = null;
 
     public MonitoredThreadPoolQueue (int capacity) {
         super (capacity);
     }
 
+    @Override
     public void setParent (MonitoredThreadPoolExecutor tp) {
         parent = tp;
     }
@@ -45,6 +46,7 @@ public class MonitoredThreadPoolQueue extends LinkedBlockingQueue<Runnable> {
         return super.offer (o);
     }
 
+    @Override
     public boolean force (Runnable o) {
         if (parent == null || parent.isShutdown ()) {
             throw new RejectedExecutionException ("线程池已关闭，提交任务失败");
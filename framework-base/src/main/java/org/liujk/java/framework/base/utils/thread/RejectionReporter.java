@@ -0,0 +1,117 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 说明：
+ * <p>
+ * 汇总线程池拒绝任务的日志：每个线程池、拒绝策略一个计数器，第一次拒绝立即输出，
+ * 之后每个间隔最多输出一次汇总，包括间隔内的拒绝次数和一个采样的提交线程堆栈。
+ * <p>
+ * 没有到输出时间的拒绝只增加计数，不创建ThreadInfo、不序列化JSON、不写日志，
+ * 过载时日志不会成为新的瓶颈。累计的拒绝次数注册为tp.rejected.[线程池].[策略]指标。
+ */
+final class RejectionReporter {
+
+    private static final Logger logger = LoggerFactory.getLogger (ReporttingRejectedExecutionHandler.class);
+    /**
+     * 日志收集logger
+     */
+    private static final Logger threadpoolLogger = LoggerFactory.getLogger ("THREADPOOL_LOG");
+
+    static final long DEFAULT_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos (10);
+
+    private static final ConcurrentMap<String, RejectionReporter> REPORTERS = new ConcurrentHashMap<> ();
+
+    private final String poolName;
+    private final ReporttingRejectedExecutionHandler.Policy policy;
+    private final Counter rejected;
+    /**
+     * 上次输出后的拒绝次数
+     */
+    private final AtomicLong unreported = new AtomicLong (0);
+    private final AtomicLong nextReportNanos;
+    private final AtomicReference<Throwable> sampledStack = new AtomicReference<> ();
+    private volatile long reportIntervalNanos = DEFAULT_REPORT_INTERVAL_NANOS;
+
+    private RejectionReporter (String poolName, ReporttingRejectedExecutionHandler.Policy policy) {
+        this.poolName = poolName;
+        this.policy = policy;
+        MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+        this.rejected = metricRegistry.counter (MetricRegistry.name ("tp", "rejected", poolName, policy.getCode ()));
+        this.nextReportNanos = new AtomicLong (System.nanoTime ());
+    }
+
+    /**
+     * 同名线程池、同一拒绝策略共用一个实例
+     */
+    static RejectionReporter of (String poolName, ReporttingRejectedExecutionHandler.Policy policy) {
+        String key = poolName + "." + policy.getCode ();
+        RejectionReporter reporter = REPORTERS.get (key);
+        if (reporter == null) {
+            reporter = REPORTERS.computeIfAbsent (key, k -> new RejectionReporter (poolName, policy));
+        }
+        return reporter;
+    }
+
+    /**
+     * 记录一次拒绝，到输出时间时调用details补充线程池状态并输出汇总
+     *
+     * @param details 补充线程池状态，只在输出时调用
+     *
+     * @return 是否输出了汇总
+     */
+    boolean record (Consumer<ReporttingRejectedExecutionHandler.ThreadInfo> details) {
+        rejected.inc ();
+        unreported.incrementAndGet ();
+        if (sampledStack.get () == null) {
+            sampledStack.compareAndSet (null, new Throwable ("采样的提交线程[" + Thread.currentThread ().getName ()
+                                                                     + "]堆栈"));
+        }
+        long next = nextReportNanos.get ();
+        long now = System.nanoTime ();
+        if (now - next < 0 || !nextReportNanos.compareAndSet (next, now + reportIntervalNanos)) {
+            return false;
+        }
+        report (details);
+        return true;
+    }
+
+    private void report (Consumer<ReporttingRejectedExecutionHandler.ThreadInfo> details) {
+        long count = unreported.getAndSet (0);
+        Throwable stack = sampledStack.getAndSet (null);
+        ReporttingRejectedExecutionHandler.ThreadInfo threadInfo = new ReporttingRejectedExecutionHandler.ThreadInfo ();
+        threadInfo.setLogType ("threadPool");
+        threadInfo.addContent ("threadPrefix", poolName);
+        threadInfo.addContent ("policy", policy.getCode ());
+        threadInfo.addContent ("rejectedCount", count);
+        threadInfo.addContent ("totalRejected", rejected.getCount ());
+        threadInfo.addContent ("reportIntervalMillis", TimeUnit.NANOSECONDS.toMillis (reportIntervalNanos));
+        details.accept (threadInfo);
+        String msg = threadInfo.toJSONString ();
+        logger.error ("线程池[{}]满了,{},处理策略:{}({})", poolName, msg, policy.getCode (), policy.getMessage (), stack);
+        threadpoolLogger.info ("{}", msg);
+    }
+
+    long getRejectedCount () {
+        return rejected.getCount ();
+    }
+
+    void setReportInterval (long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException ("interval不能小于0:" + interval);
+        }
+        this.reportIntervalNanos = unit.toNanos (interval);
+    }
+}
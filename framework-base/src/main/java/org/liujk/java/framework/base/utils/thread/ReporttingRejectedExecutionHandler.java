@@ -4,34 +4,29 @@ package org.liujk.java.framework.base.utils.thread;
 import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Maps;
 import org.liujk.java.framework.base.enums.CodeMessageable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 说明：
  * <p>
  * 提供监控报警日志输出的RejectedExecutionHandler
- *
+ * <p>
+ * 拒绝日志按线程池和拒绝策略汇总，第一次拒绝立即输出，之后每个间隔最多输出一次，见{@link RejectionReporter}；
+ * 累计的拒绝次数注册为tp.rejected.[threadPrefix].[策略]指标。
  */
 public class ReporttingRejectedExecutionHandler implements RejectedExecutionHandler {
 
-    private static final Logger logger = LoggerFactory
-            .getLogger (ReporttingRejectedExecutionHandler.class);
-    /**
-     * 日志收集logger
-     */
-    private static final Logger threadpoolLogger = LoggerFactory
-            .getLogger ("THREADPOOL_LOG");
     public static ReporttingRejectedExecutionHandler DEFAULT = new ReporttingRejectedExecutionHandler (
             "default");
     private final String threadPrefix;
     private final Policy policy;
+    private final RejectionReporter reporter;
 
     /**
      * @param threadPrefix 线程前缀
@@ -52,30 +47,36 @@ public class ReporttingRejectedExecutionHandler implements RejectedExecutionHand
         Assert.notNull (threadPrefix, "必须制定线程前缀");
         this.policy = policy;
         this.threadPrefix = threadPrefix;
+        this.reporter = RejectionReporter.of (threadPrefix, policy);
     }
 
     @Override
     public void rejectedExecution (Runnable r, ThreadPoolExecutor e) {
         BlockingQueue<Runnable> queue = e.getQueue ();
-        if (queue instanceof MonitoredThreadPoolQueue) {
+        if (queue instanceof MonitoredTaskQueue) {
             // 如果队列可插入任务，插入当前任务
-            if (((MonitoredThreadPoolQueue) queue).force (r)) {
+            if (((MonitoredTaskQueue) queue).force (r)) {
                 return;
             }
         }
-        int queuedTask = e.getQueue ().size ();
-        ThreadInfo threadInfo = new ThreadInfo ();
-        threadInfo.setLogType ("threadPool");
-        threadInfo.addContent ("threadPrefix", threadPrefix);
-        threadInfo.addContent ("queuedTask", queuedTask);
-        if (e instanceof MonitoredThreadPoolExecutor) {
-            threadInfo.addContent ("submittedCount",
-                                   ((MonitoredThreadPoolExecutor) e).getSubmittedCount ());
+        reporter.record (threadInfo -> {
+            threadInfo.addContent ("queuedTask", e.getQueue ().size ());
+            if (e instanceof MonitoredThreadPoolExecutor) {
+                threadInfo.addContent ("submittedCount",
+                                       ((MonitoredThreadPoolExecutor) e).getSubmittedCount ());
+            }
+        });
+        if (e instanceof MonitoredThreadPoolExecutor && !e.isShutdown ()) {
+            MonitoredThreadPoolExecutor executor = (MonitoredThreadPoolExecutor) e;
+            if (policy == Policy.discard) {
+                executor.onDiscarded (r);
+            } else if (policy == Policy.discardOldest) {
+                // 与DiscardOldestPolicy相同，同时释放被丢弃任务占用的资源
+                executor.onDiscarded (e.getQueue ().poll ());
+                e.execute (r);
+                return;
+            }
         }
-        String msg = threadInfo.toJSONString ();
-        logger.error ("线程池[{}]满了,{},处理策略:{}({})", threadPrefix, msg,
-                      policy.getCode (), policy.getMessage ());
-        threadpoolLogger.info ("{}", msg);
         policy.getRejectedExecutionHandler ().rejectedExecution (r, e);
     }
 
@@ -83,6 +84,24 @@ public class ReporttingRejectedExecutionHandler implements RejectedExecutionHand
         return threadPrefix;
     }
 
+    public Policy getPolicy () {
+        return policy;
+    }
+
+    /**
+     * 累计拒绝的任务数，同名线程池、同一拒绝策略的处理器共用
+     */
+    public long getRejectedCount () {
+        return reporter.getRejectedCount ();
+    }
+
+    /**
+     * 设置拒绝日志的汇总间隔，第一次拒绝立即输出，之后每个间隔最多输出一次，默认10秒，0表示每次都输出
+     */
+    public void setReportInterval (long interval, TimeUnit unit) {
+        reporter.setReportInterval (interval, unit);
+    }
+
     public static enum Policy implements CodeMessageable {
         /**
          * 直接调用runner
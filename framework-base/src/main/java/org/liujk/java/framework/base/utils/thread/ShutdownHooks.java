@@ -6,10 +6,21 @@ package org.liujk.java.framework.base.utils.thread;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.OrderComparator;
 import org.springframework.core.Ordered;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 说明：
@@ -24,12 +35,41 @@ import java.util.List;
  * LogbackConfigListener中调用shutdownAll)清理资源.<br/>
  * <p/>
  * ref: https://issues.apache.org/bugzilla/show_bug.cgi?id=56387
+ * <p/>
+ * 执行方式：<br/>
+ * 1、钩子按order分组，order小的组先执行，同一组的钩子在最多{@link #MAX_PARALLELISM}个守护线程中并行执行.<br/>
+ * 2、每个钩子有自己的超时时间(默认{@link #DEFAULT_HOOK_TIMEOUT_MILLIS}毫秒)，从钩子真正开始执行时计时，
+ * 每组有总的超时时间(默认{@link #DEFAULT_GROUP_TIMEOUT_MILLIS}毫秒)，超时的钩子被中断并记录日志，不再等待，继续执行下一组.<br/>
+ * 3、同一组钩子超过{@link #MAX_PARALLELISM}个时，多出的钩子排队等待空闲线程，排队时间不计入钩子超时，
+ * 组超时时还没开始执行的钩子不再执行，并记录这些钩子的名称.<br/>
+ * 4、日志输出每个钩子、每组和全部钩子的执行耗时.<br/>
  *
  */
 public class ShutdownHooks {
     private static final Logger logger = LoggerFactory.getLogger (ShutdownHooks.class.getName ());
+
+    /**
+     * 同一组钩子最多同时执行的数量
+     */
+    public static final int MAX_PARALLELISM = 8;
+    /**
+     * 钩子默认超时时间
+     */
+    public static final long DEFAULT_HOOK_TIMEOUT_MILLIS = 10000;
+    /**
+     * 每组钩子默认超时时间
+     */
+    public static final long DEFAULT_GROUP_TIMEOUT_MILLIS = 30000;
+    /**
+     * 有钩子在排队时检查其是否开始执行的间隔
+     */
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos (10);
+
     public static List<TaskWrapper> tasks = Lists.newArrayList ();
 
+    private static volatile long defaultHookTimeoutMillis = DEFAULT_HOOK_TIMEOUT_MILLIS;
+    private static volatile long groupTimeoutMillis = DEFAULT_GROUP_TIMEOUT_MILLIS;
+
     /**
      * 添加关闭钩子
      *
@@ -48,9 +88,25 @@ public class ShutdownHooks {
      * @param order    钩子执行顺序,顺序参考{@link Ordered}
      */
     public static void addShutdownHook (Runnable runnable, String hookName, int order) {
+        addShutdownHook (runnable, hookName, order, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 添加关闭钩子
+     *
+     * @param runnable 钩子内容
+     * @param hookName 钩子名称
+     * @param order    钩子执行顺序,顺序参考{@link Ordered},order相同的钩子并行执行
+     * @param timeout  钩子超时时间,小于等于0时使用默认超时时间
+     * @param unit     时间单位
+     */
+    public static void addShutdownHook (Runnable runnable, String hookName, int order, long timeout,
+                                        TimeUnit unit) {
         if (runnable != null) {
-            TaskWrapper taskwrapper = new TaskWrapper (runnable, hookName, order);
-            tasks.add (taskwrapper);
+            TaskWrapper taskwrapper = new TaskWrapper (runnable, hookName, order, unit.toMillis (timeout));
+            synchronized (tasks) {
+                tasks.add (taskwrapper);
+            }
         }
     }
 
@@ -60,26 +116,165 @@ public class ShutdownHooks {
      * 避免容器关闭后,classloader关闭,容器加载类失败. https://issues.apache.org/bugzilla/show_bug.cgi?id=56387
      */
     public static synchronized void shutdownAll () {
-        List<TaskWrapper> taskWrappers = Lists.newArrayList (tasks);
-        tasks.clear ();
+        long start = System.nanoTime ();
+        int count = 0;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor (MAX_PARALLELISM, MAX_PARALLELISM, 1, TimeUnit.SECONDS,
+                                                              new LinkedBlockingQueue<> (),
+                                                              new NamedThreadFactory ("ShutdownHooks", true));
+        executor.allowCoreThreadTimeOut (true);
+        try {
+            // 在执行shutdownhook任务时,任务内部代码增加shutdownhook任务,继续执行,暂时不考虑有循环的地方
+            List<TaskWrapper> taskWrappers;
+            while (!(taskWrappers = drainTasks ()).isEmpty ()) {
+                count += taskWrappers.size ();
+                for (Map.Entry<Integer, List<TaskWrapper>> group : groupByOrder (taskWrappers).entrySet ()) {
+                    runGroup (executor, group.getKey (), group.getValue ());
+                }
+            }
+        } finally {
+            executor.shutdownNow ();
+        }
+        if (count > 0) {
+            logger.info ("[SHUTDOWNHOOK]全部执行结束,共{}个,耗时{}ms", count,
+                         TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - start));
+        }
+    }
+
+    private static List<TaskWrapper> drainTasks () {
+        synchronized (tasks) {
+            List<TaskWrapper> taskWrappers = Lists.newArrayList (tasks);
+            tasks.clear ();
+            return taskWrappers;
+        }
+    }
 
-        OrderComparator.sort (taskWrappers);
+    private static Map<Integer, List<TaskWrapper>> groupByOrder (List<TaskWrapper> taskWrappers) {
+        Map<Integer, List<TaskWrapper>> groups = new TreeMap<> ();
         for (TaskWrapper task : taskWrappers) {
-            task.run ();
+            groups.computeIfAbsent (task.getOrder (), k -> Lists.newArrayList ()).add (task);
         }
-        taskWrappers.clear ();
+        return groups;
+    }
 
-        // 在执行shutdownhook任务时,任务内部代码增加shutdownhook任务,继续执行,暂时不考虑有循环的地方
-        if (!tasks.isEmpty ()) {
-            shutdownAll ();
+    private static void runGroup (ThreadPoolExecutor executor, int order, List<TaskWrapper> group) {
+        long start = System.nanoTime ();
+        long groupDeadline = start + TimeUnit.MILLISECONDS.toNanos (groupTimeoutMillis);
+        Map<TaskWrapper, Future<?>> pending = new LinkedHashMap<> ();
+        for (TaskWrapper task : group) {
+            pending.put (task, executor.submit (task));
+        }
+        int timeouts = 0;
+        try {
+            long now;
+            while (!pending.isEmpty () && (now = System.nanoTime ()) - groupDeadline < 0) {
+                long wait = groupDeadline - now;
+                Iterator<Map.Entry<TaskWrapper, Future<?>>> iterator = pending.entrySet ().iterator ();
+                while (iterator.hasNext ()) {
+                    Map.Entry<TaskWrapper, Future<?>> entry = iterator.next ();
+                    TaskWrapper task = entry.getKey ();
+                    if (entry.getValue ().isDone ()) {
+                        iterator.remove ();
+                    } else if (task.started) {
+                        long hookDeadline = task.startNanos + TimeUnit.MILLISECONDS.toNanos (hookTimeoutMillis (task));
+                        if (now - hookDeadline >= 0) {
+                            timeouts++;
+                            entry.getValue ().cancel (true);
+                            logger.warn ("[SHUTDOWNHOOK-{}]执行超时,不再等待", task.hookName);
+                            iterator.remove ();
+                        } else {
+                            wait = Math.min (wait, hookDeadline - now);
+                        }
+                    } else {
+                        // 还在排队，开始执行后才开始计时
+                        wait = Math.min (wait, POLL_INTERVAL_NANOS);
+                    }
+                }
+                if (!pending.isEmpty ()) {
+                    awaitFirst (pending.values ().iterator ().next (), wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+        // 组超时或等待被中断，剩下的钩子不再等待；先放弃排队的钩子，避免中断执行中的钩子后空出的线程再去执行它们
+        List<String> notStarted = Lists.newArrayList ();
+        Iterator<Map.Entry<TaskWrapper, Future<?>>> iterator = pending.entrySet ().iterator ();
+        while (iterator.hasNext ()) {
+            Map.Entry<TaskWrapper, Future<?>> entry = iterator.next ();
+            if (entry.getKey ().skip ()) {
+                entry.getValue ().cancel (false);
+                notStarted.add (entry.getKey ().hookName);
+                iterator.remove ();
+            }
+        }
+        for (Map.Entry<TaskWrapper, Future<?>> entry : pending.entrySet ()) {
+            timeouts++;
+            entry.getValue ().cancel (true);
+            logger.warn ("[SHUTDOWNHOOK-{}]执行超时,不再等待", entry.getKey ().hookName);
+        }
+        if (!notStarted.isEmpty ()) {
+            logger.warn ("[SHUTDOWNHOOK]order={}的钩子组执行超时,{}个钩子未开始执行,不再执行:{}", order, notStarted.size (),
+                         notStarted);
+        }
+        logger.info ("[SHUTDOWNHOOK]order={}的{}个钩子执行结束,超时{}个,未执行{}个,耗时{}ms", order, group.size (), timeouts,
+                     notStarted.size (), TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - start));
+    }
+
+    private static long hookTimeoutMillis (TaskWrapper task) {
+        return task.timeoutMillis > 0 ? task.timeoutMillis : defaultHookTimeoutMillis;
+    }
+
+    private static void awaitFirst (Future<?> future, long timeoutNanos) throws InterruptedException {
+        try {
+            future.get (timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException | CancellationException e) {
+            // 钩子自己记录了异常，超时由调用方处理
         }
     }
 
+    public static long getDefaultHookTimeoutMillis () {
+        return defaultHookTimeoutMillis;
+    }
+
+    /**
+     * 设置钩子默认超时时间
+     */
+    public static void setDefaultHookTimeout (long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException ("timeout必须大于0:" + timeout);
+        }
+        defaultHookTimeoutMillis = unit.toMillis (timeout);
+    }
+
+    public static long getGroupTimeoutMillis () {
+        return groupTimeoutMillis;
+    }
+
+    /**
+     * 设置每组钩子的总超时时间
+     */
+    public static void setGroupTimeout (long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException ("timeout必须大于0:" + timeout);
+        }
+        groupTimeoutMillis = unit.toMillis (timeout);
+    }
+
     private static class TaskWrapper implements Runnable, Ordered {
         private Runnable runnable;
         private String hookName;
         private int order;
+        private long timeoutMillis;
         private boolean isRunned = false;
+        /**
+         * 执行或放弃执行只能有一个成功
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean ();
+        /**
+         * 开始执行的时间，{@link #started}为true后有效
+         */
+        private volatile long startNanos;
+        private volatile boolean started;
 
         public TaskWrapper (Runnable runnable, String hookName) {
             this.runnable = runnable;
@@ -92,15 +287,36 @@ public class ShutdownHooks {
             this.runnable = runnable;
         }
 
+        public TaskWrapper (Runnable runnable, String hookName, int order, long timeoutMillis) {
+            this (runnable, hookName, order);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * 放弃执行还没开始的钩子
+         *
+         * @return 钩子还没开始执行并且以后也不会执行时返回true
+         */
+        boolean skip () {
+            return claimed.compareAndSet (false, true);
+        }
+
         @Override
         public void run () {
+            if (!claimed.compareAndSet (false, true)) {
+                return;
+            }
             synchronized (this) {
                 if (!isRunned) {
                     logger.info ("[SHUTDOWNHOOK-{}]开始执行", hookName);
                     isRunned = true;
+                    long start = System.nanoTime ();
+                    startNanos = start;
+                    started = true;
                     try {
                         this.runnable.run ();
-                        logger.info ("[SHUTDOWNHOOK-{}]执行结束", hookName);
+                        logger.info ("[SHUTDOWNHOOK-{}]执行结束,耗时{}ms", hookName,
+                                     TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - start));
                     } catch (Exception e) {
                         logger.error ("[SHUTDOWNHOOK-{}]执行失败", hookName, e);
                     }
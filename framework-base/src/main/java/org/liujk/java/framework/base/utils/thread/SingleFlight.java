@@ -0,0 +1,295 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 说明：
+ * <p>
+ * 合并相同key的并发调用：同一时刻同一个key只有一个调用真正执行，其他调用等待并共享它的结果，
+ * 避免热点key缓存失效时大量相同的请求同时打到Redis、数据库。
+ * <p>
+ * 1、执行中的调用保存在{@link ConcurrentHashMap}中，按桶加锁，不同key之间没有全局锁。
+ * <p>
+ * 2、可选的结果缓存：ttl大于0时成功的结果在ttl内直接返回，不再调用；失败的结果不缓存。
+ * 过期的结果在下次访问时移除，每{@link #PURGE_INTERVAL}次调用清理一次所有过期的结果。
+ * <p>
+ * 3、{@link #execute(Object, Supplier)}用于异步调用；{@link #get(Object, Callable)}在调用线程中执行，
+ * 适合Servlet线程等同步场景，等待的调用得到与执行的调用相同的异常。
+ * <p>
+ * 4、监控指标(通过{@link MetricsHolder}注册)：tp.singleFlightLoads.[name]：真正执行的调用数，
+ * tp.singleFlightCoalesced.[name]：共享执行中调用的次数，tp.singleFlightCacheHits.[name]：命中缓存结果的次数，
+ * tp.singleFlightInFlight.[name]：执行中和缓存中的key数。{@link #close()}时注销。
+ *
+ * @param <K> key类型
+ * @param <V> 结果类型
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * 清理过期结果的调用次数间隔
+     */
+    public static final int PURGE_INTERVAL = 1024;
+
+    private final String name;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<K, Call> calls = new ConcurrentHashMap<> ();
+    private final AtomicLong callCount = new AtomicLong (0);
+    private final Counter loads = new Counter ();
+    private final Counter coalesced = new Counter ();
+    private final Counter cacheHits = new Counter ();
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Metric> metricMap = new LinkedHashMap<> ();
+
+    /**
+     * 不缓存结果
+     *
+     * @param name 名称，用作监控名称
+     */
+    public SingleFlight (String name) {
+        this (name, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param name 名称，用作监控名称
+     * @param ttl  成功结果的缓存时间，0表示不缓存
+     * @param unit 时间单位
+     */
+    public SingleFlight (String name, long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException ("ttl不能小于0:" + ttl);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.ttlNanos = unit.toNanos (ttl);
+        registerMetrics ();
+    }
+
+    /**
+     * 异步调用，相同key的并发调用共享一次loader的结果
+     *
+     * @param key    key
+     * @param loader 执行调用，只在没有执行中的调用和缓存结果时执行
+     *
+     * @return 调用结果，取消返回的Future不影响其他调用
+     */
+    public CompletableFuture<V> execute (K key, Supplier<? extends CompletionStage<V>> loader) {
+        Objects.requireNonNull (loader);
+        Call call = acquire (key);
+        if (call.leader) {
+            try {
+                loader.get ().whenComplete ((value, t) -> call.complete (key, value, t));
+            } catch (Throwable t) {
+                call.complete (key, null, t);
+            }
+        }
+        return call.future.thenApply (Function.identity ());
+    }
+
+    /**
+     * 同步调用，相同key的并发调用共享一次loader的结果，loader在第一个调用的线程中执行
+     *
+     * @param key    key
+     * @param loader 执行调用，只在没有执行中的调用和缓存结果时执行
+     *
+     * @return 调用结果
+     * @throws Exception loader抛出的异常，等待的调用抛出相同的异常；等待时被中断抛出InterruptedException
+     */
+    public V get (K key, Callable<V> loader) throws Exception {
+        Objects.requireNonNull (loader);
+        Call call = acquire (key);
+        if (call.leader) {
+            V value;
+            try {
+                value = loader.call ();
+            } catch (Throwable t) {
+                call.complete (key, null, t);
+                throw t;
+            }
+            call.complete (key, value, null);
+            return value;
+        }
+        try {
+            return call.future.get ();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause ();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 找到执行中的调用或缓存的结果，没有时登记一个由当前线程执行的调用
+     */
+    private Call acquire (K key) {
+        Objects.requireNonNull (key);
+        if (ttlNanos > 0 && callCount.incrementAndGet () % PURGE_INTERVAL == 0) {
+            purgeExpired ();
+        }
+        for (; ; ) {
+            Call call = calls.get (key);
+            if (call == null) {
+                Call created = new Call (true);
+                call = calls.putIfAbsent (key, created);
+                if (call == null) {
+                    loads.inc ();
+                    return created;
+                }
+            }
+            if (!call.future.isDone ()) {
+                coalesced.inc ();
+                return call.follower ();
+            }
+            if (call.expireAt - System.nanoTime () > 0) {
+                cacheHits.inc ();
+                return call.follower ();
+            }
+            calls.remove (key, call);
+        }
+    }
+
+    private void purgeExpired () {
+        long now = System.nanoTime ();
+        calls.entrySet ().removeIf (entry -> {
+            Call call = entry.getValue ();
+            return call.future.isDone () && call.expireAt - now <= 0;
+        });
+    }
+
+    /**
+     * 移除缓存的结果，执行中的调用不受影响
+     */
+    public void forget (K key) {
+        Call call = calls.get (key);
+        if (call != null && call.future.isDone ()) {
+            calls.remove (key, call);
+        }
+    }
+
+    public String getName () {
+        return name;
+    }
+
+    public long getTtl (TimeUnit unit) {
+        return unit.convert (ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 真正执行的调用数
+     */
+    public long getLoadCount () {
+        return loads.getCount ();
+    }
+
+    /**
+     * 共享执行中调用的次数
+     */
+    public long getCoalescedCount () {
+        return coalesced.getCount ();
+    }
+
+    /**
+     * 命中缓存结果的次数
+     */
+    public long getCacheHitCount () {
+        return cacheHits.getCount ();
+    }
+
+    /**
+     * 执行中和缓存中的key数
+     */
+    public int getInFlightCount () {
+        return calls.size ();
+    }
+
+    private void registerMetrics () {
+        metricMap.put (MetricRegistry.name ("tp", "singleFlightLoads", name), loads);
+        metricMap.put (MetricRegistry.name ("tp", "singleFlightCoalesced", name), coalesced);
+        metricMap.put (MetricRegistry.name ("tp", "singleFlightCacheHits", name), cacheHits);
+        metricMap.put (MetricRegistry.name ("tp", "singleFlightInFlight", name),
+                       (Gauge<Integer>) this::getInFlightCount);
+        for (Map.Entry<String, Metric> entry : metricMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * 注销监控指标
+     */
+    public void close () {
+        for (String metricName : metricMap.keySet ()) {
+            metricRegistry.remove (metricName);
+        }
+    }
+
+    @Override
+    public String toString () {
+        return "SingleFlight[" + name + ", ttl = " + ttlNanos + "ns, in flight = " + calls.size () + "]";
+    }
+
+    /**
+     * 一次调用，leader表示由当前线程执行
+     */
+    private final class Call {
+        private final CompletableFuture<V> future;
+        private final boolean leader;
+        /**
+         * 缓存的结果的过期时间，完成前不使用
+         */
+        private volatile long expireAt;
+
+        Call (boolean leader) {
+            this (new CompletableFuture<> (), leader);
+        }
+
+        private Call (CompletableFuture<V> future, boolean leader) {
+            this.future = future;
+            this.leader = leader;
+        }
+
+        /**
+         * 共享同一个结果、不执行调用的副本
+         */
+        Call follower () {
+            return new Call (future, false);
+        }
+
+        void complete (K key, V value, Throwable t) {
+            if (t == null && ttlNanos > 0) {
+                // 先设置过期时间再完成，其他线程看到完成时过期时间已经有效
+                expireAt = System.nanoTime () + ttlNanos;
+            } else {
+                calls.remove (key, this);
+            }
+            if (t == null) {
+                future.complete (value);
+            } else {
+                future.completeExceptionally (t);
+            }
+        }
+    }
+}
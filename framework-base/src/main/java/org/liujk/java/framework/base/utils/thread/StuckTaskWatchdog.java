@@ -0,0 +1,246 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 说明：
+ * <p>
+ * 线程池的卡死任务检测：定期找出执行时间超过阈值的任务，采样执行线程的堆栈，输出到日志和THREADPOOL_LOG。
+ * <p>
+ * 1、每个工作线程第一次执行任务时在预先分配的槽位数组中占用一个槽位，之后每个任务只写入开始时间和任务，
+ * 没有Map的插入删除，对任务的开销只有一次ThreadLocal读取和几次有序写入。工作线程退出后检测线程回收它的槽位。
+ * 槽位用完时(线程数超过创建时的最大线程数)多出的线程不检测。
+ * <p>
+ * 2、所有检测器共用一个后台线程，每个检测周期扫描一次槽位数组，同一次任务执行只报告一次。
+ * <p>
+ * 3、监控指标(通过{@link MetricsHolder}注册)：tp.stuckTasks.[name]：最近一次扫描时超过阈值的任务数，
+ * tp.stuckReported.[name]：累计报告的任务数。{@link #stop()}时注销。
+ *
+ * @see MonitoredThreadPoolExecutor#enableStuckTaskWatchdog(long, TimeUnit)
+ */
+public class StuckTaskWatchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger (StuckTaskWatchdog.class);
+    private static final Logger threadpoolLogger = LoggerFactory.getLogger ("THREADPOOL_LOG");
+
+    /**
+     * 报告的最大堆栈深度
+     */
+    private static final int MAX_STACK_DEPTH = 32;
+
+    private static final ScheduledExecutorService SCANNER = Executors.newSingleThreadScheduledExecutor (r -> {
+        Thread thread = new Thread (r, "StuckTaskWatchdog");
+        thread.setDaemon (true);
+        return thread;
+    });
+
+    private final String name;
+    private final long thresholdNanos;
+    private final Slot[] slots;
+    private final ThreadLocal<Slot> currentSlot = new ThreadLocal<> ();
+    private final MetricRegistry metricRegistry = MetricsHolder.metricRegistry ();
+    private final Map<String, Metric> metricMap = new LinkedHashMap<> ();
+    private final Counter reported = new Counter ();
+    private final ScheduledFuture<?> scanFuture;
+    private volatile int stuckCount;
+
+    /**
+     * @param name      名称，用作监控名称
+     * @param slotCount 槽位数，一般为线程池的最大线程数
+     * @param threshold 任务执行超过该时间时报告
+     * @param unit      时间单位
+     */
+    public StuckTaskWatchdog (String name, int slotCount, long threshold, TimeUnit unit) {
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException ("slotCount必须大于0:" + slotCount);
+        }
+        if (threshold <= 0) {
+            throw new IllegalArgumentException ("threshold必须大于0:" + threshold);
+        }
+        this.name = Objects.requireNonNull (name);
+        this.thresholdNanos = unit.toNanos (threshold);
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Slot ();
+        }
+        registerMetrics ();
+        // 扫描周期为阈值的一半，在1秒到1分钟之间
+        long periodNanos = Math.max (TimeUnit.SECONDS.toNanos (1), Math.min (thresholdNanos / 2,
+                                                                              TimeUnit.MINUTES.toNanos (1)));
+        this.scanFuture = SCANNER.scheduleWithFixedDelay (this::scanSafely, periodNanos, periodNanos,
+                                                          TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 工作线程开始执行任务，在beforeExecute中调用
+     */
+    void taskStarted (Runnable task) {
+        Slot slot = currentSlot.get ();
+        if (slot == null) {
+            slot = claimSlot ();
+            if (slot == null) {
+                return;
+            }
+        }
+        slot.task = task;
+        START.lazySet (slot, System.nanoTime ());
+    }
+
+    /**
+     * 工作线程执行完任务，在afterExecute中调用
+     */
+    void taskFinished () {
+        Slot slot = currentSlot.get ();
+        if (slot != null) {
+            START.lazySet (slot, 0L);
+            slot.task = null;
+        }
+    }
+
+    private Slot claimSlot () {
+        Thread thread = Thread.currentThread ();
+        for (Slot slot : slots) {
+            if (slot.owner == null && OWNER.compareAndSet (slot, null, thread)) {
+                currentSlot.set (slot);
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void scanSafely () {
+        try {
+            scan ();
+        } catch (RuntimeException e) {
+            logger.error ("检测线程池[{}]的卡死任务失败", name, e);
+        }
+    }
+
+    /**
+     * 扫描一次槽位数组，报告新发现的超时任务
+     *
+     * @return 超过阈值的任务数
+     */
+    int scan () {
+        long now = System.nanoTime ();
+        int stuck = 0;
+        for (Slot slot : slots) {
+            Thread owner = slot.owner;
+            if (owner == null) {
+                continue;
+            }
+            if (!owner.isAlive ()) {
+                // 工作线程已退出，回收槽位
+                slot.start = 0L;
+                slot.task = null;
+                OWNER.compareAndSet (slot, owner, null);
+                continue;
+            }
+            long start = slot.start;
+            if (start == 0L || now - start < thresholdNanos) {
+                continue;
+            }
+            stuck++;
+            if (slot.reportedStart != start) {
+                slot.reportedStart = start;
+                report (owner, slot.task, now - start);
+            }
+        }
+        stuckCount = stuck;
+        return stuck;
+    }
+
+    private void report (Thread thread, Runnable task, long elapsedNanos) {
+        reported.inc ();
+        StackTraceElement[] stackTrace = thread.getStackTrace ();
+        StringBuilder stack = new StringBuilder ();
+        for (int i = 0; i < stackTrace.length && i < MAX_STACK_DEPTH; i++) {
+            stack.append ("\tat ").append (stackTrace[i]).append ('\n');
+        }
+        ReporttingRejectedExecutionHandler.ThreadInfo threadInfo = new ReporttingRejectedExecutionHandler.ThreadInfo ();
+        threadInfo.setLogType ("stuckTask");
+        threadInfo.addContent ("threadPrefix", name);
+        threadInfo.addContent ("thread", thread.getName ());
+        threadInfo.addContent ("threadState", thread.getState ().name ());
+        threadInfo.addContent ("elapsedMillis", TimeUnit.NANOSECONDS.toMillis (elapsedNanos));
+        threadInfo.addContent ("task", String.valueOf (task));
+        threadInfo.addContent ("stackTrace", stack.toString ());
+        logger.warn ("线程池[{}]的任务执行了{}毫秒还没有结束,线程:{},任务:{}\n{}", name,
+                     TimeUnit.NANOSECONDS.toMillis (elapsedNanos), thread.getName (), task, stack);
+        threadpoolLogger.info ("{}", threadInfo.toJSONString ());
+    }
+
+    /**
+     * 最近一次扫描时超过阈值的任务数
+     */
+    public int getStuckCount () {
+        return stuckCount;
+    }
+
+    /**
+     * 累计报告的任务数
+     */
+    public long getReportedCount () {
+        return reported.getCount ();
+    }
+
+    public long getThreshold (TimeUnit unit) {
+        return unit.convert (thresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void registerMetrics () {
+        metricMap.put (MetricRegistry.name ("tp", "stuckTasks", name), (Gauge<Integer>) this::getStuckCount);
+        metricMap.put (MetricRegistry.name ("tp", "stuckReported", name), reported);
+        for (Map.Entry<String, Metric> entry : metricMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * 停止检测并注销监控指标
+     */
+    public void stop () {
+        scanFuture.cancel (false);
+        for (String metricName : metricMap.keySet ()) {
+            metricRegistry.remove (metricName);
+        }
+    }
+
+    private static final class Slot {
+        volatile Thread owner;
+        /**
+         * 任务开始时间，0表示空闲
+         */
+        volatile long start;
+        volatile Runnable task;
+        /**
+         * 已经报告过的任务的开始时间，只在检测线程中访问
+         */
+        long reportedStart;
+    }
+
+    private static final AtomicReferenceFieldUpdater<Slot, Thread> OWNER =
+            AtomicReferenceFieldUpdater.newUpdater (Slot.class, Thread.class, "owner");
+    private static final AtomicLongFieldUpdater<Slot> START =
+            AtomicLongFieldUpdater.newUpdater (Slot.class, "start");
+}
@@ -0,0 +1,80 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.LatencyRecorder;
+import org.liujk.java.framework.base.utils.metrics.LatencySnapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 说明：
+ * <p>
+ * 线程池任务的耗时分布，单位纳秒，注册到MetricsHolder后通过Histogram的快照读取区间数据：
+ * <p>
+ * tp.queueWait.[name]：队列等待耗时，定时任务为实际开始执行时间晚于计划执行时间的部分
+ * tp.execution.[name]：任务执行耗时
+ * tp.endToEnd.[name]：队列等待加执行的总耗时
+ */
+final class TaskLatencyMetrics {
+
+    private final LatencyRecorder queueWait = new LatencyRecorder ();
+    private final LatencyRecorder execution = new LatencyRecorder ();
+    private final LatencyRecorder endToEnd = new LatencyRecorder ();
+    private final Histogram queueWaitHistogram = new Histogram (queueWait);
+    private final Histogram executionHistogram = new Histogram (execution);
+    private final Histogram endToEndHistogram = new Histogram (endToEnd);
+    private final Map<String, Histogram> histogramMap = new LinkedHashMap<> ();
+
+    TaskLatencyMetrics (String metricName) {
+        histogramMap.put (MetricRegistry.name ("tp", "queueWait", metricName), queueWaitHistogram);
+        histogramMap.put (MetricRegistry.name ("tp", "execution", metricName), executionHistogram);
+        histogramMap.put (MetricRegistry.name ("tp", "endToEnd", metricName), endToEndHistogram);
+    }
+
+    /**
+     * @param queueWaitNanos 队列等待耗时
+     * @param executionNanos 执行耗时
+     */
+    void record (long queueWaitNanos, long executionNanos) {
+        queueWaitHistogram.update (queueWaitNanos);
+        executionHistogram.update (executionNanos);
+        endToEndHistogram.update (queueWaitNanos + executionNanos);
+    }
+
+    LatencySnapshot queueWaitSnapshot () {
+        return queueWait.intervalSnapshot ();
+    }
+
+    LatencySnapshot executionSnapshot () {
+        return execution.intervalSnapshot ();
+    }
+
+    LatencySnapshot endToEndSnapshot () {
+        return endToEnd.intervalSnapshot ();
+    }
+
+    /**
+     * 队列等待耗时的累计快照，不影响报告器读取的区间数据
+     */
+    LatencySnapshot queueWaitCumulativeSnapshot () {
+        return queueWait.cumulativeSnapshot ();
+    }
+
+    void register (MetricRegistry metricRegistry) {
+        for (Map.Entry<String, Histogram> entry : histogramMap.entrySet ()) {
+            try {
+                metricRegistry.register (entry.getKey (), entry.getValue ());
+            } catch (IllegalArgumentException e) {
+                // do nothing
+            }
+        }
+    }
+
+    void unregister (MetricRegistry metricRegistry) {
+        for (String name : histogramMap.keySet ()) {
+            metricRegistry.remove (name);
+        }
+    }
+}
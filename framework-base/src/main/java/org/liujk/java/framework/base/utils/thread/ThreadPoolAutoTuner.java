@@ -0,0 +1,375 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import org.liujk.java.framework.base.utils.metrics.LatencySnapshot;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 线程池自动调优，定期采样队列长度、submittedCount、活跃线程数和队列等待耗时，
+ * 把核心线程数调整到使 活跃线程数/核心线程数 接近目标利用率，或者使队列等待耗时的p99不超过设定的SLO。
+ * <p>
+ * 1、需求线程数 = max(submittedCount, 活跃线程数) / 目标利用率，限制在[minPoolSize, maxPoolSize]之间
+ * <p>
+ * 2、需求超过核心线程数的(1 + tolerance)倍或者等待耗时超过SLO，连续upTicks次后扩容，直接扩到需求线程数，至少增加1/4；
+ * 需求低于核心线程数的(1 - tolerance)倍、队列为空且等待耗时低于SLO的一半，连续downTicks次后缩容，每次最多减少1/8。
+ * 扩容快、缩容慢，避免在阈值附近来回调整
+ * <p>
+ * 3、最大线程数随核心线程数调整为 核心线程数 * burstFactor，不超过maxPoolSize
+ * <p>
+ * 每次调整都会输出日志和THREADPOOL_LOG，并累加tp.autoTune.[name]计数。
+ */
+public class ThreadPoolAutoTuner {
+
+    private static final Logger logger = LoggerFactory.getLogger (ThreadPoolAutoTuner.class);
+
+    /**
+     * 日志收集logger
+     */
+    private static final Logger threadpoolLogger = LoggerFactory.getLogger ("THREADPOOL_LOG");
+
+    private final String name;
+    private final MonitoredThreadPoolExecutor executor;
+    private final Counter decisionCounter;
+
+    private volatile int minPoolSize;
+    private volatile int maxPoolSize;
+    private volatile double targetUtilization = 0.75D;
+    private volatile double tolerance = 0.2D;
+    private volatile long queueWaitSloNanos = 0L;
+    private volatile int upTicks = 2;
+    private volatile int downTicks = 5;
+    private volatile double burstFactor = 2.0D;
+    private volatile long intervalMillis = 1000L;
+
+    private int upStreak;
+    private int downStreak;
+    private LatencySnapshot lastQueueWait;
+    private volatile Decision lastDecision;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param name        名称，用于日志和监控
+     * @param executor    被调整的线程池
+     * @param minPoolSize 核心线程数下限
+     * @param maxPoolSize 最大线程数上限
+     */
+    public ThreadPoolAutoTuner (String name, MonitoredThreadPoolExecutor executor, int minPoolSize,
+                                int maxPoolSize) {
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException ("线程数范围不正确:[" + minPoolSize + "," + maxPoolSize + "]");
+        }
+        this.name = name;
+        this.executor = executor;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.decisionCounter = MetricsHolder.metricRegistry ().counter (MetricRegistry.name ("tp", "autoTune", name));
+    }
+
+    /**
+     * 开始定期调整
+     */
+    public synchronized void start () {
+        if (future != null) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = MonitoredExecutors.newSingleThreadScheduledExecutor (
+                    new NamedThreadFactory ("ThreadPoolAutoTuner-" + name, true));
+        }
+        future = scheduler.scheduleWithFixedDelay (new Runnable () {
+            @Override
+            public void run () {
+                try {
+                    tune ();
+                } catch (Exception e) {
+                    logger.warn ("线程池[{}]自动调整失败", name, e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止调整，线程池保持当前大小
+     */
+    public synchronized void stop () {
+        if (future != null) {
+            future.cancel (false);
+            future = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown ();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * 采样一次并按需调整
+     *
+     * @return 本次的调整，没有调整时返回null
+     */
+    public synchronized Decision tune () {
+        if (executor.isShutdown ()) {
+            return null;
+        }
+        int core = executor.getCorePoolSize ();
+        int max = executor.getMaximumPoolSize ();
+        int active = executor.getActiveCount ();
+        int queued = executor.getQueue ().size ();
+        int submitted = executor.getSubmittedCount ();
+        long queueWaitP99 = queueWaitP99 ();
+
+        int desired = clamp ((int) Math.ceil (Math.max (submitted, active) / targetUtilization));
+        long slo = queueWaitSloNanos;
+        boolean sloBreached = slo > 0 && queueWaitP99 > slo;
+        boolean up = sloBreached || desired > core * (1 + tolerance);
+        boolean down = !sloBreached && queued == 0 && desired < core * (1 - tolerance)
+                && (slo <= 0 || queueWaitP99 < slo / 2);
+
+        upStreak = up ? upStreak + 1 : 0;
+        downStreak = down ? downStreak + 1 : 0;
+
+        int newCore = core;
+        String reason = null;
+        if (up && upStreak >= upTicks) {
+            newCore = clamp (Math.max (desired, core + Math.max (1, core / 4)));
+            reason = sloBreached ? "queueWaitSlo" : "utilization";
+        } else if (down && downStreak >= downTicks) {
+            newCore = clamp (Math.max (desired, core - Math.max (1, core / 8)));
+            reason = "idle";
+        }
+        int newMax = Math.max (newCore, Math.min (maxPoolSize, (int) Math.ceil (newCore * burstFactor)));
+        if (reason == null || (newCore == core && newMax == max)) {
+            return null;
+        }
+        upStreak = 0;
+        downStreak = 0;
+        // 先扩大最大线程数再调整核心线程数，缩小时相反，保证任何时候核心线程数都不超过最大线程数
+        if (newMax >= max) {
+            executor.setMaximumPoolSize (newMax);
+            executor.setCorePoolSize (newCore);
+        } else {
+            executor.setCorePoolSize (newCore);
+            executor.setMaximumPoolSize (newMax);
+        }
+        Decision decision = new Decision (reason, core, newCore, max, newMax, active, queued, submitted,
+                                          queueWaitP99);
+        lastDecision = decision;
+        report (decision);
+        return decision;
+    }
+
+    private long queueWaitP99 () {
+        TaskLatencyMetrics metrics = executor.getLatencyMetrics ();
+        if (metrics == null || !executor.isEnableLatencyMetric ()) {
+            return 0L;
+        }
+        LatencySnapshot current = metrics.queueWaitCumulativeSnapshot ();
+        LatencySnapshot previous = lastQueueWait;
+        lastQueueWait = current;
+        if (previous == null) {
+            return 0L;
+        }
+        return (long) current.minus (previous).get99thPercentile ();
+    }
+
+    private int clamp (int size) {
+        return Math.max (minPoolSize, Math.min (maxPoolSize, size));
+    }
+
+    private void report (Decision decision) {
+        decisionCounter.inc ();
+        ReporttingRejectedExecutionHandler.ThreadInfo threadInfo = new ReporttingRejectedExecutionHandler.ThreadInfo ();
+        threadInfo.setLogType ("threadPoolAutoTune");
+        threadInfo.addContent ("threadPrefix", name);
+        threadInfo.addContent ("reason", decision.getReason ());
+        threadInfo.addContent ("corePoolSize", decision.getNewCorePoolSize ());
+        threadInfo.addContent ("maximumPoolSize", decision.getNewMaximumPoolSize ());
+        threadInfo.addContent ("activeCount", decision.getActiveCount ());
+        threadInfo.addContent ("queuedTask", decision.getQueuedTask ());
+        threadInfo.addContent ("submittedCount", decision.getSubmittedCount ());
+        threadInfo.addContent ("queueWaitP99Nanos", decision.getQueueWaitP99Nanos ());
+        String msg = threadInfo.toJSONString ();
+        logger.info ("线程池[{}]自动调整,{}", name, decision);
+        threadpoolLogger.info ("{}", msg);
+    }
+
+    public Decision getLastDecision () {
+        return lastDecision;
+    }
+
+    public int getMinPoolSize () {
+        return minPoolSize;
+    }
+
+    public void setMinPoolSize (int minPoolSize) {
+        this.minPoolSize = minPoolSize;
+    }
+
+    public int getMaxPoolSize () {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize (int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public double getTargetUtilization () {
+        return targetUtilization;
+    }
+
+    /**
+     * 目标利用率，活跃线程数/核心线程数，默认0.75
+     */
+    public void setTargetUtilization (double targetUtilization) {
+        if (targetUtilization <= 0 || targetUtilization > 1) {
+            throw new IllegalArgumentException ("目标利用率必须在(0,1]之间:" + targetUtilization);
+        }
+        this.targetUtilization = targetUtilization;
+    }
+
+    public double getTolerance () {
+        return tolerance;
+    }
+
+    /**
+     * 滞后区间，需求与核心线程数相差不超过此比例时不调整，默认0.2
+     */
+    public void setTolerance (double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public long getQueueWaitSloNanos () {
+        return queueWaitSloNanos;
+    }
+
+    /**
+     * 队列等待耗时p99的SLO，0表示不使用，需要线程池开启enableLatencyMetric
+     */
+    public void setQueueWaitSlo (long duration, TimeUnit unit) {
+        this.queueWaitSloNanos = unit.toNanos (duration);
+    }
+
+    public int getUpTicks () {
+        return upTicks;
+    }
+
+    public void setUpTicks (int upTicks) {
+        this.upTicks = upTicks;
+    }
+
+    public int getDownTicks () {
+        return downTicks;
+    }
+
+    public void setDownTicks (int downTicks) {
+        this.downTicks = downTicks;
+    }
+
+    public double getBurstFactor () {
+        return burstFactor;
+    }
+
+    public void setBurstFactor (double burstFactor) {
+        this.burstFactor = burstFactor;
+    }
+
+    public long getIntervalMillis () {
+        return intervalMillis;
+    }
+
+    /**
+     * 采样间隔，start之前设置
+     */
+    public void setIntervalMillis (long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * 一次调整
+     */
+    public static final class Decision {
+        private final String reason;
+        private final int oldCorePoolSize;
+        private final int newCorePoolSize;
+        private final int oldMaximumPoolSize;
+        private final int newMaximumPoolSize;
+        private final int activeCount;
+        private final int queuedTask;
+        private final int submittedCount;
+        private final long queueWaitP99Nanos;
+
+        Decision (String reason, int oldCorePoolSize, int newCorePoolSize, int oldMaximumPoolSize,
+                  int newMaximumPoolSize, int activeCount, int queuedTask, int submittedCount,
+                  long queueWaitP99Nanos) {
+            this.reason = reason;
+            this.oldCorePoolSize = oldCorePoolSize;
+            this.newCorePoolSize = newCorePoolSize;
+            this.oldMaximumPoolSize = oldMaximumPoolSize;
+            this.newMaximumPoolSize = newMaximumPoolSize;
+            this.activeCount = activeCount;
+            this.queuedTask = queuedTask;
+            this.submittedCount = submittedCount;
+            this.queueWaitP99Nanos = queueWaitP99Nanos;
+        }
+
+        public String getReason () {
+            return reason;
+        }
+
+        public int getOldCorePoolSize () {
+            return oldCorePoolSize;
+        }
+
+        public int getNewCorePoolSize () {
+            return newCorePoolSize;
+        }
+
+        public int getOldMaximumPoolSize () {
+            return oldMaximumPoolSize;
+        }
+
+        public int getNewMaximumPoolSize () {
+            return newMaximumPoolSize;
+        }
+
+        public int getActiveCount () {
+            return activeCount;
+        }
+
+        public int getQueuedTask () {
+            return queuedTask;
+        }
+
+        public int getSubmittedCount () {
+            return submittedCount;
+        }
+
+        public long getQueueWaitP99Nanos () {
+            return queueWaitP99Nanos;
+        }
+
+        @Override
+        public String toString () {
+            return "Decision[" +
+                    "reason = " + reason +
+                    ", core pool size = " + oldCorePoolSize + "->" + newCorePoolSize +
+                    ", max pool size = " + oldMaximumPoolSize + "->" + newMaximumPoolSize +
+                    ", active threads = " + activeCount +
+                    ", queued tasks = " + queuedTask +
+                    ", submitted count = " + submittedCount +
+                    ", queue wait p99(ns) = " + queueWaitP99Nanos +
+                    "]";
+        }
+    }
+}
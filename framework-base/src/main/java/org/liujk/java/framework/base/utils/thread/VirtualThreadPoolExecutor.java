@@ -0,0 +1,113 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 使用虚拟线程(JDK 21+)执行任务的受监控线程池，适合Redis、JDBC、HTTP调用等阻塞IO任务。
+ * <p>
+ * 每个任务启动一个新的虚拟线程执行，执行完成后线程立即退出，不复用，也不占用平台线程。
+ * <p>
+ * 同时执行的任务数由信号量限制，避免下游的连接池被压垮：许可在任务的虚拟线程中获取，达到上限时阻塞的是虚拟线程，
+ * 提交任务的线程不会阻塞，任务中向同一个线程池提交任务也不会死锁。等待许可的时间计入任务的排队时间，
+ * 等待许可的虚拟线程计入活动线程数。
+ * <p>
+ * 指标、MDC中的GID传递与{@link MonitoredThreadPoolExecutor}相同。
+ * <p>
+ * 通过{@link MonitoredExecutors#newVirtualThreadExecutor(String)}创建，代码按Java 8编译，通过反射使用虚拟线程。
+ */
+public class VirtualThreadPoolExecutor extends MonitoredThreadPoolExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger (VirtualThreadPoolExecutor.class);
+
+    private final int maxConcurrency;
+    private final Semaphore permits;
+
+    VirtualThreadPoolExecutor (String name, int maxConcurrency, ThreadFactory virtualThreadFactory) {
+        // keepAlive为0，执行完任务的线程不等待新任务，每个任务使用新的虚拟线程
+        super (0, Integer.MAX_VALUE, 0L, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable> (),
+               virtualThreadFactory,
+               new ReporttingRejectedExecutionHandler (name, ReporttingRejectedExecutionHandler.Policy.abortPolicy));
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException ("maxConcurrency必须大于0:" + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore (maxConcurrency);
+    }
+
+    /**
+     * 创建虚拟线程的线程工厂
+     *
+     * @param prefix 线程名前缀
+     *
+     * @return 当前JDK不支持虚拟线程时返回null
+     */
+    static ThreadFactory newVirtualThreadFactory (String prefix) {
+        try {
+            Object builder = Thread.class.getMethod ("ofVirtual").invoke (null);
+            Class<?> builderClass = Class.forName ("java.lang.Thread$Builder");
+            builder = builderClass.getMethod ("name", String.class, long.class).invoke (builder, prefix + "-", 1L);
+            Method factory = builderClass.getMethod ("factory");
+            return (ThreadFactory) factory.invoke (builder);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // JDK 19、20未开启预览特性时ofVirtual()抛出UnsupportedOperationException
+            logger.warn ("虚拟线程不可用:{}", e.toString ());
+            return null;
+        }
+    }
+
+    /**
+     * 在任务的虚拟线程中获取许可，shutdownNow的中断不打断等待，获取后保留中断状态交给任务处理
+     */
+    @Override
+    protected void beforeExecute (Thread t, Runnable r) {
+        permits.acquireUninterruptibly ();
+        try {
+            super.beforeExecute (t, r);
+        } catch (RuntimeException | Error e) {
+            // 抛出异常时不会调用afterExecute
+            permits.release ();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void afterExecute (Runnable r, Throwable t) {
+        try {
+            super.afterExecute (r, t);
+        } finally {
+            permits.release ();
+        }
+    }
+
+    /**
+     * 最大并发执行的任务数
+     */
+    public int getMaxConcurrency () {
+        return maxConcurrency;
+    }
+
+    /**
+     * 还可以立即开始执行的任务数
+     */
+    public int getAvailablePermits () {
+        return permits.availablePermits ();
+    }
+
+    @Override
+    public String toString () {
+        return super.toString () + "[max concurrency = " + maxConcurrency
+                + ", available permits = " + permits.availablePermits () + "]";
+    }
+}
@@ -0,0 +1,32 @@
+package org.liujk.java.framework.base.utils.thread.context;
+
+import org.liujk.java.framework.base.utils.id.GidHolder;
+
+/**
+ * 说明：
+ * <p>
+ * 传递{@link GidHolder}中的GID
+ */
+public class GidHolderPropagator implements ThreadContextPropagator {
+
+    @Override
+    public Object capture () {
+        return GidHolder.getGid ();
+    }
+
+    @Override
+    public Object restore (Object captured) {
+        Object previous = GidHolder.getGid ();
+        reset (captured);
+        return previous;
+    }
+
+    @Override
+    public void reset (Object previous) {
+        if (previous == null) {
+            GidHolder.removeGid ();
+        } else {
+            GidHolder.setGid ((String) previous);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.liujk.java.framework.base.utils.thread.context;
+
+import org.slf4j.MDC;
+
+import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
+
+/**
+ * 说明：
+ * <p>
+ * 传递MDC中指定的key，默认只传递{@link org.liujk.java.framework.base.api.request.Base#SID_KEY}。
+ * 只复制指定key的值，不复制整个MDC。
+ */
+public class MdcPropagator implements ThreadContextPropagator {
+
+    private final String[] keys;
+
+    public MdcPropagator () {
+        this (SID_KEY);
+    }
+
+    public MdcPropagator (String... keys) {
+        if (keys == null || keys.length == 0) {
+            throw new IllegalArgumentException ("至少需要一个MDC key");
+        }
+        this.keys = keys.clone ();
+    }
+
+    @Override
+    public Object capture () {
+        if (keys.length == 1) {
+            return MDC.get (keys[0]);
+        }
+        String[] values = null;
+        for (int i = 0; i < keys.length; i++) {
+            String value = MDC.get (keys[i]);
+            if (value != null) {
+                if (values == null) {
+                    values = new String[keys.length];
+                }
+                values[i] = value;
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Object restore (Object captured) {
+        Object previous = capture ();
+        apply (captured);
+        return previous;
+    }
+
+    @Override
+    public void reset (Object previous) {
+        apply (previous);
+    }
+
+    private void apply (Object values) {
+        if (keys.length == 1) {
+            put (keys[0], (String) values);
+            return;
+        }
+        String[] array = (String[]) values;
+        for (int i = 0; i < keys.length; i++) {
+            put (keys[i], array == null ? null : array[i]);
+        }
+    }
+
+    private static void put (String key, String value) {
+        if (value == null) {
+            MDC.remove (key);
+        } else {
+            MDC.put (key, value);
+        }
+    }
+}
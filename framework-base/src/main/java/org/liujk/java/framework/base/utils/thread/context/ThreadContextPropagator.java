@@ -0,0 +1,37 @@
+package org.liujk.java.framework.base.utils.thread.context;
+
+/**
+ * 说明：
+ * <p>
+ * 线程上下文传递的扩展点，提交任务时在提交线程中{@link #capture()}，执行任务前在执行线程中{@link #restore(Object)}，
+ * 执行完成后用restore返回的值{@link #reset(Object)}，恢复执行线程原来的上下文。
+ * <p>
+ * 实现类可以通过{@link ThreadContextPropagators#register(ThreadContextPropagator)}注册，
+ * 或者在META-INF/services/org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagator中声明。
+ * 实现类必须是线程安全的，capture在每次提交任务时调用，应该尽量轻量。
+ */
+public interface ThreadContextPropagator {
+
+    /**
+     * 在提交任务的线程中获取上下文
+     *
+     * @return 上下文，没有上下文时返回null
+     */
+    Object capture ();
+
+    /**
+     * 在执行任务的线程中设置上下文
+     *
+     * @param captured {@link #capture()}的返回值，可能为null
+     *
+     * @return 执行线程设置前的上下文，用于{@link #reset(Object)}
+     */
+    Object restore (Object captured);
+
+    /**
+     * 任务执行完成后恢复执行线程原来的上下文
+     *
+     * @param previous {@link #restore(Object)}的返回值，可能为null
+     */
+    void reset (Object previous);
+}
@@ -0,0 +1,208 @@
+package org.liujk.java.framework.base.utils.thread.context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * 说明：
+ * <p>
+ * 已注册的{@link ThreadContextPropagator}，以及按这些传递器包装任务的方法。
+ * <p>
+ * 默认注册{@link MdcPropagator}(MDC中的GID)和{@link GidHolderPropagator}，
+ * 另外加载META-INF/services中声明的实现，也可以通过{@link #register(ThreadContextPropagator)}注册。
+ * <p>
+ * 每次提交任务只采集一次所有上下文，保存为数组；所有上下文都为空时不包装任务，不产生额外的对象。
+ * MonitoredThreadPoolExecutor、MonitoredScheduledThreadPoolExecutor提交任务时自动包装，
+ * CompletableFuture的异步阶段可以使用{@link #wrap(Executor)}包装后的Executor。
+ */
+public final class ThreadContextPropagators {
+
+    private static final Logger logger = LoggerFactory.getLogger (ThreadContextPropagators.class);
+
+    private static volatile ThreadContextPropagator[] propagators = loadPropagators ();
+
+    private ThreadContextPropagators () {
+    }
+
+    private static ThreadContextPropagator[] loadPropagators () {
+        ThreadContextPropagator[] loaded = {new MdcPropagator (), new GidHolderPropagator ()};
+        try {
+            for (ThreadContextPropagator propagator : ServiceLoader.load (ThreadContextPropagator.class)) {
+                loaded = Arrays.copyOf (loaded, loaded.length + 1);
+                loaded[loaded.length - 1] = propagator;
+                logger.info ("加载线程上下文传递器:{}", propagator.getClass ().getName ());
+            }
+        } catch (ServiceConfigurationError e) {
+            logger.error ("加载线程上下文传递器失败", e);
+        }
+        return loaded;
+    }
+
+    /**
+     * 注册传递器，之后提交的任务生效
+     */
+    public static synchronized void register (ThreadContextPropagator propagator) {
+        Objects.requireNonNull (propagator);
+        ThreadContextPropagator[] current = propagators;
+        ThreadContextPropagator[] updated = Arrays.copyOf (current, current.length + 1);
+        updated[current.length] = propagator;
+        propagators = updated;
+    }
+
+    /**
+     * 取消注册传递器
+     *
+     * @return 是否已注册
+     */
+    public static synchronized boolean unregister (ThreadContextPropagator propagator) {
+        ThreadContextPropagator[] current = propagators;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == propagator) {
+                ThreadContextPropagator[] updated = new ThreadContextPropagator[current.length - 1];
+                System.arraycopy (current, 0, updated, 0, i);
+                System.arraycopy (current, i + 1, updated, i, current.length - i - 1);
+                propagators = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 采集当前线程的上下文
+     *
+     * @return 所有上下文都为空时返回null
+     */
+    public static ThreadContextSnapshot capture () {
+        ThreadContextPropagator[] current = propagators;
+        Object[] values = null;
+        for (int i = 0; i < current.length; i++) {
+            Object value = current[i].capture ();
+            if (value != null) {
+                if (values == null) {
+                    values = new Object[current.length];
+                }
+                values[i] = value;
+            }
+        }
+        return values == null ? null : new ThreadContextSnapshot (current, values);
+    }
+
+    /**
+     * 采集当前线程的上下文，上下文为空时也返回快照，用于之后恢复当前线程的上下文
+     */
+    public static ThreadContextSnapshot captureAll () {
+        ThreadContextSnapshot snapshot = capture ();
+        if (snapshot == null) {
+            ThreadContextPropagator[] current = propagators;
+            snapshot = new ThreadContextSnapshot (current, new Object[current.length]);
+        }
+        return snapshot;
+    }
+
+    public static Runnable wrap (Runnable task) {
+        ThreadContextSnapshot snapshot = capture ();
+        return snapshot == null ? task : new ContextRunnable (task, snapshot);
+    }
+
+    public static <T> Callable<T> wrap (Callable<T> task) {
+        ThreadContextSnapshot snapshot = capture ();
+        return snapshot == null ? task : new ContextCallable<> (task, snapshot);
+    }
+
+    public static <T> Supplier<T> wrap (Supplier<T> supplier) {
+        final ThreadContextSnapshot snapshot = capture ();
+        if (snapshot == null) {
+            return supplier;
+        }
+        return () -> {
+            Object[] previous = snapshot.apply ();
+            try {
+                return supplier.get ();
+            } finally {
+                snapshot.reset (previous);
+            }
+        };
+    }
+
+    /**
+     * 包装Executor，每次execute时采集提交线程的上下文，适用于CompletableFuture的异步阶段，如：
+     * <pre>
+     * CompletableFuture.supplyAsync (supplier, ThreadContextPropagators.wrap (executor))
+     * </pre>
+     * thenApplyAsync等阶段在前一阶段完成时提交，传递的是完成前一阶段的线程的上下文。
+     */
+    public static Executor wrap (Executor executor) {
+        Objects.requireNonNull (executor);
+        if (executor instanceof ContextExecutor) {
+            return executor;
+        }
+        return new ContextExecutor (executor);
+    }
+
+    private static final class ContextExecutor implements Executor {
+        private final Executor delegate;
+
+        ContextExecutor (Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute (Runnable command) {
+            delegate.execute (wrap (command));
+        }
+
+        @Override
+        public String toString () {
+            return "ContextExecutor[" + delegate + "]";
+        }
+    }
+
+    private static final class ContextRunnable implements Runnable {
+        private final Runnable task;
+        private final ThreadContextSnapshot snapshot;
+
+        ContextRunnable (Runnable task, ThreadContextSnapshot snapshot) {
+            this.task = task;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void run () {
+            Object[] previous = snapshot.apply ();
+            try {
+                task.run ();
+            } finally {
+                snapshot.reset (previous);
+            }
+        }
+    }
+
+    private static final class ContextCallable<T> implements Callable<T> {
+        private final Callable<T> task;
+        private final ThreadContextSnapshot snapshot;
+
+        ContextCallable (Callable<T> task, ThreadContextSnapshot snapshot) {
+            this.task = task;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public T call () throws Exception {
+            Object[] previous = snapshot.apply ();
+            try {
+                return task.call ();
+            } finally {
+                snapshot.reset (previous);
+            }
+        }
+    }
+}
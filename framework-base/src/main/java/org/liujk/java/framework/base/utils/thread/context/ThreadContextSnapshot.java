@@ -0,0 +1,51 @@
+package org.liujk.java.framework.base.utils.thread.context;
+
+/**
+ * 说明：
+ * <p>
+ * 一次提交时所有已注册上下文的快照，按注册顺序保存在数组中。
+ * <p>
+ * 使用方式：
+ * <pre>
+ * Object[] previous = snapshot.apply ();
+ * try {
+ *     task.run ();
+ * } finally {
+ *     snapshot.reset (previous);
+ * }
+ * </pre>
+ */
+public final class ThreadContextSnapshot {
+
+    private final ThreadContextPropagator[] propagators;
+    private final Object[] values;
+
+    ThreadContextSnapshot (ThreadContextPropagator[] propagators, Object[] values) {
+        this.propagators = propagators;
+        this.values = values;
+    }
+
+    /**
+     * 在当前线程设置快照中的上下文
+     *
+     * @return 当前线程原来的上下文，用于{@link #reset(Object[])}
+     */
+    public Object[] apply () {
+        Object[] previous = new Object[propagators.length];
+        for (int i = 0; i < propagators.length; i++) {
+            previous[i] = propagators[i].restore (values[i]);
+        }
+        return previous;
+    }
+
+    /**
+     * 恢复当前线程原来的上下文，与设置时的顺序相反
+     *
+     * @param previous {@link #apply()}的返回值
+     */
+    public void reset (Object[] previous) {
+        for (int i = propagators.length - 1; i >= 0; i--) {
+            propagators[i].reset (previous[i]);
+        }
+    }
+}
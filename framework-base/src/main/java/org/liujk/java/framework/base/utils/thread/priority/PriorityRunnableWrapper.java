@@ -4,10 +4,21 @@ package org.liujk.java.framework.base.utils.thread.priority;
 public class PriorityRunnableWrapper implements Runnable, Priorityable {
 
     private Priority priority;
+    private int priorityLevel;
     private Runnable runnable;
 
     public PriorityRunnableWrapper(Priority priority, Runnable runnable) {
         this.priority = priority;
+        this.priorityLevel = priority.ordinal();
+        this.runnable = runnable;
+    }
+
+    /**
+     * 包装runnable，使用source的优先级和优先级级别
+     */
+    public PriorityRunnableWrapper(Priorityable source, Runnable runnable) {
+        this.priority = source.getPriority();
+        this.priorityLevel = source.getPriorityLevel();
         this.runnable = runnable;
     }
 
@@ -16,6 +27,11 @@ public class PriorityRunnableWrapper implements Runnable, Priorityable {
         return this.priority;
     }
 
+    @Override
+    public int getPriorityLevel() {
+        return this.priorityLevel;
+    }
+
     @Override
     public void run() {
         this.runnable.run();
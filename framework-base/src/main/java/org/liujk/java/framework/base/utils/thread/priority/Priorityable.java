@@ -5,6 +5,16 @@ public interface Priorityable {
 
     Priority getPriority();
 
+    /**
+     * 优先级级别，0为最高，数值越大优先级越低。
+     * <p>
+     * 默认按{@link #getPriority()}映射：HIGHEST为0，NORMAL为1，LOWEST为2；
+     * {@link PriorityableThreadPoolQueue}配置了更多级别时，任务可以覆盖此方法指定更细的级别，超出范围的级别按最低级处理。
+     */
+    default int getPriorityLevel() {
+        return getPriority().ordinal();
+    }
+
     public static enum Priority {
         HIGHEST, NORMAL, LOWEST
     }
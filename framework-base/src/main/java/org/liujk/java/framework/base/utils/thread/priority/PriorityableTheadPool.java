@@ -10,9 +10,15 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 
+/**
+ * 说明：
+ * <p>
+ * 使用{@link PriorityableThreadPoolQueue}的受监控线程池，队列满之前线程数先增长到最大线程数，之后的任务按优先级排队。
+ */
 public class PriorityableTheadPool extends MonitoredThreadPool {
 
 
+    @Override
     protected MonitoredThreadPoolExecutor createThreadPoolExecutor(int queueCapacity, ThreadFactory threadFactory,
                                                                    RejectedExecutionHandler rejectedExecutionHandler) {
         MonitoredThreadPoolExecutor executor;
@@ -22,11 +28,9 @@ public class PriorityableTheadPool extends MonitoredThreadPool {
                     new SynchronousQueue<Runnable>(),
                     threadFactory, rejectedExecutionHandler);
         } else {
-            PriorityableThreadPoolQueue queue = new PriorityableThreadPoolQueue(queueCapacity);
-            executor = new MonitoredThreadPoolExecutor(getCorePoolSize(), getMaxPoolSize(),
-                    getKeepAliveSeconds(), TimeUnit.SECONDS, queue, threadFactory,
-                    rejectedExecutionHandler);
-            queue.setParent(executor);
+            executor = new PriorityableThreadPoolExecutor(getCorePoolSize(), getMaxPoolSize(),
+                    getKeepAliveSeconds(), TimeUnit.SECONDS, new PriorityableThreadPoolQueue(queueCapacity),
+                    threadFactory, rejectedExecutionHandler);
         }
         return executor;
     }
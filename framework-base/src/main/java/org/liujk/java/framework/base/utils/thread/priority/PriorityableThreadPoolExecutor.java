@@ -1,35 +1,108 @@
 package org.liujk.java.framework.base.utils.thread.priority;
 
 
+import org.liujk.java.framework.base.utils.thread.DeadlineTask;
 import org.liujk.java.framework.base.utils.thread.MonitoredThreadPoolExecutor;
+import org.liujk.java.framework.base.utils.thread.ReporttingRejectedExecutionHandler;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
-
+/**
+ * 说明：
+ * <p>
+ * 使用{@link PriorityableThreadPoolQueue}的线程池，线程数先增长到最大线程数，之后的任务按优先级排队。
+ * submit提交的{@link Priorityable}任务保留优先级，{@link DeadlineTask}任务同时保留截止时间。
+ * 拒绝策略必须为{@link ReporttingRejectedExecutionHandler}，线程池达到最大线程数后由它把任务放入队列。
+ */
 public class PriorityableThreadPoolExecutor extends MonitoredThreadPoolExecutor {
 
     public PriorityableThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit) {
-        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, new PriorityableThreadPoolQueue(Integer.MAX_VALUE));
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, Executors.defaultThreadFactory());
     }
 
     public PriorityableThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
                                           ThreadFactory threadFactory) {
-        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, new PriorityableThreadPoolQueue(Integer.MAX_VALUE),
-                threadFactory);
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, threadFactory,
+                ReporttingRejectedExecutionHandler.DEFAULT);
     }
 
     public PriorityableThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
                                           RejectedExecutionHandler handler) {
-        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, new PriorityableThreadPoolQueue(Integer.MAX_VALUE),
-                handler);
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, Executors.defaultThreadFactory(), handler);
     }
 
     public PriorityableThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
                                           ThreadFactory threadFactory,
                                           RejectedExecutionHandler handler) {
-        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, new PriorityableThreadPoolQueue(Integer.MAX_VALUE),
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, new PriorityableThreadPoolQueue(Integer.MAX_VALUE),
                 threadFactory, handler);
     }
+
+    /**
+     * @param workQueue 自定义容量、级别权重和老化时间的队列
+     */
+    public PriorityableThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          PriorityableThreadPoolQueue workQueue, ThreadFactory threadFactory,
+                                          RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        workQueue.setParent(this);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        if (runnable instanceof DeadlineTask) {
+            return super.newTaskFor(runnable, value);
+        }
+        return new PriorityFutureTask<>(runnable, value, runnable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof DeadlineTask) {
+            return super.newTaskFor(callable);
+        }
+        return new PriorityFutureTask<>(callable, callable);
+    }
+
+    private static class PriorityFutureTask<V> extends FutureTask<V> implements Priorityable {
+        private final Priority priority;
+        private final int priorityLevel;
+
+        PriorityFutureTask(Runnable runnable, V result, Object source) {
+            super(runnable, result);
+            this.priority = priorityOf(source);
+            this.priorityLevel = priorityLevelOf(source);
+        }
+
+        PriorityFutureTask(Callable<V> callable, Object source) {
+            super(callable);
+            this.priority = priorityOf(source);
+            this.priorityLevel = priorityLevelOf(source);
+        }
+
+        private static Priority priorityOf(Object source) {
+            return source instanceof Priorityable ? ((Priorityable) source).getPriority() : Priority.NORMAL;
+        }
+
+        private static int priorityLevelOf(Object source) {
+            return source instanceof Priorityable ? ((Priorityable) source).getPriorityLevel()
+                    : Priority.NORMAL.ordinal();
+        }
+
+        @Override
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public int getPriorityLevel() {
+            return priorityLevel;
+        }
+    }
 }
@@ -1,178 +1,441 @@
 package org.liujk.java.framework.base.utils.thread.priority;
 
 
+import org.liujk.java.framework.base.utils.thread.MonitoredTaskQueue;
 import org.liujk.java.framework.base.utils.thread.MonitoredThreadPoolExecutor;
-import org.liujk.java.framework.base.utils.thread.MonitoredThreadPoolQueue;
 
 import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Random;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * 说明：
+ * <p>
+ * 多级优先级任务队列，所有级别共用一把锁和一个容量，按{@link Priorityable#getPriorityLevel()}放入对应级别，
+ * 非{@link Priorityable}任务放入NORMAL级别。
+ * <p>
+ * 1、出队时在有任务的级别之间做平滑加权轮询，结果是确定的：默认3个级别权重为7:3:2，
+ * 所有级别都有任务时每12次出队依次给各级别7、3、2次，任一级别没有任务时份额按权重分给其他级别，
+ * 因此take/poll总是从有任务的级别返回，饱和时最高级别的任务至少获得其权重份额，等待时间有上界。
+ * <p>
+ * 2、老化：某一级别的队头任务在该级别等待超过agingTime时提升一级，低优先级任务不会一直得不到执行；
+ * 为保证最高级别的份额，老化最多提升到第二级。agingTime为0时不老化。
+ * <p>
+ * 3、入队语义与{@link org.liujk.java.framework.base.utils.thread.MonitoredThreadPoolQueue}相同：
+ * 设置了parent时，线程数未达到最大线程数且没有空闲线程时先创建线程。
+ */
+public class PriorityableThreadPoolQueue extends AbstractQueue<Runnable> implements MonitoredTaskQueue {
 
-public class PriorityableThreadPoolQueue extends AbstractQueue<Runnable>
-        implements BlockingQueue<Runnable>, java.io.Serializable {
+    /**
+     * 默认权重，对应HIGHEST、NORMAL、LOWEST
+     */
+    private static final int[] DEFAULT_WEIGHTS = {7, 3, 2};
 
-    private MonitoredThreadPoolQueue highestPriorityQueue;
-    private MonitoredThreadPoolQueue normalPriorityQueue;
-    private MonitoredThreadPoolQueue lowestPriorityQueue;
+    private static final long DEFAULT_AGING_NANOS = TimeUnit.SECONDS.toNanos (1);
 
-    private static Random random = new Random ();
+    private final int capacity;
+    private final int[] weights;
+    private final long[] currentWeights;
+    private final ArrayDeque<Entry>[] queues;
+    private final int defaultLevel;
+
+    private final ReentrantLock lock = new ReentrantLock ();
+    private final Condition notEmpty = lock.newCondition ();
+    private final Condition notFull = lock.newCondition ();
+
+    /**
+     * 任务总数，只在持有锁时修改
+     */
+    private volatile int count;
+    private volatile long agingNanos = DEFAULT_AGING_NANOS;
+    private volatile MonitoredThreadPoolExecutor parent = null;
 
     public PriorityableThreadPoolQueue (int capacity) {
-        highestPriorityQueue = new MonitoredThreadPoolQueue (capacity);
-        normalPriorityQueue = new MonitoredThreadPoolQueue (capacity);
-        lowestPriorityQueue = new MonitoredThreadPoolQueue (capacity);
+        this (capacity, DEFAULT_WEIGHTS);
     }
 
-    public void setParent (MonitoredThreadPoolExecutor executor) {
-        highestPriorityQueue.setParent (executor);
-        normalPriorityQueue.setParent (executor);
-        lowestPriorityQueue.setParent (executor);
+    /**
+     * @param capacity 所有级别的总容量
+     * @param weights  各级别的权重，第一个为最高级别，级别数等于权重个数
+     */
+    @SuppressWarnings ("unchecked")
+    public PriorityableThreadPoolQueue (int capacity, int... weights) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException ("capacity必须大于0:" + capacity);
+        }
+        if (weights == null || weights.length == 0) {
+            throw new IllegalArgumentException ("至少需要一个优先级级别");
+        }
+        for (int weight : weights) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException ("权重必须大于0:" + weight);
+            }
+        }
+        this.capacity = capacity;
+        this.weights = weights.clone ();
+        this.currentWeights = new long[weights.length];
+        this.queues = new ArrayDeque[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            queues[i] = new ArrayDeque<> ();
+        }
+        this.defaultLevel = Math.min (Priorityable.Priority.NORMAL.ordinal (), weights.length - 1);
     }
 
     @Override
-    public Iterator<Runnable> iterator () {
-        return new MultiIterator (highestPriorityQueue, normalPriorityQueue, lowestPriorityQueue);
+    public void setParent (MonitoredThreadPoolExecutor executor) {
+        this.parent = executor;
+    }
+
+    /**
+     * 级别数
+     */
+    public int getLevels () {
+        return weights.length;
+    }
+
+    public long getAgingTime (TimeUnit unit) {
+        return unit.convert (agingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 队头任务在某一级别等待超过该时间时提升一级，0表示不老化
+     */
+    public void setAgingTime (long agingTime, TimeUnit unit) {
+        if (agingTime < 0) {
+            throw new IllegalArgumentException ("agingTime不能小于0:" + agingTime);
+        }
+        this.agingNanos = unit.toNanos (agingTime);
+    }
+
+    /**
+     * 某一级别当前的任务数
+     */
+    public int size (int level) {
+        lock.lock ();
+        try {
+            return queues[level].size ();
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
     public int size () {
-        return highestPriorityQueue.size () + normalPriorityQueue.size () + lowestPriorityQueue.size ();
+        return count;
+    }
+
+    @Override
+    public int remainingCapacity () {
+        return capacity - count;
     }
 
     @Override
     public boolean offer (Runnable runnable) {
-        return selectedQueue (runnable).offer (runnable);
+        MonitoredThreadPoolExecutor tp = parent;
+        if (tp == null) {
+            return enqueue (runnable);
+        }
+        int poolSize = tp.getPoolSizeSnapshot ();
+        int maximumPoolSize = tp.getMaximumPoolSize ();
+        // 当线程池到达最大后，把任务放入queue
+        if (poolSize >= maximumPoolSize) {
+            return enqueue (runnable);
+        }
+        // 如果有空闲线程，把任务放入队列
+        if (tp.getSubmittedCount () < poolSize) {
+            return enqueue (runnable);
+        }
+        // 线程没有达到最大线程，创建新线程
+        return false;
+    }
+
+    @Override
+    public boolean force (Runnable runnable) {
+        if (parent == null || parent.isShutdown ()) {
+            throw new RejectedExecutionException ("线程池已关闭，提交任务失败");
+        }
+        return enqueue (runnable);
     }
 
     @Override
     public void put (Runnable runnable) throws InterruptedException {
-        selectedQueue (runnable).put (runnable);
+        Objects.requireNonNull (runnable);
+        lock.lockInterruptibly ();
+        try {
+            while (count == capacity) {
+                notFull.await ();
+            }
+            insert (runnable);
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
     public boolean offer (Runnable runnable, long timeout, TimeUnit unit) throws InterruptedException {
-        return selectedQueue (runnable).offer (runnable, timeout, unit);
+        Objects.requireNonNull (runnable);
+        long nanos = unit.toNanos (timeout);
+        lock.lockInterruptibly ();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos (nanos);
+            }
+            insert (runnable);
+            return true;
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
     public Runnable take () throws InterruptedException {
-        return selectedQueue ().take ();
+        lock.lockInterruptibly ();
+        try {
+            while (count == 0) {
+                notEmpty.await ();
+            }
+            return extract ();
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
     public Runnable poll (long timeout, TimeUnit unit) throws InterruptedException {
-        return selectedQueue ().poll (timeout, unit);
+        long nanos = unit.toNanos (timeout);
+        lock.lockInterruptibly ();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos (nanos);
+            }
+            return extract ();
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
-    public int remainingCapacity () {
-        return selectedQueue ().remainingCapacity ();
+    public Runnable poll () {
+        if (count == 0) {
+            return null;
+        }
+        lock.lock ();
+        try {
+            return count == 0 ? null : extract ();
+        } finally {
+            lock.unlock ();
+        }
     }
 
+    /**
+     * 返回优先级最高的级别的队头任务，不一定是下一次出队的任务
+     */
     @Override
-    public int drainTo (Collection<? super Runnable> c) {
-        return selectedQueue ().drainTo (c);
+    public Runnable peek () {
+        lock.lock ();
+        try {
+            for (ArrayDeque<Entry> queue : queues) {
+                Entry entry = queue.peekFirst ();
+                if (entry != null) {
+                    return entry.task;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
-    public int drainTo (Collection<? super Runnable> c, int maxElements) {
-        return selectedQueue ().drainTo (c, maxElements);
+    public boolean remove (Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock ();
+        try {
+            for (ArrayDeque<Entry> queue : queues) {
+                for (Iterator<Entry> it = queue.iterator (); it.hasNext (); ) {
+                    if (o.equals (it.next ().task)) {
+                        it.remove ();
+                        count--;
+                        notFull.signal ();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock ();
+        }
     }
 
     @Override
-    public Runnable poll () {
-        return selectedQueue ().poll ();
+    public int drainTo (Collection<? super Runnable> c) {
+        return drainTo (c, Integer.MAX_VALUE);
     }
 
+    /**
+     * 按出队顺序取出任务
+     */
     @Override
-    public Runnable peek () {
-        return selectedQueue ().peek ();
-    }
-
-    protected MonitoredThreadPoolQueue selectedQueue (Runnable runnable) {
-        MonitoredThreadPoolQueue selectedQueue = normalPriorityQueue;
-        if (runnable instanceof Priorityable) {
-            Priorityable priorityable = (Priorityable) runnable;
-            switch (priorityable.getPriority ()) {
-                case HIGHEST:
-                    selectedQueue = highestPriorityQueue;
-                    break;
-                case LOWEST:
-                    selectedQueue = lowestPriorityQueue;
-                    break;
-                default:
-                    selectedQueue = normalPriorityQueue;
-                    break;
+    public int drainTo (Collection<? super Runnable> c, int maxElements) {
+        Objects.requireNonNull (c);
+        if (c == this) {
+            throw new IllegalArgumentException ();
+        }
+        lock.lock ();
+        try {
+            int n = 0;
+            while (n < maxElements && count > 0) {
+                c.add (extract ());
+                n++;
             }
+            return n;
+        } finally {
+            lock.unlock ();
         }
-        return selectedQueue;
     }
 
-    protected MonitoredThreadPoolQueue selectedQueue () {
-        MonitoredThreadPoolQueue selectedQueue = normalPriorityQueue;
+    /**
+     * 按级别从高到低返回当前任务的快照，迭代器的remove调用{@link #remove(Object)}
+     */
+    @Override
+    public Iterator<Runnable> iterator () {
+        final List<Runnable> snapshot = new ArrayList<> ();
+        lock.lock ();
+        try {
+            for (ArrayDeque<Entry> queue : queues) {
+                for (Entry entry : queue) {
+                    snapshot.add (entry.task);
+                }
+            }
+        } finally {
+            lock.unlock ();
+        }
+        final Iterator<Runnable> it = snapshot.iterator ();
+        return new Iterator<Runnable> () {
+            private Runnable last;
 
-        if (highestPriorityQueue.isEmpty () && lowestPriorityQueue.isEmpty ()) {
-            selectedQueue = normalPriorityQueue;
-        } else if (highestPriorityQueue.isEmpty ()) {
-            if (normalPriorityQueue.isEmpty () || random.nextInt (6) < 2) {
-                selectedQueue = lowestPriorityQueue;
+            @Override
+            public boolean hasNext () {
+                return it.hasNext ();
             }
-        } else if (lowestPriorityQueue.isEmpty ()) {
-            if (normalPriorityQueue.isEmpty () || random.nextInt (6) < 4) {
-                selectedQueue = highestPriorityQueue;
+
+            @Override
+            public Runnable next () {
+                last = it.next ();
+                return last;
             }
-        } else {
-            int pos = random.nextInt (12);
-            if (pos >= 5) {
-                //  6,7,8,9,10,11
-                selectedQueue = highestPriorityQueue;
-            } else if (pos < 2) {
-                //0,1
-                selectedQueue = lowestPriorityQueue;
+
+            @Override
+            public void remove () {
+                if (last == null) {
+                    throw new IllegalStateException ();
+                }
+                PriorityableThreadPoolQueue.this.remove (last);
+                last = null;
             }
-            // 2,3,4,5
+        };
+    }
+
+    /**
+     * 任务所在的级别
+     */
+    protected int levelOf (Runnable runnable) {
+        if (runnable instanceof Priorityable) {
+            int level = ((Priorityable) runnable).getPriorityLevel ();
+            return level < 0 ? 0 : Math.min (level, weights.length - 1);
         }
-        return selectedQueue;
+        return defaultLevel;
     }
 
+    private boolean enqueue (Runnable runnable) {
+        Objects.requireNonNull (runnable);
+        lock.lock ();
+        try {
+            if (count == capacity) {
+                return false;
+            }
+            insert (runnable);
+            return true;
+        } finally {
+            lock.unlock ();
+        }
+    }
 
-    public class MultiIterator<T> implements Iterator<T> {
-        Iterable<T>[] iterables;
-        private int index = 0;
+    private void insert (Runnable runnable) {
+        queues[levelOf (runnable)].addLast (new Entry (runnable, System.nanoTime ()));
+        count++;
+        notEmpty.signal ();
+    }
 
-        public MultiIterator (Iterable<T>... iterables) {
-            this.iterables = iterables;
+    /**
+     * 在持有锁且count > 0时调用
+     */
+    private Runnable extract () {
+        long aging = agingNanos;
+        if (aging > 0) {
+            promoteAged (System.nanoTime (), aging);
         }
-
-        @Override
-        public boolean hasNext () {
-            if (index < iterables.length) {
-                if (iterables[index].iterator ().hasNext ()) {
-                    return true;
-                } else {
-                    index++;
-                    return hasNext ();
-                }
+        int selected = -1;
+        long totalWeight = 0;
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i].isEmpty ()) {
+                currentWeights[i] = 0;
+                continue;
+            }
+            currentWeights[i] += weights[i];
+            totalWeight += weights[i];
+            if (selected < 0 || currentWeights[i] > currentWeights[selected]) {
+                selected = i;
             }
-            return false;
         }
+        currentWeights[selected] -= totalWeight;
+        Entry entry = queues[selected].pollFirst ();
+        count--;
+        notFull.signal ();
+        return entry.task;
+    }
 
-        @Override
-        public T next () {
-            if (index < iterables.length) {
-                if (iterables[index].iterator ().hasNext ()) {
-                    return iterables[index].iterator ().next ();
-                } else {
-                    index++;
-                    return next ();
-                }
+    /**
+     * 把等待超时的队头任务提升一级，每个级别内按进入时间排序，只需要检查队头
+     */
+    private void promoteAged (long now, long aging) {
+        for (int i = 2; i < queues.length; i++) {
+            ArrayDeque<Entry> queue = queues[i];
+            Entry head;
+            while ((head = queue.peekFirst ()) != null && now - head.enteredNanos >= aging) {
+                queue.pollFirst ();
+                head.enteredNanos = now;
+                queues[i - 1].addLast (head);
             }
-            return null;
         }
     }
 
+    private static final class Entry {
+        private final Runnable task;
+        /**
+         * 进入当前级别的时间
+         */
+        private long enteredNanos;
+
+        Entry (Runnable task, long enteredNanos) {
+            this.task = task;
+            this.enteredNanos = enteredNanos;
+        }
+    }
 }
@@ -0,0 +1,195 @@
+package org.liujk.java.framework.base.utils.circuitbreaker;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CircuitBreakerTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos (1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos (1);
+
+    private final AtomicLong now = new AtomicLong (0);
+
+    private CircuitBreaker newCircuitBreaker (String name) {
+        CircuitBreakerConfig config = new CircuitBreakerConfig ();
+        config.setMinimumNumberOfCalls (10);
+        config.setWindowSeconds (5);
+        config.setWaitDurationInOpen (1, TimeUnit.SECONDS);
+        config.setPermittedCallsInHalfOpen (2);
+        config.setSlowCallDuration (100, TimeUnit.MILLISECONDS);
+        config.setSlowCallRateThreshold (80);
+        config.setMaxWaitDurationInHalfOpen (5, TimeUnit.SECONDS);
+        return new CircuitBreaker (name, config, now::get);
+    }
+
+    @Test
+    public void failureRateTest () throws Exception {
+        CircuitBreaker circuitBreaker = newCircuitBreaker ("failureRateTest");
+        final List<String> transitions = new ArrayList<> ();
+        circuitBreaker.addListener ((cb, from, to) -> transitions.add (from + "->" + to));
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertThat (circuitBreaker.call (() -> "ok")).isEqualTo ("ok");
+            }
+            for (int i = 0; i < 4; i++) {
+                callFailing (circuitBreaker);
+            }
+            // 调用数不到10次，不计算失败率
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.CLOSED);
+            callFailing (circuitBreaker);
+            assertThat (circuitBreaker.getFailureRate ()).isEqualTo (50f);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.OPEN);
+
+            try {
+                circuitBreaker.call (() -> "ok");
+                fail ("打开时应拒绝调用");
+            } catch (CallNotPermittedException e) {
+                assertThat (e.getCircuitBreakerName ()).isEqualTo ("failureRateTest");
+            }
+            assertThat (circuitBreaker.getNotPermittedCount ()).isEqualTo (1);
+
+            // 等待时间过后半开，只放行2个探测调用
+            now.addAndGet (SECOND);
+            long first = circuitBreaker.tryAcquirePermission ();
+            long second = circuitBreaker.tryAcquirePermission ();
+            assertThat (first).isNotEqualTo (CircuitBreaker.NOT_PERMITTED);
+            assertThat (second).isNotEqualTo (CircuitBreaker.NOT_PERMITTED);
+            assertThat (circuitBreaker.tryAcquirePermission ()).isEqualTo (CircuitBreaker.NOT_PERMITTED);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.HALF_OPEN);
+            circuitBreaker.onSuccess (first, MILLIS);
+            circuitBreaker.onSuccess (second, MILLIS);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.CLOSED);
+            assertThat (circuitBreaker.getNumberOfCalls ()).isEqualTo (0);
+            assertThat (transitions).containsExactly ("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED");
+        } finally {
+            circuitBreaker.close ();
+        }
+    }
+
+    @Test
+    public void slowCallAndReopenTest () {
+        CircuitBreaker circuitBreaker = newCircuitBreaker ("slowCallTest");
+        try {
+            for (int i = 0; i < 10; i++) {
+                circuitBreaker.get (() -> {
+                    now.addAndGet (100 * MILLIS);
+                    return "slow";
+                });
+            }
+            assertThat (circuitBreaker.getSlowCallRate ()).isEqualTo (100f);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.OPEN);
+
+            // 半开时探测调用失败，重新打开
+            now.addAndGet (SECOND);
+            long first = circuitBreaker.tryAcquirePermission ();
+            long second = circuitBreaker.tryAcquirePermission ();
+            circuitBreaker.onSuccess (first, MILLIS);
+            circuitBreaker.onError (second, MILLIS, new IOException ("test"));
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.OPEN);
+            assertThat (circuitBreaker.tryAcquirePermission ()).isEqualTo (CircuitBreaker.NOT_PERMITTED);
+
+            circuitBreaker.reset ();
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.CLOSED);
+        } finally {
+            circuitBreaker.close ();
+        }
+    }
+
+    @Test
+    public void staleGenerationTest () throws Exception {
+        CircuitBreaker circuitBreaker = newCircuitBreaker ("staleGenerationTest");
+        try {
+            // 关闭时开始的慢调用在打开、半开之后才结束
+            long stale = circuitBreaker.tryAcquirePermission ();
+            for (int i = 0; i < 10; i++) {
+                callFailing (circuitBreaker);
+            }
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.OPEN);
+            now.addAndGet (SECOND);
+            long probe = circuitBreaker.tryAcquirePermission ();
+            assertThat (probe).isNotEqualTo (CircuitBreaker.NOT_PERMITTED);
+            // 之前代次的结果不计入探测
+            circuitBreaker.onError (stale, SECOND, new IOException ("test"));
+            circuitBreaker.onError (stale, SECOND, new IOException ("test"));
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.HALF_OPEN);
+            circuitBreaker.onSuccess (probe, MILLIS);
+            circuitBreaker.onSuccess (circuitBreaker.tryAcquirePermission (), MILLIS);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.CLOSED);
+        } finally {
+            circuitBreaker.close ();
+        }
+    }
+
+    @Test
+    public void halfOpenMaxWaitTest () throws Exception {
+        CircuitBreaker circuitBreaker = newCircuitBreaker ("halfOpenMaxWaitTest");
+        try {
+            for (int i = 0; i < 10; i++) {
+                callFailing (circuitBreaker);
+            }
+            now.addAndGet (SECOND);
+            // 探测许可发出后一直没有报告结果
+            long lost = circuitBreaker.tryAcquirePermission ();
+            circuitBreaker.tryAcquirePermission ();
+            now.addAndGet (4 * SECOND);
+            assertThat (circuitBreaker.tryAcquirePermission ()).isEqualTo (CircuitBreaker.NOT_PERMITTED);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.HALF_OPEN);
+            // 超过半开最长等待时间后重新打开
+            now.addAndGet (SECOND);
+            assertThat (circuitBreaker.tryAcquirePermission ()).isEqualTo (CircuitBreaker.NOT_PERMITTED);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.OPEN);
+
+            // 等待后以新的代次重新发放探测许可，旧许可的结果被忽略
+            now.addAndGet (SECOND);
+            long first = circuitBreaker.tryAcquirePermission ();
+            long second = circuitBreaker.tryAcquirePermission ();
+            assertThat (first).isNotEqualTo (CircuitBreaker.NOT_PERMITTED).isNotEqualTo (lost);
+            circuitBreaker.onError (lost, MILLIS, new IOException ("test"));
+            circuitBreaker.onSuccess (first, MILLIS);
+            circuitBreaker.onSuccess (second, MILLIS);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.CLOSED);
+        } finally {
+            circuitBreaker.close ();
+        }
+    }
+
+    @Test
+    public void windowTest () throws Exception {
+        CircuitBreaker circuitBreaker = newCircuitBreaker ("windowTest");
+        try {
+            for (int i = 0; i < 9; i++) {
+                callFailing (circuitBreaker);
+            }
+            // 失败滑出5秒的统计窗口
+            now.addAndGet (5 * SECOND);
+            assertThat (circuitBreaker.getNumberOfCalls ()).isEqualTo (0);
+            for (int i = 0; i < 9; i++) {
+                circuitBreaker.call (() -> "ok");
+            }
+            callFailing (circuitBreaker);
+            assertThat (circuitBreaker.getFailureRate ()).isEqualTo (10f);
+            assertThat (circuitBreaker.getState ()).isEqualTo (CircuitBreaker.State.CLOSED);
+        } finally {
+            circuitBreaker.close ();
+        }
+    }
+
+    private static void callFailing (CircuitBreaker circuitBreaker) throws Exception {
+        try {
+            circuitBreaker.call (() -> {
+                throw new IOException ("test");
+            });
+            fail ("应抛出调用的异常");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.liujk.java.framework.base.utils.id;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GidCodecTest {
+
+    @Test
+    public void roundTripTest () {
+        long now = System.currentTimeMillis ();
+        for (String reserved : new String[]{"", "0000", "00zz9a", "z"}) {
+            String gid = GidEncoder.current ().encode (now, "0123", "x9k", reserved, 32766, false);
+            byte[] binary = GidCodec.fromString (gid);
+            assertThat (binary).hasSize (GidCodec.BINARY_LEN);
+            // 随机串不保存
+            assertThat (GidCodec.toString (binary, 0)).isEqualTo (gid.substring (0, gid.length () - 4));
+            assertThat (GidCodec.timestamp (binary, 0)).isEqualTo (now);
+            assertThat (GidCodec.timestamp (gid)).isEqualTo (now);
+            assertThat (GidCodec.nodeCode (binary, 0)).isEqualTo ("x9k");
+            assertThat (GidCodec.nodeCode (gid)).isEqualTo ("x9k");
+        }
+    }
+
+    @Test
+    public void byteBufferTest () {
+        long now = System.currentTimeMillis ();
+        byte[] expected = new byte[GidCodec.BINARY_LEN];
+        GidCodec.encode (now, "zzzz", "zzz", "zzzzzz", 1, expected, 0);
+
+        // 与ByteBuffer的字节序无关
+        ByteBuffer buffer = ByteBuffer.allocateDirect (64).order (ByteOrder.LITTLE_ENDIAN);
+        buffer.position (3);
+        GidCodec.encode (now, "zzzz", "zzz", "zzzzzz", 1, buffer);
+        assertThat (buffer.position ()).isEqualTo (3 + GidCodec.BINARY_LEN);
+        for (int i = 0; i < GidCodec.BINARY_LEN; i++) {
+            assertThat (buffer.get (3 + i)).isEqualTo (expected[i]);
+        }
+        assertThat (GidCodec.timestamp (buffer, 3)).isEqualTo (now);
+        assertThat (GidCodec.nodeCode (buffer, 3)).isEqualTo ("zzz");
+        buffer.position (3);
+        assertThat (GidCodec.toString (buffer)).isEqualTo (GidCodec.toString (expected, 0));
+    }
+
+    @Test
+    public void timeOrderTest () {
+        long now = System.currentTimeMillis ();
+        List<byte[]> binaries = new ArrayList<> ();
+        List<String> strings = new ArrayList<> ();
+        // 系统编码越大时间越早，字符串自然顺序与时间顺序相反
+        for (int i = 0; i < 10; i++) {
+            String system = "000" + (9 - i);
+            binaries.add (encode (now + i * 1000L, system, "aaa", "0000", 0));
+            strings.add (GidEncoder.current ().encode (now + i * 1000L, system, "aaa", "0000", 0, false));
+        }
+        for (int i = 1; i < binaries.size (); i++) {
+            assertThat (GidCodec.BINARY_TIME_ORDER.compare (binaries.get (i - 1), binaries.get (i))).isNegative ();
+            assertThat (GidCodec.STRING_TIME_ORDER.compare (strings.get (i - 1), strings.get (i))).isNegative ();
+            assertThat (strings.get (i - 1).compareTo (strings.get (i))).isPositive ();
+        }
+        // 同一毫秒内按序号排序
+        assertThat (GidCodec.BINARY_TIME_ORDER.compare (encode (now, "0000", "aaa", "0000", 1),
+                                                        encode (now, "0000", "aaa", "0000", 2))).isNegative ();
+    }
+
+    @Test
+    public void newBinaryGidTest () {
+        long before = System.currentTimeMillis ();
+        byte[] first = GID.newBinaryGid ();
+        byte[] second = GID.newBinaryGid ();
+        assertThat (first).isNotEqualTo (second);
+        assertThat (GidCodec.timestamp (first, 0)).isBetween (before - 1000, System.currentTimeMillis () + 1000);
+    }
+
+    @Test
+    public void illegalTest () {
+        assertThatThrownBy (() -> GidCodec.fromString ("abc")).isInstanceOf (FormatRuntimeException.class);
+        assertThatThrownBy (() -> GidCodec.encode (0L, "00-0", "aaa", "", 0, new byte[16], 0))
+                .isInstanceOf (FormatRuntimeException.class);
+        assertThatThrownBy (() -> GidCodec.encode (0L, "0000", "aaa", "", 32768, new byte[16], 0))
+                .isInstanceOf (FormatRuntimeException.class);
+    }
+
+    private static byte[] encode (long millis, String system, String node, String reserved, int index) {
+        byte[] dst = new byte[GidCodec.BINARY_LEN];
+        GidCodec.encode (millis, system, node, reserved, index, dst, 0);
+        return dst;
+    }
+}
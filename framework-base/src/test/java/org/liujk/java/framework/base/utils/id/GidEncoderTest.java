@@ -0,0 +1,39 @@
+package org.liujk.java.framework.base.utils.id;
+
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.lang.DateUtils;
+import org.liujk.java.framework.base.utils.lang.StringUtils;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+
+public class GidEncoderTest {
+
+    /**
+     * 与原来格式化日期后拼接字符串的结果一致
+     */
+    @Test
+    public void formatCompatibleTest () {
+        long now = DateUtils.currentTimeMillis ();
+        GidEncoder encoder = GidEncoder.current ();
+        for (int i = 0; i < 10000; i++) {
+            long millis = now + ThreadLocalRandom.current ().nextLong (-5000L, 5000L) * (i % 2 == 0 ? 1 : 100000L);
+            int index = i % 32767;
+            String expectedPrefix = "0001" + DateUtils.formatDate (new Date (millis), GID.DATE_FORMAT_STRING) + "abc"
+                    + "000000" + StringUtils.lpad (Long.toString (index, 32), 3, '0');
+
+            String gid = encoder.encode (millis, "0001", "abc", "000000", index, false);
+            assertEquals (expectedPrefix.length () + 4, gid.length ());
+            assertEquals (expectedPrefix, gid.substring (0, expectedPrefix.length ()));
+
+            String signed = encoder.encode (millis, "0001", "abc", "000000", index, true);
+            assertEquals (expectedPrefix.length () + 4, signed.length ());
+            assertEquals (expectedPrefix, signed.substring (0, expectedPrefix.length ()));
+            String unsigned = signed.substring (0, signed.length () - 1);
+            String sign = Integer.toString (unsigned.hashCode (), 32);
+            assertEquals (unsigned + StringUtils.right (sign, 1).toUpperCase (), signed);
+        }
+    }
+}
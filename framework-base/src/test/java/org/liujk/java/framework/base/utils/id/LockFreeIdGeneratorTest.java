@@ -0,0 +1,296 @@
+package org.liujk.java.framework.base.utils.id;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.liujk.java.framework.base.utils.thread.ThreadUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LockFreeIdGeneratorTest {
+
+    private static final int IDS_PER_THREAD = 20000;
+
+    /**
+     * 同一时钟下与IdGenerator生成的ID完全一致(包括isOr截断)
+     */
+    @Test
+    public void bitCompatibleTest () {
+        for (boolean or : new boolean[]{false, true}) {
+            long now = System.currentTimeMillis () + (or ? 10 : 0);
+            FixedClockIdGenerator legacy = new FixedClockIdGenerator (3, 7, now);
+            FixedClockLockFreeIdGenerator lockFree = new FixedClockLockFreeIdGenerator (3, 7, now);
+            legacy.setOr (or);
+            lockFree.setOr (or);
+            for (int tick = 0; tick < 3; tick++) {
+                legacy.now = now + tick;
+                lockFree.now = now + tick;
+                for (int i = 0; i < 100; i++) {
+                    assertEquals (legacy.nextId (), lockFree.nextId ());
+                }
+            }
+        }
+    }
+
+    /**
+     * 批量获取的ID跨毫秒滚动，且与逐个获取的结果一致
+     */
+    @Test
+    public void bulkTest () {
+        long now = System.currentTimeMillis ();
+        FixedClockLockFreeIdGenerator single = new FixedClockLockFreeIdGenerator (3, 7, now);
+        FixedClockLockFreeIdGenerator bulk = new FixedClockLockFreeIdGenerator (3, 7, now);
+        long[] expected = new long[300];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = single.nextId ();
+        }
+        assertArrayEquals (expected, bulk.nextIds (300));
+
+        LockFreeIdGenerator generator = new LockFreeIdGenerator (1, 1);
+        long[] ids = generator.nextIds (10000);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue (ids[i] > ids[i - 1]);
+        }
+        long[] streamed = generator.stream (256).limit (1000).toArray ();
+        assertEquals (1000, streamed.length);
+        assertTrue (streamed[0] > ids[ids.length - 1]);
+    }
+
+    @Test(expected = FormatRuntimeException.class)
+    public void clockBackwardsFailTest () {
+        long now = System.currentTimeMillis ();
+        FixedClockLockFreeIdGenerator generator = new FixedClockLockFreeIdGenerator (3, 7, now);
+        generator.nextId ();
+        generator.now = now - 1;
+        generator.nextId ();
+    }
+
+    @Test
+    public void clockBackwardsBorrowTest () {
+        long now = System.currentTimeMillis ();
+        FixedClockLockFreeIdGenerator generator = new FixedClockLockFreeIdGenerator (3, 7, now);
+        generator.setClockBackwardsPolicy (LockFreeIdGenerator.ClockBackwardsPolicy.BORROW);
+        generator.setMaxBackwardsMillis (5);
+        generator.setMetricName ("clockBackwardsBorrowTest");
+        long last = generator.nextId ();
+        generator.now = now - 2;
+        // 借用上次时间截剩余的序列及之后的毫秒，直到领先当前时钟5毫秒
+        for (int i = 0; i < 4096 * 3; i++) {
+            long id = generator.nextId ();
+            assertTrue (id > last);
+            last = id;
+        }
+        // 一次回拨只计数一次，借用了now+1~now+3三个毫秒
+        assertEquals (1, counter ("clockBackwards", "clockBackwardsBorrowTest"));
+        assertEquals (3, counter ("borrowed", "clockBackwardsBorrowTest"));
+    }
+
+    @Test
+    public void sequenceOverflowBorrowTest () {
+        long now = System.currentTimeMillis ();
+        FixedClockLockFreeIdGenerator generator = new FixedClockLockFreeIdGenerator (3, 7, now);
+        generator.setClockBackwardsPolicy (LockFreeIdGenerator.ClockBackwardsPolicy.BORROW);
+        generator.setMaxBackwardsMillis (5);
+        generator.setMetricName ("sequenceOverflowBorrowTest");
+        long last = generator.nextId ();
+        // 时钟没有回拨，毫秒内序列溢出借用的毫秒不算时钟回拨
+        for (int i = 0; i < 4096 * 3; i++) {
+            long id = generator.nextId ();
+            assertTrue (id > last);
+            last = id;
+        }
+        assertEquals (0, counter ("clockBackwards", "sequenceOverflowBorrowTest"));
+        assertEquals (3, counter ("borrowed", "sequenceOverflowBorrowTest"));
+    }
+
+    @Test
+    public void clockBackwardsWaitTest () throws InterruptedException {
+        final long now = System.currentTimeMillis ();
+        final FixedClockLockFreeIdGenerator generator = new FixedClockLockFreeIdGenerator (3, 7, now);
+        generator.setClockBackwardsPolicy (LockFreeIdGenerator.ClockBackwardsPolicy.WAIT);
+        long last = generator.nextId ();
+        generator.now = now - 3;
+        Thread clock = new Thread (new Runnable () {
+            @Override
+            public void run () {
+                ThreadUtils.sleep (20, TimeUnit.MILLISECONDS);
+                generator.now = now + 1;
+            }
+        });
+        clock.start ();
+        assertTrue (generator.nextId () > last);
+        clock.join ();
+    }
+
+    @Test
+    public void clockBackwardsRollbackBitTest () {
+        long now = System.currentTimeMillis ();
+        FixedClockLockFreeIdGenerator generator = new FixedClockLockFreeIdGenerator (3, 7, now);
+        generator.setOr (true);
+        generator.setClockBackwardsPolicy (LockFreeIdGenerator.ClockBackwardsPolicy.ROLLBACK_BIT);
+        Set<Long> ids = new HashSet<> ();
+        for (int i = 0; i < 100; i++) {
+            ids.add (generator.nextId ());
+        }
+        generator.now = now - 10;
+        for (int tick = 0; tick <= 10; tick++) {
+            generator.now = now - 10 + tick;
+            for (int i = 0; i < 100; i++) {
+                long id = generator.nextId ();
+                assertEquals (16 | 7, (id >>> 12) & 31);
+                assertTrue (ids.add (id));
+            }
+        }
+        // 时钟还没有越过原标识下的时间线，再次回拨必须拒绝
+        generator.now = now - 1;
+        try {
+            generator.nextId ();
+            fail ();
+        } catch (FormatRuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void concurrentRollbackBitTest () throws InterruptedException {
+        long now = System.currentTimeMillis ();
+        final FixedClockLockFreeIdGenerator generator = new FixedClockLockFreeIdGenerator (3, 7, now);
+        generator.setOr (true);
+        generator.setClockBackwardsPolicy (LockFreeIdGenerator.ClockBackwardsPolicy.ROLLBACK_BIT);
+        generator.setMetricName ("concurrentRollbackBitTest");
+        final Set<Long> ids = ConcurrentHashMap.newKeySet ();
+        for (int i = 0; i < 100; i++) {
+            ids.add (generator.nextId ());
+        }
+        generator.now = now - 10;
+        // 多个线程同时发现回拨，只有一个线程切换标识，其他线程在新的时间线上继续生成
+        final CountDownLatch start = new CountDownLatch (1);
+        final AtomicInteger failed = new AtomicInteger ();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread (new Runnable () {
+                @Override
+                public void run () {
+                    try {
+                        start.await ();
+                        for (int i = 0; i < 500; i++) {
+                            ids.add (generator.nextId ());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread ().interrupt ();
+                    } catch (FormatRuntimeException e) {
+                        failed.incrementAndGet ();
+                    }
+                }
+            });
+            threads[t].start ();
+        }
+        start.countDown ();
+        for (Thread thread : threads) {
+            thread.join ();
+        }
+        assertEquals (0, failed.get ());
+        assertEquals (100 + threads.length * 500, ids.size ());
+        assertEquals (1, counter ("rollback", "concurrentRollbackBitTest"));
+    }
+
+    @Test
+    public void truncateTest () {
+        long id = 1234567890123456789L;
+        String strId = String.valueOf (id);
+        assertEquals (Long.parseLong (strId.substring (0, 1) + strId.substring (4)),
+                      LockFreeIdGenerator.truncate (id));
+        assertEquals (10000000000001L, LockFreeIdGenerator.truncate (10000000000000001L));
+    }
+
+    /**
+     * 1~32个线程并发生成ID，ID不重复，同一线程内递增
+     */
+    @Test
+    public void contentionTest () throws InterruptedException {
+        for (int threads = 1; threads <= 32; threads <<= 1) {
+            LockFreeIdGenerator generator = new LockFreeIdGenerator (1, 1);
+            Set<Long> ids = ConcurrentHashMap.newKeySet (threads * IDS_PER_THREAD);
+            AtomicInteger unordered = new AtomicInteger ();
+            run (generator, threads, ids, unordered);
+            assertEquals (threads * IDS_PER_THREAD, ids.size ());
+            assertEquals (0, unordered.get ());
+        }
+    }
+
+    private void run (final LockFreeIdGenerator generator, int threads, final Set<Long> ids,
+                      final AtomicInteger unordered) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch (1);
+        final CountDownLatch done = new CountDownLatch (threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread (new Runnable () {
+                @Override
+                public void run () {
+                    try {
+                        start.await ();
+                        long[] local = new long[IDS_PER_THREAD];
+                        for (int i = 0; i < local.length; i++) {
+                            local[i] = generator.nextId ();
+                        }
+                        for (int i = 1; i < local.length; i++) {
+                            if (local[i] <= local[i - 1]) {
+                                unordered.incrementAndGet ();
+                            }
+                        }
+                        for (long id : local) {
+                            ids.add (id);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread ().interrupt ();
+                    } finally {
+                        done.countDown ();
+                    }
+                }
+            }).start ();
+        }
+        start.countDown ();
+        done.await ();
+    }
+
+    private static class FixedClockIdGenerator extends IdGenerator {
+        private volatile long now;
+
+        FixedClockIdGenerator (long datacenterId, long workerId, long now) {
+            super (datacenterId, workerId);
+            this.now = now;
+        }
+
+        @Override
+        protected long timeGen () {
+            return now;
+        }
+    }
+
+    private static class FixedClockLockFreeIdGenerator extends LockFreeIdGenerator {
+        private volatile long now;
+
+        FixedClockLockFreeIdGenerator (long datacenterId, long workerId, long now) {
+            super (datacenterId, workerId);
+            this.now = now;
+        }
+
+        @Override
+        protected long timeGen () {
+            return now;
+        }
+    }
+
+    private static long counter (String type, String metricName) {
+        return MetricsHolder.metricRegistry ().counter (MetricRegistry.name ("idgen", type, metricName)).getCount ();
+    }
+}
@@ -0,0 +1,114 @@
+package org.liujk.java.framework.base.utils.id;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NodeCodeRegistryTest {
+
+    private static final String IP_AND_PORT = "127.0.0.1:8080";
+
+    private File dir;
+    private File leaseFile;
+    private StubConfigCenter configCenter;
+
+    @Before
+    public void setUp () throws Exception {
+        dir = Files.createTempDirectory ("gid-lease").toFile ();
+        leaseFile = new File (dir, "node.lease");
+        configCenter = new StubConfigCenter ();
+    }
+
+    @After
+    public void tearDown () {
+        configCenter.close ();
+        File[] files = dir.listFiles ();
+        if (files != null) {
+            for (File file : files) {
+                file.delete ();
+            }
+        }
+        dir.delete ();
+    }
+
+    @Test
+    public void fallbackTest () {
+        NodeCodeRegistry registry = new NodeCodeRegistry (IP_AND_PORT, leaseFile, null);
+        assertThat (registry.getSystemCode ()).hasSize (CodeGenerator.SYSTEM_CODE_LEN);
+        assertThat (registry.getNodeCode ()).hasSize (CodeGenerator.NODE_CODE_LEN);
+        // 同一节点重启后编码不变
+        assertThat (NodeCodeRegistry.fallbackNodeCode (IP_AND_PORT)).isEqualTo (registry.getNodeCode ());
+        assertThat (registry.renew ()).isFalse ();
+        assertThat (leaseFile).doesNotExist ();
+    }
+
+    @Test
+    public void leaseReuseTest () {
+        NodeCodeRegistry registry = new NodeCodeRegistry (IP_AND_PORT, leaseFile, configCenter.getUrl ());
+        NodeCodeRegistry.NodeCodes local = registry.getCodes ();
+        assertThat (registry.renew ()).isTrue ();
+        assertThat (registry.getSystemCode ()).isEqualTo ("0042");
+        assertThat (registry.getNodeCode ()).isEqualTo ("abc");
+        // 两个编码一起替换，之前取到的仍然是本地编码
+        NodeCodeRegistry.NodeCodes codes = registry.getCodes ();
+        assertThat (codes.getSystemCode ()).isEqualTo ("0042");
+        assertThat (codes.getNodeCode ()).isEqualTo ("abc");
+        assertThat (local).isNotEqualTo (codes);
+        assertThat (leaseFile).exists ();
+
+        // 重启时不访问配置中心，直接使用租约文件
+        configCenter.close ();
+        NodeCodeRegistry restarted = new NodeCodeRegistry (IP_AND_PORT, leaseFile, configCenter.getUrl ());
+        assertThat (restarted.getSystemCode ()).isEqualTo ("0042");
+        assertThat (restarted.getNodeCode ()).isEqualTo ("abc");
+
+        // 其他节点的租约文件不使用
+        NodeCodeRegistry other = new NodeCodeRegistry ("127.0.0.1:9090", leaseFile, null);
+        assertThat (other.getNodeCode ()).isEqualTo (NodeCodeRegistry.fallbackNodeCode ("127.0.0.1:9090"));
+    }
+
+    @Test
+    public void slowConfigCenterTest () throws Exception {
+        configCenter.setDelayMillis (1000L);
+        long start = System.nanoTime ();
+        NodeCodeRegistry registry = new NodeCodeRegistry (IP_AND_PORT, leaseFile, configCenter.getUrl ());
+        registry.start ();
+        String nodeCode = registry.getNodeCode ();
+        long elapsedMillis = (System.nanoTime () - start) / 1000000L;
+        try {
+            assertThat (nodeCode).isEqualTo (NodeCodeRegistry.fallbackNodeCode (IP_AND_PORT));
+            assertThat (elapsedMillis).isLessThan (500L);
+
+            // 后台注册完成后切换到配置中心分配的编码
+            long deadline = System.currentTimeMillis () + 5000L;
+            while (!registry.isRegistered () && System.currentTimeMillis () < deadline) {
+                Thread.sleep (50L);
+            }
+            assertThat (registry.isRegistered ()).isTrue ();
+            assertThat (registry.getNodeCode ()).isEqualTo ("abc");
+        } finally {
+            registry.stop ();
+        }
+    }
+
+    @Test
+    public void renewFailureTest () {
+        NodeCodeRegistry registry = new NodeCodeRegistry (IP_AND_PORT, leaseFile, configCenter.getUrl ());
+        assertThat (registry.renew ()).isTrue ();
+
+        configCenter.setSuccess (false);
+        configCenter.setNodeCode ("xyz");
+        assertThat (registry.renew ()).isFalse ();
+        assertThat (registry.getNodeCode ()).isEqualTo ("abc");
+
+        configCenter.setSuccess (true);
+        configCenter.setNodeCode ("toolong");
+        assertThat (registry.renew ()).isFalse ();
+        assertThat (registry.getNodeCode ()).isEqualTo ("abc");
+    }
+}
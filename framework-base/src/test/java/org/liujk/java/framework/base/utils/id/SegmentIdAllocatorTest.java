@@ -0,0 +1,138 @@
+package org.liujk.java.framework.base.utils.id;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SegmentIdAllocatorTest {
+
+    private JdbcDataSource dataSource;
+
+    @Before
+    public void setUp () throws Exception {
+        dataSource = new JdbcDataSource ();
+        dataSource.setURL ("jdbc:h2:mem:segment;MODE=MYSQL;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection ();
+             Statement statement = connection.createStatement ()) {
+            statement.execute ("DROP TABLE IF EXISTS id_segment");
+            statement.execute ("CREATE TABLE id_segment (biz_tag VARCHAR(128) NOT NULL PRIMARY KEY,"
+                    + " max_id BIGINT NOT NULL, step INT NOT NULL, update_time TIMESTAMP NULL)");
+            statement.execute ("INSERT INTO id_segment (biz_tag, max_id, step) VALUES ('order', 1, 100)");
+        }
+    }
+
+    @Test
+    public void sequentialTest () throws Exception {
+        SegmentIdAllocator allocator = new SegmentIdAllocator (dataSource);
+        try {
+            for (long i = 1; i <= 1000; i++) {
+                assertThat (allocator.nextId ("order")).isEqualTo (i);
+            }
+            // 第11个号段已经用完，至多预取了第12个号段
+            assertThat (maxId ("order")).isBetween (1001L, 1201L);
+        } finally {
+            allocator.close ();
+        }
+    }
+
+    @Test
+    public void concurrentTest () throws Exception {
+        final SegmentIdAllocator allocator = new SegmentIdAllocator (dataSource);
+        final int threads = 8;
+        final int perThread = 5000;
+        final Set<Long> ids = ConcurrentHashMap.newKeySet ();
+        final AtomicInteger errors = new AtomicInteger ();
+        final CountDownLatch latch = new CountDownLatch (threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                new Thread (() -> {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            ids.add (allocator.nextId ("order"));
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet ();
+                    } finally {
+                        latch.countDown ();
+                    }
+                }).start ();
+            }
+            latch.await ();
+            assertThat (errors.get ()).isZero ();
+            assertThat (ids).hasSize (threads * perThread);
+            assertThat (ids).allMatch (id -> id >= 1 && id <= threads * perThread);
+        } finally {
+            allocator.close ();
+        }
+    }
+
+    @Test
+    public void unknownBizTagTest () {
+        SegmentIdAllocator allocator = new SegmentIdAllocator (dataSource);
+        allocator.setMaxWaitMillis (200L);
+        try {
+            assertThatThrownBy (() -> allocator.nextId ("unknown")).hasMessageContaining ("unknown");
+        } finally {
+            allocator.close ();
+        }
+    }
+
+    @Test
+    public void retryBackoffTest () {
+        final AtomicInteger leases = new AtomicInteger ();
+        SegmentIdAllocator allocator = new SegmentIdAllocator (dataSource) {
+            @Override
+            protected Segment lease (String bizTag) throws SQLException {
+                leases.incrementAndGet ();
+                return super.lease (bizTag);
+            }
+        };
+        allocator.setMaxWaitMillis (200L);
+        allocator.setRetryIntervalMillis (60000L);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertThatThrownBy (() -> allocator.nextId ("unknown")).hasMessageContaining ("unknown");
+            }
+            // 重试间隔内不再访问数据库
+            assertThat (leases.get ()).isEqualTo (1);
+            assertThat (allocator.nextId ("order")).isEqualTo (1L);
+        } finally {
+            allocator.close ();
+        }
+    }
+
+    @Test (timeout = 10000)
+    public void closedTest () {
+        SegmentIdAllocator allocator = new SegmentIdAllocator (dataSource);
+        allocator.setMaxWaitMillis (60000L);
+        allocator.close ();
+        // 关闭后租用被拒绝，直接失败而不是等到超时
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy (() -> allocator.nextId ("order"))
+                    .hasCauseInstanceOf (RejectedExecutionException.class);
+        }
+    }
+
+    private long maxId (String bizTag) throws Exception {
+        try (Connection connection = dataSource.getConnection ();
+             Statement statement = connection.createStatement ();
+             ResultSet resultSet = statement.executeQuery (
+                     "SELECT max_id FROM id_segment WHERE biz_tag = '" + bizTag + "'")) {
+            resultSet.next ();
+            return resultSet.getLong (1);
+        }
+    }
+}
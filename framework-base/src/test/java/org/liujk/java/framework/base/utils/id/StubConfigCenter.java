@@ -0,0 +1,76 @@
+package org.liujk.java.framework.base.utils.id;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的本地配置中心，返回固定的系统编码和节点编码
+ */
+public class StubConfigCenter implements AutoCloseable {
+
+    private final HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger ();
+    private volatile String systemCode = "0042";
+    private volatile String nodeCode = "abc";
+    private volatile boolean success = true;
+    private volatile long delayMillis;
+
+    public StubConfigCenter () throws IOException {
+        server = HttpServer.create (new InetSocketAddress ("127.0.0.1", 0), 0);
+        server.createContext ("/project/", exchange -> {
+            requests.incrementAndGet ();
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep (delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            }
+            String path = exchange.getRequestURI ().getPath ();
+            String result = path.endsWith ("getSystemCode.json") ? systemCode
+                    : path.endsWith ("getNodeCode.json") ? nodeCode : "ok";
+            String body = "{\"success\":\"" + success + "\",\"singleResult\":\"" + result
+                    + "\",\"message\":\"stub\"}";
+            byte[] bytes = body.getBytes (StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders (200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody ()) {
+                out.write (bytes);
+            }
+        });
+        server.start ();
+    }
+
+    public String getUrl () {
+        return "http://127.0.0.1:" + server.getAddress ().getPort () + "/";
+    }
+
+    public int getRequests () {
+        return requests.get ();
+    }
+
+    public void setSystemCode (String systemCode) {
+        this.systemCode = systemCode;
+    }
+
+    public void setNodeCode (String nodeCode) {
+        this.nodeCode = nodeCode;
+    }
+
+    public void setSuccess (boolean success) {
+        this.success = success;
+    }
+
+    public void setDelayMillis (long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void close () {
+        server.stop (0);
+    }
+}
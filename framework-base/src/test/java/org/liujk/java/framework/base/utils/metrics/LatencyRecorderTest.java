@@ -0,0 +1,94 @@
+package org.liujk.java.framework.base.utils.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void bucketTest () {
+        int last = -1;
+        for (long v = 0; v < 1L << 20; v++) {
+            int index = LatencyRecorder.bucketIndex (v);
+            assertThat (index).isBetween (last, last + 1);
+            assertThat (LatencyRecorder.lowestEquivalentValue (index)).isLessThanOrEqualTo (v);
+            assertThat (LatencyRecorder.highestEquivalentValue (index)).isGreaterThanOrEqualTo (v);
+            last = index;
+        }
+        for (int i = 0; i < 1000; i++) {
+            long v = ThreadLocalRandom.current ().nextLong (LatencyRecorder.MAX_VALUE);
+            long high = LatencyRecorder.highestEquivalentValue (LatencyRecorder.bucketIndex (v));
+            assertThat ((double) (high - v) / v).isLessThanOrEqualTo (1.0 / 64);
+        }
+        assertThat (LatencyRecorder.bucketIndex (Long.MAX_VALUE)).isEqualTo (LatencyRecorder.BUCKET_COUNT - 1);
+    }
+
+    @Test
+    public void percentileTest () {
+        LatencyRecorder recorder = new LatencyRecorder ();
+        for (long v = 1; v <= 10000; v++) {
+            recorder.record (v * 1000L);
+        }
+        LatencySnapshot snapshot = recorder.intervalSnapshot ();
+        assertThat (snapshot.getCount ()).isEqualTo (10000L);
+        assertThat (snapshot.getMedian ()).isBetween (5000000.0, 5000000.0 * 65 / 64);
+        assertThat (snapshot.get999thPercentile ()).isBetween (9990000.0, 9990000.0 * 65 / 64);
+        assertThat (snapshot.getMax ()).isBetween (10000000L, 10000000L * 65 / 64);
+        assertThat (snapshot.getMin ()).isBetween (1000L * 63 / 64, 1000L);
+        assertThat (snapshot.getMean ()).isBetween (5000500.0 * 63 / 64, 5000500.0 * 65 / 64);
+
+        // 区间快照，读取后清空
+        assertThat (recorder.intervalSnapshot ().getCount ()).isZero ();
+        recorder.record (-1L);
+        assertThat (recorder.intervalSnapshot ().getCount ()).isZero ();
+    }
+
+    @Test
+    public void cumulativeTest () {
+        LatencyRecorder recorder = new LatencyRecorder ();
+        recorder.record (100L);
+        LatencySnapshot first = recorder.cumulativeSnapshot ();
+        recorder.record (200L);
+        LatencySnapshot second = recorder.cumulativeSnapshot ();
+        assertThat (first.getCount ()).isEqualTo (1L);
+        assertThat (second.getCount ()).isEqualTo (2L);
+        assertThat (second.minus (first).getCount ()).isEqualTo (1L);
+        assertThat (second.minus (first).getMin ()).isGreaterThan (100L);
+        // 累计快照不影响区间快照
+        assertThat (recorder.intervalSnapshot ().getCount ()).isEqualTo (2L);
+        recorder.record (300L);
+        assertThat (recorder.cumulativeSnapshot ().getCount ()).isEqualTo (3L);
+        assertThat (recorder.intervalSnapshot ().getCount ()).isEqualTo (1L);
+    }
+
+    @Test
+    public void concurrentTest () throws Exception {
+        final LatencyRecorder recorder = new LatencyRecorder ();
+        final int threads = 8;
+        final int perThread = 200000;
+        final CountDownLatch latch = new CountDownLatch (threads);
+        final AtomicBoolean done = new AtomicBoolean ();
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            new Thread (() -> {
+                for (int i = 0; i < perThread; i++) {
+                    recorder.record (i);
+                }
+                latch.countDown ();
+            }).start ();
+        }
+        while (!done.get ()) {
+            total += recorder.intervalSnapshot ().getCount ();
+            if (latch.getCount () == 0) {
+                done.set (true);
+            }
+        }
+        total += recorder.intervalSnapshot ().getCount ();
+        assertThat (total).isEqualTo ((long) threads * perThread);
+    }
+}
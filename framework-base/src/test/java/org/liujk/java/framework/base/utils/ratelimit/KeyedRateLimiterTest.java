@@ -0,0 +1,46 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyedRateLimiterTest {
+
+    @Test
+    public void perKeyTest () {
+        KeyedRateLimiter<String> limiter = KeyedRateLimiter.slidingWindow ("keyedRateLimitTest", 2, 1,
+                                                                           TimeUnit.HOURS);
+        try {
+            assertThat (limiter.tryAcquire ("a")).isTrue ();
+            assertThat (limiter.tryAcquire ("a")).isTrue ();
+            assertThat (limiter.tryAcquire ("a")).isFalse ();
+            // 不同key互不影响
+            assertThat (limiter.tryAcquire ("b", 2)).isTrue ();
+            assertThat (limiter.getKeyCount ()).isEqualTo (2);
+            assertThat (limiter.getPermittedCount ()).isEqualTo (3);
+            assertThat (limiter.getRejectedCount ()).isEqualTo (1);
+        } finally {
+            limiter.close ();
+        }
+    }
+
+    @Test
+    public void purgeIdleTest () {
+        KeyedRateLimiter<Integer> limiter = KeyedRateLimiter.tokenBucket ("keyedPurgeTest", 1000000, 1000);
+        try {
+            for (int i = 0; i < 100; i++) {
+                assertThat (limiter.tryAcquire (i)).isTrue ();
+            }
+            assertThat (limiter.getKeyCount ()).isEqualTo (100);
+            // 令牌在1微秒内补满，之后的调用会清理空闲的限流器
+            for (int i = 0; i < KeyedRateLimiter.PURGE_INTERVAL * 16; i++) {
+                limiter.tryAcquire (i % 16);
+            }
+            assertThat (limiter.getKeyCount ()).isLessThan (100);
+        } finally {
+            limiter.close ();
+        }
+    }
+}
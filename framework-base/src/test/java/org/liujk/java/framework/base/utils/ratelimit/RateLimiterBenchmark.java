@@ -0,0 +1,84 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 比较{@link TokenBucketRateLimiter}、{@link SlidingWindowRateLimiter}和{@link KeyedRateLimiter}在1、8、64个线程下tryAcquire的吞吐量。
+ * <p>
+ * 限流设置得足够高，测量的是获取许可本身的开销，包括CAS竞争。
+ * 通过main方法运行：mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.liujk.java.framework.base.utils.ratelimit.RateLimiterBenchmark
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class RateLimiterBenchmark {
+
+    @Param ({"tokenBucket", "slidingWindow"})
+    public String limiterType;
+
+    private RateLimiter limiter;
+    private KeyedRateLimiter<Integer> keyedLimiter;
+
+    @Setup (Level.Trial)
+    public void setUp () {
+        if ("tokenBucket".equals (limiterType)) {
+            limiter = new TokenBucketRateLimiter ("benchmark", 1e9, Integer.MAX_VALUE);
+            keyedLimiter = KeyedRateLimiter.tokenBucket ("keyedBenchmark", 1e9, Integer.MAX_VALUE);
+        } else {
+            limiter = new SlidingWindowRateLimiter ("benchmark", SlidingWindowRateLimiter.MAX_LIMIT, 1,
+                                                    TimeUnit.MILLISECONDS);
+            keyedLimiter = KeyedRateLimiter.slidingWindow ("keyedBenchmark", SlidingWindowRateLimiter.MAX_LIMIT, 1,
+                                                           TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown (Level.Trial)
+    public void tearDown () {
+        limiter.close ();
+        keyedLimiter.close ();
+    }
+
+    @Benchmark
+    public boolean tryAcquire () {
+        return limiter.tryAcquire ();
+    }
+
+    @Benchmark
+    public boolean keyedTryAcquire () {
+        return keyedLimiter.tryAcquire (ThreadLocalRandom.current ().nextInt (1024));
+    }
+
+    public static void main (String[] args) throws Exception {
+        for (int threads : new int[] {1, 8, 64}) {
+            Options options = new OptionsBuilder ()
+                    .include (RateLimiterBenchmark.class.getSimpleName ())
+                    .threads (threads)
+                    .build ();
+            new Runner (options).run ();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SlidingWindowRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos (1);
+
+    @Test
+    public void slidingTest () {
+        RateLimiterMetrics metrics = new RateLimiterMetrics ("slidingWindowTest");
+        long start = 0L;
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter (metrics, 10, 1, TimeUnit.SECONDS, start);
+        assertThat (limiter.isIdle (start)).isTrue ();
+        for (int i = 0; i < 10; i++) {
+            assertThat (limiter.tryAcquireOrWait (1, start + i)).isEqualTo (0);
+        }
+        // 当前窗口已满，等到下一个窗口
+        assertThat (limiter.tryAcquireOrWait (1, start + SECOND / 2)).isEqualTo (SECOND / 2);
+
+        // 下一个窗口的开始，上一个窗口的10个还全部在滑动窗口内
+        assertThat (limiter.tryAcquireOrWait (1, start + SECOND)).isGreaterThan (0);
+        // 过了1/4个窗口，上一个窗口按7.5计，可以再获取2个
+        long quarter = start + SECOND + SECOND / 4;
+        assertThat (limiter.tryAcquireOrWait (2, quarter)).isEqualTo (0);
+        long wait = limiter.tryAcquireOrWait (1, quarter);
+        assertThat (wait).isGreaterThan (0);
+        assertThat (limiter.tryAcquireOrWait (1, quarter + wait)).isEqualTo (0);
+
+        // 两个窗口没有调用后清空
+        assertThat (limiter.isIdle (start + 3 * SECOND)).isTrue ();
+        assertThat (limiter.tryAcquireOrWait (10, start + 3 * SECOND)).isEqualTo (0);
+    }
+
+    @Test
+    public void staleClockTest () {
+        RateLimiterMetrics metrics = new RateLimiterMetrics ("slidingWindowStaleClockTest");
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter (metrics, 10, 1, TimeUnit.SECONDS, 0L);
+        // 其他线程已经在下一个窗口获取了许可
+        long later = SECOND + SECOND / 2;
+        assertThat (limiter.tryAcquireOrWait (10, later)).isEqualTo (0);
+        // 先读取时钟的线程晚执行，不能把窗口改回去并清空计数
+        long earlier = SECOND / 2;
+        assertThat (limiter.tryAcquireOrWait (1, earlier)).isGreaterThan (0);
+        assertThat (limiter.tryAcquireOrWait (1, later)).isGreaterThan (0);
+        assertThat (limiter.isIdle (earlier)).isFalse ();
+
+        // 长时间空闲后计数过期
+        long idle = later + (1L << 24) * SECOND;
+        assertThat (limiter.isIdle (idle)).isTrue ();
+        assertThat (limiter.tryAcquireOrWait (10, idle)).isEqualTo (0);
+        assertThat (limiter.tryAcquireOrWait (1, idle)).isGreaterThan (0);
+    }
+
+    @Test
+    public void concurrentTest () throws Exception {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter ("slidingWindowConcurrentTest", 1000, 1,
+                                                                         TimeUnit.HOURS);
+        final AtomicInteger acquired = new AtomicInteger ();
+        final CountDownLatch done = new CountDownLatch (4);
+        for (int t = 0; t < 4; t++) {
+            new Thread (() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire ()) {
+                        acquired.incrementAndGet ();
+                    }
+                }
+                done.countDown ();
+            }).start ();
+        }
+        assertThat (done.await (10, TimeUnit.SECONDS)).isTrue ();
+        assertThat (acquired.get ()).isEqualTo (1000);
+        assertThat (limiter.getRejectedCount ()).isEqualTo (3000);
+        limiter.close ();
+    }
+}
@@ -0,0 +1,63 @@
+package org.liujk.java.framework.base.utils.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenBucketRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos (1);
+
+    @Test
+    public void burstAndRefillTest () {
+        RateLimiterMetrics metrics = new RateLimiterMetrics ("tokenBucketTest");
+        long now = 1000L;
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter (metrics, 10, 5, now);
+        // 初始桶是满的
+        for (int i = 0; i < 5; i++) {
+            assertThat (limiter.tryAcquireOrWait (1, now)).isEqualTo (0);
+        }
+        long wait = limiter.tryAcquireOrWait (1, now);
+        assertThat (wait).isEqualTo (SECOND / 10);
+        // 100毫秒补充一个令牌
+        assertThat (limiter.tryAcquireOrWait (1, now + wait)).isEqualTo (0);
+        assertThat (limiter.tryAcquireOrWait (1, now + wait)).isGreaterThan (0);
+        assertThat (limiter.isIdle (now + wait)).isFalse ();
+
+        // 空闲很久后最多积累capacity个令牌
+        long later = now + 60 * SECOND;
+        assertThat (limiter.isIdle (later)).isTrue ();
+        assertThat (limiter.tryAcquireOrWait (5, later)).isEqualTo (0);
+        assertThat (limiter.tryAcquireOrWait (1, later)).isGreaterThan (0);
+    }
+
+    @Test
+    public void blockingAcquireTest () throws Exception {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter ("tokenBucketBlockingTest", 20, 1);
+        try {
+            assertThat (limiter.tryAcquire ()).isTrue ();
+            assertThat (limiter.tryAcquire ()).isFalse ();
+            // 预计等待50毫秒，超时时间不够时立即返回
+            assertThat (limiter.tryAcquire (1, 1, TimeUnit.MILLISECONDS)).isFalse ();
+            long start = System.nanoTime ();
+            limiter.acquire ();
+            assertThat (System.nanoTime () - start).isGreaterThan (TimeUnit.MILLISECONDS.toNanos (20));
+            assertThat (limiter.getPermittedCount ()).isEqualTo (2);
+            assertThat (limiter.getRejectedCount ()).isEqualTo (2);
+        } finally {
+            limiter.close ();
+        }
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void permitsExceedCapacityTest () {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter ("tokenBucketCapacityTest", 10, 5);
+        try {
+            limiter.tryAcquire (6);
+        } finally {
+            limiter.close ();
+        }
+    }
+}
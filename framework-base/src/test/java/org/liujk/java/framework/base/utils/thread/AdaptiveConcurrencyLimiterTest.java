@@ -0,0 +1,185 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void acquireAndAdjustTest () throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter ("limiterTest", 4, 2, 100);
+        try {
+            List<AdaptiveConcurrencyLimiter.Permit> permits = acquire (limiter, 4);
+            assertThat (limiter.tryAcquire ()).isNull ();
+            assertThat (limiter.getRejectedCount ()).isEqualTo (1);
+            assertThat (limiter.getInFlight ()).isEqualTo (4);
+            // 重复释放被忽略
+            permits.get (0).onIgnore ();
+            permits.get (0).onSuccess ();
+            assertThat (limiter.getInFlight ()).isEqualTo (3);
+            for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+                permit.onIgnore ();
+            }
+            assertThat (limiter.getLimit ()).isEqualTo (4);
+
+            // RTT稳定且并发数达到限制时增加限制
+            for (int i = 0; i < 5; i++) {
+                permits = acquire (limiter, limiter.getLimit ());
+                Thread.sleep (20);
+                for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+                    permit.onSuccess ();
+                }
+            }
+            int increased = limiter.getLimit ();
+            assertThat (increased).isGreaterThan (4);
+            assertThat (limiter.getRttNoLoad (TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo (20);
+
+            // 调用失败时减少限制，不低于最小限制
+            for (int i = 0; i < 100; i++) {
+                limiter.tryAcquire ().onDropped ();
+            }
+            assertThat (limiter.getLimit ()).isEqualTo (2);
+            assertThat (limiter.getInFlight ()).isEqualTo (0);
+        } finally {
+            limiter.close ();
+        }
+    }
+
+    @Test
+    public void executorTest () throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter ("limiterExecutorTest", 2, 2, 2);
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (4, 4, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<Runnable> ());
+        executor.setConcurrencyLimiter (limiter);
+        final CountDownLatch release = new CountDownLatch (1);
+        final CountDownLatch done = new CountDownLatch (2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                executor.execute (() -> {
+                    try {
+                        release.await ();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread ().interrupt ();
+                    }
+                    done.countDown ();
+                });
+            }
+            try {
+                executor.execute (() -> {
+                });
+                fail ("超过并发限制时应该拒绝");
+            } catch (RejectedExecutionException e) {
+                assertThat (limiter.getRejectedCount ()).isEqualTo (1);
+            }
+            release.countDown ();
+            assertThat (done.await (5, TimeUnit.SECONDS)).isTrue ();
+            long deadline = System.currentTimeMillis () + 5000;
+            while (limiter.getInFlight () > 0 && System.currentTimeMillis () < deadline) {
+                Thread.sleep (10);
+            }
+            assertThat (limiter.getInFlight ()).isEqualTo (0);
+        } finally {
+            executor.shutdown ();
+            limiter.close ();
+        }
+    }
+
+    @Test
+    public void failedTaskTest () throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter ("limiterFailedTest", 10, 2, 10);
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (1, 1, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<Runnable> ());
+        executor.setConcurrencyLimiter (limiter);
+        try {
+            // 很快失败的业务异常不是过载，不减少限制
+            runFailing (executor, limiter, () -> {
+                throw new IllegalStateException ("failed");
+            });
+            assertThat (limiter.getLimit ()).isEqualTo (10);
+
+            // 超时按丢弃释放许可，限制减少
+            runFailing (executor, limiter, () -> {
+                throw new TimeoutException ("timeout");
+            });
+            assertThat (limiter.getLimit ()).isLessThan (10);
+        } finally {
+            executor.shutdown ();
+            limiter.close ();
+        }
+    }
+
+    private static void runFailing (MonitoredThreadPoolExecutor executor, AdaptiveConcurrencyLimiter limiter,
+                                    Callable<Object> task) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            Future<?> future = executor.submit (task);
+            try {
+                future.get (5, TimeUnit.SECONDS);
+                fail ("任务应该失败");
+            } catch (ExecutionException e) {
+                // 预期的异常
+            }
+        }
+        long deadline = System.currentTimeMillis () + 5000;
+        while (limiter.getInFlight () > 0 && System.currentTimeMillis () < deadline) {
+            Thread.sleep (10);
+        }
+        assertThat (limiter.getInFlight ()).isEqualTo (0);
+    }
+
+    @Test
+    public void discardReleasesPermitTest () throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter ("limiterDiscardTest", 10, 10, 10);
+        MonitoredThreadPoolQueue queue = new MonitoredThreadPoolQueue (1);
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (
+                1, 1, 60, TimeUnit.SECONDS, queue,
+                new ReporttingRejectedExecutionHandler ("limiterDiscardTest",
+                                                        ReporttingRejectedExecutionHandler.Policy.discard));
+        queue.setParent (executor);
+        executor.setConcurrencyLimiter (limiter);
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            executor.execute (() -> {
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            executor.execute (() -> {
+            });
+            // 队列已满，被丢弃的任务不占用许可
+            executor.execute (() -> {
+            });
+            assertThat (limiter.getInFlight ()).isEqualTo (2);
+        } finally {
+            release.countDown ();
+            executor.shutdown ();
+            assertThat (executor.awaitTermination (5, TimeUnit.SECONDS)).isTrue ();
+            assertThat (limiter.getInFlight ()).isEqualTo (0);
+            limiter.close ();
+        }
+    }
+
+    private static List<AdaptiveConcurrencyLimiter.Permit> acquire (AdaptiveConcurrencyLimiter limiter, int n) {
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<> ();
+        for (int i = 0; i < n; i++) {
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire ();
+            assertThat (permit).isNotNull ();
+            permits.add (permit);
+        }
+        return permits;
+    }
+}
@@ -0,0 +1,159 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArrayMonitoredThreadPoolQueueTest {
+
+    @Test
+    public void fifoAndCapacityTest () throws Exception {
+        ArrayMonitoredThreadPoolQueue queue = new ArrayMonitoredThreadPoolQueue (5);
+        assertThat (queue.getCapacity ()).isEqualTo (8);
+        List<Runnable> tasks = new ArrayList<> ();
+        for (int i = 0; i < 8; i++) {
+            Runnable task = new NamedTask (i);
+            tasks.add (task);
+            assertThat (queue.offer (task)).isTrue ();
+        }
+        assertThat (queue.offer (new NamedTask (8))).isFalse ();
+        assertThat (queue.size ()).isEqualTo (8);
+        assertThat (queue.remainingCapacity ()).isEqualTo (0);
+        assertThat (queue.peek ()).isSameAs (tasks.get (0));
+
+        // 删除的任务被跳过
+        assertThat (queue.remove (tasks.get (1))).isTrue ();
+        assertThat (queue.remove (tasks.get (1))).isFalse ();
+        assertThat (queue).doesNotContain (tasks.get (1));
+        assertThat (queue.poll ()).isSameAs (tasks.get (0));
+        assertThat (queue.poll ()).isSameAs (tasks.get (2));
+
+        List<Runnable> drained = new ArrayList<> ();
+        assertThat (queue.drainTo (drained)).isEqualTo (5);
+        assertThat (drained).containsExactlyElementsOf (tasks.subList (3, 8));
+        assertThat (queue.isEmpty ()).isTrue ();
+        assertThat (queue.poll (10, TimeUnit.MILLISECONDS)).isNull ();
+    }
+
+    @Test
+    public void concurrentTest () throws Exception {
+        final ArrayMonitoredThreadPoolQueue queue = new ArrayMonitoredThreadPoolQueue (64);
+        final int producers = 4;
+        final int perProducer = 20000;
+        final Set<Integer> consumed = ConcurrentHashMap.newKeySet ();
+        final AtomicInteger remaining = new AtomicInteger (producers * perProducer);
+        final CountDownLatch done = new CountDownLatch (producers + 2);
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            new Thread (() -> {
+                try {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put (new NamedTask (base + i));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                } finally {
+                    done.countDown ();
+                }
+            }).start ();
+        }
+        for (int c = 0; c < 2; c++) {
+            new Thread (() -> {
+                try {
+                    while (remaining.get () > 0) {
+                        Runnable task = queue.poll (10, TimeUnit.MILLISECONDS);
+                        if (task != null) {
+                            assertThat (consumed.add (((NamedTask) task).id)).isTrue ();
+                            remaining.decrementAndGet ();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                } finally {
+                    done.countDown ();
+                }
+            }).start ();
+        }
+        assertThat (done.await (30, TimeUnit.SECONDS)).isTrue ();
+        assertThat (consumed).hasSize (producers * perProducer);
+        assertThat (queue.isEmpty ()).isTrue ();
+    }
+
+    @Test
+    public void executorTest () throws Exception {
+        ArrayMonitoredThreadPoolQueue queue = new ArrayMonitoredThreadPoolQueue (4);
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (1, 3, 60, TimeUnit.SECONDS, queue);
+        queue.setParent (executor);
+        final CountDownLatch release = new CountDownLatch (1);
+        final CountDownLatch started = new CountDownLatch (3);
+        final Set<String> threads = ConcurrentHashMap.newKeySet ();
+        try {
+            for (int i = 0; i < 3; i++) {
+                executor.execute (() -> {
+                    threads.add (Thread.currentThread ().getName ());
+                    started.countDown ();
+                    await (release);
+                });
+            }
+            // 先创建线程到最大线程数，再放入队列
+            assertThat (started.await (5, TimeUnit.SECONDS)).isTrue ();
+            assertThat (executor.getPoolSizeSnapshot ()).isEqualTo (3);
+            assertThat (queue.size ()).isEqualTo (0);
+            final CountDownLatch queued = new CountDownLatch (4);
+            for (int i = 0; i < 4; i++) {
+                executor.execute (() -> {
+                    threads.add (Thread.currentThread ().getName ());
+                    queued.countDown ();
+                });
+            }
+            assertThat (queue.size ()).isEqualTo (4);
+
+            // 队列满后按拒绝策略在调用线程执行
+            final Set<String> callerRun = new HashSet<> ();
+            executor.execute (() -> callerRun.add (Thread.currentThread ().getName ()));
+            assertThat (callerRun).containsExactly (Thread.currentThread ().getName ());
+
+            release.countDown ();
+            assertThat (queued.await (5, TimeUnit.SECONDS)).isTrue ();
+            assertThat (threads).hasSize (3);
+        } finally {
+            release.countDown ();
+            executor.shutdown ();
+        }
+        assertThat (executor.awaitTermination (5, TimeUnit.SECONDS)).isTrue ();
+        long deadline = System.currentTimeMillis () + 5000;
+        while (executor.getPoolSizeSnapshot () > 0 && System.currentTimeMillis () < deadline) {
+            Thread.sleep (10);
+        }
+        assertThat (executor.getPoolSizeSnapshot ()).isEqualTo (0);
+    }
+
+    private static void await (CountDownLatch latch) {
+        try {
+            latch.await ();
+        } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+        }
+    }
+
+    private static class NamedTask implements Runnable {
+        private final int id;
+
+        NamedTask (int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void run () {
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class BatchingExecutorTest {
+
+    @Test
+    public void batchSizeTest () throws Exception {
+        final List<Integer> batchSizes = Collections.synchronizedList (new ArrayList<> ());
+        // linger足够长，只有凑满一批才会发出
+        BatchingExecutor<Integer, String> executor = new BatchingExecutor<> (
+                "batchSizeTest", 10, 10, TimeUnit.SECONDS, 2, items -> {
+            batchSizes.add (items.size ());
+            List<String> results = new ArrayList<> ();
+            for (Integer item : items) {
+                results.add ("r" + item);
+            }
+            return results;
+        });
+        try {
+            List<CompletableFuture<String>> futures = new ArrayList<> ();
+            for (int i = 0; i < 30; i++) {
+                futures.add (executor.submit (i));
+            }
+            for (int i = 0; i < 30; i++) {
+                assertThat (futures.get (i).get (5, TimeUnit.SECONDS)).isEqualTo ("r" + i);
+            }
+            assertThat (batchSizes).containsExactly (10, 10, 10);
+            assertThat (executor.getBatchSizeHistogram ().getCount ()).isEqualTo (3);
+            assertThat (executor.getPendingCount ()).isEqualTo (0);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void lingerTest () throws Exception {
+        BatchingExecutor<Integer, Integer> executor = new BatchingExecutor<> (
+                "batchLingerTest", 100, 50, TimeUnit.MILLISECONDS, 1, items -> items);
+        try {
+            long start = System.nanoTime ();
+            CompletableFuture<Integer> first = executor.submit (1);
+            CompletableFuture<Integer> second = executor.submit (2);
+            assertThat (first.get (5, TimeUnit.SECONDS)).isEqualTo (1);
+            assertThat (second.get (5, TimeUnit.SECONDS)).isEqualTo (2);
+            assertThat (TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - start)).isGreaterThanOrEqualTo (50);
+            assertThat (executor.getBatchSizeHistogram ().getCount ()).isEqualTo (1);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void failureAndShutdownTest () throws Exception {
+        BatchingExecutor<Integer, Integer> executor = new BatchingExecutor<> (
+                "batchFailureTest", 100, 10, TimeUnit.SECONDS, 1, items -> {
+            if (items.contains (-1)) {
+                throw new IllegalStateException ("test");
+            }
+            return items.subList (1, items.size ());
+        });
+        CompletableFuture<Integer> bad = executor.submit (-1);
+        CompletableFuture<Integer> other = executor.submit (2);
+        // shutdown立即发出还在等待的数据
+        executor.shutdown ();
+        try {
+            other.get (5, TimeUnit.SECONDS);
+            fail ("批处理失败时应以异常完成");
+        } catch (ExecutionException e) {
+            assertThat (e.getCause ()).isInstanceOf (IllegalStateException.class);
+        }
+        assertThat (bad.isCompletedExceptionally ()).isTrue ();
+        try {
+            executor.submit (3);
+            fail ("关闭后应拒绝数据");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeadlineTaskTest {
+
+    @Test
+    public void expiredTaskNotRunTest () throws Exception {
+        MonitoredThreadPoolExecutor executor = newExecutor ("deadlineTest");
+        final CountDownLatch release = new CountDownLatch (1);
+        final AtomicInteger ran = new AtomicInteger ();
+        final AtomicInteger expired = new AtomicInteger ();
+        try {
+            executor.execute (() -> {
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            executor.execute (ran::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+            executor.execute (new ExpiringTask (ran, expired));
+            Future<String> future = executor.submit (() -> "late", 10, TimeUnit.MILLISECONDS);
+            Future<String> alive = executor.submit (() -> "ok", 10, TimeUnit.SECONDS);
+            Thread.sleep (50);
+            release.countDown ();
+
+            assertThat (alive.get (5, TimeUnit.SECONDS)).isEqualTo ("ok");
+            // 过期时get抛出ExecutionException，不是等待超时的TimeoutException
+            assertThatThrownBy (() -> future.get (5, TimeUnit.SECONDS))
+                    .isExactlyInstanceOf (ExecutionException.class)
+                    .hasCauseExactlyInstanceOf (TimeoutException.class);
+            assertThat (ran.get ()).isEqualTo (0);
+            assertThat (expired.get ()).isEqualTo (1);
+            assertThat (executor.getExpiredCount ()).isEqualTo (3);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void submitDeadlineTaskTest () throws Exception {
+        MonitoredThreadPoolExecutor executor = newExecutor ("deadlineSubmitTest");
+        final AtomicInteger ran = new AtomicInteger ();
+        final AtomicInteger expired = new AtomicInteger ();
+        try {
+            // submit普通重载时也检查DeadlineTask的截止时间
+            Future<?> future = executor.submit (new ExpiringTask (ran, expired));
+            // 过期时get抛出ExecutionException，不是等待超时的TimeoutException
+            assertThatThrownBy (() -> future.get (5, TimeUnit.SECONDS))
+                    .isExactlyInstanceOf (ExecutionException.class)
+                    .hasCauseExactlyInstanceOf (TimeoutException.class);
+            assertThat (ran.get ()).isEqualTo (0);
+            assertThat (expired.get ()).isEqualTo (1);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    private static MonitoredThreadPoolExecutor newExecutor (String name) {
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (1, 1, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<Runnable> ());
+        executor.setMetrics (name);
+        executor.initialize ();
+        return executor;
+    }
+
+    /**
+     * 创建时已经过期的任务
+     */
+    private static class ExpiringTask implements Runnable, DeadlineTask {
+        private final long deadlineNanos = System.nanoTime ();
+        private final AtomicInteger ran;
+        private final AtomicInteger expired;
+
+        ExpiringTask (AtomicInteger ran, AtomicInteger expired) {
+            this.ran = ran;
+            this.expired = expired;
+        }
+
+        @Override
+        public long getDeadlineNanos () {
+            return deadlineNanos;
+        }
+
+        @Override
+        public void onExpired () {
+            expired.incrementAndGet ();
+        }
+
+        @Override
+        public void run () {
+            ran.incrementAndGet ();
+        }
+    }
+}
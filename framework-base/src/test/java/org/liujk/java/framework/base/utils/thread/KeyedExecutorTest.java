@@ -0,0 +1,114 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.id.GidHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class KeyedExecutorTest {
+
+    @Test
+    public void orderPerKeyTest () throws Exception {
+        KeyedExecutor executor = new KeyedExecutor ("keyedOrderTest", 8, 4);
+        executor.setMaxBatch (3);
+        int keys = 16;
+        int perKey = 500;
+        final List<List<Integer>> results = new ArrayList<> ();
+        for (int i = 0; i < keys; i++) {
+            results.add (Collections.synchronizedList (new ArrayList<> ()));
+        }
+        final AtomicInteger concurrent = new AtomicInteger ();
+        final AtomicInteger violations = new AtomicInteger ();
+        try {
+            for (int n = 0; n < perKey; n++) {
+                for (int k = 0; k < keys; k++) {
+                    final int key = k;
+                    final int value = n;
+                    executor.execute ("key" + key, () -> {
+                        if (concurrent.incrementAndGet () > 4) {
+                            violations.incrementAndGet ();
+                        }
+                        results.get (key).add (value);
+                        concurrent.decrementAndGet ();
+                    });
+                }
+            }
+        } finally {
+            executor.shutdown ();
+        }
+        assertThat (executor.awaitTermination (10, TimeUnit.SECONDS)).isTrue ();
+        assertThat (violations.get ()).isEqualTo (0);
+        for (List<Integer> result : results) {
+            assertThat (result).hasSize (perKey);
+            for (int i = 0; i < perKey; i++) {
+                assertThat (result.get (i)).isEqualTo (i);
+            }
+        }
+        assertThat (executor.getTaskInQueue ()).isEqualTo (0);
+    }
+
+    @Test
+    public void parallelAcrossKeysTest () throws Exception {
+        KeyedExecutor executor = new KeyedExecutor ("keyedParallelTest", 2, 2);
+        final CountDownLatch blocked = new CountDownLatch (1);
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            // 0和1落到不同的通道
+            executor.execute (0, () -> {
+                blocked.countDown ();
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            assertThat (blocked.await (5, TimeUnit.SECONDS)).isTrue ();
+            Future<String> other = executor.submit (1, () -> "other");
+            assertThat (other.get (5, TimeUnit.SECONDS)).isEqualTo ("other");
+
+            // 同一个key的任务排在阻塞的任务后面
+            Future<String> same = executor.submit (0, () -> "same");
+            Thread.sleep (50);
+            assertThat (same.isDone ()).isFalse ();
+            assertThat (executor.getLaneDepth (0)).isEqualTo (1);
+            release.countDown ();
+            assertThat (same.get (5, TimeUnit.SECONDS)).isEqualTo ("same");
+        } finally {
+            release.countDown ();
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void failureAndContextTest () throws Exception {
+        KeyedExecutor executor = new KeyedExecutor ("keyedContextTest", 4, 2);
+        try {
+            executor.execute ("key", () -> {
+                throw new IllegalStateException ("test");
+            });
+            GidHolder.setGid ("keyed-gid");
+            Future<String> gid = executor.submit ("key", GidHolder::getGid);
+            assertThat (gid.get (5, TimeUnit.SECONDS)).isEqualTo ("keyed-gid");
+        } finally {
+            GidHolder.removeGid ();
+            executor.shutdown ();
+        }
+        try {
+            executor.execute ("key", () -> {
+            });
+            fail ("关闭后应拒绝任务");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
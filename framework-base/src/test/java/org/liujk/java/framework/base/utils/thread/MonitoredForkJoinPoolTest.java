@@ -0,0 +1,120 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import com.codahale.metrics.Gauge;
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+import org.slf4j.MDC;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
+
+public class MonitoredForkJoinPoolTest {
+
+    @Test
+    public void forkJoinTest () throws Exception {
+        ForkJoinPool pool = MonitoredExecutors.newWorkStealingPool ("forkJoinTest", 2, Integer.MAX_VALUE,
+                                                                    ReporttingRejectedExecutionHandler.Policy.abortPolicy);
+        try {
+            assertThat (pool.invoke (new SumTask (0, 100000))).isEqualTo (4999950000L);
+            Gauge<?> parallelism = MetricsHolder.metricRegistry ().getGauges ().get ("tp.parallelism.forkJoinTest");
+            assertThat (parallelism.getValue ()).isEqualTo (2);
+            assertThat (MetricsHolder.metricRegistry ().getGauges ()).containsKey ("tp.stealCount.forkJoinTest");
+
+            MDC.put (SID_KEY, "fork-join-gid");
+            try {
+                assertThat (pool.submit (() -> MDC.get (SID_KEY)).get (5, TimeUnit.SECONDS))
+                        .isEqualTo ("fork-join-gid");
+                Callable<String> gid = () -> MDC.get (SID_KEY);
+                for (Future<String> future : pool.invokeAll (Arrays.asList (gid, gid))) {
+                    assertThat (future.get ()).isEqualTo ("fork-join-gid");
+                }
+            } finally {
+                MDC.remove (SID_KEY);
+            }
+        } finally {
+            pool.shutdown ();
+        }
+        assertThat (MetricsHolder.metricRegistry ().getGauges ()).doesNotContainKey ("tp.parallelism.forkJoinTest");
+    }
+
+    @Test
+    public void rejectTest () throws Exception {
+        ForkJoinPool pool = MonitoredExecutors.newWorkStealingPool ("forkJoinRejectTest", 1, 2,
+                                                                    ReporttingRejectedExecutionHandler.Policy.abortPolicy);
+        final CountDownLatch started = new CountDownLatch (1);
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            pool.execute (() -> {
+                started.countDown ();
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            assertThat (started.await (5, TimeUnit.SECONDS)).isTrue ();
+            pool.execute (() -> {
+            });
+            pool.execute (() -> {
+            });
+            try {
+                pool.execute (() -> {
+                });
+                fail ("超过maxQueuedSubmissions时应该拒绝");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            try {
+                pool.invoke (new SumTask (0, 10));
+                fail ("invoke超过maxQueuedSubmissions时也应该拒绝");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            try {
+                pool.invokeAll (Arrays.asList (() -> 1, () -> 2));
+                fail ("invokeAll超过maxQueuedSubmissions时也应该拒绝");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+        } finally {
+            release.countDown ();
+            pool.shutdown ();
+        }
+        assertThat (pool.awaitTermination (5, TimeUnit.SECONDS)).isTrue ();
+    }
+
+    private static class SumTask extends RecursiveTask<Long> {
+        private final int from;
+        private final int to;
+
+        SumTask (int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute () {
+            if (to - from <= 1000) {
+                long sum = 0;
+                for (int i = from; i < to; i++) {
+                    sum += i;
+                }
+                return sum;
+            }
+            int middle = (from + to) >>> 1;
+            SumTask left = new SumTask (from, middle);
+            left.fork ();
+            return new SumTask (middle, to).compute () + left.join ();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class MonitoredHashedWheelTimerTest {
+
+    @Test
+    public void scheduleTest () throws Exception {
+        // 4个格子，100毫秒的任务需要转多圈
+        MonitoredHashedWheelTimer timer = new MonitoredHashedWheelTimer ("wheelTest", 10, TimeUnit.MILLISECONDS,
+                                                                         4, 2);
+        try {
+            final CountDownLatch fired = new CountDownLatch (1);
+            long start = System.nanoTime ();
+            final long[] firedAt = new long[1];
+            timer.schedule (() -> {
+                firedAt[0] = System.nanoTime ();
+                fired.countDown ();
+            }, 100, TimeUnit.MILLISECONDS);
+            ScheduledFuture<String> result = timer.schedule (() -> "done", 0, TimeUnit.MILLISECONDS);
+            assertThat (result.get (5, TimeUnit.SECONDS)).isEqualTo ("done");
+
+            assertThat (fired.await (5, TimeUnit.SECONDS)).isTrue ();
+            assertThat (TimeUnit.NANOSECONDS.toMillis (firedAt[0] - start)).isGreaterThanOrEqualTo (100);
+            assertThat (timer.getPendingTimeouts ()).isEqualTo (0);
+        } finally {
+            timer.stop ();
+        }
+    }
+
+    @Test
+    public void cancelTest () throws Exception {
+        MonitoredHashedWheelTimer timer = MonitoredExecutors.newTimer ("wheelCancelTest");
+        final AtomicInteger ran = new AtomicInteger ();
+        try {
+            List<ScheduledFuture<?>> futures = new ArrayList<> ();
+            for (int i = 0; i < 10000; i++) {
+                futures.add (timer.schedule (ran::incrementAndGet, 10, TimeUnit.SECONDS));
+            }
+            assertThat (timer.getPendingTimeouts ()).isEqualTo (10000);
+            for (ScheduledFuture<?> future : futures) {
+                assertThat (future.cancel (false)).isTrue ();
+            }
+            // 取消的任务在下一个tick从时间轮中移除
+            long deadline = System.currentTimeMillis () + 5000;
+            while (timer.getPendingTimeouts () > 0 && System.currentTimeMillis () < deadline) {
+                Thread.sleep (10);
+            }
+            assertThat (timer.getPendingTimeouts ()).isEqualTo (0);
+            Thread.sleep (100);
+            assertThat (ran.get ()).isEqualTo (0);
+        } finally {
+            timer.stop ();
+        }
+    }
+
+    @Test
+    public void stopTest () {
+        MonitoredHashedWheelTimer timer = MonitoredExecutors.newTimer ("wheelStopTest");
+        ScheduledFuture<?> future = timer.schedule (() -> {
+        }, 1, TimeUnit.HOURS);
+        List<Runnable> unexecuted = timer.stop ();
+        assertThat (unexecuted).hasSize (1);
+        assertThat (future.isCancelled ()).isTrue ();
+        assertThat (timer.getPendingTimeouts ()).isEqualTo (0);
+        try {
+            timer.schedule (() -> {
+            }, 1, TimeUnit.SECONDS);
+            fail ("定时器停止后不能提交任务");
+        } catch (RejectedExecutionException e) {
+            assertThat (timer.isStopped ()).isTrue ();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RejectionReporterTest {
+
+    @Test
+    public void aggregateTest () throws Exception {
+        RejectionReporter reporter = RejectionReporter.of ("reporterTest",
+                                                           ReporttingRejectedExecutionHandler.Policy.discard);
+        assertThat (RejectionReporter.of ("reporterTest", ReporttingRejectedExecutionHandler.Policy.discard))
+                .isSameAs (reporter);
+        reporter.setReportInterval (200, TimeUnit.MILLISECONDS);
+        final AtomicInteger details = new AtomicInteger ();
+        int reported = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (reporter.record (threadInfo -> details.incrementAndGet ())) {
+                reported++;
+            }
+        }
+        // 第一次拒绝立即输出，间隔内的其他拒绝只计数
+        assertThat (reported).isEqualTo (1);
+        assertThat (details.get ()).isEqualTo (1);
+        assertThat (reporter.getRejectedCount ()).isEqualTo (1000);
+        assertThat (MetricsHolder.metricRegistry ().counter ("tp.rejected.reporterTest.Discard").getCount ())
+                .isEqualTo (1000);
+
+        Thread.sleep (250);
+        assertThat (reporter.record (threadInfo -> details.incrementAndGet ())).isTrue ();
+        assertThat (details.get ()).isEqualTo (2);
+    }
+
+    @Test
+    public void handlerTest () throws Exception {
+        ReporttingRejectedExecutionHandler handler = new ReporttingRejectedExecutionHandler (
+                "reporterHandlerTest", ReporttingRejectedExecutionHandler.Policy.abortPolicy);
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (1, 1, 60, TimeUnit.SECONDS,
+                                                                                new SynchronousQueue<Runnable> (),
+                                                                                handler);
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            executor.execute (() -> {
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            int rejected = 0;
+            for (int i = 0; i < 100; i++) {
+                try {
+                    executor.execute (() -> {
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejected++;
+                }
+            }
+            assertThat (rejected).isEqualTo (100);
+            assertThat (handler.getRejectedCount ()).isEqualTo (100);
+        } finally {
+            release.countDown ();
+            executor.shutdown ();
+        }
+    }
+}
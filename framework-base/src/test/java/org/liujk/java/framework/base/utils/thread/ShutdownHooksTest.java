@@ -0,0 +1,141 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShutdownHooksTest {
+
+    /**
+     * 其他类注册的钩子，测试结束后放回
+     */
+    @SuppressWarnings ("rawtypes")
+    private List saved;
+
+    @Before
+    @SuppressWarnings ("unchecked")
+    public void setUp () {
+        synchronized (ShutdownHooks.tasks) {
+            saved = new ArrayList (ShutdownHooks.tasks);
+            ShutdownHooks.tasks.clear ();
+        }
+    }
+
+    @After
+    @SuppressWarnings ("unchecked")
+    public void tearDown () {
+        synchronized (ShutdownHooks.tasks) {
+            ShutdownHooks.tasks.addAll (saved);
+        }
+        ShutdownHooks.setDefaultHookTimeout (ShutdownHooks.DEFAULT_HOOK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        ShutdownHooks.setGroupTimeout (ShutdownHooks.DEFAULT_GROUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void orderAndParallelTest () {
+        final List<String> events = Collections.synchronizedList (new ArrayList<> ());
+        // 同一组的两个钩子互相等待，串行执行时会一直等到超时
+        final CountDownLatch both = new CountDownLatch (2);
+        Runnable parallel = () -> {
+            both.countDown ();
+            try {
+                if (both.await (5, TimeUnit.SECONDS)) {
+                    events.add ("parallel");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread ().interrupt ();
+            }
+        };
+        ShutdownHooks.addShutdownHook (() -> events.add ("last"), "last", 10);
+        ShutdownHooks.addShutdownHook (parallel, "parallel-1", 0);
+        ShutdownHooks.addShutdownHook (parallel, "parallel-2", 0);
+        ShutdownHooks.addShutdownHook (() -> {
+            events.add ("first");
+            // 执行中添加的钩子也会执行
+            ShutdownHooks.addShutdownHook (() -> events.add ("nested"), "nested");
+        }, "first", -10);
+
+        ShutdownHooks.shutdownAll ();
+        assertThat (events).containsExactly ("first", "parallel", "parallel", "last", "nested");
+        assertThat (ShutdownHooks.tasks).isEmpty ();
+    }
+
+    @Test
+    public void queuedHookTimeoutTest () {
+        // 超过最大并行数的钩子要排队，排队时间不计入钩子超时
+        int hooks = ShutdownHooks.MAX_PARALLELISM + 2;
+        final AtomicInteger finished = new AtomicInteger ();
+        for (int i = 0; i < hooks; i++) {
+            ShutdownHooks.addShutdownHook (() -> {
+                try {
+                    Thread.sleep (300);
+                    finished.incrementAndGet ();
+                } catch (InterruptedException e) {
+                    // 被超时中断
+                }
+            }, "queued-" + i, 0, 500, TimeUnit.MILLISECONDS);
+        }
+
+        ShutdownHooks.shutdownAll ();
+        assertThat (finished.get ()).isEqualTo (hooks);
+    }
+
+    @Test
+    public void notStartedHookTest () {
+        // 组超时后还在排队的钩子不再执行
+        final CountDownLatch release = new CountDownLatch (1);
+        final AtomicInteger started = new AtomicInteger ();
+        for (int i = 0; i < ShutdownHooks.MAX_PARALLELISM + 1; i++) {
+            ShutdownHooks.addShutdownHook (() -> {
+                started.incrementAndGet ();
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    // 由组超时中断
+                }
+            }, "blocked-" + i, 0, 10, TimeUnit.SECONDS);
+        }
+        ShutdownHooks.setGroupTimeout (300, TimeUnit.MILLISECONDS);
+
+        ShutdownHooks.shutdownAll ();
+        assertThat (started.get ()).isEqualTo (ShutdownHooks.MAX_PARALLELISM);
+    }
+
+    @Test
+    public void timeoutTest () throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch (1);
+        final List<String> events = Collections.synchronizedList (new ArrayList<> ());
+        ShutdownHooks.addShutdownHook (() -> {
+            try {
+                Thread.sleep (TimeUnit.MINUTES.toMillis (1));
+            } catch (InterruptedException e) {
+                interrupted.countDown ();
+            }
+        }, "slow", 0, 100, TimeUnit.MILLISECONDS);
+        ShutdownHooks.setGroupTimeout (200, TimeUnit.MILLISECONDS);
+        ShutdownHooks.addShutdownHook (() -> {
+            try {
+                Thread.sleep (TimeUnit.MINUTES.toMillis (1));
+            } catch (InterruptedException e) {
+                // 由组超时中断
+            }
+        }, "groupLimited", 0, 10, TimeUnit.SECONDS);
+        ShutdownHooks.addShutdownHook (() -> events.add ("next"), "next", 1);
+
+        long start = System.nanoTime ();
+        ShutdownHooks.shutdownAll ();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - start);
+        assertThat (elapsed).isLessThan (5000);
+        assertThat (events).containsExactly ("next");
+        assertThat (interrupted.await (5, TimeUnit.SECONDS)).isTrue ();
+    }
+}
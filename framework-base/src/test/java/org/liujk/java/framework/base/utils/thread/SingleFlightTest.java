@@ -0,0 +1,102 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void blockingCoalesceTest () throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<> ("singleFlightBlockingTest");
+        final AtomicInteger loads = new AtomicInteger ();
+        final CountDownLatch loading = new CountDownLatch (1);
+        final CountDownLatch release = new CountDownLatch (1);
+        ExecutorService executor = Executors.newFixedThreadPool (4);
+        try {
+            Future<Integer> leader = executor.submit (() -> singleFlight.get ("key", () -> {
+                loading.countDown ();
+                release.await ();
+                return loads.incrementAndGet ();
+            }));
+            assertThat (loading.await (5, TimeUnit.SECONDS)).isTrue ();
+            List<Future<Integer>> followers = new ArrayList<> ();
+            for (int i = 0; i < 3; i++) {
+                followers.add (executor.submit (() -> singleFlight.get ("key", loads::incrementAndGet)));
+            }
+            long deadline = System.currentTimeMillis () + 5000;
+            while (singleFlight.getCoalescedCount () < 3 && System.currentTimeMillis () < deadline) {
+                Thread.sleep (10);
+            }
+            release.countDown ();
+            assertThat (leader.get (5, TimeUnit.SECONDS)).isEqualTo (1);
+            for (Future<Integer> follower : followers) {
+                assertThat (follower.get (5, TimeUnit.SECONDS)).isEqualTo (1);
+            }
+            assertThat (singleFlight.getLoadCount ()).isEqualTo (1);
+            assertThat (singleFlight.getCoalescedCount ()).isEqualTo (3);
+            // 不缓存结果
+            assertThat (singleFlight.getInFlightCount ()).isEqualTo (0);
+            assertThat (singleFlight.get ("key", loads::incrementAndGet)).isEqualTo (2);
+        } finally {
+            release.countDown ();
+            executor.shutdownNow ();
+            singleFlight.close ();
+        }
+    }
+
+    @Test
+    public void asyncAndFailureTest () throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<> ("singleFlightAsyncTest");
+        CompletableFuture<String> source = new CompletableFuture<> ();
+        CompletableFuture<String> first = singleFlight.execute ("key", () -> source);
+        CompletableFuture<String> second = singleFlight.execute ("key", () -> {
+            throw new IllegalStateException ("不应执行");
+        });
+        // 取消一个调用不影响其他调用
+        first.cancel (false);
+        source.complete ("value");
+        assertThat (second.get (5, TimeUnit.SECONDS)).isEqualTo ("value");
+        assertThat (singleFlight.getLoadCount ()).isEqualTo (1);
+
+        try {
+            singleFlight.get ("failed", () -> {
+                throw new IOException ("test");
+            });
+            fail ("应抛出loader的异常");
+        } catch (IOException e) {
+            assertThat (e.getMessage ()).isEqualTo ("test");
+        }
+        // 失败不缓存
+        assertThat (singleFlight.get ("failed", () -> "ok")).isEqualTo ("ok");
+        singleFlight.close ();
+    }
+
+    @Test
+    public void ttlTest () throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<> ("singleFlightTtlTest", 100,
+                                                                         TimeUnit.MILLISECONDS);
+        final AtomicInteger loads = new AtomicInteger ();
+        assertThat (singleFlight.get ("key", loads::incrementAndGet)).isEqualTo (1);
+        assertThat (singleFlight.get ("key", loads::incrementAndGet)).isEqualTo (1);
+        assertThat (singleFlight.getCacheHitCount ()).isEqualTo (1);
+        Thread.sleep (150);
+        assertThat (singleFlight.get ("key", loads::incrementAndGet)).isEqualTo (2);
+
+        singleFlight.forget ("key");
+        assertThat (singleFlight.get ("key", loads::incrementAndGet)).isEqualTo (3);
+        singleFlight.close ();
+    }
+}
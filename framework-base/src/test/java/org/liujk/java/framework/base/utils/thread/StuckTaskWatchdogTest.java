@@ -0,0 +1,54 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StuckTaskWatchdogTest {
+
+    @Test
+    public void scanTest () throws Exception {
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (2, 2, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<Runnable> ());
+        executor.setMetrics ("watchdogTest");
+        executor.enableStuckTaskWatchdog (50, TimeUnit.MILLISECONDS);
+        StuckTaskWatchdog watchdog = executor.getStuckTaskWatchdog ();
+        final CountDownLatch started = new CountDownLatch (1);
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            executor.execute (() -> {
+                started.countDown ();
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            executor.execute (() -> {
+            });
+            assertThat (started.await (5, TimeUnit.SECONDS)).isTrue ();
+            Thread.sleep (100);
+            assertThat (watchdog.scan ()).isEqualTo (1);
+            assertThat (watchdog.getReportedCount ()).isEqualTo (1);
+            // 同一次执行只报告一次
+            assertThat (watchdog.scan ()).isEqualTo (1);
+            assertThat (watchdog.getReportedCount ()).isEqualTo (1);
+
+            release.countDown ();
+            long deadline = System.currentTimeMillis () + 5000;
+            while (executor.getActiveCount () > 0 && System.currentTimeMillis () < deadline) {
+                Thread.sleep (10);
+            }
+            assertThat (watchdog.scan ()).isEqualTo (0);
+            assertThat (watchdog.getStuckCount ()).isEqualTo (0);
+        } finally {
+            release.countDown ();
+            executor.shutdown ();
+        }
+        assertThat (executor.getStuckTaskWatchdog ()).isNull ();
+    }
+}
@@ -0,0 +1,73 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.metrics.LatencySnapshot;
+import org.liujk.java.framework.base.utils.metrics.MetricsHolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaskLatencyMetricsTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos (1);
+
+    @Test
+    public void threadPoolTest () throws Exception {
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (1, 1, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<> ());
+        executor.setMetrics ("latencyTest");
+        final CountDownLatch latch = new CountDownLatch (4);
+        try {
+            for (int i = 0; i < 4; i++) {
+                executor.execute (() -> {
+                    ThreadUtils.sleep (20, TimeUnit.MILLISECONDS);
+                    latch.countDown ();
+                });
+            }
+            latch.await ();
+            // afterExecute之后才记录
+            Thread.sleep (50);
+            assertThat (MetricsHolder.metricRegistry ().getHistograms ()).containsKeys (
+                    "tp.queueWait.latencyTest", "tp.execution.latencyTest", "tp.endToEnd.latencyTest");
+            TaskLatencyMetrics metrics = executor.getLatencyMetrics ();
+            LatencySnapshot execution = metrics.executionSnapshot ();
+            LatencySnapshot queueWait = metrics.queueWaitSnapshot ();
+            LatencySnapshot endToEnd = metrics.endToEndSnapshot ();
+            assertThat (execution.getCount ()).isEqualTo (4);
+            assertThat (execution.getMin ()).isGreaterThanOrEqualTo (19 * MILLIS);
+            // 单线程，最后一个任务至少等待前三个任务执行完
+            assertThat (queueWait.getMax ()).isGreaterThanOrEqualTo (55 * MILLIS);
+            assertThat (endToEnd.getMax ()).isGreaterThanOrEqualTo (75 * MILLIS);
+        } finally {
+            executor.shutdown ();
+        }
+        assertThat (MetricsHolder.metricRegistry ().getHistograms ()).doesNotContainKey ("tp.execution.latencyTest");
+    }
+
+    @Test
+    public void scheduledThreadPoolTest () throws Exception {
+        MonitoredScheduledThreadPoolExecutor executor = new MonitoredScheduledThreadPoolExecutor (1);
+        executor.setMetrics ("scheduledLatencyTest");
+        final CountDownLatch latch = new CountDownLatch (3);
+        try {
+            executor.scheduleAtFixedRate (() -> {
+                ThreadUtils.sleep (10, TimeUnit.MILLISECONDS);
+                latch.countDown ();
+            }, 0, 20, TimeUnit.MILLISECONDS);
+            latch.await ();
+            Thread.sleep (5);
+            executor.shutdownNow ();
+            executor.awaitTermination (1, TimeUnit.SECONDS);
+            LatencySnapshot execution = executor.getLatencyMetrics ().executionSnapshot ();
+            assertThat (execution.getCount ()).isGreaterThanOrEqualTo (3);
+            assertThat (execution.getMin ()).isGreaterThanOrEqualTo (9 * MILLIS);
+            assertThat (executor.getLatencyMetrics ().queueWaitSnapshot ().getCount ()).isEqualTo (
+                    execution.getCount ());
+        } finally {
+            executor.shutdownNow ();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThreadPoolAutoTunerTest {
+
+    @Test
+    public void scaleUpAndDownTest () throws Exception {
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (2, 4, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<> ());
+        executor.setMetrics ("autoTuneTest");
+        ThreadPoolAutoTuner tuner = new ThreadPoolAutoTuner ("autoTuneTest", executor, 1, 16);
+        tuner.setUpTicks (2);
+        tuner.setDownTicks (3);
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            for (int i = 0; i < 10; i++) {
+                executor.execute (() -> {
+                    try {
+                        release.await ();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread ().interrupt ();
+                    }
+                });
+            }
+            // 连续两次超过阈值才扩容
+            assertThat (tuner.tune ()).isNull ();
+            ThreadPoolAutoTuner.Decision decision = tuner.tune ();
+            assertThat (decision).isNotNull ();
+            assertThat (decision.getReason ()).isEqualTo ("utilization");
+            assertThat (decision.getSubmittedCount ()).isEqualTo (10);
+            // ceil(10 / 0.75) = 14
+            assertThat (executor.getCorePoolSize ()).isEqualTo (14);
+            assertThat (executor.getMaximumPoolSize ()).isEqualTo (16);
+            assertThat (tuner.getLastDecision ()).isSameAs (decision);
+
+            release.countDown ();
+            long deadline = System.currentTimeMillis () + 5000;
+            while (executor.getSubmittedCount () > 0 && System.currentTimeMillis () < deadline) {
+                Thread.sleep (10);
+            }
+            // 空闲后逐步缩容到下限
+            int last = executor.getCorePoolSize ();
+            for (int i = 0; i < 100 && executor.getCorePoolSize () > 1; i++) {
+                ThreadPoolAutoTuner.Decision down = tuner.tune ();
+                if (down != null) {
+                    assertThat (down.getReason ()).isEqualTo ("idle");
+                    assertThat (down.getNewCorePoolSize ()).isLessThan (last)
+                            .isGreaterThanOrEqualTo (last - Math.max (1, last / 8));
+                    last = down.getNewCorePoolSize ();
+                }
+            }
+            assertThat (executor.getCorePoolSize ()).isEqualTo (1);
+            assertThat (executor.getMaximumPoolSize ()).isEqualTo (2);
+        } finally {
+            release.countDown ();
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void queueWaitSloTest () throws Exception {
+        MonitoredThreadPoolExecutor executor = new MonitoredThreadPoolExecutor (1, 1, 60, TimeUnit.SECONDS,
+                                                                                new LinkedBlockingQueue<> ());
+        executor.setMetrics ("autoTuneSloTest");
+        ThreadPoolAutoTuner tuner = new ThreadPoolAutoTuner ("autoTuneSloTest", executor, 1, 8);
+        tuner.setUpTicks (1);
+        tuner.setTargetUtilization (1.0);
+        tuner.setTolerance (10);
+        tuner.setQueueWaitSlo (1, TimeUnit.MILLISECONDS);
+        try {
+            executor.initialize ();
+            assertThat (tuner.tune ()).isNull ();
+            final CountDownLatch latch = new CountDownLatch (3);
+            for (int i = 0; i < 3; i++) {
+                executor.execute (() -> {
+                    ThreadUtils.sleep (10, TimeUnit.MILLISECONDS);
+                    latch.countDown ();
+                });
+            }
+            latch.await ();
+            Thread.sleep (20);
+            ThreadPoolAutoTuner.Decision decision = tuner.tune ();
+            assertThat (decision).isNotNull ();
+            assertThat (decision.getReason ()).isEqualTo ("queueWaitSlo");
+            assertThat (decision.getQueueWaitP99Nanos ()).isGreaterThan (TimeUnit.MILLISECONDS.toNanos (1));
+            assertThat (executor.getCorePoolSize ()).isEqualTo (2);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void monitoredThreadPoolSizeTest () throws Exception {
+        MonitoredThreadPool pool = new MonitoredThreadPool ();
+        pool.setThreadNamePrefix ("autoTunePoolTest");
+        pool.setCorePoolSize (2);
+        pool.setMaxPoolSize (16);
+        pool.setQueueCapacity (100);
+        pool.setAutoTuneEnable (true);
+        pool.initialize ();
+        final CountDownLatch release = new CountDownLatch (1);
+        try {
+            for (int i = 0; i < 10; i++) {
+                pool.execute (() -> {
+                    try {
+                        release.await ();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread ().interrupt ();
+                    }
+                });
+            }
+            ThreadPoolAutoTuner tuner = pool.getAutoTuner ();
+            for (int i = 0; i < 10 && pool.getThreadPoolExecutor ().getCorePoolSize () == 2; i++) {
+                tuner.tune ();
+            }
+            // 调整之后读到的是线程池当前的值，而不是初始化时设置的值
+            assertThat (pool.getCorePoolSize ()).isEqualTo (14)
+                    .isEqualTo (pool.getThreadPoolExecutor ().getCorePoolSize ());
+            assertThat (pool.getMaxPoolSize ()).isEqualTo (16)
+                    .isEqualTo (pool.getThreadPoolExecutor ().getMaximumPoolSize ());
+            assertThat (pool.toString ()).contains ("core pool size = 14");
+        } finally {
+            release.countDown ();
+            pool.shutdown ();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 说明：
+ * <p>
+ * 比较{@link MonitoredThreadPoolQueue}和{@link ArrayMonitoredThreadPoolQueue}在1、8、64个生产者线程下的入队、出队吞吐量。
+ * <p>
+ * 每个线程先offer再poll，父线程池已达到最大线程数，offer会走完整的线程池状态判断。
+ * 通过main方法运行：mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.liujk.java.framework.base.utils.thread.ThreadPoolQueueBenchmark
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class ThreadPoolQueueBenchmark {
+
+    private static final Runnable TASK = new Runnable () {
+        @Override
+        public void run () {
+        }
+    };
+
+    @Param ({"linked", "array"})
+    public String queueType;
+
+    private MonitoredTaskQueue queue;
+    private MonitoredThreadPoolExecutor parent;
+
+    @Setup (Level.Trial)
+    public void setUp () {
+        parent = new MonitoredThreadPoolExecutor (2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<> ());
+        parent.prestartAllCoreThreads ();
+        queue = "array".equals (queueType) ? new ArrayMonitoredThreadPoolQueue (4096)
+                : new MonitoredThreadPoolQueue (4096);
+        queue.setParent (parent);
+    }
+
+    @TearDown (Level.Trial)
+    public void tearDown () {
+        parent.shutdownNow ();
+    }
+
+    @Benchmark
+    public Runnable offerAndPoll () {
+        queue.offer (TASK);
+        return queue.poll ();
+    }
+
+    public static void main (String[] args) throws Exception {
+        for (int producers : new int[] {1, 8, 64}) {
+            Options options = new OptionsBuilder ()
+                    .include (ThreadPoolQueueBenchmark.class.getSimpleName ())
+                    .threads (producers)
+                    .build ();
+            new Runner (options).run ();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.liujk.java.framework.base.utils.thread;
+
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
+
+public class VirtualThreadPoolExecutorTest {
+
+    @Test
+    public void factoryTest () throws Exception {
+        ThreadPoolExecutor executor = MonitoredExecutors.newVirtualThreadExecutor ("virtualTest", 4);
+        try {
+            if (MonitoredExecutors.isVirtualThreadSupported ()) {
+                assertThat (executor).isInstanceOf (VirtualThreadPoolExecutor.class);
+            } else {
+                assertThat (executor).isNotInstanceOf (VirtualThreadPoolExecutor.class);
+                assertThat (executor.getMaximumPoolSize ()).isEqualTo (100);
+            }
+            final AtomicReference<String> gid = new AtomicReference<> ();
+            final CountDownLatch done = new CountDownLatch (1);
+            MDC.put (SID_KEY, "virtual-gid");
+            try {
+                executor.execute (() -> {
+                    gid.set (MDC.get (SID_KEY));
+                    done.countDown ();
+                });
+            } finally {
+                MDC.remove (SID_KEY);
+            }
+            assertThat (done.await (5, TimeUnit.SECONDS)).isTrue ();
+            assertThat (gid.get ()).isEqualTo ("virtual-gid");
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void maxConcurrencyTest () throws Exception {
+        VirtualThreadPoolExecutor executor = new VirtualThreadPoolExecutor ("concurrencyTest", 2,
+                                                                            Executors.defaultThreadFactory ());
+        executor.initialize ();
+        final AtomicInteger running = new AtomicInteger ();
+        final AtomicInteger maxRunning = new AtomicInteger ();
+        final CountDownLatch done = new CountDownLatch (8);
+        try {
+            for (int i = 0; i < 8; i++) {
+                // 超过并发上限时提交不阻塞，任务等待许可
+                executor.execute (() -> {
+                    int current = running.incrementAndGet ();
+                    maxRunning.accumulateAndGet (current, Math::max);
+                    ThreadUtils.sleep (20, TimeUnit.MILLISECONDS);
+                    running.decrementAndGet ();
+                    done.countDown ();
+                });
+            }
+            assertThat (done.await (5, TimeUnit.SECONDS)).isTrue ();
+            assertThat (maxRunning.get ()).isLessThanOrEqualTo (2);
+            long deadline = System.currentTimeMillis () + 5000;
+            while (executor.getAvailablePermits () < 2 && System.currentTimeMillis () < deadline) {
+                Thread.sleep (10);
+            }
+            assertThat (executor.getAvailablePermits ()).isEqualTo (2);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    @Test (timeout = 10000)
+    public void nestedSubmitTest () throws Exception {
+        final VirtualThreadPoolExecutor executor = new VirtualThreadPoolExecutor ("nestedSubmitTest", 1,
+                                                                                  Executors.defaultThreadFactory ());
+        executor.initialize ();
+        final CountDownLatch done = new CountDownLatch (1);
+        try {
+            // 占用唯一的许可时向同一个线程池提交任务，提交不阻塞，不会死锁
+            executor.execute (() -> executor.execute (done::countDown));
+            assertThat (done.await (5, TimeUnit.SECONDS)).isTrue ();
+        } finally {
+            executor.shutdown ();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.liujk.java.framework.base.utils.thread.context;
+
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.id.GidHolder;
+import org.liujk.java.framework.base.utils.thread.MonitoredExecutors;
+import org.slf4j.MDC;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
+
+public class ThreadContextPropagatorsTest {
+
+    private static final ThreadLocal<String> TENANT = new ThreadLocal<> ();
+
+    @Test
+    public void noContextTest () {
+        Runnable task = () -> {
+        };
+        assertThat (ThreadContextPropagators.wrap (task)).isSameAs (task);
+        assertThat (ThreadContextPropagators.capture ()).isNull ();
+    }
+
+    @Test
+    public void executorTest () throws Exception {
+        ThreadContextPropagator tenant = new ThreadContextPropagator () {
+            @Override
+            public Object capture () {
+                return TENANT.get ();
+            }
+
+            @Override
+            public Object restore (Object captured) {
+                String previous = TENANT.get ();
+                reset (captured);
+                return previous;
+            }
+
+            @Override
+            public void reset (Object previous) {
+                if (previous == null) {
+                    TENANT.remove ();
+                } else {
+                    TENANT.set ((String) previous);
+                }
+            }
+        };
+        ThreadContextPropagators.register (tenant);
+        ExecutorService executor = MonitoredExecutors.newSingleThreadExecutor ();
+        try {
+            // 执行线程原有的上下文在任务结束后恢复
+            executor.submit (() -> {
+                MDC.put (SID_KEY, "worker");
+                TENANT.set ("workerTenant");
+            }).get (5, TimeUnit.SECONDS);
+
+            MDC.put (SID_KEY, "gid-1");
+            GidHolder.setGid ("holder-1");
+            TENANT.set ("tenant-1");
+            String[] seen = executor.submit (() -> new String[] {MDC.get (SID_KEY), GidHolder.getGid (),
+                    TENANT.get ()}).get (5, TimeUnit.SECONDS);
+            assertThat (seen).containsExactly ("gid-1", "holder-1", "tenant-1");
+
+            MDC.remove (SID_KEY);
+            GidHolder.removeGid ();
+            TENANT.remove ();
+            String[] after = executor.submit (() -> new String[] {MDC.get (SID_KEY), GidHolder.getGid (),
+                    TENANT.get ()}).get (5, TimeUnit.SECONDS);
+            assertThat (after).containsExactly ("worker", null, "workerTenant");
+        } finally {
+            ThreadContextPropagators.unregister (tenant);
+            MDC.remove (SID_KEY);
+            GidHolder.removeGid ();
+            TENANT.remove ();
+            executor.shutdown ();
+        }
+    }
+
+    @Test
+    public void completableFutureTest () throws Exception {
+        ExecutorService executor = MonitoredExecutors.newSingleThreadExecutor ();
+        try {
+            GidHolder.setGid ("async-gid");
+            String gid = CompletableFuture.supplyAsync (GidHolder::getGid,
+                                                        ThreadContextPropagators.wrap (executor))
+                    .thenApplyAsync (value -> value + "/" + GidHolder.getGid (),
+                                     ThreadContextPropagators.wrap (executor))
+                    .get (5, TimeUnit.SECONDS);
+            assertThat (gid).isEqualTo ("async-gid/async-gid");
+        } finally {
+            GidHolder.removeGid ();
+            executor.shutdown ();
+        }
+    }
+}
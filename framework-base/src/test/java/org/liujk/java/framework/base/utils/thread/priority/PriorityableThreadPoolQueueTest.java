@@ -0,0 +1,153 @@
+package org.liujk.java.framework.base.utils.thread.priority;
+
+import org.junit.Test;
+import org.liujk.java.framework.base.utils.thread.priority.Priorityable.Priority;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PriorityableThreadPoolQueueTest {
+
+    @Test
+    public void weightedRoundRobinTest () throws Exception {
+        PriorityableThreadPoolQueue queue = new PriorityableThreadPoolQueue (100);
+        queue.setAgingTime (0, TimeUnit.SECONDS);
+        for (int i = 0; i < 12; i++) {
+            queue.offer (task (Priority.LOWEST));
+            queue.offer (task (Priority.NORMAL));
+            queue.offer (task (Priority.HIGHEST));
+        }
+        assertThat (queue.size ()).isEqualTo (36);
+        assertThat (queue.remainingCapacity ()).isEqualTo (64);
+        int[] counts = new int[3];
+        for (int i = 0; i < 12; i++) {
+            counts[((Priorityable) queue.take ()).getPriorityLevel ()]++;
+        }
+        assertThat (counts).containsExactly (7, 3, 2);
+
+        // 只剩低级别的任务时直接返回
+        PriorityableThreadPoolQueue lowOnly = new PriorityableThreadPoolQueue (10);
+        Runnable low = task (Priority.LOWEST);
+        lowOnly.offer (low);
+        assertThat (lowOnly.poll (1, TimeUnit.SECONDS)).isSameAs (low);
+    }
+
+    @Test
+    public void drainToAndRemoveTest () {
+        PriorityableThreadPoolQueue queue = new PriorityableThreadPoolQueue (3);
+        Runnable high = task (Priority.HIGHEST);
+        Runnable normal = new Runnable () {
+            @Override
+            public void run () {
+            }
+        };
+        Runnable low = task (Priority.LOWEST);
+        assertThat (queue.offer (low)).isTrue ();
+        assertThat (queue.offer (normal)).isTrue ();
+        assertThat (queue.offer (high)).isTrue ();
+        assertThat (queue.offer (task (Priority.HIGHEST))).isFalse ();
+        assertThat (queue.size (1)).isEqualTo (1);
+        assertThat (queue.peek ()).isSameAs (high);
+        assertThat (queue).containsExactly (high, normal, low);
+
+        assertThat (queue.remove (normal)).isTrue ();
+        List<Runnable> drained = new ArrayList<> ();
+        assertThat (queue.drainTo (drained)).isEqualTo (2);
+        assertThat (drained).containsExactly (high, low);
+        assertThat (queue.isEmpty ()).isTrue ();
+    }
+
+    @Test
+    public void agingTest () throws Exception {
+        PriorityableThreadPoolQueue queue = new PriorityableThreadPoolQueue (100, 8, 1, 1, 1);
+        assertThat (queue.getLevels ()).isEqualTo (4);
+        queue.setAgingTime (20, TimeUnit.MILLISECONDS);
+        Runnable old = level (3);
+        queue.offer (old);
+        Thread.sleep (50);
+        queue.offer (level (0));
+        // 第一次出队时老化提升到第2级
+        queue.poll ();
+        assertThat (queue.size (2)).isEqualTo (1);
+        Thread.sleep (50);
+        queue.offer (level (0));
+        queue.offer (level (0));
+        queue.poll ();
+        // 再次老化提升到第二级，但不会提升到最高级别
+        assertThat (queue.size (1)).isEqualTo (1);
+        assertThat (queue.size (2)).isEqualTo (0);
+        assertThat (queue.size (3)).isEqualTo (0);
+        List<Runnable> rest = new ArrayList<> ();
+        queue.drainTo (rest);
+        assertThat (rest).contains (old);
+    }
+
+    @Test
+    public void executorTest () throws Exception {
+        PriorityableThreadPoolExecutor executor = new PriorityableThreadPoolExecutor (1, 1, 60, TimeUnit.SECONDS);
+        final CountDownLatch release = new CountDownLatch (1);
+        final List<Priority> order = Collections.synchronizedList (new ArrayList<Priority> ());
+        try {
+            executor.execute (() -> {
+                try {
+                    release.await ();
+                } catch (InterruptedException e) {
+                    Thread.currentThread ().interrupt ();
+                }
+            });
+            List<Future<?>> futures = new ArrayList<> ();
+            for (int i = 0; i < 5; i++) {
+                futures.add (executor.submit (new PriorityRunnableWrapper (Priority.LOWEST,
+                                                                           () -> order.add (Priority.LOWEST))));
+            }
+            futures.add (executor.submit (new PriorityRunnableWrapper (Priority.HIGHEST,
+                                                                       () -> order.add (Priority.HIGHEST))));
+            release.countDown ();
+            for (Future<?> future : futures) {
+                future.get (5, TimeUnit.SECONDS);
+            }
+            // submit后仍保留优先级，饱和时最高优先级的任务先执行
+            assertThat (order.get (0)).isEqualTo (Priority.HIGHEST);
+            assertThat (order).hasSize (6);
+        } finally {
+            executor.shutdown ();
+        }
+    }
+
+    private static Runnable task (Priority priority) {
+        return new PriorityRunnableWrapper (priority, () -> {
+        });
+    }
+
+    private static Runnable level (int level) {
+        return new LevelTask (level);
+    }
+
+    private static class LevelTask implements Runnable, Priorityable {
+        private final int level;
+
+        LevelTask (int level) {
+            this.level = level;
+        }
+
+        @Override
+        public Priority getPriority () {
+            return Priority.NORMAL;
+        }
+
+        @Override
+        public int getPriorityLevel () {
+            return level;
+        }
+
+        @Override
+        public void run () {
+        }
+    }
+}
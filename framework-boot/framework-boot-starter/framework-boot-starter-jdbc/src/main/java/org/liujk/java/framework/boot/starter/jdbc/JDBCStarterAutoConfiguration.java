@@ -1,5 +1,6 @@
 package org.liujk.java.framework.boot.starter.jdbc;
 
+import org.liujk.java.framework.base.utils.id.SegmentIdAllocator;
 import org.liujk.java.framework.boot.starter.jdbc.config.JDBCProperties;
 import org.liujk.java.framework.boot.starter.jdbc.druid.DruidProperties;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,4 +24,10 @@ public class JDBCStarterAutoConfiguration {
         return druidProperties.build();
     }
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = JDBCProperties.PREFIX, name = "segmentIdEnable")
+    public SegmentIdAllocator segmentIdAllocator(DataSource dataSource) {
+        return new SegmentIdAllocator(dataSource, druidProperties.getSegmentIdTable());
+    }
+
 }
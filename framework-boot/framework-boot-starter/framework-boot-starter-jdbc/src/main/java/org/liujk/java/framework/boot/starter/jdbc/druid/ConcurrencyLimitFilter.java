@@ -0,0 +1,123 @@
+package org.liujk.java.framework.boot.starter.jdbc.druid;
+
+import com.alibaba.druid.filter.FilterAdapter;
+import com.alibaba.druid.filter.FilterChain;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.pool.DruidPooledConnection;
+import org.liujk.java.framework.base.utils.thread.AdaptiveConcurrencyLimiter;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对获取数据库连接做自适应并发限制的druid过滤器
+ * <p>
+ * 从获取连接到归还连接占用一个许可，持有连接的时间作为RTT，数据库变慢时并发限制随之下降，
+ * 超过限制时立即抛出SQLTransientConnectionException，而不是在连接池中等待maxWait。
+ * <p>
+ * 许可跟随每次借出，被连接池当作泄漏回收(removeAbandoned)的连接按失败释放许可；
+ * 出错后被禁用的连接关闭时不经过过滤器，超过限制时先清理这些连接占用的许可再重试。
+ */
+public class ConcurrencyLimitFilter extends FilterAdapter {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Map<DruidPooledConnection, Borrow> borrows = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimitFilter(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public DruidPooledConnection dataSource_getConnection(FilterChain chain, DruidDataSource dataSource,
+                                                         long maxWaitMillis) throws SQLException {
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null && releaseStale() > 0) {
+            permit = limiter.tryAcquire();
+        }
+        if (permit == null) {
+            throw new SQLTransientConnectionException("获取数据库连接失败，超过并发限制:" + limiter.getLimit());
+        }
+        DruidPooledConnection connection;
+        try {
+            connection = chain.dataSource_connect(dataSource, maxWaitMillis);
+        } catch (SQLException | RuntimeException e) {
+            // 获取连接超时，减少并发限制
+            permit.onDropped();
+            throw e;
+        }
+        borrows.put(connection, new Borrow(permit, dataSource.isRemoveAbandoned()));
+        return connection;
+    }
+
+    @Override
+    public void dataSource_releaseConnection(FilterChain chain, DruidPooledConnection connection)
+            throws SQLException {
+        Borrow borrow = borrows.remove(connection);
+        // 归还时连接池会关闭traceEnable，需要在归还前判断
+        boolean abandoned = borrow != null && borrow.isAbandoned(connection);
+        try {
+            chain.dataSource_recycle(connection);
+        } finally {
+            if (borrow != null) {
+                if (abandoned) {
+                    borrow.permit.onDropped();
+                } else {
+                    borrow.permit.onSuccess();
+                }
+            }
+        }
+    }
+
+    /**
+     * 释放已禁用或已被回收的连接占用的许可
+     *
+     * @return 释放的许可数
+     */
+    int releaseStale() {
+        int released = 0;
+        for (Map.Entry<DruidPooledConnection, Borrow> entry : borrows.entrySet()) {
+            DruidPooledConnection connection = entry.getKey();
+            if ((connection.isDisable() || entry.getValue().isAbandoned(connection))
+                    && borrows.remove(connection, entry.getValue())) {
+                entry.getValue().permit.onDropped();
+                released++;
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public void destroy() {
+        for (Borrow borrow : borrows.values()) {
+            borrow.permit.onIgnore();
+        }
+        borrows.clear();
+        limiter.close();
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * 一次借出连接占用的许可
+     */
+    private static final class Borrow {
+        private final AdaptiveConcurrencyLimiter.Permit permit;
+        /**
+         * 借出时连接池是否开启了removeAbandoned，开启时连接池借出连接会打开traceEnable，回收泄漏连接时关闭
+         */
+        private final boolean removeAbandoned;
+
+        Borrow(AdaptiveConcurrencyLimiter.Permit permit, boolean removeAbandoned) {
+            this.permit = permit;
+            this.removeAbandoned = removeAbandoned;
+        }
+
+        boolean isAbandoned(DruidPooledConnection connection) {
+            return connection.isAbandonded() || (removeAbandoned && !connection.isTraceEnable());
+        }
+    }
+}
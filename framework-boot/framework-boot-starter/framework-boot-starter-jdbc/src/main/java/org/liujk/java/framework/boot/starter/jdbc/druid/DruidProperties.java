@@ -2,6 +2,8 @@ package org.liujk.java.framework.boot.starter.jdbc.druid;
 
 import com.alibaba.druid.pool.DruidDataSource;
 import lombok.Data;
+import org.liujk.java.framework.base.utils.id.SegmentIdAllocator;
+import org.liujk.java.framework.base.utils.thread.AdaptiveConcurrencyLimiter;
 import org.liujk.java.framework.boot.starter.jdbc.config.JDBCProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -129,6 +131,21 @@ public class DruidProperties {
      */
     private boolean logAbandoned = false;
 
+    /**
+     * 是否启用号段ID分配器
+     */
+    private boolean segmentIdEnable = false;
+
+    /**
+     * 号段ID分配器使用的号段表
+     */
+    private String segmentIdTable = SegmentIdAllocator.DEFAULT_TABLE_NAME;
+
+    /**
+     * 是否对获取连接启用自适应并发限制，数据库变慢时超过限制的请求立即失败，最大限制为maxActive
+     */
+    private boolean concurrencyLimitEnable = false;
+
 
     private ClassLoader beanClassLoader;
 
@@ -243,6 +260,12 @@ public class DruidProperties {
         Properties properties = new Properties();
         dataSource.setConnectProperties(properties);
 
+        if (this.isConcurrencyLimitEnable()) {
+            int maxLimit = this.getMaxActive();
+            dataSource.getProxyFilters().add(new ConcurrencyLimitFilter(new AdaptiveConcurrencyLimiter("jdbc",
+                    Math.min(AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, maxLimit), 1, maxLimit)));
+        }
+
         return dataSource;
     }
 
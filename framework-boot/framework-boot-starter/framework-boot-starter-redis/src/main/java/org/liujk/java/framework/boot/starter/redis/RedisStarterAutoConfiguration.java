@@ -1,11 +1,13 @@
 package org.liujk.java.framework.boot.starter.redis;
 
+import org.liujk.java.framework.base.utils.thread.AdaptiveConcurrencyLimiter;
 import org.liujk.java.framework.boot.starter.redis.config.RedisProperties;
 import org.liujk.java.framework.boot.starter.redis.message.produce.MessageListenerAnnotationBeanPostProcessor;
 import org.liujk.java.framework.boot.starter.redis.message.produce.MessageProducer;
 import org.liujk.java.framework.boot.starter.redis.message.produce.RedisMessageProducer;
 import org.liujk.java.framework.boot.starter.redis.serializer.KryoSerializer;
 import org.liujk.java.framework.boot.starter.redis.serializer.RedisKeySerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -57,8 +59,21 @@ public class RedisStarterAutoConfiguration {
     @Bean
     @ConditionalOnProperty(prefix = RedisProperties.PREFIX, name = {"messageEnable", "sentinel"})
     public MessageProducer redisMessageProducer(RedisProperties redisProperties,
-                                                RedisConnectionFactory redisConnectionFactory) {
-        return new RedisMessageProducer(redisProperties.getNamespace(), redisConnectionFactory);
+                                                RedisConnectionFactory redisConnectionFactory,
+                                                @Qualifier("redisConcurrencyLimiter")
+                                                        ObjectProvider<AdaptiveConcurrencyLimiter> concurrencyLimiter) {
+        RedisMessageProducer producer = new RedisMessageProducer(redisProperties.getNamespace(),
+                redisConnectionFactory);
+        producer.setConcurrencyLimiter(concurrencyLimiter.getIfAvailable());
+        return producer;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = RedisProperties.PREFIX, name = {"messageEnable", "sentinel", "concurrencyLimitEnable"})
+    public AdaptiveConcurrencyLimiter redisConcurrencyLimiter(RedisProperties redisProperties) {
+        int maxLimit = Math.max(1, redisProperties.getPool().getMaxTotal());
+        return new AdaptiveConcurrencyLimiter("redisProducer",
+                Math.min(AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT, maxLimit), 1, maxLimit);
     }
 
     @Bean
@@ -75,6 +75,12 @@ public class RedisProperties {
      */
     private String threadPoolBeanName;
 
+    /**
+     * 是否对消息发送启用自适应并发限制，Redis变慢时超过限制的发送立即失败，默认：false
+     * 最大限制为连接池的最大连接数
+     */
+    private boolean concurrencyLimitEnable = false;
+
     /**
      * 连接池属性
      */
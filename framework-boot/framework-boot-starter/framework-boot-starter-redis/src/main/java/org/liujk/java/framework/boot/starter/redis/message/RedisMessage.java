@@ -16,6 +16,8 @@ public class RedisMessage extends SerializableObject {
 
     private String bodyType;            //消息体类型
 
+    private String gid;                 //发送消息时的GID，监听方处理消息时设置到线程上下文中
+
     public String getMsgId() {
         return msgId;
     }
@@ -47,4 +49,12 @@ public class RedisMessage extends SerializableObject {
     public void setBodyType(String bodyType) {
         this.bodyType = bodyType;
     }
+
+    public String getGid() {
+        return gid;
+    }
+
+    public void setGid(String gid) {
+        this.gid = gid;
+    }
 }
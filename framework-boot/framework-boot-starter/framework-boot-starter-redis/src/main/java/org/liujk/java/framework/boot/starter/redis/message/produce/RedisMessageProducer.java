@@ -1,34 +1,74 @@
 package org.liujk.java.framework.boot.starter.redis.message.produce;
 
 import com.alibaba.fastjson.JSON;
+import org.liujk.java.framework.base.utils.id.GidHolder;
 import org.liujk.java.framework.base.utils.lang.StringUtils;
+import org.liujk.java.framework.base.utils.thread.AdaptiveConcurrencyLimiter;
 import org.liujk.java.framework.boot.starter.redis.message.RedisMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.util.Assert;
 import redis.clients.jedis.Jedis;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
+
 public class RedisMessageProducer implements MessageProducer {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     private RedisConnectionFactory connectionFactory;
     private String namespace;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
 
     public RedisMessageProducer(String namespace, RedisConnectionFactory connectionFactory) {
         this.connectionFactory = connectionFactory;
         this.namespace = namespace;
     }
 
+    /**
+     * 设置自适应并发限制器，Redis变慢时超过限制的发送立即抛出RejectedExecutionException
+     *
+     * @param concurrencyLimiter 为null时不限制
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
     @Override
     public Boolean publish(String channel, RedisMessage msg) {
         Assert.notNull(channel, "消息通道不能为空！");
         Assert.notNull(msg, "不能发送空消息！");
+        if (msg.getGid() == null) {
+            msg.setGid(currentGid());
+        }
         logger.debug("向通道[{}]发送消息:{}", channel, msg);
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter == null) {
+            doPublish(channel, msg);
+            return true;
+        }
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            throw new RejectedExecutionException("向通道[" + channel + "]发送消息失败，超过并发限制:" + limiter.getLimit());
+        }
+        try {
+            doPublish(channel, msg);
+            permit.onSuccess();
+        } catch (RuntimeException e) {
+            // 连接超时、连接池耗尽等，减少并发限制
+            permit.onDropped();
+            throw e;
+        }
+        return true;
+    }
+
+    private void doPublish(String channel, RedisMessage msg) {
         Jedis jedis = (Jedis) connectionFactory.getConnection().getNativeConnection();
         jedis.publish(serialize(getPrefixKey() + channel), JSON.toJSONBytes(msg));
-        return true;
     }
 
     @Override
@@ -57,6 +97,11 @@ public class RedisMessageProducer implements MessageProducer {
         }
     }
 
+    private String currentGid() {
+        String gid = MDC.get(SID_KEY);
+        return gid != null ? gid : GidHolder.getGid();
+    }
+
     private String getPrefixKey() {
         return this.namespace + ":";
     }
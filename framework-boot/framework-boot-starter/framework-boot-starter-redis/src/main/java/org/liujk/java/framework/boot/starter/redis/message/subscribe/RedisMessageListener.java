@@ -1,7 +1,10 @@
 package org.liujk.java.framework.boot.starter.redis.message.subscribe;
 
 import com.alibaba.fastjson.JSON;
+import org.liujk.java.framework.base.utils.id.GidHolder;
 import org.liujk.java.framework.base.utils.lang.ToString;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextPropagators;
+import org.liujk.java.framework.base.utils.thread.context.ThreadContextSnapshot;
 import org.liujk.java.framework.boot.starter.redis.message.RedisMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +15,8 @@ import org.springframework.messaging.handler.HandlerMethod;
 
 import java.lang.reflect.InvocationTargetException;
 
+import static org.liujk.java.framework.base.api.request.Base.SID_KEY;
+
 public class RedisMessageListener implements MessageListener {
 
     private Logger logger = LoggerFactory.getLogger(RedisMessageListener.class);
@@ -33,8 +38,13 @@ public class RedisMessageListener implements MessageListener {
 
 
     private void handle(Message message) {
+        ThreadContextSnapshot previous = ThreadContextPropagators.captureAll();
         try {
             RedisMessage redisMessage = JSON.parseObject(message.getBody(), RedisMessage.class);
+            if (redisMessage.getGid() != null) {
+                MDC.put(SID_KEY, redisMessage.getGid());
+                GidHolder.setGid(redisMessage.getGid());
+            }
             if (enableLog) {
                 logger.info("收到消息:{}",
                         ToString.toString(redisMessage));
@@ -51,6 +61,8 @@ public class RedisMessageListener implements MessageListener {
                     handlerMethod.getMethod().getName());
         } finally {
             MDC.clear();
+            // 恢复处理消息前的线程上下文
+            previous.apply();
         }
     }
 
@@ -1,9 +1,13 @@
 package org.liujk.java.framework.boot.starter.web;
 
+import org.liujk.java.framework.base.utils.ratelimit.KeyedRateLimiter;
+import org.liujk.java.framework.base.utils.ratelimit.TokenBucketRateLimiter;
+import org.liujk.java.framework.boot.starter.web.common.RateLimitFilter;
 import org.liujk.java.framework.boot.starter.web.common.ResponseHeaderFilter;
 import org.liujk.java.framework.boot.starter.web.config.WebProperties;
 import org.liujk.java.framework.boot.starter.web.config.WebRequestProperties;
 import org.liujk.java.framework.boot.starter.web.config.WebResponseProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -32,4 +36,22 @@ public class WebStarterAutoConfiguration {
         return responseHeaderFilter;
     }
 
+    /**
+     * 本实例的请求限流
+     *
+     * @param webRequestProperties
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = WebRequestProperties.PREFIX, name = "rateLimitEnable", havingValue = "true")
+    public RateLimitFilter rateLimitFilter(WebRequestProperties webRequestProperties) {
+        double permitsPerSecond = webRequestProperties.getRateLimitPermitsPerSecond();
+        int burst = webRequestProperties.getRateLimitBurst() > 0 ? webRequestProperties.getRateLimitBurst()
+                : (int) Math.max(1, permitsPerSecond);
+        if (webRequestProperties.isRateLimitPerClient()) {
+            return new RateLimitFilter(KeyedRateLimiter.<String>tokenBucket("webRequest", permitsPerSecond, burst));
+        }
+        return new RateLimitFilter(new TokenBucketRateLimiter("webRequest", permitsPerSecond, burst));
+    }
+
 }
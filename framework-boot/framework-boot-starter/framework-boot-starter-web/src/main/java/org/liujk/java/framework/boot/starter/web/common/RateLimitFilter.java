@@ -0,0 +1,76 @@
+package org.liujk.java.framework.boot.starter.web.common;
+
+import org.liujk.java.framework.base.utils.ratelimit.KeyedRateLimiter;
+import org.liujk.java.framework.base.utils.ratelimit.RateLimiter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 本实例的请求限流,超过限制的请求直接返回429,不进入业务处理
+ */
+public class RateLimitFilter extends OncePerRequestFilter implements Ordered, DisposableBean {
+
+    private int order = Ordered.HIGHEST_PRECEDENCE;
+
+    private RateLimiter rateLimiter;
+
+    private KeyedRateLimiter<String> clientRateLimiter;
+
+    /**
+     * 所有请求共用一个限流器
+     */
+    public RateLimitFilter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * 按客户端IP分别限流
+     */
+    public RateLimitFilter(KeyedRateLimiter<String> clientRateLimiter) {
+        this.clientRateLimiter = clientRateLimiter;
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException {
+        boolean permitted = clientRateLimiter != null
+                ? clientRateLimiter.tryAcquire(String.valueOf(request.getRemoteAddr()))
+                : rateLimiter.tryAcquire();
+        if (!permitted) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("请求[" + request.getRequestURI() + "]被限流,客户端:" + request.getRemoteAddr());
+            }
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+        if (clientRateLimiter != null) {
+            clientRateLimiter.close();
+        } else {
+            rateLimiter.close();
+        }
+    }
+
+    public void setOrder(int order) {
+        this.order = order;
+    }
+}
@@ -1,10 +1,32 @@
 package org.liujk.java.framework.boot.starter.web.config;
 
+import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+@Data
 @ConfigurationProperties(WebRequestProperties.PREFIX)
 public class WebRequestProperties {
 
     public static final String PREFIX = "starter.web.request";
 
+    /**
+     * 是否启用本实例的请求限流
+     */
+    private boolean rateLimitEnable = false;
+
+    /**
+     * 每秒允许的请求数
+     */
+    private double rateLimitPermitsPerSecond = 1000;
+
+    /**
+     * 允许的突发请求数,0=每秒允许的请求数
+     */
+    private int rateLimitBurst = 0;
+
+    /**
+     * 是否按客户端IP分别限流,false=所有请求共用一个限流器
+     */
+    private boolean rateLimitPerClient = false;
+
 }